@@ -0,0 +1,295 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares JMH JSON results with a baseline in the same format, as done by the
+ * {@code perf-regression} profile. The check fails when the allocation per
+ * operation of a benchmark rises by more than the allocation tolerance, or
+ * when a benchmark of the baseline did not run. Throughput is only reported,
+ * unless a throughput tolerance is given: a short single fork run differs by
+ * far more than any useful tolerance between runs and machines, while
+ * allocation per operation stays within a few percent.
+ * <p>
+ * Arguments: result file, baseline file, throughput tolerance ({@code off},
+ * or 0.25 for 25%), allocation tolerance and whether to replace the baseline
+ * with the results instead of comparing them. A baseline is written without
+ * the path of the JVM which recorded it.
+ */
+public final class BenchmarkRegressionCheck
+{
+    private static final String ALLOCATION_METRIC = "gc.alloc.rate.norm";
+
+    private static final String NO_TOLERANCE = "off";
+
+    private static final String ROW_FORMAT = "%-72s %-10s %14s %14s %9s  %s";
+
+    private BenchmarkRegressionCheck()
+    {
+    }
+
+    public static void main( String[] args )
+        throws IOException
+    {
+        if ( args.length < 4 )
+        {
+            throw new IllegalArgumentException( "Usage: BenchmarkRegressionCheck <results> <baseline> " +
+                "<throughputTolerance> <allocationTolerance> [updateBaseline]" );
+        }
+
+        File results = new File( args[0] );
+        File baseline = new File( args[1] );
+        double throughputTolerance = NO_TOLERANCE.equalsIgnoreCase( args[2] ) ? Double.NaN :
+            Double.parseDouble( args[2] );
+        double allocationTolerance = Double.parseDouble( args[3] );
+
+        if ( args.length > 4 && Boolean.parseBoolean( args[4] ) )
+        {
+            writeBaseline( results, baseline );
+            System.out.println( "Baseline " + baseline + " updated from " + results );
+            return;
+        }
+
+        List<String> regressions = compare( read( baseline ), read( results ), throughputTolerance,
+            allocationTolerance );
+
+        if ( !regressions.isEmpty() )
+        {
+            System.err.println();
+            System.err.println( String.format( Locale.US, "Performance regressions (tolerance %s throughput, " +
+                "%.0f%% allocation):", Double.isNaN( throughputTolerance ) ? NO_TOLERANCE :
+                String.format( Locale.US, "%.0f%%", throughputTolerance * 100 ), allocationTolerance * 100 ) );
+
+            for ( String regression : regressions )
+            {
+                System.err.println( "  " + regression );
+            }
+
+            System.exit( 1 );
+        }
+    }
+
+    /**
+     * Prints the comparison and returns the regressions found.
+     *
+     * @param throughputTolerance NaN to report throughput without checking it.
+     */
+    static List<String> compare( Map<String, Result> baseline, Map<String, Result> current,
+        double throughputTolerance, double allocationTolerance )
+    {
+        List<String> regressions = new ArrayList<>();
+
+        System.out.println( String.format( Locale.US, ROW_FORMAT, "Benchmark", "Metric", "Baseline", "Current",
+            "Change", "" ) );
+
+        for ( Map.Entry<String, Result> entry : baseline.entrySet() )
+        {
+            String benchmark = entry.getKey();
+            Result expected = entry.getValue();
+            Result actual = current.get( benchmark );
+
+            if ( actual == null )
+            {
+                System.out.println( String.format( Locale.US, ROW_FORMAT, benchmark, "", "", "", "", "MISSING" ) );
+                regressions.add( benchmark + " did not run" );
+                continue;
+            }
+
+            double throughputChange = change( expected.score, actual.score );
+            boolean slower = !Double.isNaN( throughputTolerance ) && throughputChange < -throughputTolerance;
+
+            System.out.println( row( benchmark, expected.unit, expected.score, actual.score, throughputChange,
+                slower ) );
+
+            if ( slower )
+            {
+                regressions.add( String.format( Locale.US, "%s: %.3f %s, was %.3f (%+.1f%%)", benchmark,
+                    actual.score, actual.unit, expected.score, throughputChange * 100 ) );
+            }
+
+            if ( expected.allocation != null && actual.allocation != null && expected.allocation > 0 )
+            {
+                double allocationChange = change( expected.allocation, actual.allocation );
+                boolean moreAllocation = allocationChange > allocationTolerance;
+
+                System.out.println( row( "", "B/op", expected.allocation, actual.allocation, allocationChange,
+                    moreAllocation ) );
+
+                if ( moreAllocation )
+                {
+                    regressions.add( String.format( Locale.US, "%s: %.0f B/op allocated, was %.0f (%+.1f%%)",
+                        benchmark, actual.allocation, expected.allocation, allocationChange * 100 ) );
+                }
+            }
+        }
+
+        for ( String benchmark : current.keySet() )
+        {
+            if ( !baseline.containsKey( benchmark ) )
+            {
+                System.out.println( String.format( Locale.US, ROW_FORMAT, benchmark, "", "", "", "",
+                    "NOT IN BASELINE" ) );
+            }
+        }
+
+        return regressions;
+    }
+
+    private static String row( String benchmark, String unit, double expected, double actual, double change,
+        boolean regression )
+    {
+        return String.format( Locale.US, ROW_FORMAT, benchmark, unit, String.format( Locale.US, "%.3f", expected ),
+            String.format( Locale.US, "%.3f", actual ), String.format( Locale.US, "%+.1f%%", change * 100 ),
+            regression ? "REGRESSION" : "" );
+    }
+
+    private static double change( double expected, double actual )
+    {
+        return (actual - expected) / expected;
+    }
+
+    /**
+     * Copies the results to the baseline, leaving out the JVM path, which
+     * only tells on which machine the baseline was recorded.
+     */
+    private static void writeBaseline( File results, File baseline )
+        throws IOException
+    {
+        JsonArray runs;
+
+        try ( Reader reader = new InputStreamReader( Files.newInputStream( results.toPath() ),
+            StandardCharsets.UTF_8 ) )
+        {
+            runs = new JsonParser().parse( reader ).getAsJsonArray();
+        }
+
+        for ( JsonElement run : runs )
+        {
+            run.getAsJsonObject().remove( "jvm" );
+        }
+
+        try ( Writer writer = new OutputStreamWriter( Files.newOutputStream( baseline.toPath() ),
+            StandardCharsets.UTF_8 ) )
+        {
+            new GsonBuilder().setPrettyPrinting().create().toJson( runs, writer );
+        }
+    }
+
+    /**
+     * Reads JMH JSON results, keyed by benchmark name and parameters.
+     */
+    static Map<String, Result> read( File file )
+        throws IOException
+    {
+        Map<String, Result> results = new LinkedHashMap<>();
+
+        try ( Reader reader = new InputStreamReader( Files.newInputStream( file.toPath() ),
+            StandardCharsets.UTF_8 ) )
+        {
+            JsonArray runs = new JsonParser().parse( reader ).getAsJsonArray();
+
+            for ( JsonElement element : runs )
+            {
+                JsonObject run = element.getAsJsonObject();
+                JsonObject primary = run.getAsJsonObject( "primaryMetric" );
+                Double allocation = null;
+
+                if ( run.has( "secondaryMetrics" ) && run.getAsJsonObject( "secondaryMetrics" )
+                    .has( ALLOCATION_METRIC ) )
+                {
+                    allocation = run.getAsJsonObject( "secondaryMetrics" ).getAsJsonObject( ALLOCATION_METRIC )
+                        .get( "score" ).getAsDouble();
+                }
+
+                results.put( key( run ), new Result( primary.get( "score" ).getAsDouble(),
+                    primary.get( "scoreUnit" ).getAsString(), allocation ) );
+            }
+        }
+
+        return results;
+    }
+
+    private static String key( JsonObject run )
+    {
+        String benchmark = run.get( "benchmark" ).getAsString();
+        StringBuilder key = new StringBuilder( benchmark.substring( benchmark.lastIndexOf( '.',
+            benchmark.lastIndexOf( '.' ) - 1 ) + 1 ) );
+
+        if ( run.has( "params" ) )
+        {
+            Map<String, String> params = new TreeMap<>();
+
+            for ( Map.Entry<String, JsonElement> param : run.getAsJsonObject( "params" ).entrySet() )
+            {
+                params.put( param.getKey(), param.getValue().getAsString() );
+            }
+
+            key.append( params );
+        }
+
+        return key.toString();
+    }
+
+    static final class Result
+    {
+        private final double score;
+
+        private final String unit;
+
+        private final Double allocation;
+
+        Result( double score, String unit, Double allocation )
+        {
+            this.score = score;
+            this.unit = unit;
+            this.allocation = allocation;
+        }
+    }
+}
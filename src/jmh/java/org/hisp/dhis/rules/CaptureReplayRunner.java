@@ -0,0 +1,152 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.capture.CaptureReader;
+import org.hisp.dhis.rules.capture.CaptureReplay;
+import org.hisp.dhis.rules.capture.CaptureWriter;
+import org.hisp.dhis.rules.models.RuleEvent;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.List;
+
+/**
+ * Replays a capture written by {@link CaptureWriter} at full speed and reports
+ * throughput, latency percentiles and effect mismatches. Options:
+ * <ul>
+ * <li>{@code -capture <file>}: capture to replay, {@code target/capture.bin} by default</li>
+ * <li>{@code -record <n>}: first records n synthetic enrollments from {@link ProgramWorkload} to the file</li>
+ * <li>{@code -anonymize}: anonymizes values while recording</li>
+ * <li>{@code -warmup <n>}: replays the capture n times before the measured replay, 1 by default</li>
+ * </ul>
+ * Run with
+ * {@code mvn -Pbenchmark verify -Djmh.main=org.hisp.dhis.rules.CaptureReplayRunner -Djmh.args="-record 100"}.
+ * Other arguments, such as the JMH result options added by the profile, are ignored.
+ */
+public final class CaptureReplayRunner
+{
+    private CaptureReplayRunner()
+    {
+    }
+
+    public static void main( String[] args )
+        throws Exception
+    {
+        File capture = new File( "target/capture.bin" );
+        int recordCount = 0;
+        boolean anonymize = false;
+        int warmup = 1;
+
+        for ( int i = 0; i < args.length; i++ )
+        {
+            if ( "-capture".equals( args[i] ) )
+            {
+                capture = new File( args[++i] );
+            }
+            else if ( "-record".equals( args[i] ) )
+            {
+                recordCount = Integer.parseInt( args[++i] );
+            }
+            else if ( "-anonymize".equals( args[i] ) )
+            {
+                anonymize = true;
+            }
+            else if ( "-warmup".equals( args[i] ) )
+            {
+                warmup = Integer.parseInt( args[++i] );
+            }
+        }
+
+        if ( recordCount > 0 )
+        {
+            record( capture, recordCount, anonymize );
+            System.out.println( "Recorded " + recordCount + " enrollments to " + capture + " (" +
+                capture.length() + " bytes)" );
+        }
+
+        for ( int i = 0; i < warmup; i++ )
+        {
+            replay( capture );
+        }
+
+        CaptureReplay.Report report = replay( capture );
+        System.out.println( report );
+
+        for ( String mismatch : report.mismatches() )
+        {
+            System.out.println( "  " + mismatch );
+        }
+
+        if ( !report.mismatches().isEmpty() )
+        {
+            System.exit( 1 );
+        }
+    }
+
+    private static CaptureReplay.Report replay( File capture )
+        throws Exception
+    {
+        try ( CaptureReader reader = new CaptureReader( new BufferedInputStream( new FileInputStream( capture ) ) ) )
+        {
+            return CaptureReplay.replay( reader );
+        }
+    }
+
+    /**
+     * Records, for each enrollment, the evaluation of its target events, of the
+     * enrollment itself and of all its events at once. Data value types depend
+     * on the workload seed, so each enrollment comes with its own context.
+     */
+    static void record( File capture, int enrollmentCount, boolean anonymize )
+        throws Exception
+    {
+        try ( CaptureWriter writer = new CaptureWriter(
+            new BufferedOutputStream( new FileOutputStream( capture ) ), anonymize ) )
+        {
+            for ( int i = 0; i < enrollmentCount; i++ )
+            {
+                ProgramWorkload workload = ProgramWorkload.builder().seed( i ).targetEvents( 2 ).build();
+                RuleEngine engine = workload.engineBuilder( workload.context() ).recorder( writer ).build();
+                List<RuleEvent> targetEvents = workload.targetEvents();
+
+                for ( RuleEvent event : targetEvents )
+                {
+                    engine.evaluate( event ).call();
+                }
+
+                engine.evaluate( workload.enrollment() ).call();
+                engine.evaluate().call();
+            }
+        }
+    }
+}
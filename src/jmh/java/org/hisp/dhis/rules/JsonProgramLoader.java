@@ -0,0 +1,347 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.hisp.dhis.rules.models.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads program metadata and enrollment data from JSON for
+ * {@link RuleEngineLoadDriver}. Action and variable source types use the DHIS2
+ * names, so values exported from a server can be pasted in; dates are
+ * {@code yyyy-MM-dd}. See {@code src/jmh/resources/load} for examples of both
+ * files.
+ */
+final class JsonProgramLoader
+{
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat( "yyyy-MM-dd" );
+
+    /**
+     * Metadata file: {@code rules}, {@code variables}, and optionally
+     * {@code constants} (uid to value) and {@code supplementaryData} (key to
+     * list of values).
+     */
+    RuleEngineContext context( File file )
+        throws IOException
+    {
+        JsonObject metadata = read( file ).getAsJsonObject();
+        List<Rule> rules = new ArrayList<>();
+        List<RuleVariable> variables = new ArrayList<>();
+
+        for ( JsonElement rule : array( metadata, "rules" ) )
+        {
+            rules.add( rule( rule.getAsJsonObject() ) );
+        }
+
+        for ( JsonElement variable : array( metadata, "variables" ) )
+        {
+            variables.add( variable( variable.getAsJsonObject() ) );
+        }
+
+        Map<String, String> constants = new HashMap<>();
+
+        if ( metadata.has( "constants" ) )
+        {
+            for ( Map.Entry<String, JsonElement> constant : metadata.getAsJsonObject( "constants" ).entrySet() )
+            {
+                constants.put( constant.getKey(), constant.getValue().getAsString() );
+            }
+        }
+
+        Map<String, List<String>> supplementaryData = new HashMap<>();
+
+        if ( metadata.has( "supplementaryData" ) )
+        {
+            for ( Map.Entry<String, JsonElement> entry : metadata.getAsJsonObject( "supplementaryData" )
+                .entrySet() )
+            {
+                List<String> values = new ArrayList<>();
+
+                for ( JsonElement value : entry.getValue().getAsJsonArray() )
+                {
+                    values.add( value.getAsString() );
+                }
+
+                supplementaryData.put( entry.getKey(), values );
+            }
+        }
+
+        return RuleEngineContext.builder()
+            .rules( rules )
+            .ruleVariables( variables )
+            .constantsValue( constants )
+            .supplementaryData( supplementaryData )
+            .build();
+    }
+
+    /**
+     * Data file: {@code enrollments}, each with its attribute values and
+     * {@code events}, oldest first.
+     */
+    List<Enrollment> enrollments( File file )
+        throws IOException
+    {
+        List<Enrollment> enrollments = new ArrayList<>();
+
+        for ( JsonElement element : array( read( file ).getAsJsonObject(), "enrollments" ) )
+        {
+            JsonObject enrollment = element.getAsJsonObject();
+            List<RuleAttributeValue> attributeValues = new ArrayList<>();
+
+            if ( enrollment.has( "attributes" ) )
+            {
+                for ( Map.Entry<String, JsonElement> attribute : enrollment.getAsJsonObject( "attributes" )
+                    .entrySet() )
+                {
+                    attributeValues.add( RuleAttributeValue.create( attribute.getKey(),
+                        attribute.getValue().getAsString() ) );
+                }
+            }
+
+            List<RuleEvent> events = new ArrayList<>();
+
+            for ( JsonElement event : array( enrollment, "events" ) )
+            {
+                events.add( event( event.getAsJsonObject() ) );
+            }
+
+            RuleEnrollment ruleEnrollment = RuleEnrollment.create( string( enrollment, "enrollment" ),
+                date( enrollment, "incidentDate" ), date( enrollment, "enrollmentDate" ),
+                RuleEnrollment.Status.valueOf( string( enrollment, "status", "ACTIVE" ) ),
+                string( enrollment, "orgUnit", "" ), optionalString( enrollment, "orgUnitCode" ),
+                attributeValues, string( enrollment, "programName", "" ) );
+
+            enrollments.add( new Enrollment( ruleEnrollment, events ) );
+        }
+
+        return enrollments;
+    }
+
+    private Rule rule( JsonObject rule )
+    {
+        List<RuleAction> actions = new ArrayList<>();
+
+        for ( JsonElement action : array( rule, "actions" ) )
+        {
+            actions.add( action( action.getAsJsonObject() ) );
+        }
+
+        return Rule.create( optionalString( rule, "programStage" ),
+            rule.has( "priority" ) ? rule.get( "priority" ).getAsInt() : null,
+            string( rule, "condition" ), actions, optionalString( rule, "name" ), string( rule, "uid" ) );
+    }
+
+    private RuleAction action( JsonObject action )
+    {
+        String type = string( action, "type" );
+        String content = optionalString( action, "content" );
+        String data = optionalString( action, "data" );
+        String field = optionalString( action, "field" );
+        AttributeType attributeType = AttributeType.valueOf( string( action, "attributeType", "UNKNOWN" ) );
+
+        switch ( type )
+        {
+        case "ASSIGN":
+            return RuleActionAssign.create( content, data, field, attributeType );
+        case "CREATEEVENT":
+            return RuleActionCreateEvent.create( content, data, string( action, "programStage" ) );
+        case "DISPLAYKEYVALUEPAIR":
+            return "INDICATORS".equals( optionalString( action, "location" ) ) ?
+                RuleActionDisplayKeyValuePair.createForIndicators( content, data ) :
+                RuleActionDisplayKeyValuePair.createForFeedback( content, data );
+        case "DISPLAYTEXT":
+            return "INDICATORS".equals( optionalString( action, "location" ) ) ?
+                RuleActionDisplayText.createForIndicators( content, data ) :
+                RuleActionDisplayText.createForFeedback( content, data );
+        case "ERRORONCOMPLETE":
+            return RuleActionErrorOnCompletion.create( content, data, field, attributeType );
+        case "HIDEFIELD":
+            return RuleActionHideField.create( content, field, attributeType );
+        case "HIDEOPTION":
+            return RuleActionHideOption.create( content, string( action, "option" ), field, attributeType );
+        case "HIDEOPTIONGROUP":
+            return RuleActionHideOptionGroup.create( content, string( action, "optionGroup" ), field,
+                attributeType );
+        case "HIDEPROGRAMSTAGE":
+            return RuleActionHideProgramStage.create( string( action, "programStage" ) );
+        case "HIDESECTION":
+            return RuleActionHideSection.create( string( action, "section" ) );
+        case "SCHEDULEMESSAGE":
+            return RuleActionScheduleMessage.create( optionalString( action, "notification" ), data );
+        case "SENDMESSAGE":
+            return RuleActionSendMessage.create( optionalString( action, "notification" ), data );
+        case "SETMANDATORYFIELD":
+            return RuleActionSetMandatoryField.create( field, attributeType );
+        case "SHOWERROR":
+            return RuleActionShowError.create( content, data, field, attributeType );
+        case "SHOWOPTIONGROUP":
+            return RuleActionShowOptionGroup.create( content, string( action, "optionGroup" ), field,
+                attributeType );
+        case "SHOWWARNING":
+            return RuleActionShowWarning.create( content, data, field, attributeType );
+        case "WARNINGONCOMPLETE":
+            return RuleActionWarningOnCompletion.create( content, data, field, attributeType );
+        default:
+            throw new IllegalArgumentException( "Unknown action type: " + type );
+        }
+    }
+
+    private RuleVariable variable( JsonObject variable )
+    {
+        String type = string( variable, "type" );
+        String name = string( variable, "name" );
+        String source = string( variable, "source", "" );
+        RuleValueType valueType = RuleValueType.valueOf( string( variable, "valueType", "TEXT" ) );
+
+        switch ( type )
+        {
+        case "DATAELEMENT_CURRENT_EVENT":
+            return RuleVariableCurrentEvent.create( name, source, valueType );
+        case "DATAELEMENT_NEWEST_EVENT_PROGRAM":
+            return RuleVariableNewestEvent.create( name, source, valueType );
+        case "DATAELEMENT_NEWEST_EVENT_PROGRAM_STAGE":
+            return RuleVariableNewestStageEvent.create( name, source, string( variable, "programStage" ),
+                valueType );
+        case "DATAELEMENT_PREVIOUS_EVENT":
+            return RuleVariablePreviousEvent.create( name, source, valueType );
+        case "TEI_ATTRIBUTE":
+            return RuleVariableAttribute.create( name, source, valueType );
+        case "CALCULATED_VALUE":
+            return RuleVariableCalculatedValue.create( name, source, valueType );
+        default:
+            throw new IllegalArgumentException( "Unknown variable type: " + type );
+        }
+    }
+
+    private RuleEvent event( JsonObject event )
+    {
+        String programStage = string( event, "programStage" );
+        Date eventDate = date( event, "eventDate" );
+        List<RuleDataValue> dataValues = new ArrayList<>();
+
+        if ( event.has( "dataValues" ) )
+        {
+            for ( Map.Entry<String, JsonElement> dataValue : event.getAsJsonObject( "dataValues" ).entrySet() )
+            {
+                dataValues.add( RuleDataValue.create( eventDate, programStage, dataValue.getKey(),
+                    dataValue.getValue().getAsString() ) );
+            }
+        }
+
+        return RuleEvent.create( string( event, "event" ), programStage,
+            RuleEvent.Status.valueOf( string( event, "status", "ACTIVE" ) ), eventDate,
+            event.has( "dueDate" ) ? date( event, "dueDate" ) : eventDate, string( event, "orgUnit", "" ),
+            optionalString( event, "orgUnitCode" ), dataValues, string( event, "programStageName", "" ),
+            event.has( "completedDate" ) ? date( event, "completedDate" ) : null );
+    }
+
+    private Date date( JsonObject object, String member )
+    {
+        String value = string( object, member );
+
+        try
+        {
+            return dateFormat.parse( value );
+        }
+        catch ( ParseException e )
+        {
+            throw new IllegalArgumentException( "Invalid " + member + ": " + value, e );
+        }
+    }
+
+    private static JsonElement read( File file )
+        throws IOException
+    {
+        try ( Reader reader = new InputStreamReader( Files.newInputStream( file.toPath() ),
+            StandardCharsets.UTF_8 ) )
+        {
+            return new JsonParser().parse( reader );
+        }
+    }
+
+    private static JsonArray array( JsonObject object, String member )
+    {
+        return object.has( member ) ? object.getAsJsonArray( member ) : new JsonArray();
+    }
+
+    private static String string( JsonObject object, String member )
+    {
+        if ( !object.has( member ) || object.get( member ).isJsonNull() )
+        {
+            throw new IllegalArgumentException( "Missing " + member + " in " + object );
+        }
+
+        return object.get( member ).getAsString();
+    }
+
+    private static String string( JsonObject object, String member, String defaultValue )
+    {
+        String value = optionalString( object, member );
+        return value == null ? defaultValue : value;
+    }
+
+    private static String optionalString( JsonObject object, String member )
+    {
+        return !object.has( member ) || object.get( member ).isJsonNull() ? null :
+            object.get( member ).getAsString();
+    }
+
+    /**
+     * Enrollment with its events, oldest first.
+     */
+    static final class Enrollment
+    {
+        final RuleEnrollment enrollment;
+
+        final List<RuleEvent> events;
+
+        Enrollment( RuleEnrollment enrollment, List<RuleEvent> events )
+        {
+            this.enrollment = enrollment;
+            this.events = events;
+        }
+    }
+}
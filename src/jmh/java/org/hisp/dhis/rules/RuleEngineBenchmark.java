@@ -0,0 +1,244 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.models.*;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the public {@link RuleEngine} evaluation entry points, on a
+ * {@link ProgramWorkload}. Run with
+ * {@code mvn -Pbenchmark verify -Djmh.includes=RuleEngineBenchmark}; larger
+ * programs can be selected with {@code -p ruleCount=5000}.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class RuleEngineBenchmark
+{
+    private static final String DESCRIPTION_EXPRESSION =
+        "d2:hasValue(#{current_0}) && d2:count(#{newest_1}) > 2 && #{attr_0} == 'alpha' " +
+            "&& d2:daysBetween(V{enrollment_date}, V{current_date}) > 10";
+
+    private static final String[] Z_SCORE_CONDITIONS = {
+        "d2:zScoreWFA(#{age}, #{weight}, #{gender}) < -2",
+        "d2:zScoreHFA(#{age}, #{height}, #{gender}) < -2",
+        "d2:zScoreWFH(#{height}, #{weight}, #{gender}) > 2" };
+
+    @Param( { "50", "500" } )
+    public int ruleCount;
+
+    @Param( { "10", "100" } )
+    public int eventCount;
+
+    private ProgramWorkload workload;
+
+    private RuleEngine engine;
+
+    private RuleEngine cachedEngine;
+
+    private RuleEngine blockingEngine;
+
+    private RuleEngineSession session;
+
+    private RuleDataValue editedDataValue;
+
+    private boolean edited;
+
+    private RuleEngine descriptionEngine;
+
+    private List<String> conditions;
+
+    private RuleEngine zScoreEngine;
+
+    private RuleEvent zScoreEvent;
+
+    @Setup
+    public void setUp()
+    {
+        workload = ProgramWorkload.builder().rules( ruleCount ).events( eventCount ).build();
+        engine = workload.engineBuilder( workload.context() ).build();
+        cachedEngine = workload.engineBuilder( workload.context() ).effectsCache( new RuleEffectsCache( 16 ) ).build();
+        blockingEngine = workload.engineBuilder( workload.context() )
+            .effectProjection( RuleEffectProjection.BLOCKING ).build();
+        session = engine.session( workload.targetEvent() );
+        editedDataValue = workload.targetEvent().dataValues().get( 0 );
+
+        Map<String, DataItem> itemStore = new HashMap<>();
+
+        for ( RuleVariable ruleVariable : workload.ruleVariables() )
+        {
+            itemStore.put( ruleVariable.name(), new DataItem( ruleVariable.name(), ItemValueType.TEXT ) );
+        }
+
+        itemStore.put( "enrollment_date", new DataItem( "Enrollment date", ItemValueType.DATE ) );
+        itemStore.put( "current_date", new DataItem( "Current date", ItemValueType.DATE ) );
+
+        descriptionEngine = workload.contextBuilder()
+            .itemStore( itemStore )
+            .ruleEngineItent( RuleEngineIntent.DESCRIPTION )
+            .build().toEngineBuilder().build();
+
+        conditions = new ArrayList<>();
+
+        for ( Rule rule : workload.rules() )
+        {
+            conditions.add( rule.condition() );
+        }
+
+        setUpZScore();
+    }
+
+    private void setUpZScore()
+    {
+        List<Rule> rules = new ArrayList<>();
+
+        for ( int i = 0; i < Z_SCORE_CONDITIONS.length; i++ )
+        {
+            rules.add( Rule.create( null, null, Z_SCORE_CONDITIONS[i], Arrays.<RuleAction>asList(
+                RuleActionShowWarning.create( "z-score", null, "weight" ) ), "z_score_" + i, "z_score_uid_" + i ) );
+        }
+
+        zScoreEngine = RuleEngineContext.builder()
+            .rules( rules )
+            .ruleVariables( Arrays.<RuleVariable>asList(
+                RuleVariableCurrentEvent.create( "age", "age", RuleValueType.NUMERIC ),
+                RuleVariableCurrentEvent.create( "weight", "weight", RuleValueType.NUMERIC ),
+                RuleVariableCurrentEvent.create( "height", "height", RuleValueType.NUMERIC ),
+                RuleVariableCurrentEvent.create( "gender", "gender", RuleValueType.TEXT ) ) )
+            .supplementaryData( new HashMap<String, List<String>>() )
+            .constantsValue( new HashMap<String, String>() )
+            .build().toEngineBuilder().build();
+
+        Date eventDate = workload.targetEvent().eventDate();
+
+        zScoreEvent = RuleEvent.create( "z_score_event", "stage", RuleEvent.Status.ACTIVE, eventDate, eventDate,
+            "org_unit", null, Arrays.asList(
+                RuleDataValue.create( eventDate, "stage", "age", "14" ),
+                RuleDataValue.create( eventDate, "stage", "weight", "8.1" ),
+                RuleDataValue.create( eventDate, "stage", "height", "74.5" ),
+                RuleDataValue.create( eventDate, "stage", "gender", "female" ) ), "Stage", null );
+    }
+
+    @Benchmark
+    public List<RuleEffect> evaluateEvent()
+        throws Exception
+    {
+        return engine.evaluate( workload.targetEvent() ).call();
+    }
+
+    /**
+     * Evaluation of the rules producing blocking errors only, as in import
+     * validation.
+     */
+    @Benchmark
+    public List<RuleEffect> evaluateEventBlocking()
+        throws Exception
+    {
+        return blockingEngine.evaluate( workload.targetEvent() ).call();
+    }
+
+    @Benchmark
+    public List<RuleEffect> evaluateEnrollment()
+        throws Exception
+    {
+        return engine.evaluate( workload.enrollment() ).call();
+    }
+
+    @Benchmark
+    public List<RuleEffects> evaluateAll()
+        throws Exception
+    {
+        return engine.evaluate().call();
+    }
+
+    /**
+     * Re-evaluation of unchanged inputs, served by the effects cache.
+     */
+    @Benchmark
+    public List<RuleEffects> evaluateAllCached()
+        throws Exception
+    {
+        return cachedEngine.evaluate().call();
+    }
+
+    /**
+     * A data value of the target event cleared and entered again in a
+     * session, as in a data entry form.
+     */
+    @Benchmark
+    public List<RuleEffect> editDataValue()
+    {
+        edited = !edited;
+        return session.setDataValue( editedDataValue.dataElement(), edited ? null : editedDataValue.value() );
+    }
+
+    @Benchmark
+    public RuleValidationResult describeExpression()
+    {
+        return descriptionEngine.evaluate( DESCRIPTION_EXPRESSION );
+    }
+
+    /**
+     * Validates the conditions of all rules as one batch, in the calling thread.
+     */
+    @Benchmark
+    public List<RuleValidationResult> describeRuleConditions()
+    {
+        return descriptionEngine.evaluate( conditions, null );
+    }
+
+    @Benchmark
+    public List<RuleEffect> evaluateZScore()
+        throws Exception
+    {
+        return zScoreEngine.evaluate( zScoreEvent ).call();
+    }
+}
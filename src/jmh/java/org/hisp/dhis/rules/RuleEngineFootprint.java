@@ -0,0 +1,192 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.models.TriggerEnvironment;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Retained heap size of a {@link RuleEngineContext}, of a {@link RuleEngine}
+ * built on top of it and of the {@link RuleVariableValueMap} built for all events
+ * of an enrollment, for {@link ProgramWorkload}s of several sizes.
+ * <p>
+ * The engine size excludes the context it shares with other engines, but
+ * includes the enrollment and events it holds. Parse trees of rule expressions
+ * are cached by the expression parser, outside of the context, and are not
+ * part of these numbers.
+ * <p>
+ * Run with
+ * {@code mvn -Pbenchmark verify -Djmh.main=org.hisp.dhis.rules.RuleEngineFootprint}.
+ * Results are printed and written as JSON to the file given with {@code -rff},
+ * so that they can be tracked over time like the JMH results.
+ */
+public final class RuleEngineFootprint
+{
+    private static final int[] RULE_COUNTS = { 50, 500, 1000, 5000 };
+
+    private static final int[] EVENT_COUNTS = { 1, 10, 100, 300, 1000 };
+
+    private static final int CONTEXT_EVENT_COUNT = 10;
+
+    private static final int VALUE_MAP_RULE_COUNT = ProgramWorkload.SMALL;
+
+    private RuleEngineFootprint()
+    {
+    }
+
+    public static void main( String[] args )
+        throws IOException
+    {
+        List<Measurement> measurements = new ArrayList<>();
+
+        for ( int ruleCount : RULE_COUNTS )
+        {
+            ProgramWorkload workload = ProgramWorkload.builder().rules( ruleCount ).events( CONTEXT_EVENT_COUNT )
+                .build();
+            RuleEngineContext context = workload.context();
+            RuleEngine engine = workload.engineBuilder( context ).build();
+
+            GraphLayout contextLayout = GraphLayout.parseInstance( context );
+
+            measurements.add( new Measurement( "context", ruleCount, 0, contextLayout.totalSize() ) );
+            measurements.add( new Measurement( "engine", ruleCount, CONTEXT_EVENT_COUNT,
+                GraphLayout.parseInstance( engine ).subtract( contextLayout ).totalSize() ) );
+        }
+
+        for ( int eventCount : EVENT_COUNTS )
+        {
+            ProgramWorkload workload = ProgramWorkload.builder().rules( VALUE_MAP_RULE_COUNT ).events( eventCount )
+                .build();
+
+            RuleVariableValueMap valueMap = RuleVariableValueMapBuilder.target()
+                .ruleVariables( workload.ruleVariables() )
+                .ruleEnrollment( workload.enrollment() )
+                .triggerEnvironment( TriggerEnvironment.SERVER )
+                .ruleEvents( workload.events() )
+                .constantValueMap( new HashMap<>( workload.constants() ) )
+                .multipleBuild();
+
+            // the value map references the input events, which are not part of its cost
+            GraphLayout inputLayout = GraphLayout.parseInstance( workload.events().toArray(),
+                workload.enrollment() );
+
+            measurements.add( new Measurement( "valueMap", VALUE_MAP_RULE_COUNT, eventCount,
+                GraphLayout.parseInstance( valueMap ).subtract( inputLayout ).totalSize() ) );
+        }
+
+        print( measurements );
+
+        String resultFile = resultFile( args );
+
+        if ( resultFile != null )
+        {
+            write( measurements, new File( resultFile ) );
+        }
+    }
+
+    private static void print( List<Measurement> measurements )
+    {
+        System.out.println( String.format( Locale.US, "%-10s %8s %8s %16s", "Object", "Rules", "Events",
+            "Retained bytes" ) );
+
+        for ( Measurement measurement : measurements )
+        {
+            System.out.println( String.format( Locale.US, "%-10s %8d %8d %16d", measurement.object,
+                measurement.ruleCount, measurement.eventCount, measurement.retainedBytes ) );
+        }
+    }
+
+    private static void write( List<Measurement> measurements, File file )
+        throws IOException
+    {
+        try ( PrintWriter writer = new PrintWriter(
+            new OutputStreamWriter( new FileOutputStream( file ), StandardCharsets.UTF_8 ) ) )
+        {
+            writer.println( "[" );
+
+            for ( int i = 0; i < measurements.size(); i++ )
+            {
+                Measurement measurement = measurements.get( i );
+
+                writer.print( String.format( Locale.US,
+                    "  {\"object\": \"%s\", \"rules\": %d, \"events\": %d, \"retainedBytes\": %d}",
+                    measurement.object, measurement.ruleCount, measurement.eventCount, measurement.retainedBytes ) );
+                writer.println( i < measurements.size() - 1 ? "," : "" );
+            }
+
+            writer.println( "]" );
+        }
+    }
+
+    /**
+     * @return value of the JMH style {@code -rff} argument, if any.
+     */
+    private static String resultFile( String[] args )
+    {
+        for ( int i = 0; i < args.length - 1; i++ )
+        {
+            if ( "-rff".equals( args[i] ) )
+            {
+                return args[i + 1];
+            }
+        }
+
+        return null;
+    }
+
+    private static final class Measurement
+    {
+        private final String object;
+
+        private final int ruleCount;
+
+        private final int eventCount;
+
+        private final long retainedBytes;
+
+        Measurement( String object, int ruleCount, int eventCount, long retainedBytes )
+        {
+            this.object = object;
+            this.ruleCount = ruleCount;
+            this.eventCount = eventCount;
+            this.retainedBytes = retainedBytes;
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.models.RuleEvent;
+import org.hisp.dhis.rules.models.TriggerEnvironment;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives one shared {@link RuleEngineContext} loaded from JSON files (see
+ * {@link JsonProgramLoader}) from several threads and reports throughput,
+ * latency percentiles and GC time, to size nodes for a given program. Every
+ * operation builds an engine for the next enrollment, as the server does per
+ * request, and evaluates it. Options:
+ * <ul>
+ * <li>{@code -metadata <file>}: rules, variables, constants and supplementary data</li>
+ * <li>{@code -data <file>}: enrollments with their events</li>
+ * <li>{@code -mode all|event|enrollment}: evaluates all events and the enrollment at once (default),
+ * the newest event against the older ones, or the enrollment</li>
+ * <li>{@code -threads <n>}: 1 by default</li>
+ * <li>{@code -warmup <seconds>}: 10 by default</li>
+ * <li>{@code -duration <seconds>}: 30 by default</li>
+ * </ul>
+ * Run with {@code mvn -Pbenchmark verify -Djmh.main=org.hisp.dhis.rules.RuleEngineLoadDriver
+ * -Djmh.args="-metadata program.json -data enrollments.json -threads 4"}.
+ * Other arguments, such as the JMH result options added by the profile, are ignored.
+ */
+public final class RuleEngineLoadDriver
+{
+    private RuleEngineLoadDriver()
+    {
+    }
+
+    public static void main( String[] args )
+        throws Exception
+    {
+        File metadata = new File( "src/jmh/resources/load/program.json" );
+        File data = new File( "src/jmh/resources/load/enrollments.json" );
+        String mode = "all";
+        int threads = 1;
+        int warmup = 10;
+        int duration = 30;
+
+        for ( int i = 0; i < args.length; i++ )
+        {
+            if ( "-metadata".equals( args[i] ) )
+            {
+                metadata = new File( args[++i] );
+            }
+            else if ( "-data".equals( args[i] ) )
+            {
+                data = new File( args[++i] );
+            }
+            else if ( "-mode".equals( args[i] ) )
+            {
+                mode = args[++i];
+            }
+            else if ( "-threads".equals( args[i] ) )
+            {
+                threads = Integer.parseInt( args[++i] );
+            }
+            else if ( "-warmup".equals( args[i] ) )
+            {
+                warmup = Integer.parseInt( args[++i] );
+            }
+            else if ( "-duration".equals( args[i] ) )
+            {
+                duration = Integer.parseInt( args[++i] );
+            }
+        }
+
+        JsonProgramLoader loader = new JsonProgramLoader();
+        RuleEngineContext context = loader.context( metadata );
+        List<Callable<?>> operations = operations( context, loader.enrollments( data ), mode );
+
+        System.out.println( String.format( Locale.US, "%d rules, %d variables, %d operations, mode %s, " +
+                "%d threads, warm-up %d s, duration %d s", context.rules().size(), context.ruleVariables().size(),
+            operations.size(), mode, threads, warmup, duration ) );
+
+        ExecutorService executor = Executors.newFixedThreadPool( threads );
+
+        try
+        {
+            run( executor, operations, threads, TimeUnit.SECONDS.toNanos( warmup ) );
+
+            long gcTime = gcTime();
+            long gcCount = gcCount();
+            long start = System.nanoTime();
+            long[] latencies = run( executor, operations, threads, TimeUnit.SECONDS.toNanos( duration ) );
+            long elapsed = System.nanoTime() - start;
+
+            report( latencies, elapsed, gcTime() - gcTime, gcCount() - gcCount );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * One operation per enrollment; in event mode, enrollments without events
+     * are skipped.
+     */
+    static List<Callable<?>> operations( final RuleEngineContext context,
+        List<JsonProgramLoader.Enrollment> enrollments, String mode )
+    {
+        List<Callable<?>> operations = new ArrayList<>();
+
+        for ( final JsonProgramLoader.Enrollment enrollment : enrollments )
+        {
+            switch ( mode )
+            {
+            case "all":
+                operations.add( new Callable<Object>()
+                {
+                    @Override
+                    public Object call()
+                        throws Exception
+                    {
+                        return engine( context, enrollment.events ).enrollment( enrollment.enrollment ).build()
+                            .evaluate().call();
+                    }
+                } );
+                break;
+            case "event":
+                if ( enrollment.events.isEmpty() )
+                {
+                    break;
+                }
+
+                final List<RuleEvent> previous = enrollment.events.subList( 0, enrollment.events.size() - 1 );
+                final RuleEvent target = enrollment.events.get( enrollment.events.size() - 1 );
+                operations.add( new Callable<Object>()
+                {
+                    @Override
+                    public Object call()
+                        throws Exception
+                    {
+                        return engine( context, previous ).enrollment( enrollment.enrollment ).build()
+                            .evaluate( target ).call();
+                    }
+                } );
+                break;
+            case "enrollment":
+                operations.add( new Callable<Object>()
+                {
+                    @Override
+                    public Object call()
+                        throws Exception
+                    {
+                        return engine( context, enrollment.events ).build().evaluate( enrollment.enrollment ).call();
+                    }
+                } );
+                break;
+            default:
+                throw new IllegalArgumentException( "Unknown mode: " + mode );
+            }
+        }
+
+        if ( operations.isEmpty() )
+        {
+            throw new IllegalArgumentException( "No enrollments to evaluate" );
+        }
+
+        return operations;
+    }
+
+    private static RuleEngine.Builder engine( RuleEngineContext context, List<RuleEvent> events )
+    {
+        return context.toEngineBuilder()
+            .triggerEnvironment( TriggerEnvironment.SERVER )
+            .events( events );
+    }
+
+    /**
+     * Runs operations round robin on all threads for the given time.
+     *
+     * @return sorted latencies of all operations, in nanoseconds.
+     */
+    private static long[] run( ExecutorService executor, final List<Callable<?>> operations, int threads,
+        long durationNanos )
+        throws Exception
+    {
+        final long end = System.nanoTime() + durationNanos;
+        final AtomicLong next = new AtomicLong();
+        List<Future<long[]>> results = new ArrayList<>();
+
+        for ( int i = 0; i < threads; i++ )
+        {
+            results.add( executor.submit( new Callable<long[]>()
+            {
+                @Override
+                public long[] call()
+                    throws Exception
+                {
+                    long[] latencies = new long[1024];
+                    int count = 0;
+                    long now = System.nanoTime();
+
+                    while ( now < end )
+                    {
+                        Callable<?> operation = operations.get(
+                            (int) (next.getAndIncrement() % operations.size()) );
+                        operation.call();
+                        long done = System.nanoTime();
+
+                        if ( count == latencies.length )
+                        {
+                            latencies = Arrays.copyOf( latencies, count * 2 );
+                        }
+
+                        latencies[count++] = done - now;
+                        now = done;
+                    }
+
+                    return Arrays.copyOf( latencies, count );
+                }
+            } ) );
+        }
+
+        long[] all = new long[0];
+
+        for ( Future<long[]> result : results )
+        {
+            long[] latencies = result.get();
+            int offset = all.length;
+            all = Arrays.copyOf( all, offset + latencies.length );
+            System.arraycopy( latencies, 0, all, offset, latencies.length );
+        }
+
+        Arrays.sort( all );
+        return all;
+    }
+
+    private static void report( long[] latencies, long elapsedNanos, long gcMillis, long gcCount )
+    {
+        double seconds = elapsedNanos / 1e9;
+
+        System.out.println( String.format( Locale.US, "Operations   %d", latencies.length ) );
+        System.out.println( String.format( Locale.US, "Throughput   %.1f ops/s", latencies.length / seconds ) );
+        System.out.println( String.format( Locale.US, "Latency p50  %.3f ms", percentile( latencies, 50 ) / 1e6 ) );
+        System.out.println( String.format( Locale.US, "Latency p95  %.3f ms", percentile( latencies, 95 ) / 1e6 ) );
+        System.out.println( String.format( Locale.US, "Latency p99  %.3f ms", percentile( latencies, 99 ) / 1e6 ) );
+        System.out.println( String.format( Locale.US, "Latency max  %.3f ms",
+            (latencies.length == 0 ? 0 : latencies[latencies.length - 1]) / 1e6 ) );
+        System.out.println( String.format( Locale.US, "GC time      %d ms in %d collections (%.1f%% of wall time)",
+            gcMillis, gcCount, gcMillis / 10.0 / seconds ) );
+    }
+
+    /**
+     * Nearest rank percentile of sorted latencies.
+     */
+    private static long percentile( long[] sorted, double percentile )
+    {
+        if ( sorted.length == 0 )
+        {
+            return 0;
+        }
+
+        int rank = (int) Math.ceil( percentile / 100 * sorted.length );
+        return sorted[Math.max( 0, Math.min( rank, sorted.length ) - 1 )];
+    }
+
+    private static long gcTime()
+    {
+        long time = 0;
+
+        for ( GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans() )
+        {
+            time += Math.max( 0, collector.getCollectionTime() );
+        }
+
+        return time;
+    }
+
+    private static long gcCount()
+    {
+        long count = 0;
+
+        for ( GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans() )
+        {
+            count += Math.max( 0, collector.getCollectionCount() );
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,160 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.models.RuleEffect;
+import org.hisp.dhis.rules.models.RuleEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of one {@link RuleEngine}, built from one {@link RuleEngineContext},
+ * evaluated by a growing number of threads. Every thread walks through a set
+ * of target events, so that threads do not evaluate the same event in lockstep.
+ * <p>
+ * Running the class as main program measures 1, 2, 4... threads up to the
+ * number of processors (or {@code -t}) and prints the scaling efficiency, that
+ * is the throughput with n threads divided by n times the single thread
+ * throughput:
+ * {@code mvn -Pbenchmark verify -Djmh.main=org.hisp.dhis.rules.RuleEngineScalabilityBenchmark
+ * -Djmh.includes=RuleEngineScalabilityBenchmark}. Other JMH options given in
+ * {@code jmh.args} are passed on.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class RuleEngineScalabilityBenchmark
+{
+    @Param( { "500" } )
+    public int ruleCount;
+
+    @Param( { "20" } )
+    public int eventCount;
+
+    @Param( { "16" } )
+    public int targetEventCount;
+
+    private ProgramWorkload workload;
+
+    private RuleEngine engine;
+
+    @State( Scope.Thread )
+    public static class EventCursor
+    {
+        private int next;
+
+        RuleEvent next( List<RuleEvent> events )
+        {
+            next = (next + 1) % events.size();
+            return events.get( next );
+        }
+    }
+
+    @Setup
+    public void setUp()
+    {
+        workload = ProgramWorkload.builder().rules( ruleCount ).events( eventCount )
+            .targetEvents( targetEventCount ).build();
+        engine = workload.engineBuilder( workload.context() ).build();
+    }
+
+    @Benchmark
+    public List<RuleEffect> evaluateEvent( EventCursor cursor )
+        throws Exception
+    {
+        return engine.evaluate( cursor.next( workload.targetEvents() ) ).call();
+    }
+
+    public static void main( String[] args )
+        throws Exception
+    {
+        CommandLineOptions commandLineOptions = new CommandLineOptions( args );
+        int maxThreads = commandLineOptions.getThreads().orElse( Runtime.getRuntime().availableProcessors() );
+
+        List<Integer> threadCounts = new ArrayList<>();
+
+        for ( int threads = 1; threads < maxThreads; threads *= 2 )
+        {
+            threadCounts.add( threads );
+        }
+
+        threadCounts.add( maxThreads );
+
+        List<Double> scores = new ArrayList<>();
+
+        for ( int threads : threadCounts )
+        {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent( commandLineOptions )
+                .include( RuleEngineScalabilityBenchmark.class.getName() )
+                .threads( threads );
+
+            if ( commandLineOptions.getResult().hasValue() )
+            {
+                options.result( commandLineOptions.getResult().get() + ".threads-" + threads );
+            }
+
+            Collection<RunResult> results = new Runner( options.build() ).run();
+            scores.add( results.iterator().next().getPrimaryResult().getScore() );
+        }
+
+        System.out.println();
+        System.out.println( String.format( "%8s %16s %12s", "Threads", "ops/s", "Efficiency" ) );
+
+        for ( int i = 0; i < threadCounts.size(); i++ )
+        {
+            int threads = threadCounts.get( i );
+            double efficiency = scores.get( i ) / (threads * scores.get( 0 ));
+
+            System.out.println( String.format( "%8d %16.3f %11.1f%%", threads, scores.get( i ), efficiency * 100 ) );
+        }
+    }
+}
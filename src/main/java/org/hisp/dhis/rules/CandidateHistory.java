@@ -0,0 +1,115 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.models.Rule;
+import org.hisp.dhis.rules.models.RuleAction;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+
+/**
+ * Finds the variables whose candidates, the values of their data element in
+ * all events, are read by rules. Only d2:count, d2:countIfValue,
+ * d2:countIfZeroPos, d2:maxValue and d2:minValue read candidates; other
+ * variables of event data elements just need their newest or previous value.
+ * <p>
+ * Every variable referenced in an expression calling one of these functions
+ * is taken to need candidates, which may include more variables than needed
+ * but never fewer.
+ */
+final class CandidateHistory
+{
+    // d2:count also covers d2:countIfValue and d2:countIfZeroPos
+    private static final String[] FUNCTIONS = { "d2:count", "d2:maxValue", "d2:minValue" };
+
+    private CandidateHistory()
+    {
+        // no instances
+    }
+
+    /**
+     * @return names of the variables whose candidates the rules read.
+     */
+    @Nonnull
+    static Set<String> variables( @Nonnull List<Rule> rules )
+    {
+        Set<String> variables = new HashSet<>();
+
+        for ( Rule rule : rules )
+        {
+            add( variables, rule.condition() );
+
+            for ( RuleAction ruleAction : rule.actions() )
+            {
+                add( variables, ruleAction.data() );
+            }
+        }
+
+        return variables;
+    }
+
+    private static void add( Set<String> variables, @Nullable String expression )
+    {
+        if ( expression == null || !readsCandidates( expression ) )
+        {
+            return;
+        }
+
+        Matcher matcher = RuleEffectProjection.REFERENCE.matcher( expression );
+
+        while ( matcher.find() )
+        {
+            for ( int group = 1; group <= matcher.groupCount(); group++ )
+            {
+                if ( matcher.group( group ) != null )
+                {
+                    variables.add( matcher.group( group ) );
+                }
+            }
+        }
+    }
+
+    private static boolean readsCandidates( String expression )
+    {
+        for ( String function : FUNCTIONS )
+        {
+            if ( expression.contains( function ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,330 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.models.RuleEffect;
+import org.hisp.dhis.rules.models.RuleEnrollment;
+import org.hisp.dhis.rules.models.RuleEvent;
+import org.hisp.dhis.rules.models.TrackerObjectType;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Evaluates events and enrollments on an executor, coalescing evaluations of
+ * the same event or enrollment, for clients which evaluate on every change of
+ * a form.
+ * <p>
+ * At most one evaluation runs per event or enrollment uid. Requests made while
+ * it runs wait, and only the newest of them is evaluated when it finishes.
+ * Callers whose request was superseded receive the effects of the newer one,
+ * and so do the callers of the running evaluation if a newer request arrived
+ * in the meantime: its now stale effects are dropped.
+ * <p>
+ * The returned futures cannot be cancelled, as their evaluation may be shared
+ * with other callers. Anything thrown by an evaluation, errors included, is
+ * passed to its callers.
+ */
+public final class CoalescingRuleEvaluator
+{
+    @Nonnull
+    private final Executor executor;
+
+    // guarded by itself
+    @Nonnull
+    private final Map<String, Slot> slots = new HashMap<>();
+
+    private final AtomicLong evaluationCount = new AtomicLong();
+
+    private final AtomicLong supersededCount = new AtomicLong();
+
+    public CoalescingRuleEvaluator( @Nonnull Executor executor )
+    {
+        if ( executor == null )
+        {
+            throw new IllegalArgumentException( "executor == null" );
+        }
+
+        this.executor = executor;
+    }
+
+    /**
+     * Evaluates the event with the given engine, whose contextual data holds
+     * the latest state of the enrollment.
+     */
+    @Nonnull
+    public Future<List<RuleEffect>> evaluate( @Nonnull final RuleEngine ruleEngine,
+        @Nonnull final RuleEvent ruleEvent )
+    {
+        return submit( TrackerObjectType.EVENT + ":" + ruleEvent.event(), new Callable<List<RuleEffect>>()
+        {
+            @Override
+            public List<RuleEffect> call()
+                throws Exception
+            {
+                return ruleEngine.evaluate( ruleEvent ).call();
+            }
+        } );
+    }
+
+    /**
+     * Evaluates the enrollment with the given engine, whose contextual data
+     * holds the latest events of the enrollment.
+     */
+    @Nonnull
+    public Future<List<RuleEffect>> evaluate( @Nonnull final RuleEngine ruleEngine,
+        @Nonnull final RuleEnrollment ruleEnrollment )
+    {
+        return submit( TrackerObjectType.ENROLLMENT + ":" + ruleEnrollment.enrollment(),
+            new Callable<List<RuleEffect>>()
+            {
+                @Override
+                public List<RuleEffect> call()
+                    throws Exception
+                {
+                    return ruleEngine.evaluate( ruleEnrollment ).call();
+                }
+            } );
+    }
+
+    /**
+     * @return number of evaluations run.
+     */
+    public long evaluationCount()
+    {
+        return evaluationCount.get();
+    }
+
+    /**
+     * @return number of requests which were not evaluated, or whose effects
+     * were dropped, because a newer request for the same event or enrollment
+     * was made.
+     */
+    public long supersededCount()
+    {
+        return supersededCount.get();
+    }
+
+    // the evaluation is created when it runs, so that building the variable values of superseded requests is saved
+    private Future<List<RuleEffect>> submit( String key, Callable<List<RuleEffect>> evaluation )
+    {
+        Result result = new Result();
+        Slot slot;
+
+        synchronized ( slots )
+        {
+            slot = slots.get( key );
+
+            if ( slot == null )
+            {
+                slot = new Slot( key );
+                slots.put( key, slot );
+            }
+
+            slot.waiting.add( result );
+            slot.pending = evaluation;
+
+            if ( slot.running )
+            {
+                // either the effects of the running evaluation or the request waiting for it are now stale
+                supersededCount.incrementAndGet();
+                return result;
+            }
+
+            slot.running = true;
+        }
+
+        try
+        {
+            executor.execute( slot );
+        }
+        catch ( RuntimeException e )
+        {
+            synchronized ( slots )
+            {
+                slots.remove( key );
+            }
+
+            throw e;
+        }
+
+        return result;
+    }
+
+    private final class Slot
+        implements Runnable
+    {
+        private final String key;
+
+        private final List<Result> waiting = new ArrayList<>();
+
+        private Callable<List<RuleEffect>> pending;
+
+        private boolean running;
+
+        Slot( String key )
+        {
+            this.key = key;
+        }
+
+        @Override
+        public void run()
+        {
+            while ( true )
+            {
+                Callable<List<RuleEffect>> evaluation;
+
+                synchronized ( slots )
+                {
+                    evaluation = pending;
+                    pending = null;
+                }
+
+                List<RuleEffect> effects = null;
+                Throwable failure = null;
+
+                evaluationCount.incrementAndGet();
+
+                try
+                {
+                    effects = evaluation.call();
+                }
+                catch ( Throwable e )
+                {
+                    // errors too, such as a stack overflow on a deeply nested expression,
+                    // as the slot has to be released and its callers completed
+                    failure = e;
+                }
+
+                List<Result> done;
+
+                synchronized ( slots )
+                {
+                    if ( pending != null )
+                    {
+                        // the effects are already stale, evaluate the newest request for all waiting callers
+                        continue;
+                    }
+
+                    done = new ArrayList<>( waiting );
+                    running = false;
+                    slots.remove( key );
+                }
+
+                for ( Result result : done )
+                {
+                    result.complete( effects, failure );
+                }
+
+                return;
+            }
+        }
+    }
+
+    /**
+     * Future completed once by the slot evaluating it.
+     */
+    private static final class Result
+        implements Future<List<RuleEffect>>
+    {
+        private final CountDownLatch done = new CountDownLatch( 1 );
+
+        // written before the latch is counted down, read after it is awaited
+        private List<RuleEffect> effects;
+
+        private Throwable failure;
+
+        void complete( List<RuleEffect> effects, Throwable failure )
+        {
+            this.effects = effects;
+            this.failure = failure;
+            done.countDown();
+        }
+
+        @Override
+        public boolean cancel( boolean mayInterruptIfRunning )
+        {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled()
+        {
+            return false;
+        }
+
+        @Override
+        public boolean isDone()
+        {
+            return done.getCount() == 0;
+        }
+
+        @Override
+        public List<RuleEffect> get()
+            throws InterruptedException, ExecutionException
+        {
+            done.await();
+            return result();
+        }
+
+        @Override
+        public List<RuleEffect> get( long timeout, @Nonnull TimeUnit unit )
+            throws InterruptedException, ExecutionException, TimeoutException
+        {
+            if ( !done.await( timeout, unit ) )
+            {
+                throw new TimeoutException();
+            }
+
+            return result();
+        }
+
+        private List<RuleEffect> result()
+            throws ExecutionException
+        {
+            if ( failure != null )
+            {
+                throw new ExecutionException( failure );
+            }
+
+            return effects;
+        }
+    }
+}
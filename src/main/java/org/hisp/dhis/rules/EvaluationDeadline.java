@@ -0,0 +1,166 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.models.RuleActionTimeout;
+import org.hisp.dhis.rules.models.RuleEffect;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+
+/**
+ * Point in time by which an evaluation has to finish, see
+ * {@link RuleEngine.Builder#evaluationTimeout(long, java.util.concurrent.TimeUnit)}.
+ * The deadline also passes when the evaluating thread is interrupted.
+ * <p>
+ * It is checked before every rule, and by functions which can run for long
+ * on their own, such as d2:validatePattern with a pattern that backtracks.
+ */
+public final class EvaluationDeadline
+{
+    // characters read by a guarded regular expression match between two checks
+    private static final int CHECK_INTERVAL = 4096;
+
+    private final long deadline;
+
+    private EvaluationDeadline( long deadline )
+    {
+        this.deadline = deadline;
+    }
+
+    @Nonnull
+    static EvaluationDeadline after( long timeoutNanos )
+    {
+        return new EvaluationDeadline( System.nanoTime() + timeoutNanos );
+    }
+
+    public boolean isExpired()
+    {
+        return System.nanoTime() - deadline >= 0 || Thread.currentThread().isInterrupted();
+    }
+
+    /**
+     * Stops the evaluation if the deadline has passed. The engine then
+     * returns the effects of the rules evaluated so far, followed by a
+     * {@link RuleActionTimeout} effect of the rule being evaluated.
+     */
+    public void check()
+    {
+        if ( isExpired() )
+        {
+            throw new Expired( Thread.currentThread().isInterrupted() );
+        }
+    }
+
+    /**
+     * @return the given characters, checking the deadline while they are
+     * read, so that a regular expression match on them can be stopped.
+     */
+    @Nonnull
+    public CharSequence guard( @Nonnull CharSequence input )
+    {
+        return new GuardedCharSequence( input, this );
+    }
+
+    /**
+     * @return whether the effects end with the marker of a stopped
+     * evaluation.
+     */
+    static boolean stopped( @Nonnull List<RuleEffect> ruleEffects )
+    {
+        return !ruleEffects.isEmpty() &&
+            ruleEffects.get( ruleEffects.size() - 1 ).ruleAction() instanceof RuleActionTimeout;
+    }
+
+    /**
+     * Thrown through the expression visitor to the rule condition evaluator,
+     * which turns it into a timeout effect.
+     */
+    static final class Expired
+        extends RuntimeException
+    {
+        private final boolean interrupted;
+
+        Expired( boolean interrupted )
+        {
+            super( interrupted ? "Evaluation interrupted" : "Evaluation deadline passed", null, false, false );
+            this.interrupted = interrupted;
+        }
+
+        boolean interrupted()
+        {
+            return interrupted;
+        }
+    }
+
+    private static final class GuardedCharSequence
+        implements CharSequence
+    {
+        private final CharSequence chars;
+
+        private final EvaluationDeadline deadline;
+
+        private int reads;
+
+        GuardedCharSequence( CharSequence chars, EvaluationDeadline deadline )
+        {
+            this.chars = chars;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public int length()
+        {
+            return chars.length();
+        }
+
+        @Override
+        public char charAt( int index )
+        {
+            if ( ++reads % CHECK_INTERVAL == 0 )
+            {
+                deadline.check();
+            }
+
+            return chars.charAt( index );
+        }
+
+        @Override
+        public CharSequence subSequence( int start, int end )
+        {
+            return new GuardedCharSequence( chars.subSequence( start, end ), deadline );
+        }
+
+        @Override
+        public String toString()
+        {
+            return chars.toString();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.models.RuleDataValue;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Values of one data element in all events, as indexed by
+ * {@link RuleVariableValueMapBuilder}. The candidate values are extracted once
+ * by {@link Utils#values(List)}, so that all variables of the data element
+ * share one candidate list, which {@link RuleVariableValue} keeps as it is
+ * instead of wrapping it again, and their event dates are kept as epoch
+ * milliseconds for binary search by {@link Utils#previousIndex(List, java.util.Date)}.
+ * It must not be changed once candidates or dates are taken.
+ * <p>
+ * The values are in the order of the events they belong to. The dates of the
+ * values usually are the dates of those events, but nothing enforces it, so
+ * they can only be searched when they turn out to be in the same order.
+ */
+final class EventValueList
+    extends ArrayList<RuleDataValue>
+{
+    private List<String> values;
+
+    // marks values whose dates are not in the order of their events
+    private static final long[] UNORDERED = new long[0];
+
+    private long[] eventTimes;
+
+    EventValueList( int capacity )
+    {
+        super( capacity );
+    }
+
+    List<String> values()
+    {
+        if ( values == null )
+        {
+            String[] extracted = new String[size()];
+
+            for ( int i = 0; i < extracted.length; i++ )
+            {
+                extracted[i] = get( i ).value();
+            }
+
+            values = new Values( extracted );
+        }
+
+        return values;
+    }
+
+    /**
+     * @return event dates of the values in epoch milliseconds, newest first,
+     * or null if they are not in that order.
+     */
+    long[] eventTimes()
+    {
+        if ( eventTimes == null )
+        {
+            long[] times = new long[size()];
+
+            for ( int i = 0; i < times.length; i++ )
+            {
+                times[i] = get( i ).eventDate().getTime();
+
+                if ( i > 0 && times[i] > times[i - 1] )
+                {
+                    times = UNORDERED;
+                    break;
+                }
+            }
+
+            eventTimes = times;
+        }
+
+        return eventTimes == UNORDERED ? null : eventTimes;
+    }
+
+    /**
+     * Unmodifiable candidate values.
+     */
+    static final class Values
+        extends AbstractList<String>
+        implements RandomAccess
+    {
+        private final String[] values;
+
+        private Values( String[] values )
+        {
+            this.values = values;
+        }
+
+        @Override
+        public String get( int index )
+        {
+            return values[index];
+        }
+
+        @Override
+        public int size()
+        {
+            return values.length;
+        }
+    }
+}
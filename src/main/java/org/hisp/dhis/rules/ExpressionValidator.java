@@ -0,0 +1,248 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hisp.dhis.antlr.Parser;
+import org.hisp.dhis.rules.models.RuleValidationResult;
+import org.hisp.dhis.rules.parser.expression.CommonExpressionVisitor;
+import org.hisp.dhis.rules.utils.RuleEngineUtils;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static org.hisp.dhis.antlr.AntlrParserUtils.castClass;
+import static org.hisp.dhis.rules.parser.expression.ParserUtils.FUNCTION_FOR_DESCRIPTION;
+
+/**
+ * Validates expressions and builds their descriptions against an item store.
+ * One validator reuses its visitor for all expressions it validates and is
+ * therefore not thread safe; batches are split into chunks, each validated by
+ * its own validator.
+ */
+final class ExpressionValidator
+{
+    private static final Log log = LogFactory.getLog( ExpressionValidator.class );
+
+    /**
+     * Expressions validated by one task of a parallel batch.
+     */
+    private static final int CHUNK_SIZE = 64;
+
+    @Nonnull
+    private final Map<String, String> itemDescriptions = new HashMap<>();
+
+    @Nonnull
+    private final CommonExpressionVisitor visitor;
+
+    ExpressionValidator( @Nullable Map<String, DataItem> itemStore )
+    {
+        this.visitor = CommonExpressionVisitor.newBuilder()
+            .withIteamStore( itemStore )
+            .withFunctionMethod( FUNCTION_FOR_DESCRIPTION )
+            .withFunctionMap( RuleEngineUtils.FUNCTIONS )
+            .withItemDescriptions( itemDescriptions )
+            .validateAndBuildForDescription();
+    }
+
+    /**
+     * @param klass type the expression must evaluate to, or null for any type.
+     */
+    @Nonnull
+    RuleValidationResult validate( String expression, @Nullable Class<?> klass )
+    {
+        itemDescriptions.clear();
+
+        try
+        {
+            if ( klass == null )
+            {
+                Parser.visit( expression, visitor );
+            }
+            else
+            {
+                castClass( klass, Parser.visit( expression, visitor ) );
+            }
+
+            return RuleValidationResult.builder().isValid( true )
+                .description( describe( expression, itemDescriptions ) ).build();
+        }
+        catch ( IllegalStateException e )
+        {
+            log.debug( e.getMessage(), e );
+
+            return RuleValidationResult.builder().isValid( false )
+                .errorMessage( e.getMessage() )
+                .exception( e )
+                .build();
+        }
+    }
+
+    /**
+     * Validates expressions in chunks on the given executor, or in the calling
+     * thread if there is none.
+     *
+     * @return results in the order of the expressions.
+     */
+    @Nonnull
+    static List<RuleValidationResult> validate( @Nullable final Map<String, DataItem> itemStore,
+        @Nonnull final List<String> expressions, @Nullable final Class<?> klass,
+        @Nullable ExecutorService executor )
+    {
+        final RuleValidationResult[] results = new RuleValidationResult[expressions.size()];
+
+        if ( executor == null || expressions.size() <= CHUNK_SIZE )
+        {
+            validate( new ExpressionValidator( itemStore ), expressions, klass, results, 0, expressions.size() );
+            return Collections.unmodifiableList( Arrays.asList( results ) );
+        }
+
+        List<Future<?>> chunks = new ArrayList<>();
+
+        for ( int start = 0; start < expressions.size(); start += CHUNK_SIZE )
+        {
+            final int from = start;
+            final int to = Math.min( start + CHUNK_SIZE, expressions.size() );
+
+            chunks.add( executor.submit( new Callable<Void>()
+            {
+                @Override
+                public Void call()
+                {
+                    validate( new ExpressionValidator( itemStore ), expressions, klass, results, from, to );
+                    return null;
+                }
+            } ) );
+        }
+
+        try
+        {
+            for ( Future<?> chunk : chunks )
+            {
+                chunk.get();
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException( "Interrupted while validating expressions", e );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof RuntimeException )
+            {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new IllegalStateException( e.getCause() );
+        }
+
+        return Collections.unmodifiableList( Arrays.asList( results ) );
+    }
+
+    private static void validate( ExpressionValidator validator, List<String> expressions, Class<?> klass,
+        RuleValidationResult[] results, int from, int to )
+    {
+        for ( int i = from; i < to; i++ )
+        {
+            results[i] = validator.validate( expressions.get( i ), klass );
+        }
+    }
+
+    /**
+     * Replaces every item of the expression by its description, building the
+     * description once instead of once per item. Replacements are not scanned
+     * again, so a display name containing an item is kept as it is.
+     */
+    @Nonnull
+    static String describe( @Nonnull String expression, @Nonnull Map<String, String> itemDescriptions )
+    {
+        if ( itemDescriptions.isEmpty() )
+        {
+            return expression;
+        }
+
+        // start of each match, by position; the item matched at each start
+        String[] itemAt = new String[expression.length()];
+        boolean found = false;
+
+        for ( String item : itemDescriptions.keySet() )
+        {
+            if ( item.isEmpty() )
+            {
+                continue;
+            }
+
+            for ( int i = expression.indexOf( item ); i >= 0; i = expression.indexOf( item, i + item.length() ) )
+            {
+                if ( itemAt[i] == null || itemAt[i].length() < item.length() )
+                {
+                    itemAt[i] = item;
+                    found = true;
+                }
+            }
+        }
+
+        if ( !found )
+        {
+            return expression;
+        }
+
+        StringBuilder description = new StringBuilder( expression.length() );
+        int i = 0;
+
+        while ( i < expression.length() )
+        {
+            String item = itemAt[i];
+
+            if ( item == null )
+            {
+                description.append( expression.charAt( i++ ) );
+            }
+            else
+            {
+                description.append( itemDescriptions.get( item ) );
+                i += item.length();
+            }
+        }
+
+        return description.toString();
+    }
+}
@@ -0,0 +1,298 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.models.*;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 128 bit content hash of everything an evaluation reads, used as key of the
+ * {@link RuleEffectsCache}. Two independently mixed 64 bit lanes make
+ * accidental collisions negligible without keeping the inputs themselves.
+ */
+final class Fingerprint
+{
+    private final long high;
+
+    private final long low;
+
+    private Fingerprint( long high, long low )
+    {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * Content of the context: rules, variables, constants and supplementary
+     * data, standing in for the metadata version.
+     */
+    @Nonnull
+    static Fingerprint of( @Nonnull RuleEngineContext context )
+    {
+        Hasher hasher = new Hasher();
+        hasher.putRules( context.rules() );
+        hasher.putInt( context.ruleVariables().size() );
+
+        for ( RuleVariable variable : context.ruleVariables() )
+        {
+            // variable models are AutoValue classes, their toString covers all properties
+            hasher.putString( variable.toString() );
+        }
+
+        hasher.putStringMap( context.constantsValues() );
+
+        Map<String, List<String>> supplementaryData = context.supplementaryData();
+        hasher.putBoolean( supplementaryData != null );
+
+        if ( supplementaryData != null )
+        {
+            for ( Map.Entry<String, List<String>> entry : new TreeMap<>( supplementaryData ).entrySet() )
+            {
+                hasher.putString( entry.getKey() );
+                hasher.putStrings( entry.getValue() );
+            }
+        }
+
+        return hasher.fingerprint();
+    }
+
+    /**
+     * Evaluation of a target event or enrollment, or of all events if both are
+     * null, by the given engine on the given day.
+     *
+     * @param rules rules to evaluate, or null for all rules of the context.
+     */
+    @Nonnull
+    static Fingerprint of( @Nonnull RuleEngine engine, @Nullable RuleEvent targetEvent,
+        @Nullable RuleEnrollment targetEnrollment, @Nullable List<Rule> rules, @Nonnull String date )
+    {
+        Hasher hasher = new Hasher();
+        Fingerprint context = engine.executionContext().fingerprint();
+        hasher.putLong( context.high );
+        hasher.putLong( context.low );
+        hasher.putString( date );
+        hasher.putString( engine.triggerEnvironment() == null ? null : engine.triggerEnvironment().name() );
+        hasher.putString( engine.effectProjection() == null ? null : engine.effectProjection().toString() );
+        hasher.putEnrollment( engine.enrollment() );
+        hasher.putInt( engine.events().size() );
+
+        for ( RuleEvent event : engine.events() )
+        {
+            hasher.putEvent( event );
+        }
+
+        hasher.putInt( targetEvent != null ? 1 : targetEnrollment != null ? 2 : 3 );
+        hasher.putEvent( targetEvent );
+        hasher.putEnrollment( targetEnrollment );
+        hasher.putBoolean( rules != null );
+
+        if ( rules != null )
+        {
+            hasher.putRules( rules );
+        }
+
+        return hasher.fingerprint();
+    }
+
+    @Override
+    public boolean equals( Object other )
+    {
+        if ( this == other )
+        {
+            return true;
+        }
+
+        if ( !(other instanceof Fingerprint) )
+        {
+            return false;
+        }
+
+        Fingerprint that = (Fingerprint) other;
+        return high == that.high && low == that.low;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return (int) (low ^ (low >>> 32));
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format( "%016x%016x", high, low );
+    }
+
+    private static final class Hasher
+    {
+        private long high = 0xcbf29ce484222325L;
+
+        private long low = 0x84222325cbf29ce4L;
+
+        void putLong( long value )
+        {
+            high = (high ^ value) * 0x100000001b3L;
+            low = Long.rotateLeft( low ^ (value * 0xc2b2ae3d27d4eb4fL), 31 ) * 0x9e3779b97f4a7c15L;
+        }
+
+        void putInt( int value )
+        {
+            putLong( value );
+        }
+
+        void putBoolean( boolean value )
+        {
+            putLong( value ? 1 : 0 );
+        }
+
+        void putString( @Nullable String value )
+        {
+            if ( value == null )
+            {
+                putLong( -1 );
+                return;
+            }
+
+            putLong( value.length() );
+
+            for ( int i = 0; i < value.length(); i++ )
+            {
+                putLong( value.charAt( i ) );
+            }
+        }
+
+        void putDate( @Nullable Date value )
+        {
+            putLong( value == null ? Long.MIN_VALUE : value.getTime() );
+        }
+
+        void putStrings( @Nullable List<String> values )
+        {
+            putInt( values == null ? -1 : values.size() );
+
+            if ( values != null )
+            {
+                for ( String value : values )
+                {
+                    putString( value );
+                }
+            }
+        }
+
+        void putStringMap( @Nullable Map<String, String> values )
+        {
+            putInt( values == null ? -1 : values.size() );
+
+            if ( values != null )
+            {
+                for ( Map.Entry<String, String> entry : new TreeMap<>( values ).entrySet() )
+                {
+                    putString( entry.getKey() );
+                    putString( entry.getValue() );
+                }
+            }
+        }
+
+        void putRules( @Nonnull List<Rule> rules )
+        {
+            putInt( rules.size() );
+
+            for ( Rule rule : rules )
+            {
+                // rule and action models are AutoValue classes, their toString covers all properties
+                putString( rule.toString() );
+            }
+        }
+
+        void putEnrollment( @Nullable RuleEnrollment enrollment )
+        {
+            putBoolean( enrollment != null );
+
+            if ( enrollment == null )
+            {
+                return;
+            }
+
+            putString( enrollment.enrollment() );
+            putString( enrollment.programName() );
+            putDate( enrollment.incidentDate() );
+            putDate( enrollment.enrollmentDate() );
+            putString( enrollment.status() == null ? null : enrollment.status().name() );
+            putString( enrollment.organisationUnit() );
+            putString( enrollment.organisationUnitCode() );
+            putInt( enrollment.attributeValues().size() );
+
+            for ( RuleAttributeValue attributeValue : enrollment.attributeValues() )
+            {
+                putString( attributeValue.trackedEntityAttribute() );
+                putString( attributeValue.value() );
+            }
+        }
+
+        void putEvent( @Nullable RuleEvent event )
+        {
+            putBoolean( event != null );
+
+            if ( event == null )
+            {
+                return;
+            }
+
+            putString( event.event() );
+            putString( event.programStage() );
+            putString( event.programStageName() );
+            putString( event.status() == null ? null : event.status().name() );
+            putDate( event.eventDate() );
+            putDate( event.dueDate() );
+            putDate( event.completedDate() );
+            putString( event.organisationUnit() );
+            putString( event.organisationUnitCode() );
+            putInt( event.dataValues().size() );
+
+            for ( RuleDataValue dataValue : event.dataValues() )
+            {
+                putDate( dataValue.eventDate() );
+                putString( dataValue.programStage() );
+                putString( dataValue.dataElement() );
+                putString( dataValue.value() );
+            }
+        }
+
+        Fingerprint fingerprint()
+        {
+            return new Fingerprint( high, low );
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import javax.annotation.Nonnull;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+import static java.util.Collections.unmodifiableMap;
+
+/**
+ * Immutable list of strings with constant time {@link #contains(Object)}.
+ * Used for supplementary data, where org unit group members and user roles
+ * are looked up on every d2:inOrgUnitGroup / d2:hasUserRole call.
+ */
+final class IndexedList
+    extends AbstractList<String>
+    implements RandomAccess
+{
+    @Nonnull
+    private final List<String> values;
+
+    @Nonnull
+    private final Set<String> index;
+
+    private IndexedList( @Nonnull Collection<String> values )
+    {
+        this.values = new ArrayList<>( values );
+        this.index = new HashSet<>( values );
+    }
+
+    /**
+     * Copies supplementary data, indexing every value list. Null input and
+     * null lists are kept as they are.
+     */
+    static Map<String, List<String>> index( Map<String, List<String>> supplementaryData )
+    {
+        if ( supplementaryData == null )
+        {
+            return null;
+        }
+
+        Map<String, List<String>> indexed = new HashMap<>();
+
+        for ( Map.Entry<String, List<String>> entry : supplementaryData.entrySet() )
+        {
+            List<String> value = entry.getValue();
+            indexed.put( entry.getKey(), value == null || value instanceof IndexedList ?
+                value : new IndexedList( value ) );
+        }
+
+        return unmodifiableMap( indexed );
+    }
+
+    @Override
+    public String get( int index )
+    {
+        return values.get( index );
+    }
+
+    @Override
+    public int size()
+    {
+        return values.size();
+    }
+
+    @Override
+    public boolean contains( Object value )
+    {
+        return index.contains( value );
+    }
+}
@@ -0,0 +1,126 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import javax.annotation.Nonnull;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Map keyed by identity, like {@link IdentityHashMap}, which iterates in
+ * insertion order. Used for the targets of a multiple evaluation, so that
+ * their effects are returned in the order of the input. Entries cannot be
+ * removed.
+ */
+final class LinkedIdentityMap<K, V>
+    extends AbstractMap<K, V>
+{
+    @Nonnull
+    private final Map<K, V> index = new IdentityHashMap<>();
+
+    @Nonnull
+    private final List<K> keys = new ArrayList<>();
+
+    @Override
+    public V put( K key, V value )
+    {
+        if ( !index.containsKey( key ) )
+        {
+            keys.add( key );
+        }
+
+        return index.put( key, value );
+    }
+
+    @Override
+    public V get( Object key )
+    {
+        return index.get( key );
+    }
+
+    @Override
+    public boolean containsKey( Object key )
+    {
+        return index.containsKey( key );
+    }
+
+    @Override
+    public int size()
+    {
+        return keys.size();
+    }
+
+    @Nonnull
+    @Override
+    public Set<Entry<K, V>> entrySet()
+    {
+        return new AbstractSet<Entry<K, V>>()
+        {
+            @Override
+            public Iterator<Entry<K, V>> iterator()
+            {
+                final Iterator<K> keyIterator = keys.iterator();
+
+                return new Iterator<Entry<K, V>>()
+                {
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return keyIterator.hasNext();
+                    }
+
+                    @Override
+                    public Entry<K, V> next()
+                    {
+                        K key = keyIterator.next();
+                        return new SimpleImmutableEntry<>( key, index.get( key ) );
+                    }
+
+                    @Override
+                    public void remove()
+                    {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size()
+            {
+                return keys.size();
+            }
+        };
+    }
+}
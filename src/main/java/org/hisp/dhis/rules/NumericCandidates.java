@@ -0,0 +1,145 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Numeric view of the candidates of a {@link RuleVariableValue}. Candidates are
+ * parsed once, and aggregates used by the d2 functions are computed up front,
+ * so repeated calls for the same variable do not re-scan the candidate list.
+ */
+public final class NumericCandidates
+{
+    @Nonnull
+    private final double[] values;
+
+    private final double min;
+
+    private final double max;
+
+    private final int zeroOrPositiveCount;
+
+    private NumericCandidates( @Nonnull double[] values, double min, double max, int zeroOrPositiveCount )
+    {
+        this.values = values;
+        this.min = min;
+        this.max = max;
+        this.zeroOrPositiveCount = zeroOrPositiveCount;
+    }
+
+    /**
+     * @throws NumberFormatException if any of the candidates is not a number.
+     */
+    @Nonnull
+    static NumericCandidates parse( @Nonnull List<String> candidates )
+    {
+        double[] values = new double[candidates.size()];
+        double min = 0;
+        double max = 0;
+        int zeroOrPositiveCount = 0;
+
+        for ( int i = 0; i < values.length; i++ )
+        {
+            double value = Double.parseDouble( candidates.get( i ) );
+
+            values[i] = value;
+
+            // same ordering as Double.compareTo, which Collections.min/max relied on
+            if ( i == 0 || Double.compare( value, min ) < 0 )
+            {
+                min = value;
+            }
+
+            if ( i == 0 || Double.compare( value, max ) > 0 )
+            {
+                max = value;
+            }
+
+            if ( value >= 0 )
+            {
+                zeroOrPositiveCount++;
+            }
+        }
+
+        return new NumericCandidates( values, min, max, zeroOrPositiveCount );
+    }
+
+    public int size()
+    {
+        return values.length;
+    }
+
+    public double get( int index )
+    {
+        return values[index];
+    }
+
+    /**
+     * @return copy of the parsed candidates, in candidate order.
+     */
+    @Nonnull
+    public double[] toArray()
+    {
+        return values.clone();
+    }
+
+    /**
+     * @throws NoSuchElementException if there are no candidates.
+     */
+    public double min()
+    {
+        checkNotEmpty();
+        return min;
+    }
+
+    /**
+     * @throws NoSuchElementException if there are no candidates.
+     */
+    public double max()
+    {
+        checkNotEmpty();
+        return max;
+    }
+
+    public int zeroOrPositiveCount()
+    {
+        return zeroOrPositiveCount;
+    }
+
+    private void checkNotEmpty()
+    {
+        if ( values.length == 0 )
+        {
+            throw new NoSuchElementException( "No candidates" );
+        }
+    }
+}
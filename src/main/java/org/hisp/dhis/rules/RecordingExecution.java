@@ -0,0 +1,151 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hisp.dhis.rules.capture.CapturedEvaluation;
+import org.hisp.dhis.rules.capture.EvaluationRecorder;
+import org.hisp.dhis.rules.models.Rule;
+import org.hisp.dhis.rules.models.RuleEffect;
+import org.hisp.dhis.rules.models.RuleEffects;
+import org.hisp.dhis.rules.models.RuleEnrollment;
+import org.hisp.dhis.rules.models.RuleEvent;
+import org.hisp.dhis.rules.models.TrackerObjectType;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Times an execution and hands its inputs and effects to the
+ * {@link EvaluationRecorder} of the engine. A failing recorder is logged and
+ * never changes the outcome of the evaluation.
+ */
+abstract class RecordingExecution<T>
+    implements Callable<T>
+{
+    private static final Log log = LogFactory.getLog( RecordingExecution.class );
+
+    @Nonnull
+    private final Callable<T> execution;
+
+    @Nonnull
+    private final RuleEngine ruleEngine;
+
+    @Nonnull
+    private final EvaluationRecorder recorder;
+
+    @Nullable
+    private final List<Rule> rules;
+
+    private RecordingExecution( @Nonnull Callable<T> execution, @Nonnull RuleEngine ruleEngine,
+        @Nonnull EvaluationRecorder recorder, @Nonnull List<Rule> rules )
+    {
+        this.execution = execution;
+        this.ruleEngine = ruleEngine;
+        this.recorder = recorder;
+        this.rules = rules == ruleEngine.executionContext().rules() ? null : rules;
+    }
+
+    static Callable<List<RuleEffect>> event( @Nonnull Callable<List<RuleEffect>> execution,
+        @Nonnull RuleEngine ruleEngine, @Nonnull EvaluationRecorder recorder, @Nonnull final RuleEvent ruleEvent,
+        @Nonnull List<Rule> rules )
+    {
+        return new RecordingExecution<List<RuleEffect>>( execution, ruleEngine, recorder, rules )
+        {
+            @Override
+            void target( CapturedEvaluation.Builder evaluation, List<RuleEffect> effects )
+            {
+                evaluation.targetEvent( ruleEvent ).effects( Collections.singletonList(
+                    new RuleEffects( TrackerObjectType.EVENT, ruleEvent.event(), effects ) ) );
+            }
+        };
+    }
+
+    static Callable<List<RuleEffect>> enrollment( @Nonnull Callable<List<RuleEffect>> execution,
+        @Nonnull RuleEngine ruleEngine, @Nonnull EvaluationRecorder recorder,
+        @Nonnull final RuleEnrollment ruleEnrollment, @Nonnull List<Rule> rules )
+    {
+        return new RecordingExecution<List<RuleEffect>>( execution, ruleEngine, recorder, rules )
+        {
+            @Override
+            void target( CapturedEvaluation.Builder evaluation, List<RuleEffect> effects )
+            {
+                evaluation.targetEnrollment( ruleEnrollment ).effects( Collections.singletonList(
+                    new RuleEffects( TrackerObjectType.ENROLLMENT, ruleEnrollment.enrollment(), effects ) ) );
+            }
+        };
+    }
+
+    static Callable<List<RuleEffects>> all( @Nonnull Callable<List<RuleEffects>> execution,
+        @Nonnull RuleEngine ruleEngine, @Nonnull EvaluationRecorder recorder, @Nonnull List<Rule> rules )
+    {
+        return new RecordingExecution<List<RuleEffects>>( execution, ruleEngine, recorder, rules )
+        {
+            @Override
+            void target( CapturedEvaluation.Builder evaluation, List<RuleEffects> effects )
+            {
+                evaluation.targetAll().effects( effects );
+            }
+        };
+    }
+
+    abstract void target( CapturedEvaluation.Builder evaluation, T effects );
+
+    @Override
+    public T call()
+        throws Exception
+    {
+        long start = System.nanoTime();
+        T effects = execution.call();
+        long duration = System.nanoTime() - start;
+
+        try
+        {
+            CapturedEvaluation.Builder evaluation = CapturedEvaluation.builder()
+                .context( ruleEngine.executionContext() )
+                .triggerEnvironment( ruleEngine.triggerEnvironment() )
+                .enrollment( ruleEngine.enrollment() )
+                .events( ruleEngine.events() )
+                .rules( rules )
+                .durationNanos( duration );
+            target( evaluation, effects );
+            recorder.record( evaluation.build() );
+        }
+        catch ( RuntimeException e )
+        {
+            log.warn( "Could not record evaluation", e );
+        }
+
+        return effects;
+    }
+}
@@ -3,13 +3,17 @@ package org.hisp.dhis.rules;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hisp.dhis.antlr.AntlrExprItem;
 import org.hisp.dhis.antlr.Parser;
 import org.hisp.dhis.antlr.ParserExceptionWithoutContext;
+import org.hisp.dhis.parser.expression.antlr.ExpressionParser;
 import org.hisp.dhis.rules.models.*;
 import org.hisp.dhis.rules.parser.expression.CommonExpressionVisitor;
+import org.hisp.dhis.rules.parser.expression.ExprFunctionMethod;
 import org.hisp.dhis.rules.utils.RuleEngineUtils;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.*;
 import java.util.concurrent.Callable;
 
@@ -19,8 +23,54 @@ class RuleConditionEvaluator
 {
     private static final Log log = LogFactory.getLog( RuleConditionEvaluator.class );
 
+    @Nullable
+    private final RuleEngineListener listener;
+
+    @Nonnull
+    private final ExprFunctionMethod functionMethod;
+
+    private final boolean stopAtFirstError;
+
+    RuleConditionEvaluator( @Nullable RuleEngineListener listener )
+    {
+        this( listener, false );
+    }
+
+    /**
+     * @param stopAtFirstError whether to stop after the first rule with a
+     * blocking error effect, see {@link RuleEffectProjection.Builder#stopAtFirstError()}.
+     */
+    RuleConditionEvaluator( @Nullable RuleEngineListener listener, boolean stopAtFirstError )
+    {
+        this.listener = listener;
+        this.functionMethod = listener == null ? FUNCTION_EVALUATE : new ListeningFunctionMethod( listener );
+        this.stopAtFirstError = stopAtFirstError;
+    }
+
     public List<RuleEffect> getRuleEffects( Map<String, RuleVariableValue> valueMap,
         Map<String, List<String>> supplementaryData, List<Rule> rules )
+    {
+        return getRuleEffects( valueMap, supplementaryData, rules, null );
+    }
+
+    /**
+     * Once the deadline passes, effects of the rules evaluated so far are
+     * returned, followed by a {@link RuleActionTimeout} effect of the rule
+     * being evaluated. Effects of that rule are left out.
+     */
+    public List<RuleEffect> getRuleEffects( Map<String, RuleVariableValue> valueMap,
+        Map<String, List<String>> supplementaryData, List<Rule> rules, @Nullable EvaluationDeadline deadline )
+    {
+        return getRuleEffects( valueMap, supplementaryData, rules, deadline, null );
+    }
+
+    /**
+     * @param errors receives the errors of expressions which could not be
+     * evaluated instead of the log, or null to log them.
+     */
+    List<RuleEffect> getRuleEffects( Map<String, RuleVariableValue> valueMap,
+        Map<String, List<String>> supplementaryData, List<Rule> rules, @Nullable EvaluationDeadline deadline,
+        @Nullable List<RuleEvaluationError> errors )
     {
         List<RuleEffect> ruleEffects = new ArrayList<>();
 
@@ -29,29 +79,28 @@ class RuleConditionEvaluator
 
         for ( Rule rule : orderRules( rules ) )
         {
-            log.debug( "Evaluating programrule: " + rule.name() );
+            int effectCount = ruleEffects.size();
 
-            if ( Boolean.valueOf( process( rule.condition(), valueMap, supplementaryData ) ) )
+            try
             {
-                for ( RuleAction action : rule.actions() )
+                if ( deadline != null )
                 {
-
-                    //Check if action is assigning value to calculated variable
-                    if ( isAssignToCalculatedValue( action ) )
-                    {
-                        RuleActionAssign ruleActionAssign = (RuleActionAssign) action;
-                        updateValueMap(
-                            Utils.unwrapVariableName( ruleActionAssign.content() ),
-                            RuleVariableValue.create( process( ruleActionAssign.data(), valueMap, supplementaryData ),
-                                RuleValueType.TEXT ),
-                            valueMap
-                        );
-                    }
-                    else
-                    {
-                        ruleEffects.add( create( rule, action, valueMap, supplementaryData ) );
-                    }
+                    deadline.check();
                 }
+
+                evaluate( rule, valueMap, supplementaryData, ruleEffects, deadline, errors );
+            }
+            catch ( EvaluationDeadline.Expired e )
+            {
+                log.warn( "Evaluation stopped at programrule " + rule.name() + ": " + e.getMessage() );
+                ruleEffects.subList( effectCount, ruleEffects.size() ).clear();
+                ruleEffects.add( RuleEffect.create( rule.uid(), RuleActionTimeout.create( e.interrupted() ) ) );
+                break;
+            }
+
+            if ( stopAtFirstError && RuleEffectProjection.isBlocking( ruleEffects, effectCount ) )
+            {
+                break;
             }
         }
 
@@ -59,7 +108,77 @@ class RuleConditionEvaluator
 
     }
 
-    private List<Rule> orderRules( List<Rule> rules )
+    void evaluate( Rule rule, Map<String, RuleVariableValue> valueMap,
+        Map<String, List<String>> supplementaryData, List<RuleEffect> ruleEffects )
+    {
+        evaluate( rule, valueMap, supplementaryData, ruleEffects, null, null );
+    }
+
+    /**
+     * Same as {@link #evaluate(Rule, Map, Map, List)}, throwing
+     * {@link EvaluationDeadline.Expired} once the deadline passes.
+     */
+    void evaluate( Rule rule, Map<String, RuleVariableValue> valueMap,
+        Map<String, List<String>> supplementaryData, List<RuleEffect> ruleEffects,
+        @Nullable EvaluationDeadline deadline )
+    {
+        evaluate( rule, valueMap, supplementaryData, ruleEffects, deadline, null );
+    }
+
+    /**
+     * Evaluates a single rule, appending its effects. Values assigned by the
+     * rule are put into the given value map, where rules evaluated after it
+     * can see them.
+     */
+    private void evaluate( Rule rule, Map<String, RuleVariableValue> valueMap,
+        Map<String, List<String>> supplementaryData, List<RuleEffect> ruleEffects,
+        @Nullable EvaluationDeadline deadline, @Nullable List<RuleEvaluationError> errors )
+    {
+        if ( log.isDebugEnabled() )
+        {
+            log.debug( "Evaluating programrule: " + rule.name() );
+        }
+
+        long start = listener == null ? 0 : System.nanoTime();
+        boolean fired = Boolean.valueOf( process( rule, rule.condition(), valueMap, supplementaryData,
+            deadline, errors ) );
+
+        if ( listener != null )
+        {
+            listener.onConditionEvaluated( rule, fired, System.nanoTime() - start );
+            start = System.nanoTime();
+        }
+
+        if ( fired )
+        {
+            for ( RuleAction action : rule.actions() )
+            {
+
+                //Check if action is assigning value to calculated variable
+                if ( isAssignToCalculatedValue( action ) )
+                {
+                    RuleActionAssign ruleActionAssign = (RuleActionAssign) action;
+                    updateValueMap(
+                        Utils.unwrapVariableName( ruleActionAssign.content() ),
+                        RuleVariableValue.create( process( rule, ruleActionAssign.data(), valueMap,
+                            supplementaryData, deadline, errors ), RuleValueType.TEXT ),
+                        valueMap
+                    );
+                }
+                else
+                {
+                    ruleEffects.add( create( rule, action, valueMap, supplementaryData, deadline, errors ) );
+                }
+            }
+
+            if ( listener != null )
+            {
+                listener.onActionsEvaluated( rule, System.nanoTime() - start );
+            }
+        }
+    }
+
+    static List<Rule> orderRules( List<Rule> rules )
     {
         List<Rule> ruleList = new ArrayList<>( rules );
 
@@ -92,8 +211,9 @@ class RuleConditionEvaluator
         return ruleList;
     }
 
-    private String process( String condition, Map<String, RuleVariableValue> valueMap,
-        Map<String, List<String>> supplementaryData )
+    private String process( Rule rule, String condition, Map<String, RuleVariableValue> valueMap,
+        Map<String, List<String>> supplementaryData, @Nullable EvaluationDeadline deadline,
+        @Nullable List<RuleEvaluationError> errors )
     {
         if ( condition.isEmpty() )
         {
@@ -103,27 +223,49 @@ class RuleConditionEvaluator
         {
             CommonExpressionVisitor commonExpressionVisitor = CommonExpressionVisitor.newBuilder()
                 .withFunctionMap( RuleEngineUtils.FUNCTIONS )
-                .withFunctionMethod( FUNCTION_EVALUATE )
+                .withFunctionMethod( functionMethod )
                 .withVariablesMap( valueMap )
                 .withSupplementaryData( supplementaryData )
+                .withDeadline( deadline )
                 .validateCommonProperties();
 
             Object result = Parser.visit( condition, commonExpressionVisitor, !isOldAndroidVersion( valueMap, supplementaryData ) );
             return convertInteger( result ).toString();
         }
-        catch ( ParserExceptionWithoutContext e )
+        catch ( EvaluationDeadline.Expired e )
         {
-            log.warn( "Condition " + condition + " not executed: " + e.getMessage() );
-            return "";
+            throw e;
         }
         catch ( Exception e )
         {
-            e.printStackTrace();
-            log.error( "Unexpected exception while evaluating " + condition + ": " + e.getMessage() );
+            reportError( rule, condition, e, errors );
             return "";
         }
     }
 
+    private void reportError( Rule rule, String expression, Exception e, @Nullable List<RuleEvaluationError> errors )
+    {
+        if ( !(e instanceof ParserExceptionWithoutContext) )
+        {
+            // not an error of the expression, always logged
+            log.error( "Unexpected exception while evaluating " + expression, e );
+        }
+        else if ( errors != null )
+        {
+            errors.add( RuleEvaluationError.create( rule.uid(), expression,
+                e.getMessage() == null ? e.toString() : e.getMessage() ) );
+        }
+        else if ( log.isWarnEnabled() )
+        {
+            log.warn( "Condition " + expression + " not executed: " + e.getMessage() );
+        }
+
+        if ( listener != null )
+        {
+            listener.onError( rule, expression, e );
+        }
+    }
+
     private Object convertInteger( Object result )
     {
         if ( result instanceof Double && (Double) result % 1 == 0 )
@@ -154,17 +296,58 @@ class RuleConditionEvaluator
     @Nonnull
     private RuleEffect create( @Nonnull Rule rule, @Nonnull RuleAction ruleAction,
         Map<String, RuleVariableValue> valueMap,
-        Map<String, List<String>> supplementaryData )
+        Map<String, List<String>> supplementaryData, @Nullable EvaluationDeadline deadline,
+        @Nullable List<RuleEvaluationError> errors )
     {
         if ( ruleAction instanceof RuleActionAssign )
         {
             RuleActionAssign ruleActionAssign = (RuleActionAssign) ruleAction;
-            String data = process( ruleActionAssign.data(), valueMap, supplementaryData );
+            String data = process( rule, ruleActionAssign.data(), valueMap, supplementaryData, deadline, errors );
             updateValueMap( ruleActionAssign.field(), RuleVariableValue.create( data, RuleValueType.TEXT ), valueMap );
             return RuleEffect
                 .create( rule.uid(), ruleAction, StringUtils.isEmpty( data ) ? ruleActionAssign.data() : data );
         }
 
-        return RuleEffect.create( rule.uid(), ruleAction, process( ruleAction.data(), valueMap, supplementaryData ) );
+        return RuleEffect.create( rule.uid(), ruleAction,
+            process( rule, ruleAction.data(), valueMap, supplementaryData, deadline, errors ) );
+    }
+
+    /**
+     * Evaluates expression items like {@link org.hisp.dhis.rules.parser.expression.ParserUtils#FUNCTION_EVALUATE},
+     * reporting the duration of d2 function calls to the listener.
+     */
+    private static class ListeningFunctionMethod
+        implements ExprFunctionMethod
+    {
+        private static final String D2_PREFIX = "d2:";
+
+        private final RuleEngineListener listener;
+
+        ListeningFunctionMethod( RuleEngineListener listener )
+        {
+            this.listener = listener;
+        }
+
+        @Override
+        public Object apply( AntlrExprItem item, ExpressionParser.ExprContext ctx, CommonExpressionVisitor visitor )
+        {
+            String function = ctx.it.getText();
+
+            if ( !function.startsWith( D2_PREFIX ) )
+            {
+                return FUNCTION_EVALUATE.apply( item, ctx, visitor );
+            }
+
+            long start = System.nanoTime();
+
+            try
+            {
+                return FUNCTION_EVALUATE.apply( item, ctx, visitor );
+            }
+            finally
+            {
+                listener.onFunctionEvaluated( StringUtils.removeEnd( function, "(" ), System.nanoTime() - start );
+            }
+        }
     }
 }
@@ -0,0 +1,363 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.models.Rule;
+import org.hisp.dhis.rules.models.RuleAction;
+import org.hisp.dhis.rules.models.RuleActionAssign;
+import org.hisp.dhis.rules.models.RuleActionErrorOnCompletion;
+import org.hisp.dhis.rules.models.RuleActionShowError;
+import org.hisp.dhis.rules.models.RuleEffect;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Restricts evaluation to the rules that can produce effects of the given
+ * action types, registered with {@link RuleEngine.Builder#effectProjection(RuleEffectProjection)}.
+ * <p>
+ * Rules are kept with their actions of the requested types, and with the
+ * assignments feeding the conditions and data of kept actions, transitively.
+ * All other rules and actions are left out before evaluation. Effects are
+ * those of a full evaluation, without effects of other types. With
+ * {@link Builder#stopAtFirstError()}, evaluation of a target stops after the
+ * first rule with a blocking error effect.
+ */
+public final class RuleEffectProjection
+{
+    /**
+     * Error effects blocking the completion of an event or enrollment, as
+     * needed by import validation.
+     */
+    public static final RuleEffectProjection BLOCKING = builder()
+        .actionType( RuleActionShowError.class )
+        .actionType( RuleActionErrorOnCompletion.class )
+        .build();
+
+    // variable references and string literals, which d2 functions take variable names as
+    static final Pattern REFERENCE = Pattern.compile( "[#A]\\{([^}]*)}|'([^']*)'|\"([^\"]*)\"" );
+
+    @Nonnull
+    private final Set<Class<? extends RuleAction>> actionTypes;
+
+    private final boolean stopAtFirstError;
+
+    private RuleEffectProjection( @Nonnull Set<Class<? extends RuleAction>> actionTypes, boolean stopAtFirstError )
+    {
+        this.actionTypes = actionTypes;
+        this.stopAtFirstError = stopAtFirstError;
+    }
+
+    @Nonnull
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    @Nonnull
+    public Set<Class<? extends RuleAction>> actionTypes()
+    {
+        return actionTypes;
+    }
+
+    public boolean stopAtFirstError()
+    {
+        return stopAtFirstError;
+    }
+
+    /**
+     * @return whether the action is of one of the requested types.
+     */
+    public boolean includes( @Nonnull RuleAction ruleAction )
+    {
+        for ( Class<? extends RuleAction> actionType : actionTypes )
+        {
+            if ( actionType.isInstance( ruleAction ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return rules that can produce effects of the requested types, in the
+     * given order, with only the actions needed for them.
+     */
+    @Nonnull
+    public List<Rule> apply( @Nonnull List<Rule> rules )
+    {
+        boolean[][] kept = new boolean[rules.size()][];
+        Map<String, List<int[]>> assignments = new HashMap<>();
+        Deque<String> expressions = new ArrayDeque<>();
+
+        for ( int i = 0; i < rules.size(); i++ )
+        {
+            List<RuleAction> ruleActions = rules.get( i ).actions();
+            kept[i] = new boolean[ruleActions.size()];
+
+            for ( int j = 0; j < ruleActions.size(); j++ )
+            {
+                RuleAction ruleAction = ruleActions.get( j );
+
+                if ( ruleAction instanceof RuleActionAssign )
+                {
+                    RuleActionAssign ruleActionAssign = (RuleActionAssign) ruleAction;
+                    index( assignments, assignedValue( ruleActionAssign ), i, j );
+                }
+            }
+        }
+
+        for ( int i = 0; i < rules.size(); i++ )
+        {
+            List<RuleAction> ruleActions = rules.get( i ).actions();
+
+            for ( int j = 0; j < ruleActions.size(); j++ )
+            {
+                if ( includes( ruleActions.get( j ) ) )
+                {
+                    keep( rules, kept, i, j, expressions );
+                }
+            }
+        }
+
+        // keep assignments of the values read by kept rules, until no new
+        // assignment is found
+        while ( !expressions.isEmpty() )
+        {
+            Matcher matcher = REFERENCE.matcher( expressions.pop() );
+
+            while ( matcher.find() )
+            {
+                String reference = matcher.group( 1 ) != null ? matcher.group( 1 ) :
+                    matcher.group( 2 ) != null ? matcher.group( 2 ) : matcher.group( 3 );
+                List<int[]> actions = assignments.remove( reference );
+
+                if ( actions != null )
+                {
+                    for ( int[] action : actions )
+                    {
+                        keep( rules, kept, action[0], action[1], expressions );
+                    }
+                }
+            }
+        }
+
+        List<Rule> projected = new ArrayList<>();
+
+        for ( int i = 0; i < rules.size(); i++ )
+        {
+            Rule rule = rules.get( i );
+            List<RuleAction> ruleActions = new ArrayList<>();
+
+            for ( int j = 0; j < kept[i].length; j++ )
+            {
+                if ( kept[i][j] )
+                {
+                    ruleActions.add( rule.actions().get( j ) );
+                }
+            }
+
+            if ( ruleActions.size() == rule.actions().size() )
+            {
+                projected.add( rule );
+            }
+            else if ( !ruleActions.isEmpty() )
+            {
+                projected.add( Rule.copy( rule, ruleActions ) );
+            }
+        }
+
+        return projected;
+    }
+
+    /**
+     * @return whether any of the effects from the given index on blocks
+     * completion.
+     */
+    static boolean isBlocking( @Nonnull List<RuleEffect> ruleEffects, int fromIndex )
+    {
+        for ( int i = fromIndex; i < ruleEffects.size(); i++ )
+        {
+            RuleAction ruleAction = ruleEffects.get( i ).ruleAction();
+
+            if ( ruleAction instanceof RuleActionShowError || ruleAction instanceof RuleActionErrorOnCompletion )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static void keep( List<Rule> rules, boolean[][] kept, int rule, int action, Deque<String> expressions )
+    {
+        if ( kept[rule][action] )
+        {
+            return;
+        }
+
+        boolean first = true;
+
+        for ( boolean keptAction : kept[rule] )
+        {
+            first &= !keptAction;
+        }
+
+        kept[rule][action] = true;
+
+        if ( first )
+        {
+            expressions.push( rules.get( rule ).condition() );
+        }
+
+        String data = rules.get( rule ).actions().get( action ).data();
+
+        if ( data != null )
+        {
+            expressions.push( data );
+        }
+    }
+
+    /**
+     * @return key of the value map the assignment puts its value under, see
+     * {@link RuleConditionEvaluator}.
+     */
+    private static String assignedValue( RuleActionAssign ruleActionAssign )
+    {
+        if ( !ruleActionAssign.field().isEmpty() )
+        {
+            return ruleActionAssign.field();
+        }
+
+        Matcher matcher = Utils.VARIABLE_PATTERN_COMPILED.matcher( ruleActionAssign.content() );
+        return matcher.find() ? matcher.group( 1 ) : ruleActionAssign.content();
+    }
+
+    private static void index( Map<String, List<int[]>> assignments, String key, int rule, int action )
+    {
+        List<int[]> actions = assignments.get( key );
+
+        if ( actions == null )
+        {
+            actions = new ArrayList<>();
+            assignments.put( key, actions );
+        }
+
+        actions.add( new int[] { rule, action } );
+    }
+
+    @Override
+    public String toString()
+    {
+        List<String> names = new ArrayList<>();
+
+        for ( Class<? extends RuleAction> actionType : actionTypes )
+        {
+            names.add( actionType.getName() );
+        }
+
+        Collections.sort( names );
+        return "RuleEffectProjection{actionTypes=" + names + ", stopAtFirstError=" + stopAtFirstError + "}";
+    }
+
+    public static final class Builder
+    {
+        @Nonnull
+        private final Set<Class<? extends RuleAction>> actionTypes = new LinkedHashSet<>();
+
+        private boolean stopAtFirstError;
+
+        private Builder()
+        {
+        }
+
+        /**
+         * Requests effects of the given action type and its subtypes.
+         */
+        @Nonnull
+        public Builder actionType( @Nonnull Class<? extends RuleAction> actionType )
+        {
+            if ( actionType == null )
+            {
+                throw new IllegalArgumentException( "actionType == null" );
+            }
+
+            actionTypes.add( actionType );
+            return this;
+        }
+
+        @Nonnull
+        public Builder actionTypes( @Nonnull Collection<Class<? extends RuleAction>> actionTypes )
+        {
+            for ( Class<? extends RuleAction> actionType : actionTypes )
+            {
+                actionType( actionType );
+            }
+
+            return this;
+        }
+
+        /**
+         * Stops evaluation of a target after the first rule with a
+         * {@link RuleActionShowError} or {@link RuleActionErrorOnCompletion}
+         * effect.
+         */
+        @Nonnull
+        public Builder stopAtFirstError()
+        {
+            this.stopAtFirstError = true;
+            return this;
+        }
+
+        @Nonnull
+        public RuleEffectProjection build()
+        {
+            if ( actionTypes.isEmpty() )
+            {
+                throw new IllegalStateException( "No action types requested" );
+            }
+
+            return new RuleEffectProjection( Collections.unmodifiableSet( new LinkedHashSet<>( actionTypes ) ),
+                stopAtFirstError );
+        }
+    }
+}
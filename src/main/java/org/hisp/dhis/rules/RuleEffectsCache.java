@@ -0,0 +1,214 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.models.RuleEffect;
+import org.hisp.dhis.rules.models.RuleEffects;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Opt-in cache of evaluation effects, registered with
+ * {@link RuleEngine.Builder#effectsCache(RuleEffectsCache)}. Entries are keyed
+ * by a fingerprint of the context content (rules, variables, constants and
+ * supplementary data), the trigger environment, enrollment and events of the
+ * engine, the evaluation target and the current date, so re-evaluating
+ * unchanged inputs costs a hash instead of an evaluation. A cache can be
+ * shared between engines and contexts and is thread safe.
+ * <p>
+ * The least recently used entries are dropped once the maximum size is
+ * reached. Cached effects are returned as unmodifiable lists, and listeners
+ * of the context are not called on a hit.
+ */
+public final class RuleEffectsCache
+{
+    @Nonnull
+    private final Map<Fingerprint, Object> entries;
+
+    private final int maximumSize;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    public RuleEffectsCache( int maximumSize )
+    {
+        if ( maximumSize <= 0 )
+        {
+            throw new IllegalArgumentException( "maximumSize must be positive" );
+        }
+
+        this.maximumSize = maximumSize;
+        this.entries = new LinkedHashMap<Fingerprint, Object>( 16, 0.75f, true )
+        {
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<Fingerprint, Object> eldest )
+            {
+                return size() > RuleEffectsCache.this.maximumSize;
+            }
+        };
+    }
+
+    public int maximumSize()
+    {
+        return maximumSize;
+    }
+
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    public long hitCount()
+    {
+        return hitCount.get();
+    }
+
+    public long missCount()
+    {
+        return missCount.get();
+    }
+
+    /**
+     * @return hits divided by lookups, or 0 before the first lookup.
+     */
+    public double hitRatio()
+    {
+        long hits = hitCount.get();
+        long lookups = hits + missCount.get();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    public synchronized void clear()
+    {
+        entries.clear();
+    }
+
+    @Nullable
+    @SuppressWarnings( "unchecked" )
+    <T> T get( @Nonnull Fingerprint key )
+    {
+        Object value;
+
+        synchronized ( this )
+        {
+            value = entries.get( key );
+        }
+
+        (value == null ? missCount : hitCount).incrementAndGet();
+        return (T) value;
+    }
+
+    synchronized void put( @Nonnull Fingerprint key, @Nonnull Object effects )
+    {
+        entries.put( key, effects );
+    }
+
+    /**
+     * Evaluates through the cache: returns the cached effects of an
+     * evaluation with the same key, or runs the execution and caches a copy
+     * of its effects.
+     */
+    @Nonnull
+    static Callable<List<RuleEffect>> effects( @Nonnull final RuleEffectsCache cache, @Nonnull final Fingerprint key,
+        @Nonnull final Callable<List<RuleEffect>> execution )
+    {
+        return new Callable<List<RuleEffect>>()
+        {
+            @Override
+            public List<RuleEffect> call()
+                throws Exception
+            {
+                List<RuleEffect> effects = execution.call();
+
+                if ( !EvaluationDeadline.stopped( effects ) )
+                {
+                    cache.put( key, Collections.unmodifiableList( new ArrayList<>( effects ) ) );
+                }
+
+                return effects;
+            }
+        };
+    }
+
+    @Nonnull
+    static Callable<List<RuleEffects>> multipleEffects( @Nonnull final RuleEffectsCache cache,
+        @Nonnull final Fingerprint key, @Nonnull final Callable<List<RuleEffects>> execution )
+    {
+        return new Callable<List<RuleEffects>>()
+        {
+            @Override
+            public List<RuleEffects> call()
+                throws Exception
+            {
+                List<RuleEffects> effects = execution.call();
+                List<RuleEffects> copy = new ArrayList<>( effects.size() );
+
+                for ( RuleEffects ruleEffects : effects )
+                {
+                    if ( EvaluationDeadline.stopped( ruleEffects.getRuleEffects() ) )
+                    {
+                        return effects;
+                    }
+
+                    copy.add( new RuleEffects( ruleEffects.getTrackerObjectType(), ruleEffects.getTrackerObjectUid(),
+                        Collections.unmodifiableList( new ArrayList<>( ruleEffects.getRuleEffects() ) ),
+                        Collections.unmodifiableList( new ArrayList<>( ruleEffects.getErrors() ) ) ) );
+                }
+
+                cache.put( key, Collections.unmodifiableList( copy ) );
+                return effects;
+            }
+        };
+    }
+
+    /**
+     * @return execution returning the given effects.
+     */
+    @Nonnull
+    static <T> Callable<T> cached( @Nonnull final T effects )
+    {
+        return new Callable<T>()
+        {
+            @Override
+            public T call()
+            {
+                return effects;
+            }
+        };
+    }
+}
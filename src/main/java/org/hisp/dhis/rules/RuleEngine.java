@@ -2,18 +2,15 @@ package org.hisp.dhis.rules;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.hisp.dhis.antlr.Parser;
+import org.hisp.dhis.rules.capture.EvaluationRecorder;
 import org.hisp.dhis.rules.models.*;
-import org.hisp.dhis.rules.parser.expression.CommonExpressionVisitor;
-import org.hisp.dhis.rules.utils.RuleEngineUtils;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.*;
 import java.util.concurrent.Callable;
-
-import static org.hisp.dhis.antlr.AntlrParserUtils.castClass;
-import static org.hisp.dhis.rules.parser.expression.ParserUtils.FUNCTION_FOR_DESCRIPTION;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 // ToDo: logging
 public final class RuleEngine
@@ -32,14 +29,39 @@ public final class RuleEngine
     @Nullable
     private TriggerEnvironment triggerEnvironment;
 
+    @Nullable
+    private final EvaluationRecorder recorder;
+
+    @Nullable
+    private final RuleEffectsCache effectsCache;
+
+    @Nullable
+    private final RuleEffectProjection effectProjection;
+
+    /**
+     * Rules of the context, restricted by the effect projection.
+     */
+    @Nonnull
+    private final List<Rule> projectedRules;
+
+    private final long timeoutNanos;
+
     RuleEngine( @Nonnull RuleEngineContext ruleEngineContext,
         @Nonnull List<RuleEvent> ruleEvents,
-        @Nullable RuleEnrollment ruleEnrollment, @Nullable TriggerEnvironment triggerEnvironment )
+        @Nullable RuleEnrollment ruleEnrollment, @Nullable TriggerEnvironment triggerEnvironment,
+        @Nullable EvaluationRecorder recorder, @Nullable RuleEffectsCache effectsCache,
+        @Nullable RuleEffectProjection effectProjection, long timeoutNanos )
     {
         this.ruleEngineContext = ruleEngineContext;
         this.ruleEvents = ruleEvents;
         this.ruleEnrollment = ruleEnrollment;
         this.triggerEnvironment = triggerEnvironment;
+        this.recorder = recorder;
+        this.effectsCache = effectsCache;
+        this.effectProjection = effectProjection;
+        this.projectedRules = effectProjection == null ? ruleEngineContext.rules() :
+            effectProjection.apply( ruleEngineContext.rules() );
+        this.timeoutNanos = timeoutNanos;
     }
 
     @Nonnull
@@ -66,6 +88,21 @@ public final class RuleEngine
         return ruleEngineContext;
     }
 
+    @Nullable
+    public RuleEffectProjection effectProjection()
+    {
+        return effectProjection;
+    }
+
+    /**
+     * @return time in nanoseconds an evaluation may take, or 0 if it is not
+     * limited.
+     */
+    public long evaluationTimeoutNanos()
+    {
+        return timeoutNanos;
+    }
+
     @Nonnull
     public Callable<List<RuleEffect>> evaluate( @Nonnull RuleEvent ruleEvent )
     {
@@ -80,44 +117,193 @@ public final class RuleEngine
             throw new IllegalArgumentException( "ruleEvent == null" );
         }
 
-        Map<String, RuleVariableValue> valueMap = RuleVariableValueMapBuilder.target( ruleEvent )
-            .ruleVariables( ruleEngineContext.ruleVariables() )
-            .ruleEnrollment( ruleEnrollment )
-            .triggerEnvironment( triggerEnvironment )
-            .ruleEvents( ruleEvents )
-            .constantValueMap( ruleEngineContext.constantsValues() )
-            .build();
+        Callable<List<RuleEffect>> execution = null;
+        Fingerprint key = null;
 
-        return new RuleEngineExecution( rulesToEvaluate, valueMap, ruleEngineContext.supplementaryData() );
+        if ( effectsCache != null )
+        {
+            key = fingerprint( ruleEvent, null, rulesToEvaluate );
+            List<RuleEffect> cached = effectsCache.get( key );
+            execution = cached == null ? null : RuleEffectsCache.cached( cached );
+        }
+
+        if ( execution == null )
+        {
+            Map<String, RuleVariableValue> valueMap = RuleVariableValueMapBuilder.target( ruleEvent )
+                .ruleVariables( ruleEngineContext.ruleVariables() )
+                .candidateVariables( candidateVariables( rulesToEvaluate ) )
+                .ruleEnrollment( ruleEnrollment )
+                .triggerEnvironment( triggerEnvironment )
+                .ruleEvents( ruleEvents )
+                .constantValueMap( ruleEngineContext.constantsValues() )
+                .build();
+
+            execution = new RuleEngineExecution( project( rulesToEvaluate ), valueMap,
+                ruleEngineContext.supplementaryData(), ruleEngineContext.listener(), stopAtFirstError(),
+                timeoutNanos );
+
+            if ( key != null )
+            {
+                execution = RuleEffectsCache.effects( effectsCache, key, execution );
+            }
+        }
+
+        return recorder == null ? execution :
+            RecordingExecution.event( execution, this, recorder, ruleEvent, project( rulesToEvaluate ) );
     }
 
     @Nonnull
     public Callable<List<RuleEffect>> evaluate( @Nonnull RuleEnrollment ruleEnrollment,
         @Nonnull List<Rule> rulesToEvaluate )
     {
-        Map<String, RuleVariableValue> valueMap = RuleVariableValueMapBuilder.target( ruleEnrollment )
-            .ruleVariables( ruleEngineContext.ruleVariables() )
-            .triggerEnvironment( triggerEnvironment )
-            .ruleEvents( ruleEvents )
-            .constantValueMap( ruleEngineContext.constantsValues() )
-            .build();
+        Callable<List<RuleEffect>> execution = null;
+        Fingerprint key = null;
+
+        if ( effectsCache != null )
+        {
+            key = fingerprint( null, ruleEnrollment, rulesToEvaluate );
+            List<RuleEffect> cached = effectsCache.get( key );
+            execution = cached == null ? null : RuleEffectsCache.cached( cached );
+        }
 
-        return new RuleEngineExecution( rulesToEvaluate, valueMap, ruleEngineContext.supplementaryData() );
+        if ( execution == null )
+        {
+            Map<String, RuleVariableValue> valueMap = RuleVariableValueMapBuilder.target( ruleEnrollment )
+                .ruleVariables( ruleEngineContext.ruleVariables() )
+                .candidateVariables( candidateVariables( rulesToEvaluate ) )
+                .triggerEnvironment( triggerEnvironment )
+                .ruleEvents( ruleEvents )
+                .constantValueMap( ruleEngineContext.constantsValues() )
+                .build();
+
+            execution = new RuleEngineExecution( project( rulesToEvaluate ), valueMap,
+                ruleEngineContext.supplementaryData(), ruleEngineContext.listener(), stopAtFirstError(),
+                timeoutNanos );
+
+            if ( key != null )
+            {
+                execution = RuleEffectsCache.effects( effectsCache, key, execution );
+            }
+        }
+
+        return recorder == null ? execution :
+            RecordingExecution.enrollment( execution, this, recorder, ruleEnrollment, project( rulesToEvaluate ) );
     }
 
     @Nonnull
     public Callable<List<RuleEffects>> evaluate()
     {
-        RuleVariableValueMap valueMap = RuleVariableValueMapBuilder.target()
+        Callable<List<RuleEffects>> execution = null;
+        Fingerprint key = null;
+
+        if ( effectsCache != null )
+        {
+            key = fingerprint( null, null, ruleEngineContext.rules() );
+            List<RuleEffects> cached = effectsCache.get( key );
+            execution = cached == null ? null : RuleEffectsCache.cached( cached );
+        }
+
+        if ( execution == null )
+        {
+            RuleVariableValueMap valueMap = RuleVariableValueMapBuilder.target()
+                .ruleVariables( ruleEngineContext.ruleVariables() )
+                .candidateVariables( ruleEngineContext.candidateVariables() )
+                .ruleEnrollment( ruleEnrollment )
+                .triggerEnvironment( triggerEnvironment )
+                .ruleEvents( ruleEvents )
+                .constantValueMap( ruleEngineContext.constantsValues() )
+                .multipleBuild();
+
+            execution = new RuleEngineMultipleExecution( projectedRules, valueMap,
+                ruleEngineContext.supplementaryData(), ruleEngineContext.listener(), stopAtFirstError(),
+                timeoutNanos );
+
+            if ( key != null )
+            {
+                execution = RuleEffectsCache.multipleEffects( effectsCache, key, execution );
+            }
+        }
+
+        return recorder == null ? execution :
+            RecordingExecution.all( execution, this, recorder, ruleEngineContext.rules() );
+    }
+
+    /**
+     * Starts a session evaluating the given event, which keeps its effects up
+     * to date while data values of the event or attribute values of the
+     * enrollment of the engine are changed, see {@link RuleEngineSession}.
+     */
+    @Nonnull
+    public RuleEngineSession session( @Nonnull RuleEvent ruleEvent )
+    {
+        if ( ruleEvent == null )
+        {
+            throw new IllegalArgumentException( "ruleEvent == null" );
+        }
+
+        return new RuleEngineSession( ruleEngineContext, projectedRules, stopAtFirstError(), timeoutNanos,
+            RuleVariableValueMapBuilder.target( ruleEvent )
             .ruleVariables( ruleEngineContext.ruleVariables() )
+            .candidateVariables( ruleEngineContext.candidateVariables() )
             .ruleEnrollment( ruleEnrollment )
             .triggerEnvironment( triggerEnvironment )
             .ruleEvents( ruleEvents )
-            .constantValueMap( ruleEngineContext.constantsValues() )
-            .multipleBuild();
+            .constantValueMap( ruleEngineContext.constantsValues() ) );
+    }
 
-        return new RuleEngineMultipleExecution( ruleEngineContext.rules(), valueMap,
-            ruleEngineContext.supplementaryData() );
+    /**
+     * Starts a session evaluating the given enrollment, which keeps its
+     * effects up to date while its attribute values are changed, see
+     * {@link RuleEngineSession}.
+     */
+    @Nonnull
+    public RuleEngineSession session( @Nonnull RuleEnrollment ruleEnrollment )
+    {
+        if ( ruleEnrollment == null )
+        {
+            throw new IllegalArgumentException( "ruleEnrollment == null" );
+        }
+
+        return new RuleEngineSession( ruleEngineContext, projectedRules, stopAtFirstError(), timeoutNanos,
+            RuleVariableValueMapBuilder.target( ruleEnrollment )
+            .ruleVariables( ruleEngineContext.ruleVariables() )
+            .candidateVariables( ruleEngineContext.candidateVariables() )
+            .triggerEnvironment( triggerEnvironment )
+            .ruleEvents( ruleEvents )
+            .constantValueMap( ruleEngineContext.constantsValues() ) );
+    }
+
+    private Set<String> candidateVariables( @Nonnull List<Rule> rules )
+    {
+        return rules == ruleEngineContext.rules() ? ruleEngineContext.candidateVariables() :
+            CandidateHistory.variables( rules );
+    }
+
+    private List<Rule> project( @Nonnull List<Rule> rules )
+    {
+        if ( rules == ruleEngineContext.rules() )
+        {
+            return projectedRules;
+        }
+
+        return effectProjection == null ? rules : effectProjection.apply( rules );
+    }
+
+    private boolean stopAtFirstError()
+    {
+        return effectProjection != null && effectProjection.stopAtFirstError();
+    }
+
+    /**
+     * Key of an evaluation in the effects cache. Rule lists are hashed only
+     * when they differ from the rules of the context, whose content is part of
+     * the context fingerprint.
+     */
+    private Fingerprint fingerprint( @Nullable RuleEvent targetEvent, @Nullable RuleEnrollment targetEnrollment,
+        @Nonnull List<Rule> rules )
+    {
+        return Fingerprint.of( this, targetEvent, targetEnrollment,
+            rules == ruleEngineContext.rules() ? null : rules, Utils.formatDate( new Date() ) );
     }
 
     @Nonnull
@@ -140,49 +326,35 @@ public final class RuleEngine
         return getExpressionDescription( expression, null );
     }
 
-    private RuleValidationResult getExpressionDescription( String expression, Class<?> klass )
+    /**
+     * Validates and describes rule conditions, see {@link #evaluate(String)}.
+     * Expressions are split into chunks validated on the given executor, or
+     * in the calling thread if there is none.
+     *
+     * @return results in the order of the expressions.
+     */
+    @Nonnull
+    public List<RuleValidationResult> evaluate( @Nonnull List<String> expressions,
+        @Nullable ExecutorService executor )
     {
-        Map<String, String> itemDescriptions = new HashMap<>();
-
-        CommonExpressionVisitor visitor = CommonExpressionVisitor.newBuilder()
-                .withIteamStore( ruleEngineContext.getDataItemStore() )
-                .withFunctionMethod( FUNCTION_FOR_DESCRIPTION )
-                .withFunctionMap( RuleEngineUtils.FUNCTIONS )
-                .withItemDescriptions( itemDescriptions )
-                .validateAndBuildForDescription();
-
-        RuleValidationResult result;
-
-        try
-        {
-            if ( klass == null )
-            {
-                Parser.visit( expression, visitor );
-            }
-            else
-            {
-                castClass( klass, Parser.visit( expression, visitor ) );
-            }
-
-            String description = expression;
-
-            for ( Map.Entry<String, String> entry : itemDescriptions.entrySet() )
-            {
-                description = description.replace( entry.getKey(), entry.getValue() );
-            }
+        return ExpressionValidator.validate( ruleEngineContext.getDataItemStore(), expressions, Boolean.class,
+            executor );
+    }
 
-            result = RuleValidationResult.builder().isValid( true ).description( description ).build();
-        }
-        catch ( IllegalStateException e )
-        {
-            result = RuleValidationResult.builder().isValid( false )
-                    .errorMessage( e.getMessage() )
-                    .exception( e )
-                    .build();
-            log.debug( e.getMessage(), e );
-        }
+    /**
+     * Validates and describes rule action data fields, see
+     * {@link #evaluateDataFieldExpression(String)} and {@link #evaluate(List, ExecutorService)}.
+     */
+    @Nonnull
+    public List<RuleValidationResult> evaluateDataFieldExpressions( @Nonnull List<String> expressions,
+        @Nullable ExecutorService executor )
+    {
+        return ExpressionValidator.validate( ruleEngineContext.getDataItemStore(), expressions, null, executor );
+    }
 
-        return result;
+    private RuleValidationResult getExpressionDescription( String expression, Class<?> klass )
+    {
+        return new ExpressionValidator( ruleEngineContext.getDataItemStore() ).validate( expression, klass );
     }
 
     public static class Builder
@@ -199,6 +371,17 @@ public final class RuleEngine
         @Nullable
         private TriggerEnvironment triggerEnvironment;
 
+        @Nullable
+        private EvaluationRecorder recorder;
+
+        @Nullable
+        private RuleEffectsCache effectsCache;
+
+        @Nullable
+        private RuleEffectProjection effectProjection;
+
+        private long timeoutNanos;
+
         Builder( @Nonnull RuleEngineContext ruleEngineContext )
         {
             this.ruleEngineContext = ruleEngineContext;
@@ -240,6 +423,59 @@ public final class RuleEngine
             return this;
         }
 
+        /**
+         * Hands inputs and effects of every evaluation of the engine to the
+         * given recorder, for example a {@link org.hisp.dhis.rules.capture.CaptureWriter}.
+         */
+        @Nonnull
+        public Builder recorder( @Nullable EvaluationRecorder recorder )
+        {
+            this.recorder = recorder;
+            return this;
+        }
+
+        /**
+         * Serves evaluations of unchanged inputs from the given cache, see
+         * {@link RuleEffectsCache}.
+         */
+        @Nonnull
+        public Builder effectsCache( @Nullable RuleEffectsCache effectsCache )
+        {
+            this.effectsCache = effectsCache;
+            return this;
+        }
+
+        /**
+         * Evaluates only the rules which can produce effects of the action
+         * types of the given projection, see {@link RuleEffectProjection}.
+         */
+        @Nonnull
+        public Builder effectProjection( @Nullable RuleEffectProjection effectProjection )
+        {
+            this.effectProjection = effectProjection;
+            return this;
+        }
+
+        /**
+         * Limits the time an evaluation may take. Rules not evaluated when
+         * the time is up, or when the evaluating thread is interrupted, are
+         * skipped: the effects produced so far are returned, followed by a
+         * {@link RuleActionTimeout} effect of the rule that was being
+         * evaluated. The time is checked between rules and while matching
+         * patterns.
+         */
+        @Nonnull
+        public Builder evaluationTimeout( long timeout, @Nonnull TimeUnit unit )
+        {
+            if ( timeout <= 0 )
+            {
+                throw new IllegalArgumentException( "timeout <= 0" );
+            }
+
+            this.timeoutNanos = unit.toNanos( timeout );
+            return this;
+        }
+
         @Nonnull
         public RuleEngine build()
         {
@@ -248,7 +484,8 @@ public final class RuleEngine
                 ruleEvents = Collections.unmodifiableList( new ArrayList<RuleEvent>() );
             }
 
-            return new RuleEngine( ruleEngineContext, ruleEvents, ruleEnrollment, triggerEnvironment );
+            return new RuleEngine( ruleEngineContext, ruleEvents, ruleEnrollment, triggerEnvironment, recorder,
+                effectsCache, effectProjection, timeoutNanos );
         }
     }
 }
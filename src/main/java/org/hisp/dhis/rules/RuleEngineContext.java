@@ -2,6 +2,7 @@ package org.hisp.dhis.rules;
 
 import org.hisp.dhis.rules.models.Rule;
 import org.hisp.dhis.rules.models.RuleVariable;
+import org.hisp.dhis.rules.models.SupplementaryData;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -9,8 +10,10 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableSet;
 
 public final class RuleEngineContext
 {
@@ -31,10 +34,24 @@ public final class RuleEngineContext
     @Nullable
     private final Map<String, DataItem> dataItemStore;
 
+    @Nullable
+    private final RuleEngineListener listener;
+
+    /**
+     * Computed on first use by an engine with a {@link RuleEffectsCache}.
+     */
+    @Nullable
+    private volatile Fingerprint fingerprint;
+
+    /**
+     * Computed on first evaluation, see {@link CandidateHistory}.
+     */
+    @Nullable
+    private volatile Set<String> candidateVariables;
 
     RuleEngineContext( @Nonnull List<Rule> rules, @Nonnull List<RuleVariable> ruleVariables,
         Map<String, List<String>> supplementaryData, Map<String, String> constantsValues, RuleEngineIntent intent,
-        Map<String, DataItem> itemStore )
+        Map<String, DataItem> itemStore, RuleEngineListener listener )
     {
         this.rules = rules;
         this.ruleVariables = ruleVariables;
@@ -42,10 +59,12 @@ public final class RuleEngineContext
         this.constantsValues = constantsValues;
         this.ruleEngineIntent = intent;
         this.dataItemStore = itemStore;
+        this.listener = listener;
     }
 
     RuleEngineContext( @Nonnull List<Rule> rules, @Nonnull List<RuleVariable> ruleVariables,
-       Map<String, List<String>> supplementaryData, Map<String, String> constantsValues )
+       Map<String, List<String>> supplementaryData, Map<String, String> constantsValues,
+       RuleEngineListener listener )
     {
         this.rules = rules;
         this.ruleVariables = ruleVariables;
@@ -53,6 +72,7 @@ public final class RuleEngineContext
         this.constantsValues = constantsValues;
         this.ruleEngineIntent = RuleEngineIntent.EVALUATION;
         this.dataItemStore = new HashMap<>();
+        this.listener = listener;
     }
 
     @Nonnull
@@ -104,6 +124,45 @@ public final class RuleEngineContext
         return ruleEngineIntent;
     }
 
+    @Nullable
+    public RuleEngineListener listener()
+    {
+        return listener;
+    }
+
+    /**
+     * @return names of the variables whose candidates the rules read.
+     */
+    @Nonnull
+    Set<String> candidateVariables()
+    {
+        Set<String> result = candidateVariables;
+
+        if ( result == null )
+        {
+            // racing threads compute the same value
+            result = unmodifiableSet( CandidateHistory.variables( rules ) );
+            candidateVariables = result;
+        }
+
+        return result;
+    }
+
+    @Nonnull
+    Fingerprint fingerprint()
+    {
+        Fingerprint result = fingerprint;
+
+        if ( result == null )
+        {
+            // racing threads compute the same value
+            result = Fingerprint.of( this );
+            fingerprint = result;
+        }
+
+        return result;
+    }
+
     @Nonnull
     public RuleEngine.Builder toEngineBuilder()
     {
@@ -129,6 +188,9 @@ public final class RuleEngineContext
         @Nullable
         private Map<String, DataItem> itemStore;
 
+        @Nullable
+        private RuleEngineListener listener;
+
         Builder( @Nonnull RuleExpressionEvaluator evaluator )
         {
         }
@@ -187,6 +249,28 @@ public final class RuleEngineContext
             return this;
         }
 
+        @Nonnull
+        public Builder supplementaryData( SupplementaryData supplementaryData )
+        {
+            if ( supplementaryData == null )
+            {
+                throw new IllegalArgumentException( "supplementaryData == null" );
+            }
+            this.supplementaryData = supplementaryData.toMap();
+            return this;
+        }
+
+        /**
+         * Registers a listener receiving per rule and per function timings. Without a
+         * listener the engine does not take any timings.
+         */
+        @Nonnull
+        public Builder listener( @Nullable RuleEngineListener listener )
+        {
+            this.listener = listener;
+            return this;
+        }
+
         @Deprecated
         public Builder calculatedValueMap( Map<String, Map<String, String>> calculatedValueMap )
         {
@@ -217,16 +301,19 @@ public final class RuleEngineContext
                 ruleVariables = unmodifiableList( new ArrayList<RuleVariable>() );
             }
 
+            // index org unit group members and user roles once per context
+            Map<String, List<String>> indexedSupplementaryData = IndexedList.index( supplementaryData );
+
             if ( intent == null )
             {
                 // For evaluation
-                return new RuleEngineContext( rules, ruleVariables, supplementaryData, constantsValues );
+                return new RuleEngineContext( rules, ruleVariables, indexedSupplementaryData, constantsValues, listener );
             }
             else
             {
                 // for description
-                return new RuleEngineContext( rules, ruleVariables, supplementaryData, constantsValues,
-                    intent, itemStore );
+                return new RuleEngineContext( rules, ruleVariables, indexedSupplementaryData, constantsValues,
+                    intent, itemStore, listener );
             }
         }
     }
@@ -10,6 +10,7 @@ import org.hisp.dhis.rules.parser.expression.CommonExpressionVisitor;
 import org.hisp.dhis.rules.utils.RuleEngineUtils;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.*;
 import java.util.concurrent.Callable;
 
@@ -32,18 +33,27 @@ class RuleEngineExecution
     @Nonnull
     private RuleConditionEvaluator ruleConditionEvaluator;
 
+    private final long timeoutNanos;
+
+    /**
+     * @param timeoutNanos time the evaluation may take from when it is
+     * called, or 0 for no deadline.
+     */
     RuleEngineExecution( @Nonnull List<Rule> rules,
-        @Nonnull Map<String, RuleVariableValue> valueMap, Map<String, List<String>> supplementaryData )
+        @Nonnull Map<String, RuleVariableValue> valueMap, Map<String, List<String>> supplementaryData,
+        @Nullable RuleEngineListener listener, boolean stopAtFirstError, long timeoutNanos )
     {
         this.valueMap = new HashMap<>( valueMap );
         this.rules = rules;
         this.supplementaryData = supplementaryData;
-        this.ruleConditionEvaluator = new RuleConditionEvaluator();
+        this.ruleConditionEvaluator = new RuleConditionEvaluator( listener, stopAtFirstError );
+        this.timeoutNanos = timeoutNanos;
     }
 
     @Override
     public List<RuleEffect> call()
     {
-        return ruleConditionEvaluator.getRuleEffects( valueMap, supplementaryData, this.rules );
+        return ruleConditionEvaluator.getRuleEffects( valueMap, supplementaryData, this.rules,
+            timeoutNanos > 0 ? EvaluationDeadline.after( timeoutNanos ) : null );
     }
 }
@@ -0,0 +1,79 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.models.Rule;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Receives timings and outcomes while the rule engine evaluates rules. A listener is
+ * registered on {@link RuleEngineContext.Builder#listener(RuleEngineListener)}; when none
+ * is registered the engine does not take any timings.
+ * <p>
+ * Implementations are called from every thread evaluating the context, so they must
+ * be thread safe and should return quickly.
+ */
+public interface RuleEngineListener
+{
+    /**
+     * Called after the condition of a rule has been evaluated.
+     *
+     * @param rule          the evaluated rule.
+     * @param fired         whether the condition evaluated to true.
+     * @param durationNanos time spent evaluating the condition.
+     */
+    void onConditionEvaluated( @Nonnull Rule rule, boolean fired, long durationNanos );
+
+    /**
+     * Called after the data of all actions of a fired rule has been evaluated.
+     *
+     * @param rule          the fired rule.
+     * @param durationNanos time spent evaluating the action data.
+     */
+    void onActionsEvaluated( @Nonnull Rule rule, long durationNanos );
+
+    /**
+     * Called when the condition or an action data expression of a rule could not be evaluated.
+     *
+     * @param rule       the rule being evaluated.
+     * @param expression the expression that failed.
+     * @param exception  the cause.
+     */
+    void onError( @Nonnull Rule rule, @Nonnull String expression, @Nonnull Exception exception );
+
+    /**
+     * Called after a d2 function call has been evaluated. Time spent in nested
+     * function calls is included in the duration of the enclosing call.
+     *
+     * @param function      name of the function, e.g. d2:count.
+     * @param durationNanos time spent evaluating the call.
+     */
+    void onFunctionEvaluated( @Nonnull String function, long durationNanos );
+}
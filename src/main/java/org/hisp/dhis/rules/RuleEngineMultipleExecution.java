@@ -10,6 +10,7 @@ import org.hisp.dhis.rules.parser.expression.CommonExpressionVisitor;
 import org.hisp.dhis.rules.utils.RuleEngineUtils;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.*;
 import java.util.concurrent.Callable;
 
@@ -32,36 +33,62 @@ class RuleEngineMultipleExecution
     @Nonnull
     private RuleConditionEvaluator ruleConditionEvaluator;
 
+    private final long timeoutNanos;
+
+    /**
+     * @param timeoutNanos time the evaluation of all targets may take from
+     * when it is called, or 0 for no deadline.
+     */
     RuleEngineMultipleExecution( @Nonnull List<Rule> rules,
-        @Nonnull RuleVariableValueMap ruleVariableValueMap, Map<String, List<String>> supplementaryData )
+        @Nonnull RuleVariableValueMap ruleVariableValueMap, Map<String, List<String>> supplementaryData,
+        @Nullable RuleEngineListener listener, boolean stopAtFirstError, long timeoutNanos )
     {
         this.ruleVariableValueMap = ruleVariableValueMap;
         this.rules = rules;
         this.supplementaryData = supplementaryData;
-        this.ruleConditionEvaluator = new RuleConditionEvaluator();
+        this.ruleConditionEvaluator = new RuleConditionEvaluator( listener, stopAtFirstError );
+        this.timeoutNanos = timeoutNanos;
     }
 
+    /**
+     * Once the deadline passes, the effects of the target being evaluated end
+     * with a timeout effect, and targets not evaluated yet are left out.
+     */
     @Override
     public List<RuleEffects> call()
     {
         List<RuleEffects> ruleEffects = new ArrayList<>();
+        EvaluationDeadline deadline = timeoutNanos > 0 ? EvaluationDeadline.after( timeoutNanos ) : null;
 
         for ( Map.Entry<RuleEnrollment, Map<String, RuleVariableValue>> enrollments : ruleVariableValueMap
             .getEnrollmentMap().entrySet() )
         {
+            List<RuleEvaluationError> errors = new ArrayList<>();
             List<RuleEffect> enrollmentRuleEffects = ruleConditionEvaluator
                 .getRuleEffects( enrollments.getValue(), supplementaryData,
-                    RuleEngineFilter.filterRules( rules, enrollments.getKey() ) );
+                    RuleEngineFilter.filterRules( rules, enrollments.getKey() ), deadline, errors );
             ruleEffects.add( new RuleEffects( TrackerObjectType.ENROLLMENT, enrollments.getKey().enrollment(),
-                enrollmentRuleEffects ) );
+                enrollmentRuleEffects, errors ) );
+
+            if ( EvaluationDeadline.stopped( enrollmentRuleEffects ) )
+            {
+                return ruleEffects;
+            }
         }
 
         for ( Map.Entry<RuleEvent, Map<String, RuleVariableValue>> events : ruleVariableValueMap
             .getEventMap().entrySet() )
         {
+            List<RuleEvaluationError> errors = new ArrayList<>();
+            List<RuleEffect> eventRuleEffects = ruleConditionEvaluator.getRuleEffects( events.getValue(),
+                supplementaryData, RuleEngineFilter.filterRules( rules, events.getKey() ), deadline, errors );
             ruleEffects.add( new RuleEffects( TrackerObjectType.EVENT, events.getKey().event(),
-                ruleConditionEvaluator.getRuleEffects( events.getValue(), supplementaryData,
-                    RuleEngineFilter.filterRules( rules, events.getKey() ) ) ) );
+                eventRuleEffects, errors ) );
+
+            if ( EvaluationDeadline.stopped( eventRuleEffects ) )
+            {
+                return ruleEffects;
+            }
         }
 
         return ruleEffects;
@@ -0,0 +1,696 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.models.Rule;
+import org.hisp.dhis.rules.models.RuleActionTimeout;
+import org.hisp.dhis.rules.models.RuleAttributeValue;
+import org.hisp.dhis.rules.models.RuleDataValue;
+import org.hisp.dhis.rules.models.RuleEffect;
+import org.hisp.dhis.rules.models.RuleEffectsDiff;
+import org.hisp.dhis.rules.models.RuleEnrollment;
+import org.hisp.dhis.rules.models.RuleEvent;
+import org.hisp.dhis.rules.models.RuleVariable;
+import org.hisp.dhis.rules.models.RuleVariableAttribute;
+import org.hisp.dhis.rules.models.RuleVariableCurrentEvent;
+import org.hisp.dhis.rules.models.RuleVariableNewestEvent;
+import org.hisp.dhis.rules.models.RuleVariableNewestStageEvent;
+import org.hisp.dhis.rules.models.RuleVariablePreviousEvent;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Evaluation of a single event or enrollment that is kept up to date while
+ * its values are edited, as in a data entry form. Sessions are created with
+ * {@link RuleEngine#session(RuleEvent)} and {@link RuleEngine#session(RuleEnrollment)}.
+ * <p>
+ * Instead of building a new engine and evaluating every rule after each
+ * change, a session recomputes only the variables of the changed data
+ * element or attribute. It remembers which values every rule read and
+ * assigned when it was last evaluated, and only evaluates the rules again
+ * that read a changed value, including values assigned by rules evaluated
+ * again before them. Effects are the same as those of a full evaluation of
+ * the current values.
+ * <p>
+ * The rules are those left by the effect projection of the engine, and its
+ * evaluation timeout applies to the creation of the session and to every
+ * change. As with {@link RuleEngine#evaluate(RuleEvent)}, effects end at the
+ * {@link org.hisp.dhis.rules.models.RuleActionTimeout} effect when the time is
+ * up, or after the first rule with a blocking error when the projection stops
+ * there. Rules left out that way are evaluated again by the next change.
+ * <p>
+ * The current date is taken when the session is created. Sessions do not use
+ * the recorder or effects cache of the engine, and are not thread safe.
+ */
+public final class RuleEngineSession
+{
+    @Nonnull
+    private final RuleVariableValueMapBuilder builder;
+
+    @Nonnull
+    private final Map<String, List<String>> supplementaryData;
+
+    @Nonnull
+    private final RuleConditionEvaluator conditionEvaluator;
+
+    @Nonnull
+    private final Map<String, String> constantValues;
+
+    @Nonnull
+    private final List<Rule> rules;
+
+    @Nonnull
+    private final RuleState[] ruleStates;
+
+    private final boolean stopAtFirstError;
+
+    private final long timeoutNanos;
+
+    /**
+     * Values of variables, constants and the environment, without values
+     * assigned by rules.
+     */
+    @Nonnull
+    private final Map<String, RuleVariableValue> values;
+
+    @Nonnull
+    private final Map<String, List<RuleDataValue>> allEventValues;
+
+    @Nonnull
+    private final Map<String, RuleAttributeValue> currentEnrollmentValues;
+
+    @Nonnull
+    private final Map<String, RuleDataValue> currentEventValues;
+
+    @Nonnull
+    private final Map<String, List<RuleVariable>> variablesByName = new HashMap<>();
+
+    @Nonnull
+    private final Map<String, List<RuleVariable>> variablesByDataElement = new HashMap<>();
+
+    @Nonnull
+    private final Map<String, List<RuleVariable>> variablesByAttribute = new HashMap<>();
+
+    @Nonnull
+    private List<RuleEffect> ruleEffects;
+
+    @Nonnull
+    private RuleEffectsDiff changes = RuleEffectsDiff.empty();
+
+    private int evaluatedRuleCount;
+
+    /**
+     * @param rules rules of the context left by the effect projection of the
+     * engine.
+     * @param timeoutNanos time the evaluation after every change may take, or
+     * 0 for no deadline.
+     */
+    RuleEngineSession( @Nonnull RuleEngineContext ruleEngineContext, @Nonnull List<Rule> rules,
+        boolean stopAtFirstError, long timeoutNanos, @Nonnull RuleVariableValueMapBuilder builder )
+    {
+        this.builder = builder;
+        this.supplementaryData = ruleEngineContext.supplementaryData();
+        this.conditionEvaluator = new RuleConditionEvaluator( ruleEngineContext.listener() );
+        this.constantValues = ruleEngineContext.constantsValues();
+        this.rules = RuleConditionEvaluator.orderRules( rules );
+        this.ruleStates = new RuleState[this.rules.size()];
+        this.stopAtFirstError = stopAtFirstError;
+        this.timeoutNanos = timeoutNanos;
+
+        this.values = new HashMap<>( builder.build() );
+        this.allEventValues = builder.buildAllEventValues();
+        this.currentEnrollmentValues = builder.buildCurrentEnrollmentValues();
+        this.currentEventValues = builder.buildCurrentEventValues();
+
+        for ( RuleVariable ruleVariable : ruleEngineContext.ruleVariables() )
+        {
+            index( variablesByName, ruleVariable.name(), ruleVariable );
+            index( variablesByDataElement, dataElement( ruleVariable ), ruleVariable );
+
+            if ( ruleVariable instanceof RuleVariableAttribute )
+            {
+                index( variablesByAttribute,
+                    ((RuleVariableAttribute) ruleVariable).trackedEntityAttribute(), ruleVariable );
+            }
+        }
+
+        this.ruleEffects = evaluate( new HashSet<String>() );
+    }
+
+    /**
+     * @return target event of the session with its current data values, or
+     * null if the session targets an enrollment.
+     */
+    @Nullable
+    public RuleEvent event()
+    {
+        return builder.ruleEvent;
+    }
+
+    /**
+     * @return enrollment of the session with its current attribute values.
+     */
+    @Nullable
+    public RuleEnrollment enrollment()
+    {
+        return builder.ruleEnrollment;
+    }
+
+    /**
+     * @return effects of the current values.
+     */
+    @Nonnull
+    public List<RuleEffect> effects()
+    {
+        return ruleEffects;
+    }
+
+    /**
+     * @return differences between the effects before and after the last
+     * change. After the creation of the session, all effects are added.
+     */
+    @Nonnull
+    public RuleEffectsDiff changes()
+    {
+        return changes;
+    }
+
+    /**
+     * Sets a data value of the target event.
+     *
+     * @param value new value, or null to remove the data value.
+     * @return effects of the updated values.
+     * @throws IllegalStateException if the session does not target an event.
+     */
+    @Nonnull
+    public List<RuleEffect> setDataValue( @Nonnull String dataElement, @Nullable String value )
+    {
+        RuleEvent ruleEvent = builder.ruleEvent;
+
+        if ( ruleEvent == null )
+        {
+            throw new IllegalStateException( "Data values can only be set in sessions of an event" );
+        }
+
+        RuleDataValue previous = currentEventValues.get( dataElement );
+
+        if ( previous == null ? value == null : previous.value().equals( value ) )
+        {
+            evaluatedRuleCount = 0;
+            changes = RuleEffectsDiff.empty();
+            return ruleEffects;
+        }
+
+        RuleDataValue dataValue = value == null ? null :
+            RuleDataValue.create( ruleEvent.eventDate(), ruleEvent.programStage(), dataElement, value );
+
+        List<RuleDataValue> dataValues = new ArrayList<>( ruleEvent.dataValues().size() + 1 );
+        List<RuleDataValue> eventValues = allEventValues.get( dataElement );
+
+        if ( eventValues == null )
+        {
+            eventValues = new ArrayList<>();
+            allEventValues.put( dataElement, eventValues );
+        }
+
+        // values of the target event are replaced where they are, so that
+        // both lists keep the order the value map builder gives them
+        int dataValueIndex = -1;
+        int eventValueIndex = -1;
+
+        for ( RuleDataValue ruleDataValue : ruleEvent.dataValues() )
+        {
+            if ( !ruleDataValue.dataElement().equals( dataElement ) )
+            {
+                dataValues.add( ruleDataValue );
+                continue;
+            }
+
+            dataValueIndex = dataValueIndex < 0 ? dataValues.size() : dataValueIndex;
+
+            int index = indexOf( eventValues, ruleDataValue );
+            eventValueIndex = eventValueIndex < 0 ? index : eventValueIndex;
+            eventValues.remove( index );
+        }
+
+        if ( dataValue != null )
+        {
+            dataValues.add( dataValueIndex < 0 ? dataValues.size() : dataValueIndex, dataValue );
+            eventValues.add( eventValueIndex < 0 ? insertionIndex( eventValues, ruleEvent ) : eventValueIndex,
+                dataValue );
+            currentEventValues.put( dataElement, dataValue );
+        }
+        else
+        {
+            currentEventValues.remove( dataElement );
+        }
+
+        builder.ruleEvent = RuleEvent.builder()
+            .event( ruleEvent.event() )
+            .programStage( ruleEvent.programStage() )
+            .programStageName( ruleEvent.programStageName() )
+            .status( ruleEvent.status() )
+            .eventDate( ruleEvent.eventDate() )
+            .dueDate( ruleEvent.dueDate() )
+            .completedDate( ruleEvent.completedDate() )
+            .organisationUnit( ruleEvent.organisationUnit() )
+            .organisationUnitCode( ruleEvent.organisationUnitCode() )
+            .dataValues( Collections.unmodifiableList( dataValues ) )
+            .build();
+
+        return update( variablesByDataElement.get( dataElement ) );
+    }
+
+    /**
+     * Sets an attribute value of the enrollment.
+     *
+     * @param value new value, or null to remove the attribute value.
+     * @return effects of the updated values.
+     * @throws IllegalStateException if the session has no enrollment.
+     */
+    @Nonnull
+    public List<RuleEffect> setAttributeValue( @Nonnull String attribute, @Nullable String value )
+    {
+        RuleEnrollment ruleEnrollment = builder.ruleEnrollment;
+
+        if ( ruleEnrollment == null )
+        {
+            throw new IllegalStateException( "Attribute values can only be set in sessions with an enrollment" );
+        }
+
+        RuleAttributeValue previous = currentEnrollmentValues.get( attribute );
+
+        if ( previous == null ? value == null : previous.value().equals( value ) )
+        {
+            evaluatedRuleCount = 0;
+            changes = RuleEffectsDiff.empty();
+            return ruleEffects;
+        }
+
+        RuleAttributeValue attributeValue = value == null ? null : RuleAttributeValue.create( attribute, value );
+        List<RuleAttributeValue> attributeValues = new ArrayList<>( ruleEnrollment.attributeValues().size() + 1 );
+        int index = -1;
+
+        for ( RuleAttributeValue ruleAttributeValue : ruleEnrollment.attributeValues() )
+        {
+            if ( ruleAttributeValue.trackedEntityAttribute().equals( attribute ) )
+            {
+                index = index < 0 ? attributeValues.size() : index;
+            }
+            else
+            {
+                attributeValues.add( ruleAttributeValue );
+            }
+        }
+
+        if ( attributeValue != null )
+        {
+            attributeValues.add( index < 0 ? attributeValues.size() : index, attributeValue );
+            currentEnrollmentValues.put( attribute, attributeValue );
+        }
+        else
+        {
+            currentEnrollmentValues.remove( attribute );
+        }
+
+        builder.ruleEnrollment = RuleEnrollment.builder()
+            .enrollment( ruleEnrollment.enrollment() )
+            .programName( ruleEnrollment.programName() )
+            .incidentDate( ruleEnrollment.incidentDate() )
+            .enrollmentDate( ruleEnrollment.enrollmentDate() )
+            .status( ruleEnrollment.status() )
+            .organisationUnit( ruleEnrollment.organisationUnit() )
+            .organisationUnitCode( ruleEnrollment.organisationUnitCode() )
+            .attributeValues( Collections.unmodifiableList( attributeValues ) )
+            .build();
+
+        return update( variablesByAttribute.get( attribute ) );
+    }
+
+    /**
+     * @return number of rules evaluated by the last change, or by the
+     * creation of the session.
+     */
+    int evaluatedRuleCount()
+    {
+        return evaluatedRuleCount;
+    }
+
+    /**
+     * Recomputes the given variables, and evaluates the rules reading
+     * values that changed.
+     */
+    private List<RuleEffect> update( @Nullable List<RuleVariable> ruleVariables )
+    {
+        Set<String> changed = new HashSet<>();
+
+        if ( ruleVariables != null )
+        {
+            for ( RuleVariable ruleVariable : ruleVariables )
+            {
+                String name = ruleVariable.name();
+
+                // constants overwrite variables of the same name in the value map
+                if ( changed.contains( name ) || constantValues.containsKey( name ) )
+                {
+                    continue;
+                }
+
+                // the last variable of a name wins, as it does in the value map builder
+                RuleVariableValue value = null;
+
+                for ( RuleVariable variable : variablesByName.get( name ) )
+                {
+                    Map<String, RuleVariableValue> variableValues = variable.createValues( builder,
+                        allEventValues, currentEnrollmentValues, currentEventValues );
+
+                    if ( variableValues.containsKey( name ) )
+                    {
+                        value = variableValues.get( name );
+                    }
+                }
+
+                if ( value != null && !value.equals( values.put( name, value ) ) )
+                {
+                    changed.add( name );
+                }
+            }
+        }
+
+        ruleEffects = evaluate( changed );
+        return ruleEffects;
+    }
+
+    /**
+     * Evaluates rules which were not evaluated yet or read a changed value,
+     * and reuses the effects and assignments of all others. Only effects of
+     * the rules evaluated again can differ from before.
+     *
+     * @param changed names of changed values, extended with values assigned
+     * differently by the rules evaluated again.
+     */
+    private List<RuleEffect> evaluate( @Nonnull Set<String> changed )
+    {
+        TrackingValueMap valueMap = new TrackingValueMap( values );
+        List<RuleEffect> effects = new ArrayList<>();
+        List<RuleEffect> previousEffects = new ArrayList<>();
+        List<RuleEffect> evaluatedEffects = new ArrayList<>();
+        EvaluationDeadline deadline = timeoutNanos > 0 ? EvaluationDeadline.after( timeoutNanos ) : null;
+        evaluatedRuleCount = 0;
+
+        for ( int i = 0; i < rules.size(); i++ )
+        {
+            RuleState state = ruleStates[i];
+
+            if ( state != null && !state.reads( changed ) )
+            {
+                valueMap.assign( state.assignments );
+            }
+            else
+            {
+                List<RuleEffect> newEffects = new ArrayList<>();
+
+                valueMap.track();
+
+                try
+                {
+                    if ( deadline != null )
+                    {
+                        deadline.check();
+                    }
+
+                    conditionEvaluator.evaluate( rules.get( i ), valueMap, supplementaryData, newEffects,
+                        deadline );
+                }
+                catch ( EvaluationDeadline.Expired e )
+                {
+                    RuleEffect timeout = RuleEffect.create( rules.get( i ).uid(),
+                        RuleActionTimeout.create( e.interrupted() ) );
+                    effects.add( timeout );
+                    evaluatedEffects.add( timeout );
+                    discardStates( i, previousEffects );
+                    break;
+                }
+
+                RuleState evaluated = new RuleState( valueMap.reads, valueMap.readAll, valueMap.assignments,
+                    newEffects );
+
+                if ( state != null )
+                {
+                    previousEffects.addAll( state.effects );
+
+                    if ( !state.assignments.equals( evaluated.assignments ) )
+                    {
+                        changed.addAll( state.assignments.keySet() );
+                        changed.addAll( evaluated.assignments.keySet() );
+                    }
+                }
+
+                evaluatedEffects.addAll( newEffects );
+
+                ruleStates[i] = evaluated;
+                state = evaluated;
+                evaluatedRuleCount++;
+            }
+
+            effects.addAll( state.effects );
+
+            if ( stopAtFirstError && RuleEffectProjection.isBlocking( state.effects, 0 ) )
+            {
+                discardStates( i + 1, previousEffects );
+                break;
+            }
+        }
+
+        changes = RuleEffectsDiff.between( previousEffects, evaluatedEffects );
+        return Collections.unmodifiableList( effects );
+    }
+
+    /**
+     * Forgets the states of the rules from the given index on, which are not
+     * evaluated after a stop, adding their effects to the previous ones.
+     */
+    private void discardStates( int from, List<RuleEffect> previousEffects )
+    {
+        for ( int i = from; i < ruleStates.length; i++ )
+        {
+            if ( ruleStates[i] != null )
+            {
+                previousEffects.addAll( ruleStates[i].effects );
+                ruleStates[i] = null;
+            }
+        }
+    }
+
+    private static int indexOf( List<RuleDataValue> ruleDataValues, RuleDataValue ruleDataValue )
+    {
+        for ( int i = 0; i < ruleDataValues.size(); i++ )
+        {
+            if ( ruleDataValues.get( i ) == ruleDataValue )
+            {
+                return i;
+            }
+        }
+
+        throw new IllegalStateException( "Data value " + ruleDataValue + " is not indexed" );
+    }
+
+    /**
+     * Events are sorted newest first, and the target event comes after other
+     * events of the same date.
+     */
+    private static int insertionIndex( List<RuleDataValue> ruleDataValues, RuleEvent ruleEvent )
+    {
+        for ( int i = 0; i < ruleDataValues.size(); i++ )
+        {
+            if ( ruleEvent.eventDate().compareTo( ruleDataValues.get( i ).eventDate() ) > 0 )
+            {
+                return i;
+            }
+        }
+
+        return ruleDataValues.size();
+    }
+
+    @Nullable
+    private static String dataElement( RuleVariable ruleVariable )
+    {
+        if ( ruleVariable instanceof RuleVariableCurrentEvent )
+        {
+            return ((RuleVariableCurrentEvent) ruleVariable).dataElement();
+        }
+        else if ( ruleVariable instanceof RuleVariableNewestEvent )
+        {
+            return ((RuleVariableNewestEvent) ruleVariable).dataElement();
+        }
+        else if ( ruleVariable instanceof RuleVariableNewestStageEvent )
+        {
+            return ((RuleVariableNewestStageEvent) ruleVariable).dataElement();
+        }
+        else if ( ruleVariable instanceof RuleVariablePreviousEvent )
+        {
+            return ((RuleVariablePreviousEvent) ruleVariable).dataElement();
+        }
+
+        return null;
+    }
+
+    private static void index( Map<String, List<RuleVariable>> index, @Nullable String key,
+        RuleVariable ruleVariable )
+    {
+        if ( key == null )
+        {
+            return;
+        }
+
+        List<RuleVariable> ruleVariables = index.get( key );
+
+        if ( ruleVariables == null )
+        {
+            ruleVariables = new ArrayList<>();
+            index.put( key, ruleVariables );
+        }
+
+        ruleVariables.add( ruleVariable );
+    }
+
+    /**
+     * Values read and assigned by a rule when it was last evaluated, and its
+     * effects.
+     */
+    private static final class RuleState
+    {
+        private final Set<Object> reads;
+
+        private final boolean readAll;
+
+        private final Map<String, RuleVariableValue> assignments;
+
+        private final List<RuleEffect> effects;
+
+        RuleState( Set<Object> reads, boolean readAll, Map<String, RuleVariableValue> assignments,
+            List<RuleEffect> effects )
+        {
+            this.reads = reads;
+            this.readAll = readAll;
+            this.assignments = assignments;
+            this.effects = effects;
+        }
+
+        boolean reads( Set<String> changed )
+        {
+            if ( readAll )
+            {
+                return !changed.isEmpty();
+            }
+
+            for ( String name : changed )
+            {
+                if ( reads.contains( name ) )
+                {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Value map recording the keys looked up and the values put by the rule
+     * being evaluated. Iterating the map counts as reading all of it.
+     */
+    private static final class TrackingValueMap
+        extends AbstractMap<String, RuleVariableValue>
+    {
+        private final Map<String, RuleVariableValue> values;
+
+        private Set<Object> reads;
+
+        private boolean readAll;
+
+        private Map<String, RuleVariableValue> assignments;
+
+        TrackingValueMap( Map<String, RuleVariableValue> values )
+        {
+            this.values = new HashMap<>( values );
+        }
+
+        void track()
+        {
+            reads = new HashSet<>();
+            readAll = false;
+            assignments = new LinkedHashMap<>();
+        }
+
+        void assign( Map<String, RuleVariableValue> assignments )
+        {
+            values.putAll( assignments );
+        }
+
+        @Override
+        public RuleVariableValue get( Object key )
+        {
+            reads.add( key );
+            return values.get( key );
+        }
+
+        @Override
+        public boolean containsKey( Object key )
+        {
+            reads.add( key );
+            return values.containsKey( key );
+        }
+
+        @Override
+        public RuleVariableValue put( String key, RuleVariableValue value )
+        {
+            assignments.put( key, value );
+            return values.put( key, value );
+        }
+
+        @Nonnull
+        @Override
+        public Set<Entry<String, RuleVariableValue>> entrySet()
+        {
+            readAll = true;
+            return Collections.unmodifiableMap( values ).entrySet();
+        }
+    }
+}
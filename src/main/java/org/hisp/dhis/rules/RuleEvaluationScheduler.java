@@ -0,0 +1,507 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.metrics.LatencyHistogram;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs rule engine evaluations on a fixed set of threads in two lanes, so that
+ * bulk re-evaluations do not hold up interactive data entry in the same JVM:
+ * <pre>
+ * RuleEvaluationScheduler scheduler = RuleEvaluationScheduler.builder().threads( 8 ).build();
+ * Future&lt;List&lt;RuleEffect&gt;&gt; effects = scheduler.submitInteractive( ruleEngine.evaluate( event ) );
+ * List&lt;Future&lt;List&lt;RuleEffects&gt;&gt;&gt; backfill = scheduler.submitBatch( evaluationsPerEnrollment );
+ * </pre>
+ * Interactive evaluations are taken before any batch evaluation, and their
+ * queue is bounded: when it is full they are rejected instead of waiting
+ * behind each other. Batch jobs are split into one evaluation per enrollment,
+ * so a waiting interactive evaluation is picked up as soon as a thread
+ * finishes an enrollment. Batch evaluations may use all threads but the
+ * ones reserved for interactive evaluations.
+ * <p>
+ * Queue depth, time spent queueing and latency from submission to completion
+ * are kept per lane.
+ */
+public final class RuleEvaluationScheduler
+{
+    public enum Lane
+    {
+        INTERACTIVE,
+        BATCH
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition available = lock.newCondition();
+
+    private final Condition terminated = lock.newCondition();
+
+    // guarded by lock
+    private final Map<Lane, ArrayDeque<LaneTask<?>>> queues = new EnumMap<>( Lane.class );
+
+    private final int interactiveQueueCapacity;
+
+    private final int batchThreads;
+
+    // guarded by lock
+    private int runningBatch;
+
+    // guarded by lock
+    private int liveWorkers;
+
+    // guarded by lock
+    private boolean shutdown;
+
+    private final Map<Lane, LatencyHistogram> queueTimes = new EnumMap<>( Lane.class );
+
+    private final Map<Lane, LatencyHistogram> latencies = new EnumMap<>( Lane.class );
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private RuleEvaluationScheduler( int threads, int reservedInteractiveThreads, int interactiveQueueCapacity,
+        @Nonnull String threadName )
+    {
+        this.interactiveQueueCapacity = interactiveQueueCapacity;
+        this.batchThreads = threads - reservedInteractiveThreads;
+
+        for ( Lane lane : Lane.values() )
+        {
+            queues.put( lane, new ArrayDeque<LaneTask<?>>() );
+            queueTimes.put( lane, new LatencyHistogram() );
+            latencies.put( lane, new LatencyHistogram() );
+        }
+
+        this.liveWorkers = threads;
+
+        for ( int i = 0; i < threads; i++ )
+        {
+            Thread worker = new Thread( new Worker(), threadName + "-" + i );
+            worker.setDaemon( true );
+            worker.start();
+        }
+    }
+
+    @Nonnull
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    /**
+     * @throws RejectedExecutionException if the interactive queue is full or
+     * the scheduler is shut down.
+     */
+    @Nonnull
+    public <T> Future<T> submitInteractive( @Nonnull Callable<T> evaluation )
+    {
+        LaneTask<T> task = new LaneTask<>( Lane.INTERACTIVE, evaluation );
+
+        lock.lock();
+
+        try
+        {
+            checkNotShutdown();
+
+            if ( queues.get( Lane.INTERACTIVE ).size() >= interactiveQueueCapacity )
+            {
+                rejectedCount.incrementAndGet();
+                throw new RejectedExecutionException( "Interactive queue is full: " + interactiveQueueCapacity );
+            }
+
+            queues.get( Lane.INTERACTIVE ).add( task );
+            available.signal();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        return task;
+    }
+
+    /**
+     * Queues evaluations of a bulk job, typically one per enrollment.
+     *
+     * @return futures in the order of the evaluations.
+     * @throws RejectedExecutionException if the scheduler is shut down.
+     */
+    @Nonnull
+    public <T> List<Future<T>> submitBatch( @Nonnull List<? extends Callable<T>> evaluations )
+    {
+        List<Future<T>> futures = new ArrayList<>( evaluations.size() );
+
+        lock.lock();
+
+        try
+        {
+            checkNotShutdown();
+
+            for ( Callable<T> evaluation : evaluations )
+            {
+                LaneTask<T> task = new LaneTask<>( Lane.BATCH, evaluation );
+                queues.get( Lane.BATCH ).add( task );
+                futures.add( task );
+            }
+
+            available.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        return Collections.unmodifiableList( futures );
+    }
+
+    /**
+     * @return number of evaluations of the lane waiting for a thread.
+     */
+    public int queueDepth( @Nonnull Lane lane )
+    {
+        lock.lock();
+
+        try
+        {
+            return queues.get( lane ).size();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return live view of the time evaluations of the lane waited for a
+     * thread.
+     */
+    @Nonnull
+    public LatencyHistogram getQueueTime( @Nonnull Lane lane )
+    {
+        return queueTimes.get( lane );
+    }
+
+    /**
+     * @return live view of the time from submission to completion of the
+     * evaluations of the lane.
+     */
+    @Nonnull
+    public LatencyHistogram getLatency( @Nonnull Lane lane )
+    {
+        return latencies.get( lane );
+    }
+
+    /**
+     * @return number of interactive evaluations rejected because the queue
+     * was full.
+     */
+    public long rejectedCount()
+    {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Stops accepting evaluations. Queued evaluations are still run.
+     */
+    public void shutdown()
+    {
+        lock.lock();
+
+        try
+        {
+            shutdown = true;
+            available.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true if all threads finished before the timeout.
+     */
+    public boolean awaitTermination( long timeout, @Nonnull TimeUnit unit )
+        throws InterruptedException
+    {
+        long nanos = unit.toNanos( timeout );
+
+        lock.lock();
+
+        try
+        {
+            while ( liveWorkers > 0 )
+            {
+                if ( nanos <= 0 )
+                {
+                    return false;
+                }
+
+                nanos = terminated.awaitNanos( nanos );
+            }
+
+            return true;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private void checkNotShutdown()
+    {
+        if ( shutdown )
+        {
+            throw new RejectedExecutionException( "Scheduler is shut down" );
+        }
+    }
+
+    /**
+     * @return next evaluation to run, or null once shut down and drained.
+     */
+    private LaneTask<?> take()
+        throws InterruptedException
+    {
+        lock.lock();
+
+        try
+        {
+            while ( true )
+            {
+                LaneTask<?> task = queues.get( Lane.INTERACTIVE ).poll();
+
+                if ( task == null && runningBatch < batchThreads )
+                {
+                    task = queues.get( Lane.BATCH ).poll();
+                }
+
+                if ( task != null )
+                {
+                    if ( task.lane == Lane.BATCH )
+                    {
+                        runningBatch++;
+                    }
+
+                    return task;
+                }
+
+                if ( shutdown && queues.get( Lane.INTERACTIVE ).isEmpty() && queues.get( Lane.BATCH ).isEmpty() )
+                {
+                    return null;
+                }
+
+                available.await();
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private void finished( LaneTask<?> task )
+    {
+        if ( task.lane == Lane.BATCH )
+        {
+            lock.lock();
+
+            try
+            {
+                runningBatch--;
+
+                if ( !queues.get( Lane.BATCH ).isEmpty() )
+                {
+                    available.signal();
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+
+    private final class Worker
+        implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            try
+            {
+                LaneTask<?> task;
+
+                while ( (task = take()) != null )
+                {
+                    long started = System.nanoTime();
+                    queueTimes.get( task.lane ).record( started - task.submitted );
+
+                    try
+                    {
+                        task.run();
+                    }
+                    finally
+                    {
+                        latencies.get( task.lane ).record( System.nanoTime() - task.submitted );
+                        finished( task );
+                    }
+                }
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+            finally
+            {
+                lock.lock();
+
+                try
+                {
+                    liveWorkers--;
+                    terminated.signalAll();
+                }
+                finally
+                {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    private static final class LaneTask<T>
+        extends FutureTask<T>
+    {
+        private final Lane lane;
+
+        private final long submitted = System.nanoTime();
+
+        LaneTask( Lane lane, Callable<T> evaluation )
+        {
+            super( evaluation );
+            this.lane = lane;
+        }
+    }
+
+    public static class Builder
+    {
+        private int threads = Runtime.getRuntime().availableProcessors();
+
+        private int reservedInteractiveThreads = -1;
+
+        private int interactiveQueueCapacity = 64;
+
+        private String threadName = "rule-evaluation";
+
+        private Builder()
+        {
+        }
+
+        /**
+         * Number of threads, by default the number of processors.
+         */
+        @Nonnull
+        public Builder threads( int threads )
+        {
+            if ( threads < 1 )
+            {
+                throw new IllegalArgumentException( "threads < 1" );
+            }
+
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Number of threads batch evaluations may not use, by default one if
+         * there is more than one thread.
+         */
+        @Nonnull
+        public Builder reservedInteractiveThreads( int reservedInteractiveThreads )
+        {
+            if ( reservedInteractiveThreads < 0 )
+            {
+                throw new IllegalArgumentException( "reservedInteractiveThreads < 0" );
+            }
+
+            this.reservedInteractiveThreads = reservedInteractiveThreads;
+            return this;
+        }
+
+        /**
+         * Number of interactive evaluations which may wait for a thread, 64 by
+         * default.
+         */
+        @Nonnull
+        public Builder interactiveQueueCapacity( int interactiveQueueCapacity )
+        {
+            if ( interactiveQueueCapacity < 1 )
+            {
+                throw new IllegalArgumentException( "interactiveQueueCapacity < 1" );
+            }
+
+            this.interactiveQueueCapacity = interactiveQueueCapacity;
+            return this;
+        }
+
+        @Nonnull
+        public Builder threadName( @Nonnull String threadName )
+        {
+            this.threadName = threadName;
+            return this;
+        }
+
+        @Nonnull
+        public RuleEvaluationScheduler build()
+        {
+            int reserved = reservedInteractiveThreads < 0 ? Math.min( 1, threads - 1 ) : reservedInteractiveThreads;
+
+            if ( reserved >= threads )
+            {
+                throw new IllegalStateException( "All threads are reserved for interactive evaluations" );
+            }
+
+            return new RuleEvaluationScheduler( threads, reserved, interactiveQueueCapacity, threadName );
+        }
+    }
+}
@@ -17,6 +17,11 @@ public abstract class RuleVariableValue
 
     private static final String NUMBER_PATTERN = "0.0";
 
+    // lazily computed views of candidates, not part of value identity
+    private volatile NumericCandidates numericCandidates;
+
+    private volatile Map<String, Integer> candidateFrequencies;
+
     @Nonnull
     public static RuleVariableValue create( @Nonnull RuleValueType ruleValueType )
     {
@@ -70,8 +75,10 @@ public abstract class RuleVariableValue
             processedValue = getFormattedNumber(value);
         }*/
 
+        // candidates shared by the variables of a data element are already unmodifiable
         return new AutoValue_RuleVariableValue( processedValue, ruleValueType,
-            Collections.unmodifiableList( candidates ), eventDate );
+            candidates instanceof EventValueList.Values ? candidates : Collections.unmodifiableList( candidates ),
+            eventDate );
     }
 
     private static String getFormattedDate( Date date )
@@ -100,4 +107,47 @@ public abstract class RuleVariableValue
 
     @Nullable
     public abstract String eventDate();
+
+    /**
+     * @return candidates parsed as numbers. Computed on first access and reused afterwards.
+     * @throws NumberFormatException if any of the candidates is not a number.
+     */
+    @Nonnull
+    public NumericCandidates numericCandidates()
+    {
+        NumericCandidates numeric = numericCandidates;
+
+        if ( numeric == null )
+        {
+            numeric = NumericCandidates.parse( candidates() );
+            numericCandidates = numeric;
+        }
+
+        return numeric;
+    }
+
+    /**
+     * @param candidate value to look for.
+     * @return number of candidates equal to the given value.
+     */
+    public int candidateFrequency( @Nullable String candidate )
+    {
+        Map<String, Integer> frequencies = candidateFrequencies;
+
+        if ( frequencies == null )
+        {
+            frequencies = new HashMap<>();
+
+            for ( String value : candidates() )
+            {
+                Integer count = frequencies.get( value );
+                frequencies.put( value, count == null ? 1 : count + 1 );
+            }
+
+            candidateFrequencies = frequencies;
+        }
+
+        Integer count = frequencies.get( candidate );
+        return count == null ? 0 : count;
+    }
 }
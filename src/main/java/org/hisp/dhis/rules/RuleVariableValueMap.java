@@ -5,6 +5,12 @@ import org.hisp.dhis.rules.models.RuleEvent;
 
 import java.util.Map;
 
+/**
+ * Variable values of every target of a multiple evaluation. The maps are
+ * keyed by identity: looking an event or enrollment up does not hash or
+ * compare its data values, so it must be the instance given to the engine.
+ * They iterate in the order the targets were given in.
+ */
 public final class RuleVariableValueMap
 {
     private Map<RuleEnrollment, Map<String, RuleVariableValue>> enrollmentMap;
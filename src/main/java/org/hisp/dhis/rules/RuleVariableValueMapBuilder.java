@@ -28,6 +28,9 @@ public final class RuleVariableValueMapBuilder
     @Nonnull
     private final List<RuleEvent> ruleEvents;
 
+    @Nonnull
+    private final Set<String> ruleEventUids;
+
     @Nullable
     public RuleEnrollment ruleEnrollment;
 
@@ -37,6 +40,28 @@ public final class RuleVariableValueMapBuilder
     @Nullable
     private TriggerEnvironment triggerEnvironment;
 
+    /**
+     * Data elements whose values in all events are read by the variables, or
+     * null if some variable may read any of them.
+     */
+    @Nullable
+    private Set<String> indexedDataElements;
+
+    private boolean indexedDataElementsResolved;
+
+    /**
+     * Variables whose candidates are read, or null if all of them may be.
+     */
+    @Nullable
+    private Set<String> candidateVariables;
+
+    /**
+     * Index of all event values shared by the targets of
+     * {@link #multipleBuild()}, which are all among the events.
+     */
+    @Nullable
+    private Map<String, List<RuleDataValue>> sharedEventValues;
+
     private RuleVariableValueMapBuilder()
     {
         this.dateFormat = new SimpleDateFormat( DATE_PATTERN, Locale.US );
@@ -44,6 +69,7 @@ public final class RuleVariableValueMapBuilder
         // collections used for construction of resulting variable value map
         this.ruleVariables = new ArrayList<>();
         this.ruleEvents = new ArrayList<>();
+        this.ruleEventUids = new HashSet<>();
         this.allConstantValues = new HashMap<>();
     }
 
@@ -85,6 +111,7 @@ public final class RuleVariableValueMapBuilder
     RuleVariableValueMapBuilder ruleVariables( @Nonnull List<RuleVariable> ruleVariables )
     {
         this.ruleVariables.addAll( ruleVariables );
+        this.indexedDataElementsResolved = false;
         return this;
     }
 
@@ -123,6 +150,23 @@ public final class RuleVariableValueMapBuilder
         }
 
         this.ruleEvents.addAll( ruleEvents );
+
+        for ( int i = 0; i < ruleEvents.size(); i++ )
+        {
+            this.ruleEventUids.add( ruleEvents.get( i ).event() );
+        }
+
+        return this;
+    }
+
+    /**
+     * Limits the candidates of event data element variables not in the given
+     * set to their own value, see {@link #needsCandidates(String)}.
+     */
+    @Nonnull
+    RuleVariableValueMapBuilder candidateVariables( @Nullable Set<String> candidateVariables )
+    {
+        this.candidateVariables = candidateVariables;
         return this;
     }
 
@@ -154,12 +198,16 @@ public final class RuleVariableValueMapBuilder
     @Nonnull
     RuleVariableValueMap multipleBuild()
     {
-        Map<RuleEnrollment, Map<String, RuleVariableValue>> enrollmentMap = new HashMap<>();
+        sharedEventValues = buildVariableEventValues();
+
+        // keyed by identity, hashing events and enrollments would hash all their values,
+        // and in the order of the input, which the effects are returned in
+        Map<RuleEnrollment, Map<String, RuleVariableValue>> enrollmentMap = new LinkedIdentityMap<>();
         if ( ruleEnrollment != null )
         {
             enrollmentMap.put( ruleEnrollment, build() );
         }
-        Map<RuleEvent, Map<String, RuleVariableValue>> eventMap = new HashMap<>();
+        Map<RuleEvent, Map<String, RuleVariableValue>> eventMap = new LinkedIdentityMap<>();
 
         for ( RuleEvent event : ruleEvents )
         {
@@ -167,6 +215,8 @@ public final class RuleVariableValueMapBuilder
             eventMap.put( ruleEvent, build() );
         }
 
+        sharedEventValues = null;
+
         return new RuleVariableValueMap( enrollmentMap, eventMap );
     }
 
@@ -189,41 +239,121 @@ public final class RuleVariableValueMapBuilder
         return false;
     }
 
-    private Map<String, RuleDataValue> buildCurrentEventValues()
+    /**
+     * @return whether the candidates of the variable are read, so that they
+     * must hold the values of all events. Otherwise the value of the variable
+     * is its only candidate.
+     */
+    public boolean needsCandidates( @Nonnull String variableName )
     {
-        Map<String, RuleDataValue> currentEventValues = Maps.newHashMap();
+        return candidateVariables == null || candidateVariables.contains( variableName );
+    }
 
-        if ( ruleEvent != null )
+    /**
+     * @return mutable copy of the values of the target event by data element.
+     */
+    Map<String, RuleDataValue> buildCurrentEventValues()
+    {
+        return ruleEvent == null ? new HashMap<String, RuleDataValue>() :
+            new HashMap<>( ruleEvent.dataValueIndex() );
+    }
+
+    /**
+     * @return mutable copy of the attribute values of the enrollment by
+     * attribute.
+     */
+    Map<String, RuleAttributeValue> buildCurrentEnrollmentValues()
+    {
+        return ruleEnrollment == null ? new HashMap<String, RuleAttributeValue>() :
+            new HashMap<>( ruleEnrollment.attributeValueIndex() );
+    }
+
+    /**
+     * @return mutable index of the values of all data elements.
+     */
+    Map<String, List<RuleDataValue>> buildAllEventValues()
+    {
+        Map<String, List<RuleDataValue>> allEventsValues = Maps.newHashMap();
+        List<RuleEvent> events = sortedEvents();
+
+        // aggregating values by data element uid
+        for ( int i = 0; i < events.size(); i++ )
         {
-            for ( int index = 0; index < ruleEvent.dataValues().size(); index++ )
+            RuleEvent ruleEvent = events.get( i );
+
+            for ( int j = 0; j < ruleEvent.dataValues().size(); j++ )
             {
-                RuleDataValue ruleDataValue = ruleEvent.dataValues().get( index );
-                currentEventValues.put( ruleDataValue.dataElement(), ruleDataValue );
+                RuleDataValue ruleDataValue = ruleEvent.dataValues().get( j );
+                List<RuleDataValue> values = allEventsValues.get( ruleDataValue.dataElement() );
+
+                // push new list if it is not there for the given data element
+                if ( values == null )
+                {
+                    values = new ArrayList<>( events.size() ); //NOPMD
+                    allEventsValues.put( ruleDataValue.dataElement(), values );
+                }
+
+                // append data value to the list
+                values.add( ruleDataValue );
             }
         }
 
-        return currentEventValues;
+        return allEventsValues;
     }
 
-    private Map<String, RuleAttributeValue> buildCurrentEnrollmentValues()
+    /**
+     * Index of the values of the data elements read by the variables only.
+     * Every data value costs one lookup, values of other data elements are
+     * skipped, and the lists share their candidate values between variables.
+     */
+    private Map<String, List<RuleDataValue>> buildVariableEventValues()
     {
-        Map<String, RuleAttributeValue> currentEnrollmentValues = Maps.newHashMap();
-        if ( ruleEnrollment != null )
+        Set<String> dataElements = indexedDataElements();
+
+        if ( dataElements == null )
         {
-            List<RuleAttributeValue> ruleAttributeValues = ruleEnrollment.attributeValues();
-            for ( int index = 0; index < ruleAttributeValues.size(); index++ )
+            return buildAllEventValues();
+        }
+
+        List<RuleDataValue> none = Collections.emptyList();
+        Map<String, List<RuleDataValue>> allEventsValues = new HashMap<>( dataElements.size() * 2 );
+
+        for ( String dataElement : dataElements )
+        {
+            allEventsValues.put( dataElement, none );
+        }
+
+        List<RuleEvent> events = sortedEvents();
+
+        for ( int i = 0; i < events.size(); i++ )
+        {
+            List<RuleDataValue> dataValues = events.get( i ).dataValues();
+
+            for ( int j = 0; j < dataValues.size(); j++ )
             {
-                RuleAttributeValue attributeValue = ruleAttributeValues.get( index );
-                currentEnrollmentValues.put( attributeValue.trackedEntityAttribute(), attributeValue );
+                RuleDataValue ruleDataValue = dataValues.get( j );
+                List<RuleDataValue> values = allEventsValues.get( ruleDataValue.dataElement() );
+
+                if ( values == null )
+                {
+                    continue;
+                }
+
+                if ( values == none )
+                {
+                    values = new EventValueList( events.size() ); //NOPMD
+                    allEventsValues.put( ruleDataValue.dataElement(), values );
+                }
+
+                values.add( ruleDataValue );
             }
         }
 
-        return currentEnrollmentValues;
+        return allEventsValues;
     }
 
-    private Map<String, List<RuleDataValue>> buildAllEventValues()
+    private List<RuleEvent> sortedEvents()
     {
-        Map<String, List<RuleDataValue>> allEventsValues = Maps.newHashMap();
         List<RuleEvent> events = new ArrayList<>( ruleEvents );
 
         if ( ruleEvent != null )
@@ -236,28 +366,46 @@ public final class RuleVariableValueMapBuilder
         // sort list of events by eventDate:
         Collections.sort( events, RuleEvent.EVENT_DATE_COMPARATOR );
 
-        // aggregating values by data element uid
-        for ( int i = 0; i < events.size(); i++ )
-        {
-            RuleEvent ruleEvent = events.get( i );
+        return events;
+    }
 
-            for ( int j = 0; j < ruleEvent.dataValues().size(); j++ )
-            {
-                RuleDataValue ruleDataValue = ruleEvent.dataValues().get( j );
+    @Nullable
+    private Set<String> indexedDataElements()
+    {
+        if ( indexedDataElementsResolved )
+        {
+            return indexedDataElements;
+        }
 
-                // push new list if it is not there for the given data element
-                if ( !allEventsValues.containsKey( ruleDataValue.dataElement() ) )
-                {
-                    allEventsValues.put( ruleDataValue.dataElement(),
-                        new ArrayList<RuleDataValue>( events.size() ) ); //NOPMD
-                }
+        Set<String> dataElements = new HashSet<>();
 
-                // append data value to the list
-                allEventsValues.get( ruleDataValue.dataElement() ).add( ruleDataValue );
+        for ( RuleVariable ruleVariable : ruleVariables )
+        {
+            if ( ruleVariable instanceof RuleVariableNewestEvent )
+            {
+                dataElements.add( ((RuleVariableNewestEvent) ruleVariable).dataElement() );
+            }
+            else if ( ruleVariable instanceof RuleVariableNewestStageEvent )
+            {
+                dataElements.add( ((RuleVariableNewestStageEvent) ruleVariable).dataElement() );
+            }
+            else if ( ruleVariable instanceof RuleVariablePreviousEvent )
+            {
+                dataElements.add( ((RuleVariablePreviousEvent) ruleVariable).dataElement() );
+            }
+            else if ( !(ruleVariable instanceof RuleVariableCurrentEvent ||
+                ruleVariable instanceof RuleVariableAttribute ||
+                ruleVariable instanceof RuleVariableCalculatedValue) )
+            {
+                // variables of other kinds may read any data element
+                dataElements = null;
+                break;
             }
         }
 
-        return allEventsValues;
+        indexedDataElements = dataElements;
+        indexedDataElementsResolved = true;
+        return dataElements;
     }
 
     private Map<String, RuleVariableValue> buildConstantsValues()
@@ -343,7 +491,7 @@ public final class RuleVariableValueMapBuilder
 
             // override value of event count
             String eventCount = String.valueOf( ruleEvents.size() + 1 );
-            if ( ruleEvents.contains( ruleEvent ) )
+            if ( ruleEventUids.contains( ruleEvent.event() ) )
             {
                 eventCount = String.valueOf( ruleEvents.size() );
             }
@@ -378,13 +526,16 @@ public final class RuleVariableValueMapBuilder
         Map<String, RuleVariableValue> valueMap = Maps.newHashMap();
 
         // map data values within all events to data elements
-        Map<String, List<RuleDataValue>> allEventValues = buildAllEventValues();
+        Map<String, List<RuleDataValue>> allEventValues = sharedEventValues != null ?
+            sharedEventValues : buildVariableEventValues();
 
-        // map tracked entity attributes to values from enrollment
-        Map<String, RuleAttributeValue> currentEnrollmentValues = buildCurrentEnrollmentValues();
+        // map tracked entity attributes to values from enrollment, indexed once per enrollment
+        Map<String, RuleAttributeValue> currentEnrollmentValues = ruleEnrollment == null ?
+            Collections.<String, RuleAttributeValue>emptyMap() : ruleEnrollment.attributeValueIndex();
 
-        // build a map of current event values
-        Map<String, RuleDataValue> currentEventValues = buildCurrentEventValues();
+        // map of current event values, indexed once per event
+        Map<String, RuleDataValue> currentEventValues = ruleEvent == null ?
+            Collections.<String, RuleDataValue>emptyMap() : ruleEvent.dataValueIndex();
 
         for ( RuleVariable ruleVariable : ruleVariables )
         {
@@ -13,7 +13,21 @@ import javax.annotation.Nonnull;
 public final class Utils
 {
 
+    /**
+     * @deprecated {@link SimpleDateFormat} is not thread safe, use {@link #formatDate(Date)} instead.
+     */
+    @Deprecated
     public static final SimpleDateFormat dateFormat = new SimpleDateFormat( "yyyy-MM-dd", Locale.US );
+
+    private static final ThreadLocal<SimpleDateFormat> DATE_FORMAT = new ThreadLocal<SimpleDateFormat>()
+    {
+        @Override
+        protected SimpleDateFormat initialValue()
+        {
+            return new SimpleDateFormat( "yyyy-MM-dd", Locale.US );
+        }
+    };
+
     static final String VARIABLE_PATTERN = "[#]\\{([\\w -_.]+)\\}";
     static final Pattern VARIABLE_PATTERN_COMPILED = Pattern.compile( VARIABLE_PATTERN );
 
@@ -24,6 +38,11 @@ public final class Utils
 
     public static List<String> values( List<RuleDataValue> ruleDataValues )
     {
+        if ( ruleDataValues instanceof EventValueList )
+        {
+            return ((EventValueList) ruleDataValues).values();
+        }
+
         List<String> values = new ArrayList<>( ruleDataValues.size() );
         for ( RuleDataValue ruleDataValue : ruleDataValues )
         {
@@ -44,7 +63,7 @@ public final class Utils
                 dates.add( d );
             }
         }
-        return dateFormat.format( Collections.max( dates ) );
+        return formatDate( Collections.max( dates ) );
     }
 
     public static String getLastUpdateDate( List<RuleDataValue> ruleDataValues )
@@ -58,7 +77,157 @@ public final class Utils
                 dates.add( d );
             }
         }
-        return dateFormat.format( Collections.max( dates ) );
+        return formatDate( Collections.max( dates ) );
+    }
+
+    /**
+     * Same as {@link #getLastUpdateDate(List)} for the values of one stage or
+     * all of them. In the index of all event values whose dates are in order,
+     * see {@link #previousIndex(List, Date)}, it stops at the first value
+     * which is not in the future. Other lists are scanned.
+     *
+     * @param programStage stage of the values to consider, or null for all.
+     * @throws NoSuchElementException if all values are in the future.
+     */
+    public static String getLastUpdateDateOfNewest( List<RuleDataValue> ruleDataValues, String programStage )
+    {
+        long now = System.currentTimeMillis();
+        long[] eventTimes = eventTimes( ruleDataValues );
+        int index = -1;
+
+        for ( int i = 0; i < ruleDataValues.size(); i++ )
+        {
+            RuleDataValue ruleDataValue = ruleDataValues.get( i );
+            long time = eventTimes != null ? eventTimes[i] : ruleDataValue.eventDate().getTime();
+
+            if ( time <= now && (programStage == null || programStage.equals( ruleDataValue.programStage() )) &&
+                (index < 0 || time > ruleDataValues.get( index ).eventDate().getTime()) )
+            {
+                index = i;
+
+                if ( eventTimes != null )
+                {
+                    // dates are descending, no later value is newer
+                    break;
+                }
+            }
+        }
+
+        if ( index < 0 )
+        {
+            throw new NoSuchElementException();
+        }
+
+        return formatDate( ruleDataValues.get( index ).eventDate() );
+    }
+
+    /**
+     * Same as {@link #getLastUpdateDateForPrevious(List, RuleEvent)}, found
+     * by binary search in the index of all event values when the dates of its
+     * values are in order, see {@link #previousIndex(List, Date)}.
+     *
+     * @throws NoSuchElementException if no value before the event date is in
+     * the past.
+     */
+    public static String getLastUpdateDateOfPrevious( List<RuleDataValue> ruleDataValues, Date eventDate )
+    {
+        // before the event date and not in the future
+        long bound = Math.min( eventDate.getTime(), System.currentTimeMillis() + 1 );
+        long[] eventTimes = eventTimes( ruleDataValues );
+        int index = -1;
+
+        if ( eventTimes != null )
+        {
+            index = firstBefore( eventTimes, bound );
+        }
+        else
+        {
+            for ( int i = 0; i < ruleDataValues.size(); i++ )
+            {
+                long time = ruleDataValues.get( i ).eventDate().getTime();
+
+                if ( time < bound && (index < 0 || time > ruleDataValues.get( index ).eventDate().getTime()) )
+                {
+                    index = i;
+                }
+            }
+        }
+
+        if ( index < 0 )
+        {
+            throw new NoSuchElementException();
+        }
+
+        return formatDate( ruleDataValues.get( index ).eventDate() );
+    }
+
+    /**
+     * Finds the first value with an event date before the given one. The
+     * values are expected in the order of the index of all event values, by
+     * the date of their events, newest first. The values of that index are
+     * found by binary search if their own event dates are in the same order,
+     * as they are when each value has the date of its event. Other lists,
+     * such as those of sessions, are scanned.
+     *
+     * @return index of the first value with an event date before the given
+     * one, or -1 if there is none.
+     */
+    public static int previousIndex( List<RuleDataValue> ruleDataValues, Date eventDate )
+    {
+        long[] eventTimes = eventTimes( ruleDataValues );
+
+        if ( eventTimes != null )
+        {
+            return firstBefore( eventTimes, eventDate.getTime() );
+        }
+
+        for ( int i = 0; i < ruleDataValues.size(); i++ )
+        {
+            if ( ruleDataValues.get( i ).eventDate().before( eventDate ) )
+            {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static long[] eventTimes( List<RuleDataValue> ruleDataValues )
+    {
+        return ruleDataValues instanceof EventValueList ? ((EventValueList) ruleDataValues).eventTimes() : null;
+    }
+
+    private static int firstBefore( long[] eventTimes, long time )
+    {
+        int low = 0;
+        int high = eventTimes.length;
+
+        // times are descending, find the first index whose time is before time
+        while ( low < high )
+        {
+            int middle = (low + high) >>> 1;
+            long middleTime = eventTimes[middle];
+
+            if ( middleTime < time )
+            {
+                high = middle;
+            }
+            else
+            {
+                low = middle + 1;
+            }
+        }
+
+        return low < eventTimes.length ? low : -1;
+    }
+
+    /**
+     * Formats the date as yyyy-MM-dd. Safe to call from concurrent evaluations.
+     */
+    @Nonnull
+    public static String formatDate( @Nonnull Date date )
+    {
+        return DATE_FORMAT.get().format( date );
     }
 
     @Nonnull
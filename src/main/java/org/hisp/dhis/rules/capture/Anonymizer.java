@@ -0,0 +1,166 @@
+package org.hisp.dhis.rules.capture;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.models.RuleAttributeValue;
+import org.hisp.dhis.rules.models.RuleDataValue;
+import org.hisp.dhis.rules.models.RuleEffect;
+import org.hisp.dhis.rules.models.RuleEffects;
+import org.hisp.dhis.rules.models.RuleEnrollment;
+import org.hisp.dhis.rules.models.RuleEvent;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Replaces free text values in engine inputs and effect data by salted
+ * pseudonyms. Numbers, booleans and dates are kept, as rules mostly compute
+ * on them; equal texts map to equal pseudonyms within one capture, so
+ * comparisons between values still behave the same on replay.
+ */
+final class Anonymizer
+{
+    private static final Pattern KEPT = Pattern.compile(
+        "-?\\d+(\\.\\d+)?|true|false|\\d{4}-\\d{2}-\\d{2}" );
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    @Nonnull
+    private final byte[] salt;
+
+    Anonymizer()
+    {
+        this.salt = new byte[16];
+        new SecureRandom().nextBytes( salt );
+    }
+
+    @Nullable
+    String value( @Nullable String value )
+    {
+        if ( value == null || value.isEmpty() || KEPT.matcher( value ).matches() )
+        {
+            return value;
+        }
+
+        MessageDigest digest;
+
+        try
+        {
+            digest = MessageDigest.getInstance( "SHA-256" );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IllegalStateException( e );
+        }
+
+        digest.update( salt );
+        byte[] hash = digest.digest( value.getBytes( StandardCharsets.UTF_8 ) );
+        StringBuilder pseudonym = new StringBuilder( "anon_" );
+
+        for ( int i = 0; i < 8; i++ )
+        {
+            pseudonym.append( HEX[(hash[i] >> 4) & 0xf] ).append( HEX[hash[i] & 0xf] );
+        }
+
+        return pseudonym.toString();
+    }
+
+    @Nonnull
+    RuleEnrollment enrollment( @Nonnull RuleEnrollment enrollment )
+    {
+        List<RuleAttributeValue> attributeValues = new ArrayList<>( enrollment.attributeValues().size() );
+
+        for ( RuleAttributeValue attributeValue : enrollment.attributeValues() )
+        {
+            attributeValues.add( RuleAttributeValue.create( attributeValue.trackedEntityAttribute(),
+                value( attributeValue.value() ) ) );
+        }
+
+        return RuleEnrollment.create( enrollment.enrollment(), enrollment.incidentDate(),
+            enrollment.enrollmentDate(), enrollment.status(), enrollment.organisationUnit(),
+            enrollment.organisationUnitCode(), attributeValues, enrollment.programName() );
+    }
+
+    @Nonnull
+    List<RuleEvent> events( @Nonnull List<RuleEvent> events )
+    {
+        List<RuleEvent> anonymized = new ArrayList<>( events.size() );
+
+        for ( RuleEvent event : events )
+        {
+            anonymized.add( event( event ) );
+        }
+
+        return anonymized;
+    }
+
+    @Nonnull
+    RuleEvent event( @Nonnull RuleEvent event )
+    {
+        List<RuleDataValue> dataValues = new ArrayList<>( event.dataValues().size() );
+
+        for ( RuleDataValue dataValue : event.dataValues() )
+        {
+            dataValues.add( RuleDataValue.create( dataValue.eventDate(), dataValue.programStage(),
+                dataValue.dataElement(), value( dataValue.value() ) ) );
+        }
+
+        return RuleEvent.create( event.event(), event.programStage(), event.status(), event.eventDate(),
+            event.dueDate(), event.organisationUnit(), event.organisationUnitCode(), dataValues,
+            event.programStageName(), event.completedDate() );
+    }
+
+    @Nonnull
+    List<RuleEffects> effects( @Nonnull List<RuleEffects> effects )
+    {
+        List<RuleEffects> anonymized = new ArrayList<>( effects.size() );
+
+        for ( RuleEffects ruleEffects : effects )
+        {
+            List<RuleEffect> effectList = new ArrayList<>( ruleEffects.getRuleEffects().size() );
+
+            for ( RuleEffect effect : ruleEffects.getRuleEffects() )
+            {
+                effectList.add( RuleEffect.create( effect.ruleId(), effect.ruleAction(), value( effect.data() ) ) );
+            }
+
+            anonymized.add( new RuleEffects( ruleEffects.getTrackerObjectType(),
+                ruleEffects.getTrackerObjectUid(), effectList ) );
+        }
+
+        return anonymized;
+    }
+}
@@ -0,0 +1,199 @@
+package org.hisp.dhis.rules.capture;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.RuleEngineContext;
+import org.hisp.dhis.rules.io.RuleModelInput;
+import org.hisp.dhis.rules.models.Rule;
+import org.hisp.dhis.rules.models.RuleEnrollment;
+import org.hisp.dhis.rules.models.RuleVariable;
+import org.hisp.dhis.rules.models.TriggerEnvironment;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads captured evaluations written by {@link CaptureWriter}, rebuilding
+ * each context once and sharing it between its evaluations.
+ */
+public final class CaptureReader
+    implements Closeable
+{
+    @Nonnull
+    private final InputStream stream;
+
+    @Nonnull
+    private final RuleModelInput input;
+
+    @Nonnull
+    private final Map<Integer, RuleEngineContext> contexts = new HashMap<>();
+
+    private final boolean anonymized;
+
+    public CaptureReader( @Nonnull InputStream stream )
+        throws IOException
+    {
+        this.stream = stream;
+        this.input = new RuleModelInput( stream );
+
+        if ( input.readInt() != CaptureFormat.MAGIC )
+        {
+            throw new IOException( "Not a rule engine capture" );
+        }
+
+        int version = input.readInt();
+
+        if ( version != CaptureFormat.VERSION )
+        {
+            throw new IOException( "Unsupported capture version " + version );
+        }
+
+        this.anonymized = (input.readInt() & CaptureFormat.FLAG_ANONYMIZED) != 0;
+    }
+
+    public boolean isAnonymized()
+    {
+        return anonymized;
+    }
+
+    /**
+     * @return next evaluation, or null at the end of the capture.
+     */
+    @Nullable
+    public CapturedEvaluation next()
+        throws IOException
+    {
+        while ( true )
+        {
+            int record = input.readByteOrEnd();
+
+            if ( record == -1 )
+            {
+                return null;
+            }
+
+            if ( record == CaptureFormat.RECORD_CONTEXT )
+            {
+                readContext();
+            }
+            else if ( record == CaptureFormat.RECORD_EVALUATION )
+            {
+                return readEvaluation();
+            }
+            else
+            {
+                throw new IOException( "Unknown capture record " + record );
+            }
+        }
+    }
+
+    @Override
+    public void close()
+        throws IOException
+    {
+        stream.close();
+    }
+
+    private void readContext()
+        throws IOException
+    {
+        int id = input.readInt();
+        List<Rule> rules = input.readRules();
+        List<RuleVariable> variables = input.readVariables();
+        Map<String, String> constants = input.readStringMap();
+        Map<String, List<String>> supplementaryData = input.readStringListMap();
+
+        RuleEngineContext.Builder builder = RuleEngineContext.builder()
+            .rules( rules )
+            .ruleVariables( variables );
+
+        if ( constants != null )
+        {
+            builder.constantsValue( constants );
+        }
+
+        if ( supplementaryData != null )
+        {
+            builder.supplementaryData( supplementaryData );
+        }
+
+        contexts.put( id, builder.build() );
+    }
+
+    private CapturedEvaluation readEvaluation()
+        throws IOException
+    {
+        int contextId = input.readInt();
+        RuleEngineContext context = contexts.get( contextId );
+
+        if ( context == null )
+        {
+            throw new IOException( "Evaluation refers to unknown context " + contextId );
+        }
+
+        CapturedEvaluation.Builder builder = CapturedEvaluation.builder()
+            .context( context )
+            .triggerEnvironment( input.readEnum( TriggerEnvironment.class ) );
+
+        if ( input.readBoolean() )
+        {
+            builder.enrollment( input.readEnrollment() );
+        }
+
+        builder.events( input.readEvents() );
+
+        switch ( input.readEnum( CapturedEvaluation.Target.class ) )
+        {
+        case EVENT:
+            builder.targetEvent( input.readEvent() );
+            break;
+        case ENROLLMENT:
+            builder.targetEnrollment( input.readEnrollment() );
+            break;
+        default:
+            builder.targetAll();
+            break;
+        }
+
+        if ( input.readBoolean() )
+        {
+            builder.rules( input.readRules() );
+        }
+
+        return builder.effects( input.readEffects() )
+            .durationNanos( input.readLong() )
+            .build();
+    }
+}
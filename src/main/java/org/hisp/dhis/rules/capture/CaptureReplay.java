@@ -0,0 +1,238 @@
+package org.hisp.dhis.rules.capture;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.RuleEngine;
+import org.hisp.dhis.rules.models.RuleEffect;
+import org.hisp.dhis.rules.models.RuleEffects;
+import org.hisp.dhis.rules.models.TrackerObjectType;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Re-executes captured evaluations back to back and compares the effects with
+ * the captured ones. Effects of anonymized captures are not compared, as the
+ * pseudonyms change what text functions compute.
+ */
+public final class CaptureReplay
+{
+    private CaptureReplay()
+    {
+    }
+
+    @Nonnull
+    public static Report replay( @Nonnull CaptureReader reader )
+        throws Exception
+    {
+        long[] latencies = new long[64];
+        int count = 0;
+        List<String> mismatches = new ArrayList<>();
+        long start = System.nanoTime();
+
+        CapturedEvaluation evaluation;
+
+        while ( (evaluation = reader.next()) != null )
+        {
+            long evaluationStart = System.nanoTime();
+            List<RuleEffects> effects = evaluate( evaluation );
+            long latency = System.nanoTime() - evaluationStart;
+
+            if ( count == latencies.length )
+            {
+                latencies = Arrays.copyOf( latencies, count * 2 );
+            }
+
+            latencies[count++] = latency;
+
+            if ( !reader.isAnonymized() )
+            {
+                compare( count - 1, evaluation.effects(), effects, mismatches );
+            }
+        }
+
+        long elapsed = System.nanoTime() - start;
+        latencies = Arrays.copyOf( latencies, count );
+        Arrays.sort( latencies );
+
+        return new Report( latencies, elapsed, mismatches );
+    }
+
+    @Nonnull
+    static List<RuleEffects> evaluate( @Nonnull CapturedEvaluation evaluation )
+        throws Exception
+    {
+        RuleEngine.Builder builder = evaluation.context().toEngineBuilder()
+            .events( evaluation.events() );
+
+        if ( evaluation.enrollment() != null )
+        {
+            builder.enrollment( evaluation.enrollment() );
+        }
+
+        if ( evaluation.triggerEnvironment() != null )
+        {
+            builder.triggerEnvironment( evaluation.triggerEnvironment() );
+        }
+
+        RuleEngine engine = builder.build();
+
+        switch ( evaluation.target() )
+        {
+        case EVENT:
+            List<RuleEffect> eventEffects = evaluation.rules() == null ?
+                engine.evaluate( evaluation.targetEvent() ).call() :
+                engine.evaluate( evaluation.targetEvent(), evaluation.rules() ).call();
+            return Collections.singletonList( new RuleEffects( TrackerObjectType.EVENT,
+                evaluation.targetEvent().event(), eventEffects ) );
+        case ENROLLMENT:
+            List<RuleEffect> enrollmentEffects = evaluation.rules() == null ?
+                engine.evaluate( evaluation.targetEnrollment() ).call() :
+                engine.evaluate( evaluation.targetEnrollment(), evaluation.rules() ).call();
+            return Collections.singletonList( new RuleEffects( TrackerObjectType.ENROLLMENT,
+                evaluation.targetEnrollment().enrollment(), enrollmentEffects ) );
+        default:
+            return engine.evaluate().call();
+        }
+    }
+
+    private static void compare( int index, List<RuleEffects> expected, List<RuleEffects> actual,
+        List<String> mismatches )
+    {
+        Map<String, List<RuleEffect>> expectedByUid = byUid( expected );
+        Map<String, List<RuleEffect>> actualByUid = byUid( actual );
+
+        if ( !expectedByUid.equals( actualByUid ) )
+        {
+            for ( Map.Entry<String, List<RuleEffect>> entry : expectedByUid.entrySet() )
+            {
+                if ( !entry.getValue().equals( actualByUid.get( entry.getKey() ) ) )
+                {
+                    mismatches.add( "evaluation " + index + ", " + entry.getKey() + ": expected " +
+                        entry.getValue() + " but was " + actualByUid.get( entry.getKey() ) );
+                }
+            }
+
+            for ( String uid : actualByUid.keySet() )
+            {
+                if ( !expectedByUid.containsKey( uid ) )
+                {
+                    mismatches.add( "evaluation " + index + ", " + uid + ": not captured" );
+                }
+            }
+        }
+    }
+
+    private static Map<String, List<RuleEffect>> byUid( List<RuleEffects> effects )
+    {
+        Map<String, List<RuleEffect>> byUid = new HashMap<>();
+
+        for ( RuleEffects ruleEffects : effects )
+        {
+            byUid.put( ruleEffects.getTrackerObjectType() + ":" + ruleEffects.getTrackerObjectUid(),
+                ruleEffects.getRuleEffects() );
+        }
+
+        return byUid;
+    }
+
+    /**
+     * Throughput, latency percentiles and effect mismatches of a replay.
+     */
+    public static final class Report
+    {
+        @Nonnull
+        private final long[] sortedLatencies;
+
+        private final long elapsedNanos;
+
+        @Nonnull
+        private final List<String> mismatches;
+
+        Report( @Nonnull long[] sortedLatencies, long elapsedNanos, @Nonnull List<String> mismatches )
+        {
+            this.sortedLatencies = sortedLatencies;
+            this.elapsedNanos = elapsedNanos;
+            this.mismatches = Collections.unmodifiableList( mismatches );
+        }
+
+        public int evaluationCount()
+        {
+            return sortedLatencies.length;
+        }
+
+        /**
+         * @return evaluations per second, including engine construction.
+         */
+        public double throughput()
+        {
+            return elapsedNanos == 0 ? 0 : sortedLatencies.length * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * @param percentile between 0 and 100.
+         * @return latency in nanoseconds, nearest rank.
+         */
+        public long latency( double percentile )
+        {
+            if ( sortedLatencies.length == 0 )
+            {
+                return 0;
+            }
+
+            int rank = (int) Math.ceil( percentile / 100 * sortedLatencies.length );
+            return sortedLatencies[Math.max( 0, Math.min( rank, sortedLatencies.length ) - 1 )];
+        }
+
+        public long maxLatency()
+        {
+            return sortedLatencies.length == 0 ? 0 : sortedLatencies[sortedLatencies.length - 1];
+        }
+
+        @Nonnull
+        public List<String> mismatches()
+        {
+            return mismatches;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format( "%d evaluations, %.1f ops/s, p50 %.3f ms, p95 %.3f ms, p99 %.3f ms, " +
+                    "max %.3f ms, %d mismatches", evaluationCount(), throughput(), latency( 50 ) / 1e6,
+                latency( 95 ) / 1e6, latency( 99 ) / 1e6, maxLatency() / 1e6, mismatches.size() );
+        }
+    }
+}
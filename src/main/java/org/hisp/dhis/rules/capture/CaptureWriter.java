@@ -0,0 +1,192 @@
+package org.hisp.dhis.rules.capture;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hisp.dhis.rules.RuleEngineContext;
+import org.hisp.dhis.rules.io.RuleModelOutput;
+import org.hisp.dhis.rules.models.RuleEvent;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Writes captured evaluations to a compact, versioned binary stream that
+ * {@link CaptureReader} reads back. Each context is written once, the first
+ * time an evaluation with it is recorded; later evaluations refer to it by id.
+ * With anonymization, data values, attribute values and effect data are
+ * replaced by pseudonyms, see {@link Anonymizer}. Expression errors returned
+ * with the effects are not captured, so replays do not compare them.
+ */
+public final class CaptureWriter
+    implements EvaluationRecorder, Closeable
+{
+    private static final Log log = LogFactory.getLog( CaptureWriter.class );
+
+    @Nonnull
+    private final OutputStream stream;
+
+    @Nonnull
+    private final RuleModelOutput output;
+
+    @Nonnull
+    private final Map<RuleEngineContext, Integer> contextIds = new WeakHashMap<>();
+
+    private final Anonymizer anonymizer;
+
+    private int contextCount;
+
+    private int evaluationCount;
+
+    private boolean failed;
+
+    public CaptureWriter( @Nonnull OutputStream stream, boolean anonymize )
+        throws IOException
+    {
+        this.stream = stream;
+        this.output = new RuleModelOutput( stream );
+        this.anonymizer = anonymize ? new Anonymizer() : null;
+
+        output.writeInt( CaptureFormat.MAGIC );
+        output.writeInt( CaptureFormat.VERSION );
+        output.writeInt( anonymize ? CaptureFormat.FLAG_ANONYMIZED : 0 );
+        output.flush();
+    }
+
+    /**
+     * Writes the evaluation and flushes it. Write errors are logged once and
+     * further evaluations are dropped, so a full disk does not affect the
+     * engine.
+     */
+    @Override
+    public synchronized void record( @Nonnull CapturedEvaluation evaluation )
+    {
+        if ( failed )
+        {
+            return;
+        }
+
+        try
+        {
+            write( evaluation );
+            output.flush();
+            evaluationCount++;
+        }
+        catch ( IOException e )
+        {
+            failed = true;
+            log.warn( "Capture stopped after " + evaluationCount + " evaluations", e );
+        }
+    }
+
+    public synchronized int evaluationCount()
+    {
+        return evaluationCount;
+    }
+
+    @Override
+    public synchronized void close()
+        throws IOException
+    {
+        stream.close();
+    }
+
+    private void write( CapturedEvaluation evaluation )
+        throws IOException
+    {
+        int contextId = contextId( evaluation.context() );
+
+        output.writeByte( CaptureFormat.RECORD_EVALUATION );
+        output.writeInt( contextId );
+        output.writeEnum( evaluation.triggerEnvironment() );
+        output.writeBoolean( evaluation.enrollment() != null );
+
+        if ( evaluation.enrollment() != null )
+        {
+            output.writeEnrollment( anonymizer == null ?
+                evaluation.enrollment() : anonymizer.enrollment( evaluation.enrollment() ) );
+        }
+
+        output.writeEvents( anonymizer == null ? evaluation.events() : anonymizer.events( evaluation.events() ) );
+        output.writeEnum( evaluation.target() );
+
+        switch ( evaluation.target() )
+        {
+        case EVENT:
+            RuleEvent event = evaluation.targetEvent();
+            output.writeEvent( anonymizer == null ? event : anonymizer.event( event ) );
+            break;
+        case ENROLLMENT:
+            output.writeEnrollment( anonymizer == null ?
+                evaluation.targetEnrollment() : anonymizer.enrollment( evaluation.targetEnrollment() ) );
+            break;
+        default:
+            break;
+        }
+
+        output.writeBoolean( evaluation.rules() != null );
+
+        if ( evaluation.rules() != null )
+        {
+            output.writeRules( evaluation.rules() );
+        }
+
+        output.writeEffects( anonymizer == null ? evaluation.effects() : anonymizer.effects( evaluation.effects() ) );
+        output.writeLong( evaluation.durationNanos() );
+    }
+
+    private int contextId( RuleEngineContext context )
+        throws IOException
+    {
+        Integer id = contextIds.get( context );
+
+        if ( id != null )
+        {
+            return id;
+        }
+
+        // ids are never reused, entries of collected contexts just drop out
+        id = contextCount++;
+        contextIds.put( context, id );
+
+        output.writeByte( CaptureFormat.RECORD_CONTEXT );
+        output.writeInt( id );
+        output.writeRules( context.rules() );
+        output.writeVariables( context.ruleVariables() );
+        output.writeStringMap( context.constantsValues() );
+        output.writeStringListMap( context.supplementaryData() );
+
+        return id;
+    }
+}
@@ -0,0 +1,304 @@
+package org.hisp.dhis.rules.capture;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.RuleEngineContext;
+import org.hisp.dhis.rules.models.Rule;
+import org.hisp.dhis.rules.models.RuleEffects;
+import org.hisp.dhis.rules.models.RuleEnrollment;
+import org.hisp.dhis.rules.models.RuleEvent;
+import org.hisp.dhis.rules.models.TriggerEnvironment;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Inputs and effects of one rule engine evaluation: the context, the engine
+ * inputs, what was evaluated and the effects it produced.
+ */
+public final class CapturedEvaluation
+{
+    public enum Target
+    {
+        /**
+         * {@link org.hisp.dhis.rules.RuleEngine#evaluate(RuleEvent)}
+         */
+        EVENT,
+
+        /**
+         * {@link org.hisp.dhis.rules.RuleEngine#evaluate(RuleEnrollment)}
+         */
+        ENROLLMENT,
+
+        /**
+         * {@link org.hisp.dhis.rules.RuleEngine#evaluate()}
+         */
+        ALL
+    }
+
+    @Nonnull
+    private final RuleEngineContext context;
+
+    @Nullable
+    private final TriggerEnvironment triggerEnvironment;
+
+    @Nullable
+    private final RuleEnrollment enrollment;
+
+    @Nonnull
+    private final List<RuleEvent> events;
+
+    @Nonnull
+    private final Target target;
+
+    @Nullable
+    private final RuleEvent targetEvent;
+
+    @Nullable
+    private final RuleEnrollment targetEnrollment;
+
+    @Nullable
+    private final List<Rule> rules;
+
+    @Nonnull
+    private final List<RuleEffects> effects;
+
+    private final long durationNanos;
+
+    private CapturedEvaluation( Builder builder )
+    {
+        this.context = builder.context;
+        this.triggerEnvironment = builder.triggerEnvironment;
+        this.enrollment = builder.enrollment;
+        this.events = builder.events;
+        this.target = builder.target;
+        this.targetEvent = builder.targetEvent;
+        this.targetEnrollment = builder.targetEnrollment;
+        this.rules = builder.rules;
+        this.effects = builder.effects;
+        this.durationNanos = builder.durationNanos;
+    }
+
+    @Nonnull
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    @Nonnull
+    public RuleEngineContext context()
+    {
+        return context;
+    }
+
+    @Nullable
+    public TriggerEnvironment triggerEnvironment()
+    {
+        return triggerEnvironment;
+    }
+
+    /**
+     * @return enrollment the engine was built with.
+     */
+    @Nullable
+    public RuleEnrollment enrollment()
+    {
+        return enrollment;
+    }
+
+    /**
+     * @return events the engine was built with.
+     */
+    @Nonnull
+    public List<RuleEvent> events()
+    {
+        return events;
+    }
+
+    @Nonnull
+    public Target target()
+    {
+        return target;
+    }
+
+    /**
+     * @return evaluated event, for {@link Target#EVENT}.
+     */
+    @Nullable
+    public RuleEvent targetEvent()
+    {
+        return targetEvent;
+    }
+
+    /**
+     * @return evaluated enrollment, for {@link Target#ENROLLMENT}.
+     */
+    @Nullable
+    public RuleEnrollment targetEnrollment()
+    {
+        return targetEnrollment;
+    }
+
+    /**
+     * @return rules given to the evaluation, or null if all rules of the context
+     * were evaluated.
+     */
+    @Nullable
+    public List<Rule> rules()
+    {
+        return rules;
+    }
+
+    /**
+     * @return effects per evaluated event or enrollment; a single entry unless
+     * the target is {@link Target#ALL}.
+     */
+    @Nonnull
+    public List<RuleEffects> effects()
+    {
+        return effects;
+    }
+
+    public long durationNanos()
+    {
+        return durationNanos;
+    }
+
+    public static final class Builder
+    {
+        private RuleEngineContext context;
+
+        private TriggerEnvironment triggerEnvironment;
+
+        private RuleEnrollment enrollment;
+
+        private List<RuleEvent> events = Collections.emptyList();
+
+        private Target target;
+
+        private RuleEvent targetEvent;
+
+        private RuleEnrollment targetEnrollment;
+
+        private List<Rule> rules;
+
+        private List<RuleEffects> effects = Collections.emptyList();
+
+        private long durationNanos;
+
+        private Builder()
+        {
+        }
+
+        @Nonnull
+        public Builder context( @Nonnull RuleEngineContext context )
+        {
+            this.context = context;
+            return this;
+        }
+
+        @Nonnull
+        public Builder triggerEnvironment( @Nullable TriggerEnvironment triggerEnvironment )
+        {
+            this.triggerEnvironment = triggerEnvironment;
+            return this;
+        }
+
+        @Nonnull
+        public Builder enrollment( @Nullable RuleEnrollment enrollment )
+        {
+            this.enrollment = enrollment;
+            return this;
+        }
+
+        @Nonnull
+        public Builder events( @Nonnull List<RuleEvent> events )
+        {
+            this.events = events;
+            return this;
+        }
+
+        @Nonnull
+        public Builder targetEvent( @Nonnull RuleEvent targetEvent )
+        {
+            this.target = Target.EVENT;
+            this.targetEvent = targetEvent;
+            return this;
+        }
+
+        @Nonnull
+        public Builder targetEnrollment( @Nonnull RuleEnrollment targetEnrollment )
+        {
+            this.target = Target.ENROLLMENT;
+            this.targetEnrollment = targetEnrollment;
+            return this;
+        }
+
+        @Nonnull
+        public Builder targetAll()
+        {
+            this.target = Target.ALL;
+            return this;
+        }
+
+        @Nonnull
+        public Builder rules( @Nullable List<Rule> rules )
+        {
+            this.rules = rules;
+            return this;
+        }
+
+        @Nonnull
+        public Builder effects( @Nonnull List<RuleEffects> effects )
+        {
+            this.effects = effects;
+            return this;
+        }
+
+        @Nonnull
+        public Builder durationNanos( long durationNanos )
+        {
+            this.durationNanos = durationNanos;
+            return this;
+        }
+
+        @Nonnull
+        public CapturedEvaluation build()
+        {
+            if ( context == null || target == null )
+            {
+                throw new IllegalStateException( "Context and target are required" );
+            }
+
+            return new CapturedEvaluation( this );
+        }
+    }
+}
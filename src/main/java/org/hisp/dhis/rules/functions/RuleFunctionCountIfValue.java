@@ -34,7 +34,6 @@ import org.hisp.dhis.rules.models.RuleValueType;
 import org.hisp.dhis.rules.parser.expression.CommonExpressionVisitor;
 import org.hisp.dhis.rules.parser.expression.function.ScalarFunctionToEvaluate;
 
-import java.util.Collections;
 import java.util.Map;
 
 import static org.hisp.dhis.parser.expression.antlr.ExpressionParser.ExprContext;
@@ -78,7 +77,7 @@ public class RuleFunctionCountIfValue
                 }
             }
 
-            return Integer.toString( Collections.frequency( variableValue.candidates(), valueToFind ) );
+            return Integer.toString( variableValue.candidateFrequency( valueToFind ) );
         }
         else
         {
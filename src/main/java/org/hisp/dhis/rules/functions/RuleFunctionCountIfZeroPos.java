@@ -31,10 +31,9 @@ package org.hisp.dhis.rules.functions;
 import org.hisp.dhis.rules.RuleExpression;
 import org.hisp.dhis.rules.RuleVariableValue;
 import org.hisp.dhis.rules.parser.expression.CommonExpressionVisitor;
+import org.hisp.dhis.rules.parser.expression.ExpressionEvaluationException;
 import org.hisp.dhis.rules.parser.expression.function.ScalarFunctionToEvaluate;
 
-import java.util.List;
-
 import static org.hisp.dhis.parser.expression.antlr.ExpressionParser.ExprContext;
 
 /**
@@ -46,22 +45,6 @@ import static org.hisp.dhis.parser.expression.antlr.ExpressionParser.ExprContext
 public class RuleFunctionCountIfZeroPos
     extends ScalarFunctionToEvaluate
 {
-    private boolean isZeroPos( String input )
-    {
-        Double value;
-
-        try
-        {
-            value = Double.parseDouble( input );
-        }
-        catch ( NumberFormatException e )
-        {
-            throw new IllegalArgumentException( "Invalid number format" );
-        }
-
-        return value >= 0;
-    }
-
     @Override
     public Object evaluate( ExprContext ctx, CommonExpressionVisitor visitor )
     {
@@ -69,18 +52,16 @@ public class RuleFunctionCountIfZeroPos
 
         if ( value != null )
         {
-            List<String> candidates = value.candidates();
+            int count;
 
-            Integer count = 0;
-            for ( String string : candidates )
+            try
             {
-                    if ( isZeroPos( string ) )
-                    {
-                            count++;
-                    }
+                count = value.numericCandidates().zeroOrPositiveCount();
+            }
+            catch ( NumberFormatException e )
+            {
+                throw new ExpressionEvaluationException( "Invalid number format" );
             }
-
-//                        Integer count = candidates.stream().filter( this::isZeroPos ).collect( Collectors.toList() ).size();
 
             return String.valueOf( count );
         }
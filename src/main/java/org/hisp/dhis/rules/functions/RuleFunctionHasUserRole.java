@@ -29,6 +29,7 @@ package org.hisp.dhis.rules.functions;
  */
 
 import org.hisp.dhis.rules.parser.expression.CommonExpressionVisitor;
+import org.hisp.dhis.rules.parser.expression.ExpressionEvaluationException;
 import org.hisp.dhis.rules.parser.expression.function.ScalarFunctionToEvaluate;
 
 import java.util.List;
@@ -51,7 +52,7 @@ public class RuleFunctionHasUserRole
 
         if ( !supplementaryData.containsKey( USER ) )
         {
-            throw new IllegalArgumentException( "Supplementary data needs to be provided" );
+            throw new ExpressionEvaluationException( "Supplementary data needs to be provided" );
         }
 
         List<String> roles = supplementaryData.get( USER );
@@ -54,7 +54,8 @@ public class RuleFunctionInOrgUnitGroup
             return String.valueOf( false );
         }
 
-        String orgUnit = valueMap.get( "org_unit" ).value().replace( "'", "" );
+        // quotes are already stripped when the variable value is created
+        String orgUnit = valueMap.get( "org_unit" ).value();
 
         List<String> members = supplementaryData.get( value );
 
@@ -30,6 +30,7 @@ package org.hisp.dhis.rules.functions;
 
 import org.apache.commons.lang3.StringUtils;
 import org.hisp.dhis.rules.parser.expression.CommonExpressionVisitor;
+import org.hisp.dhis.rules.parser.expression.ExpressionEvaluationException;
 import org.hisp.dhis.rules.parser.expression.function.ScalarFunctionToEvaluate;
 
 import static org.hisp.dhis.antlr.AntlrParserUtils.castDouble;
@@ -50,7 +51,7 @@ public class RuleFunctionLeft
 
         if ( doubleValue.doubleValue() % 1 != 0 )
         {
-            throw new IllegalArgumentException( "Number has to be an integer" );
+            throw new ExpressionEvaluationException( "Number has to be an integer" );
         }
 
         return RuleFunction.wrap( StringUtils.substring( visitor.castStringVisit( ctx.expr( 0 ) ), 0, chars ) );
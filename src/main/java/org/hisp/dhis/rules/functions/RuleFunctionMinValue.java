@@ -28,14 +28,11 @@ package org.hisp.dhis.rules.functions;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
-import com.google.common.collect.Lists;
 import org.hisp.dhis.rules.RuleExpression;
 import org.hisp.dhis.rules.RuleVariableValue;
 import org.hisp.dhis.rules.parser.expression.CommonExpressionVisitor;
 import org.hisp.dhis.rules.parser.expression.function.ScalarFunctionToEvaluate;
 
-import java.util.Collections;
-import java.util.List;
 import java.util.Map;
 
 import static org.hisp.dhis.parser.expression.antlr.ExpressionParser.ExprContext;
@@ -54,16 +51,7 @@ public class RuleFunctionMinValue
         {
             RuleVariableValue ruleVariableValue = valueMap.get( dataElement );
 
-            List<String> values = ruleVariableValue.candidates();
-
-            List<Double> doubles = Lists.newArrayList();
-
-            for ( String value : values )
-            {
-                doubles.add( Double.parseDouble( value ) );
-            }
-
-            return Collections.min( doubles ).toString();
+            return String.valueOf( ruleVariableValue.numericCandidates().min() );
         }
 
         return "";
@@ -29,6 +29,7 @@ package org.hisp.dhis.rules.functions;
  */
 
 import org.hisp.dhis.parser.expression.antlr.ExpressionParser.ExprContext;
+import org.hisp.dhis.rules.EvaluationDeadline;
 import org.hisp.dhis.rules.parser.expression.CommonExpressionVisitor;
 import org.hisp.dhis.rules.parser.expression.function.ScalarFunctionToEvaluate;
 
@@ -53,7 +54,9 @@ public class RuleFunctionValidatePattern
 
         Pattern pattern = Pattern.compile( regex );
 
-        Matcher matcher = pattern.matcher( input );
+        // patterns that backtrack can take very long, let the match be stopped at the deadline
+        EvaluationDeadline deadline = visitor.getDeadline();
+        Matcher matcher = pattern.matcher( deadline == null ? input : deadline.guard( input ) );
 
         return wrap( String.valueOf( matcher.matches() ) );
     }
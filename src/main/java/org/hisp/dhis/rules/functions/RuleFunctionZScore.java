@@ -30,6 +30,7 @@ package org.hisp.dhis.rules.functions;
 
 import com.google.common.collect.Sets;
 import org.hisp.dhis.rules.parser.expression.CommonExpressionVisitor;
+import org.hisp.dhis.rules.parser.expression.ExpressionEvaluationException;
 import org.hisp.dhis.rules.parser.expression.function.ScalarFunctionToEvaluate;
 
 import java.text.DecimalFormat;
@@ -70,7 +71,7 @@ public abstract class RuleFunctionZScore
 
         if ( genderParameter == null )
         {
-            throw new IllegalArgumentException( "Gender cannot be null" );
+            throw new ExpressionEvaluationException( "Gender cannot be null" );
         }
 
         byte gender = GENDER_CODES.contains( genderParameter ) ? (byte) 0 : (byte) 1;
@@ -84,7 +85,7 @@ public abstract class RuleFunctionZScore
         }
         catch ( NumberFormatException ex )
         {
-            throw new IllegalArgumentException( "Byte parsing failed" );
+            throw new ExpressionEvaluationException( "Byte parsing failed" );
         }
 
         zScore = getZScore( parameter, weight, gender );
@@ -138,7 +139,7 @@ public abstract class RuleFunctionZScore
 
         if ( sdMap.isEmpty() )
         {
-            throw new IllegalArgumentException( "No key exist for provided parameters" );
+            throw new ExpressionEvaluationException( "No key exist for provided parameters" );
         }
 
         int multiplicationFactor = getMultiplicationFactor( sdMap, weight );
@@ -0,0 +1,138 @@
+package org.hisp.dhis.rules.io;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.models.*;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Rule action types known to {@link RuleModelOutput}. The ordinal is the
+ * encoded tag: new types must be appended.
+ */
+enum ActionType
+{
+    ASSIGN,
+    CREATE_EVENT,
+    DISPLAY_KEY_VALUE_PAIR,
+    DISPLAY_TEXT,
+    ERROR_ON_COMPLETION,
+    HIDE_FIELD,
+    HIDE_OPTION,
+    HIDE_OPTION_GROUP,
+    HIDE_PROGRAM_STAGE,
+    HIDE_SECTION,
+    SCHEDULE_MESSAGE,
+    SEND_MESSAGE,
+    SET_MANDATORY_FIELD,
+    SHOW_ERROR,
+    SHOW_OPTION_GROUP,
+    SHOW_WARNING,
+    WARNING_ON_COMPLETION,
+    TIMEOUT;
+
+    @Nonnull
+    static ActionType of( @Nonnull RuleAction action )
+    {
+        if ( action instanceof RuleActionAssign )
+        {
+            return ASSIGN;
+        }
+        else if ( action instanceof RuleActionCreateEvent )
+        {
+            return CREATE_EVENT;
+        }
+        else if ( action instanceof RuleActionDisplayKeyValuePair )
+        {
+            return DISPLAY_KEY_VALUE_PAIR;
+        }
+        else if ( action instanceof RuleActionDisplayText )
+        {
+            return DISPLAY_TEXT;
+        }
+        else if ( action instanceof RuleActionErrorOnCompletion )
+        {
+            return ERROR_ON_COMPLETION;
+        }
+        else if ( action instanceof RuleActionHideField )
+        {
+            return HIDE_FIELD;
+        }
+        else if ( action instanceof RuleActionHideOption )
+        {
+            return HIDE_OPTION;
+        }
+        else if ( action instanceof RuleActionHideOptionGroup )
+        {
+            return HIDE_OPTION_GROUP;
+        }
+        else if ( action instanceof RuleActionHideProgramStage )
+        {
+            return HIDE_PROGRAM_STAGE;
+        }
+        else if ( action instanceof RuleActionHideSection )
+        {
+            return HIDE_SECTION;
+        }
+        else if ( action instanceof RuleActionScheduleMessage )
+        {
+            return SCHEDULE_MESSAGE;
+        }
+        else if ( action instanceof RuleActionSendMessage )
+        {
+            return SEND_MESSAGE;
+        }
+        else if ( action instanceof RuleActionSetMandatoryField )
+        {
+            return SET_MANDATORY_FIELD;
+        }
+        else if ( action instanceof RuleActionShowError )
+        {
+            return SHOW_ERROR;
+        }
+        else if ( action instanceof RuleActionShowOptionGroup )
+        {
+            return SHOW_OPTION_GROUP;
+        }
+        else if ( action instanceof RuleActionShowWarning )
+        {
+            return SHOW_WARNING;
+        }
+        else if ( action instanceof RuleActionWarningOnCompletion )
+        {
+            return WARNING_ON_COMPLETION;
+        }
+        else if ( action instanceof RuleActionTimeout )
+        {
+            return TIMEOUT;
+        }
+
+        throw new IllegalArgumentException( "Unsupported rule action: " + action.getClass().getName() );
+    }
+}
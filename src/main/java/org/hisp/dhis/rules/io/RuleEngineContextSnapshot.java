@@ -0,0 +1,244 @@
+package org.hisp.dhis.rules.io;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.DataItem;
+import org.hisp.dhis.rules.ItemValueType;
+import org.hisp.dhis.rules.RuleEngineContext;
+import org.hisp.dhis.rules.RuleEngineIntent;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Versioned binary snapshot of a {@link RuleEngineContext}: rules, variables,
+ * constants, supplementary data and, for description contexts, the item
+ * store. Loading a snapshot skips building the models from metadata, and
+ * strings repeated across rules and variables are read once and shared.
+ * <p>
+ * The listener is not part of the snapshot; use {@link #readBuilder(InputStream)}
+ * to register one. Expression parse trees are cached by the expression parser
+ * on first use and are not part of the snapshot either.
+ */
+public final class RuleEngineContextSnapshot
+{
+    private static final int MAGIC = 0x44485253; // "DHRS"
+
+    private static final int VERSION = 1;
+
+    private RuleEngineContextSnapshot()
+    {
+    }
+
+    public static void write( @Nonnull RuleEngineContext context, @Nonnull OutputStream stream )
+        throws IOException
+    {
+        RuleModelOutput output = new RuleModelOutput( stream );
+
+        output.writeInt( MAGIC );
+        output.writeInt( VERSION );
+        output.writeRules( context.rules() );
+        output.writeVariables( context.ruleVariables() );
+        output.writeStringMap( context.constantsValues() );
+        output.writeStringListMap( context.supplementaryData() );
+
+        boolean description = context.getRuleEngineIntent() == RuleEngineIntent.DESCRIPTION;
+        output.writeBoolean( description );
+
+        if ( description )
+        {
+            Map<String, DataItem> itemStore = context.getDataItemStore();
+            output.writeBoolean( itemStore != null );
+
+            if ( itemStore != null )
+            {
+                output.writeInt( itemStore.size() );
+
+                for ( Map.Entry<String, DataItem> item : itemStore.entrySet() )
+                {
+                    output.writeString( item.getKey() );
+                    output.writeString( item.getValue().getDisplayName() );
+                    output.writeEnum( item.getValue().getValueType() );
+                }
+            }
+        }
+
+        output.flush();
+    }
+
+    @Nonnull
+    public static byte[] toByteArray( @Nonnull RuleEngineContext context )
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try
+        {
+            write( context, bytes );
+        }
+        catch ( IOException e )
+        {
+            // not thrown by ByteArrayOutputStream
+            throw new IllegalStateException( e );
+        }
+
+        return bytes.toByteArray();
+    }
+
+    @Nonnull
+    public static RuleEngineContext read( @Nonnull InputStream stream )
+        throws IOException
+    {
+        return readBuilder( stream ).build();
+    }
+
+    @Nonnull
+    public static RuleEngineContext read( @Nonnull byte[] snapshot )
+        throws IOException
+    {
+        return read( new ByteArrayInputStream( snapshot ) );
+    }
+
+    /**
+     * Reads a snapshot from the remaining bytes of the buffer, for example a
+     * memory mapped file, without copying it first.
+     */
+    @Nonnull
+    public static RuleEngineContext read( @Nonnull ByteBuffer snapshot )
+        throws IOException
+    {
+        return read( new ByteBufferInputStream( snapshot.duplicate() ) );
+    }
+
+    /**
+     * @return context builder holding the snapshot, to which a listener can
+     * still be added.
+     */
+    @Nonnull
+    public static RuleEngineContext.Builder readBuilder( @Nonnull InputStream stream )
+        throws IOException
+    {
+        RuleModelInput input = new RuleModelInput( stream );
+
+        if ( input.readInt() != MAGIC )
+        {
+            throw new IOException( "Not a rule engine context snapshot" );
+        }
+
+        int version = input.readInt();
+
+        if ( version != VERSION )
+        {
+            throw new IOException( "Unsupported snapshot version " + version );
+        }
+
+        RuleEngineContext.Builder builder = RuleEngineContext.builder()
+            .rules( input.readRules() )
+            .ruleVariables( input.readVariables() );
+
+        Map<String, String> constants = input.readStringMap();
+        Map<String, List<String>> supplementaryData = input.readStringListMap();
+
+        if ( constants != null )
+        {
+            builder.constantsValue( constants );
+        }
+
+        if ( supplementaryData != null )
+        {
+            builder.supplementaryData( supplementaryData );
+        }
+
+        if ( input.readBoolean() )
+        {
+            Map<String, DataItem> itemStore = null;
+
+            if ( input.readBoolean() )
+            {
+                int size = input.readInt();
+                itemStore = new HashMap<>();
+
+                for ( int i = 0; i < size; i++ )
+                {
+                    String key = input.readString();
+                    String displayName = input.readString();
+                    itemStore.put( key, new DataItem( displayName, input.readEnum( ItemValueType.class ) ) );
+                }
+            }
+
+            builder.ruleEngineItent( RuleEngineIntent.DESCRIPTION ).itemStore( itemStore );
+        }
+
+        return builder;
+    }
+
+    private static final class ByteBufferInputStream
+        extends InputStream
+    {
+        @Nonnull
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream( @Nonnull ByteBuffer buffer )
+        {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read()
+        {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read( @Nonnull byte[] bytes, int offset, int length )
+        {
+            if ( !buffer.hasRemaining() )
+            {
+                return -1;
+            }
+
+            int count = Math.min( length, buffer.remaining() );
+            buffer.get( bytes, offset, count );
+            return count;
+        }
+
+        @Override
+        public int available()
+        {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,490 @@
+package org.hisp.dhis.rules.io;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.models.*;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads rule engine models written by {@link RuleModelOutput}.
+ */
+public class RuleModelInput
+{
+    private static final ActionType[] ACTION_TYPES = ActionType.values();
+
+    private static final VariableType[] VARIABLE_TYPES = VariableType.values();
+
+    @Nonnull
+    private final DataInputStream input;
+
+    @Nonnull
+    private final List<String> strings = new ArrayList<>();
+
+    public RuleModelInput( @Nonnull InputStream input )
+    {
+        this.input = new DataInputStream( input );
+    }
+
+    public int readByte()
+        throws IOException
+    {
+        return input.readUnsignedByte();
+    }
+
+    /**
+     * @return the next byte, or -1 at the end of the stream.
+     */
+    public int readByteOrEnd()
+        throws IOException
+    {
+        return input.read();
+    }
+
+    public boolean readBoolean()
+        throws IOException
+    {
+        return input.readBoolean();
+    }
+
+    public int readInt()
+        throws IOException
+    {
+        return (int) readLong();
+    }
+
+    public long readLong()
+        throws IOException
+    {
+        long value = 0;
+
+        for ( int shift = 0; shift < 64; shift += 7 )
+        {
+            int next = input.readUnsignedByte();
+            value |= (long) (next & 0x7F) << shift;
+
+            if ( (next & 0x80) == 0 )
+            {
+                return value;
+            }
+        }
+
+        throw new IOException( "Malformed variable length number" );
+    }
+
+    @Nullable
+    public String readString()
+        throws IOException
+    {
+        int reference = readInt();
+
+        if ( reference == 0 )
+        {
+            return null;
+        }
+
+        if ( reference == 1 )
+        {
+            String value = input.readUTF();
+            strings.add( value );
+            return value;
+        }
+
+        if ( reference - 2 >= strings.size() )
+        {
+            throw new IOException( "Unknown string reference: " + reference );
+        }
+
+        return strings.get( reference - 2 );
+    }
+
+    @Nullable
+    public Date readDate()
+        throws IOException
+    {
+        return input.readBoolean() ? new Date( input.readLong() ) : null;
+    }
+
+    @Nullable
+    public <E extends Enum<E>> E readEnum( @Nonnull Class<E> type )
+        throws IOException
+    {
+        int value = readInt();
+
+        if ( value == 0 )
+        {
+            return null;
+        }
+
+        E[] constants = type.getEnumConstants();
+
+        if ( value > constants.length )
+        {
+            throw new IOException( "Unknown " + type.getSimpleName() + ": " + (value - 1) );
+        }
+
+        return constants[value - 1];
+    }
+
+    @Nullable
+    public Map<String, String> readStringMap()
+        throws IOException
+    {
+        if ( !input.readBoolean() )
+        {
+            return null;
+        }
+
+        int size = readInt();
+        Map<String, String> values = new HashMap<>();
+
+        for ( int i = 0; i < size; i++ )
+        {
+            values.put( readString(), readString() );
+        }
+
+        return values;
+    }
+
+    @Nullable
+    public Map<String, List<String>> readStringListMap()
+        throws IOException
+    {
+        if ( !input.readBoolean() )
+        {
+            return null;
+        }
+
+        int size = readInt();
+        Map<String, List<String>> values = new HashMap<>();
+
+        for ( int i = 0; i < size; i++ )
+        {
+            String key = readString();
+            List<String> list = null;
+
+            if ( input.readBoolean() )
+            {
+                int listSize = readInt();
+                list = new ArrayList<>( listSize );
+
+                for ( int j = 0; j < listSize; j++ )
+                {
+                    list.add( readString() );
+                }
+            }
+
+            values.put( key, list );
+        }
+
+        return values;
+    }
+
+    @Nonnull
+    public List<Rule> readRules()
+        throws IOException
+    {
+        int size = readInt();
+        List<Rule> rules = new ArrayList<>( size );
+
+        for ( int i = 0; i < size; i++ )
+        {
+            rules.add( readRule() );
+        }
+
+        return rules;
+    }
+
+    @Nonnull
+    public Rule readRule()
+        throws IOException
+    {
+        String programStage = readString();
+        Integer priority = input.readBoolean() ? input.readInt() : null;
+        String condition = readString();
+        int actionCount = readInt();
+        List<RuleAction> actions = new ArrayList<>( actionCount );
+
+        for ( int i = 0; i < actionCount; i++ )
+        {
+            actions.add( readAction() );
+        }
+
+        return Rule.create( programStage, priority, condition, actions, readString(), readString() );
+    }
+
+    @Nonnull
+    public RuleAction readAction()
+        throws IOException
+    {
+        int tag = readByte();
+
+        if ( tag >= ACTION_TYPES.length )
+        {
+            throw new IOException( "Unknown rule action type: " + tag );
+        }
+
+        switch ( ACTION_TYPES[tag] )
+        {
+        case CREATE_EVENT:
+        {
+            String data = readString();
+            return RuleActionCreateEvent.create( readString(), data, readString() );
+        }
+        case DISPLAY_KEY_VALUE_PAIR:
+        {
+            String data = readString();
+            String content = readString();
+            return RuleActionDisplayKeyValuePair.LOCATION_INDICATOR_WIDGET.equals( readString() ) ?
+                RuleActionDisplayKeyValuePair.createForIndicators( content, data ) :
+                RuleActionDisplayKeyValuePair.createForFeedback( content, data );
+        }
+        case DISPLAY_TEXT:
+        {
+            String data = readString();
+            String content = readString();
+            return RuleActionDisplayText.LOCATION_INDICATOR_WIDGET.equals( readString() ) ?
+                RuleActionDisplayText.createForIndicators( content, data ) :
+                RuleActionDisplayText.createForFeedback( content, data );
+        }
+        case HIDE_PROGRAM_STAGE:
+            return RuleActionHideProgramStage.create( readString() );
+        case HIDE_SECTION:
+            return RuleActionHideSection.create( readString() );
+        case SCHEDULE_MESSAGE:
+        {
+            String data = readString();
+            return RuleActionScheduleMessage.create( readString(), data );
+        }
+        case SEND_MESSAGE:
+        {
+            String data = readString();
+            return RuleActionSendMessage.create( readString(), data );
+        }
+        case TIMEOUT:
+            return RuleActionTimeout.create( readBoolean() );
+        default:
+            return readAttributeAction( ACTION_TYPES[tag] );
+        }
+    }
+
+    private RuleAction readAttributeAction( ActionType type )
+        throws IOException
+    {
+        String data = readString();
+        AttributeType attributeType = readEnum( AttributeType.class );
+        String content = readString();
+        String field = readString();
+
+        switch ( type )
+        {
+        case ASSIGN:
+            return RuleActionAssign.create( content, data, field, attributeType );
+        case ERROR_ON_COMPLETION:
+            return RuleActionErrorOnCompletion.create( content, data, field, attributeType );
+        case HIDE_FIELD:
+            return RuleActionHideField.create( content, field, attributeType );
+        case HIDE_OPTION:
+            return RuleActionHideOption.create( content, readString(), field, attributeType );
+        case HIDE_OPTION_GROUP:
+            return RuleActionHideOptionGroup.create( content, readString(), field, attributeType );
+        case SET_MANDATORY_FIELD:
+            return RuleActionSetMandatoryField.create( field, attributeType );
+        case SHOW_ERROR:
+            return RuleActionShowError.create( content, data, field, attributeType );
+        case SHOW_OPTION_GROUP:
+            return RuleActionShowOptionGroup.create( content, readString(), field, attributeType );
+        case SHOW_WARNING:
+            return RuleActionShowWarning.create( content, data, field, attributeType );
+        case WARNING_ON_COMPLETION:
+            return RuleActionWarningOnCompletion.create( content, data, field, attributeType );
+        default:
+            throw new IOException( "Unexpected rule action type: " + type );
+        }
+    }
+
+    @Nonnull
+    public List<RuleVariable> readVariables()
+        throws IOException
+    {
+        int size = readInt();
+        List<RuleVariable> variables = new ArrayList<>( size );
+
+        for ( int i = 0; i < size; i++ )
+        {
+            variables.add( readVariable() );
+        }
+
+        return variables;
+    }
+
+    @Nonnull
+    public RuleVariable readVariable()
+        throws IOException
+    {
+        int tag = readByte();
+
+        if ( tag >= VARIABLE_TYPES.length )
+        {
+            throw new IOException( "Unknown rule variable type: " + tag );
+        }
+
+        String name = readString();
+        String source = readString();
+        RuleValueType valueType = readEnum( RuleValueType.class );
+
+        switch ( VARIABLE_TYPES[tag] )
+        {
+        case ATTRIBUTE:
+            return RuleVariableAttribute.create( name, source, valueType );
+        case CALCULATED_VALUE:
+            return RuleVariableCalculatedValue.create( name, source, valueType );
+        case CURRENT_EVENT:
+            return RuleVariableCurrentEvent.create( name, source, valueType );
+        case NEWEST_EVENT:
+            return RuleVariableNewestEvent.create( name, source, valueType );
+        case NEWEST_STAGE_EVENT:
+            return RuleVariableNewestStageEvent.create( name, source, readString(), valueType );
+        default:
+            return RuleVariablePreviousEvent.create( name, source, valueType );
+        }
+    }
+
+    @Nonnull
+    public RuleEnrollment readEnrollment()
+        throws IOException
+    {
+        String enrollment = readString();
+        String programName = readString();
+        Date incidentDate = readDate();
+        Date enrollmentDate = readDate();
+        RuleEnrollment.Status status = readEnum( RuleEnrollment.Status.class );
+        String organisationUnit = readString();
+        String organisationUnitCode = readString();
+        int size = readInt();
+        List<RuleAttributeValue> attributeValues = new ArrayList<>( size );
+
+        for ( int i = 0; i < size; i++ )
+        {
+            attributeValues.add( RuleAttributeValue.create( readString(), readString() ) );
+        }
+
+        return RuleEnrollment.create( enrollment, incidentDate, enrollmentDate, status, organisationUnit,
+            organisationUnitCode, attributeValues, programName );
+    }
+
+    @Nonnull
+    public List<RuleEvent> readEvents()
+        throws IOException
+    {
+        int size = readInt();
+        List<RuleEvent> events = new ArrayList<>( size );
+
+        for ( int i = 0; i < size; i++ )
+        {
+            events.add( readEvent() );
+        }
+
+        return events;
+    }
+
+    @Nonnull
+    public RuleEvent readEvent()
+        throws IOException
+    {
+        String event = readString();
+        String programStage = readString();
+        String programStageName = readString();
+        RuleEvent.Status status = readEnum( RuleEvent.Status.class );
+        Date eventDate = readDate();
+        Date dueDate = readDate();
+        Date completedDate = readDate();
+        String organisationUnit = readString();
+        String organisationUnitCode = readString();
+        int size = readInt();
+        List<RuleDataValue> dataValues = new ArrayList<>( size );
+
+        for ( int i = 0; i < size; i++ )
+        {
+            Date date = readDate();
+            String stage = readString();
+            dataValues.add( RuleDataValue.create( date, stage, readString(), readString() ) );
+        }
+
+        return RuleEvent.create( event, programStage, status, eventDate, dueDate, organisationUnit,
+            organisationUnitCode, dataValues, programStageName, completedDate );
+    }
+
+    /**
+     * Reads effects written by {@link RuleModelOutput#writeEffects(List)},
+     * which have no expression errors.
+     */
+    @Nonnull
+    public List<RuleEffects> readEffects()
+        throws IOException
+    {
+        int size = readInt();
+        List<RuleEffects> effects = new ArrayList<>( size );
+
+        for ( int i = 0; i < size; i++ )
+        {
+            TrackerObjectType type = readEnum( TrackerObjectType.class );
+            String uid = readString();
+            effects.add( new RuleEffects( type, uid, readEffectList() ) );
+        }
+
+        return effects;
+    }
+
+    @Nonnull
+    public List<RuleEffect> readEffectList()
+        throws IOException
+    {
+        int size = readInt();
+        List<RuleEffect> effects = new ArrayList<>( size );
+
+        for ( int i = 0; i < size; i++ )
+        {
+            String ruleId = readString();
+            RuleAction action = readAction();
+            effects.add( RuleEffect.create( ruleId, action, readString() ) );
+        }
+
+        return effects;
+    }
+}
@@ -0,0 +1,451 @@
+package org.hisp.dhis.rules.io;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.models.*;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of rule engine models, read back by {@link RuleModelInput}.
+ * Integers are written as variable length quantities, and every distinct string
+ * is written once per stream and referenced by index afterwards, as uids and
+ * expressions repeat a lot across rules, events and effects.
+ * <p>
+ * The encoding has no header or version of its own: formats built on top of it
+ * are expected to carry one.
+ */
+public class RuleModelOutput
+{
+    @Nonnull
+    private final DataOutputStream output;
+
+    @Nonnull
+    private final Map<String, Integer> strings = new HashMap<>();
+
+    public RuleModelOutput( @Nonnull OutputStream output )
+    {
+        this.output = new DataOutputStream( output );
+    }
+
+    public void writeByte( int value )
+        throws IOException
+    {
+        output.writeByte( value );
+    }
+
+    public void writeBoolean( boolean value )
+        throws IOException
+    {
+        output.writeBoolean( value );
+    }
+
+    /**
+     * Writes an unsigned variable length int, 7 bits per byte.
+     */
+    public void writeInt( int value )
+        throws IOException
+    {
+        writeLong( value & 0xFFFFFFFFL );
+    }
+
+    /**
+     * Writes an unsigned variable length long, 7 bits per byte.
+     */
+    public void writeLong( long value )
+        throws IOException
+    {
+        while ( (value & ~0x7FL) != 0 )
+        {
+            output.writeByte( (int) ((value & 0x7F) | 0x80) );
+            value >>>= 7;
+        }
+
+        output.writeByte( (int) value );
+    }
+
+    public void writeString( @Nullable String value )
+        throws IOException
+    {
+        if ( value == null )
+        {
+            writeInt( 0 );
+            return;
+        }
+
+        Integer index = strings.get( value );
+
+        if ( index != null )
+        {
+            writeInt( index + 2 );
+            return;
+        }
+
+        strings.put( value, strings.size() );
+        writeInt( 1 );
+        output.writeUTF( value );
+    }
+
+    public void writeDate( @Nullable Date value )
+        throws IOException
+    {
+        output.writeBoolean( value != null );
+
+        if ( value != null )
+        {
+            output.writeLong( value.getTime() );
+        }
+    }
+
+    public void writeEnum( @Nullable Enum<?> value )
+        throws IOException
+    {
+        writeInt( value == null ? 0 : value.ordinal() + 1 );
+    }
+
+    public void writeStringMap( @Nullable Map<String, String> values )
+        throws IOException
+    {
+        output.writeBoolean( values != null );
+
+        if ( values == null )
+        {
+            return;
+        }
+
+        writeInt( values.size() );
+
+        for ( Map.Entry<String, String> entry : values.entrySet() )
+        {
+            writeString( entry.getKey() );
+            writeString( entry.getValue() );
+        }
+    }
+
+    public void writeStringListMap( @Nullable Map<String, List<String>> values )
+        throws IOException
+    {
+        output.writeBoolean( values != null );
+
+        if ( values == null )
+        {
+            return;
+        }
+
+        writeInt( values.size() );
+
+        for ( Map.Entry<String, List<String>> entry : values.entrySet() )
+        {
+            writeString( entry.getKey() );
+            output.writeBoolean( entry.getValue() != null );
+
+            if ( entry.getValue() != null )
+            {
+                writeInt( entry.getValue().size() );
+
+                for ( String value : entry.getValue() )
+                {
+                    writeString( value );
+                }
+            }
+        }
+    }
+
+    public void writeRules( @Nonnull List<Rule> rules )
+        throws IOException
+    {
+        writeInt( rules.size() );
+
+        for ( Rule rule : rules )
+        {
+            writeRule( rule );
+        }
+    }
+
+    public void writeRule( @Nonnull Rule rule )
+        throws IOException
+    {
+        writeString( rule.programStage() );
+        output.writeBoolean( rule.priority() != null );
+
+        if ( rule.priority() != null )
+        {
+            output.writeInt( rule.priority() );
+        }
+
+        writeString( rule.condition() );
+        writeInt( rule.actions().size() );
+
+        for ( RuleAction action : rule.actions() )
+        {
+            writeAction( action );
+        }
+
+        writeString( rule.name() );
+        writeString( rule.uid() );
+    }
+
+    public void writeAction( @Nonnull RuleAction action )
+        throws IOException
+    {
+        ActionType type = ActionType.of( action );
+        writeByte( type.ordinal() );
+
+        switch ( type )
+        {
+        case ASSIGN:
+            RuleActionAssign assign = (RuleActionAssign) action;
+            writeAttributeAction( assign, assign.content(), assign.field() );
+            break;
+        case CREATE_EVENT:
+            RuleActionCreateEvent createEvent = (RuleActionCreateEvent) action;
+            writeString( createEvent.data() );
+            writeString( createEvent.content() );
+            writeString( createEvent.programStage() );
+            break;
+        case DISPLAY_KEY_VALUE_PAIR:
+            RuleActionDisplayKeyValuePair keyValuePair = (RuleActionDisplayKeyValuePair) action;
+            writeString( keyValuePair.data() );
+            writeString( keyValuePair.content() );
+            writeString( keyValuePair.location() );
+            break;
+        case DISPLAY_TEXT:
+            RuleActionDisplayText displayText = (RuleActionDisplayText) action;
+            writeString( displayText.data() );
+            writeString( displayText.content() );
+            writeString( displayText.location() );
+            break;
+        case HIDE_FIELD:
+            RuleActionHideField hideField = (RuleActionHideField) action;
+            writeAttributeAction( hideField, hideField.content(), hideField.field() );
+            break;
+        case HIDE_OPTION:
+            RuleActionHideOption hideOption = (RuleActionHideOption) action;
+            writeAttributeAction( hideOption, hideOption.content(), hideOption.field() );
+            writeString( hideOption.option() );
+            break;
+        case HIDE_OPTION_GROUP:
+            RuleActionHideOptionGroup hideOptionGroup = (RuleActionHideOptionGroup) action;
+            writeAttributeAction( hideOptionGroup, hideOptionGroup.content(), hideOptionGroup.field() );
+            writeString( hideOptionGroup.optionGroup() );
+            break;
+        case HIDE_PROGRAM_STAGE:
+            writeString( ((RuleActionHideProgramStage) action).programStage() );
+            break;
+        case HIDE_SECTION:
+            writeString( ((RuleActionHideSection) action).programStageSection() );
+            break;
+        case SCHEDULE_MESSAGE:
+            writeString( action.data() );
+            writeString( ((RuleActionScheduleMessage) action).notification() );
+            break;
+        case SEND_MESSAGE:
+            writeString( action.data() );
+            writeString( ((RuleActionSendMessage) action).notification() );
+            break;
+        case SET_MANDATORY_FIELD:
+            RuleActionSetMandatoryField mandatoryField = (RuleActionSetMandatoryField) action;
+            writeAttributeAction( mandatoryField, null, mandatoryField.field() );
+            break;
+        case SHOW_OPTION_GROUP:
+            RuleActionShowOptionGroup showOptionGroup = (RuleActionShowOptionGroup) action;
+            writeAttributeAction( showOptionGroup, showOptionGroup.content(), showOptionGroup.field() );
+            writeString( showOptionGroup.optionGroup() );
+            break;
+        case TIMEOUT:
+            writeBoolean( ((RuleActionTimeout) action).interrupted() );
+            break;
+        default:
+            // messages: errors and warnings, on the field or on completion
+            RuleActionMessage message = (RuleActionMessage) action;
+            writeAttributeAction( message, message.content(), message.field() );
+            break;
+        }
+    }
+
+    private void writeAttributeAction( RuleActionAttribute action, String content, String field )
+        throws IOException
+    {
+        writeString( action.data() );
+        writeEnum( action.attributeType() );
+        writeString( content );
+        writeString( field );
+    }
+
+    public void writeVariables( @Nonnull List<RuleVariable> variables )
+        throws IOException
+    {
+        writeInt( variables.size() );
+
+        for ( RuleVariable variable : variables )
+        {
+            writeVariable( variable );
+        }
+    }
+
+    public void writeVariable( @Nonnull RuleVariable variable )
+        throws IOException
+    {
+        VariableType type = VariableType.of( variable );
+        writeByte( type.ordinal() );
+        writeString( variable.name() );
+
+        switch ( type )
+        {
+        case ATTRIBUTE:
+            RuleVariableAttribute attribute = (RuleVariableAttribute) variable;
+            writeString( attribute.trackedEntityAttribute() );
+            writeEnum( attribute.trackedEntityAttributeType() );
+            break;
+        case CALCULATED_VALUE:
+            RuleVariableCalculatedValue calculatedValue = (RuleVariableCalculatedValue) variable;
+            writeString( calculatedValue.calculatedValueVariable() );
+            writeEnum( calculatedValue.calculatedValueType() );
+            break;
+        case CURRENT_EVENT:
+            RuleVariableCurrentEvent currentEvent = (RuleVariableCurrentEvent) variable;
+            writeString( currentEvent.dataElement() );
+            writeEnum( currentEvent.dataElementType() );
+            break;
+        case NEWEST_EVENT:
+            RuleVariableNewestEvent newestEvent = (RuleVariableNewestEvent) variable;
+            writeString( newestEvent.dataElement() );
+            writeEnum( newestEvent.dataElementType() );
+            break;
+        case NEWEST_STAGE_EVENT:
+            RuleVariableNewestStageEvent newestStageEvent = (RuleVariableNewestStageEvent) variable;
+            writeString( newestStageEvent.dataElement() );
+            writeEnum( newestStageEvent.dataElementType() );
+            writeString( newestStageEvent.programStage() );
+            break;
+        default:
+            RuleVariablePreviousEvent previousEvent = (RuleVariablePreviousEvent) variable;
+            writeString( previousEvent.dataElement() );
+            writeEnum( previousEvent.dataElementType() );
+            break;
+        }
+    }
+
+    public void writeEnrollment( @Nonnull RuleEnrollment enrollment )
+        throws IOException
+    {
+        writeString( enrollment.enrollment() );
+        writeString( enrollment.programName() );
+        writeDate( enrollment.incidentDate() );
+        writeDate( enrollment.enrollmentDate() );
+        writeEnum( enrollment.status() );
+        writeString( enrollment.organisationUnit() );
+        writeString( enrollment.organisationUnitCode() );
+        writeInt( enrollment.attributeValues().size() );
+
+        for ( RuleAttributeValue attributeValue : enrollment.attributeValues() )
+        {
+            writeString( attributeValue.trackedEntityAttribute() );
+            writeString( attributeValue.value() );
+        }
+    }
+
+    public void writeEvents( @Nonnull List<RuleEvent> events )
+        throws IOException
+    {
+        writeInt( events.size() );
+
+        for ( RuleEvent event : events )
+        {
+            writeEvent( event );
+        }
+    }
+
+    public void writeEvent( @Nonnull RuleEvent event )
+        throws IOException
+    {
+        writeString( event.event() );
+        writeString( event.programStage() );
+        writeString( event.programStageName() );
+        writeEnum( event.status() );
+        writeDate( event.eventDate() );
+        writeDate( event.dueDate() );
+        writeDate( event.completedDate() );
+        writeString( event.organisationUnit() );
+        writeString( event.organisationUnitCode() );
+        writeInt( event.dataValues().size() );
+
+        for ( RuleDataValue dataValue : event.dataValues() )
+        {
+            writeDate( dataValue.eventDate() );
+            writeString( dataValue.programStage() );
+            writeString( dataValue.dataElement() );
+            writeString( dataValue.value() );
+        }
+    }
+
+    /**
+     * Writes the effects of every target. Their expression errors,
+     * {@link RuleEffects#getErrors()}, are not written.
+     */
+    public void writeEffects( @Nonnull List<RuleEffects> effects )
+        throws IOException
+    {
+        writeInt( effects.size() );
+
+        for ( RuleEffects targetEffects : effects )
+        {
+            writeEnum( targetEffects.getTrackerObjectType() );
+            writeString( targetEffects.getTrackerObjectUid() );
+            writeEffectList( targetEffects.getRuleEffects() );
+        }
+    }
+
+    public void writeEffectList( @Nonnull List<RuleEffect> effects )
+        throws IOException
+    {
+        writeInt( effects.size() );
+
+        for ( RuleEffect effect : effects )
+        {
+            writeString( effect.ruleId() );
+            writeAction( effect.ruleAction() );
+            writeString( effect.data() );
+        }
+    }
+
+    public void flush()
+        throws IOException
+    {
+        output.flush();
+    }
+}
@@ -0,0 +1,78 @@
+package org.hisp.dhis.rules.io;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.models.*;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Rule variable types known to {@link RuleModelOutput}. The ordinal is the
+ * encoded tag: new types must be appended.
+ */
+enum VariableType
+{
+    ATTRIBUTE,
+    CALCULATED_VALUE,
+    CURRENT_EVENT,
+    NEWEST_EVENT,
+    NEWEST_STAGE_EVENT,
+    PREVIOUS_EVENT;
+
+    @Nonnull
+    static VariableType of( @Nonnull RuleVariable variable )
+    {
+        if ( variable instanceof RuleVariableAttribute )
+        {
+            return ATTRIBUTE;
+        }
+        else if ( variable instanceof RuleVariableCalculatedValue )
+        {
+            return CALCULATED_VALUE;
+        }
+        else if ( variable instanceof RuleVariableCurrentEvent )
+        {
+            return CURRENT_EVENT;
+        }
+        else if ( variable instanceof RuleVariableNewestEvent )
+        {
+            return NEWEST_EVENT;
+        }
+        else if ( variable instanceof RuleVariableNewestStageEvent )
+        {
+            return NEWEST_STAGE_EVENT;
+        }
+        else if ( variable instanceof RuleVariablePreviousEvent )
+        {
+            return PREVIOUS_EVENT;
+        }
+
+        throw new IllegalArgumentException( "Unsupported rule variable: " + variable.getClass().getName() );
+    }
+}
@@ -0,0 +1,145 @@
+package org.hisp.dhis.rules.metrics;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with power of two buckets. Bucket {@code i} counts
+ * durations in {@code [2^i, 2^(i+1))} nanoseconds, so percentiles are accurate
+ * within a factor of two, which is enough to tell expensive rules apart.
+ */
+public final class LatencyHistogram
+{
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray( BUCKETS );
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record( long durationNanos )
+    {
+        long nanos = Math.max( 0, durationNanos );
+
+        buckets.incrementAndGet( bucket( nanos ) );
+        count.incrementAndGet();
+        totalNanos.addAndGet( nanos );
+
+        long max = maxNanos.get();
+
+        while ( nanos > max && !maxNanos.compareAndSet( max, nanos ) )
+        {
+            max = maxNanos.get();
+        }
+    }
+
+    public long count()
+    {
+        return count.get();
+    }
+
+    public long totalNanos()
+    {
+        return totalNanos.get();
+    }
+
+    public long maxNanos()
+    {
+        return maxNanos.get();
+    }
+
+    public long meanNanos()
+    {
+        long n = count.get();
+        return n == 0 ? 0 : totalNanos.get() / n;
+    }
+
+    /**
+     * @param percentile value between 0 and 100.
+     * @return upper bound of the bucket holding the given percentile, capped by the
+     * maximum recorded duration. 0 if nothing has been recorded.
+     */
+    public long percentileNanos( double percentile )
+    {
+        if ( percentile < 0 || percentile > 100 )
+        {
+            throw new IllegalArgumentException( "percentile must be between 0 and 100" );
+        }
+
+        long total = 0;
+
+        for ( int i = 0; i < BUCKETS; i++ )
+        {
+            total += buckets.get( i );
+        }
+
+        if ( total == 0 )
+        {
+            return 0;
+        }
+
+        long rank = Math.max( 1, (long) Math.ceil( total * percentile / 100 ) );
+        long seen = 0;
+
+        for ( int i = 0; i < BUCKETS; i++ )
+        {
+            seen += buckets.get( i );
+
+            if ( seen >= rank )
+            {
+                long upperBound = i >= BUCKETS - 1 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+                return Math.min( upperBound, maxNanos.get() );
+            }
+        }
+
+        return maxNanos.get();
+    }
+
+    void reset()
+    {
+        for ( int i = 0; i < BUCKETS; i++ )
+        {
+            buckets.set( i, 0 );
+        }
+
+        count.set( 0 );
+        totalNanos.set( 0 );
+        maxNanos.set( 0 );
+    }
+
+    private static int bucket( long nanos )
+    {
+        return nanos == 0 ? 0 : 63 - Long.numberOfLeadingZeros( nanos );
+    }
+}
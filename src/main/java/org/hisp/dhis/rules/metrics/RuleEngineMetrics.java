@@ -0,0 +1,189 @@
+package org.hisp.dhis.rules.metrics;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.RuleEngineListener;
+import org.hisp.dhis.rules.models.Rule;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Default {@link RuleEngineListener} keeping lock-free per rule and per d2 function
+ * counters, which can be polled at any time while the engine is in use:
+ *
+ * <pre>
+ * RuleEngineMetrics metrics = new RuleEngineMetrics();
+ * RuleEngineContext context = RuleEngineContext.builder()
+ *     .rules( rules )
+ *     .listener( metrics )
+ *     .build();
+ * ...
+ * List&lt;Map.Entry&lt;String, RuleMetrics&gt;&gt; slowest = metrics.slowestRules( 10 );
+ * </pre>
+ */
+public class RuleEngineMetrics
+    implements RuleEngineListener
+{
+    private final ConcurrentMap<String, RuleMetrics> ruleMetrics = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, LatencyHistogram> functionMetrics = new ConcurrentHashMap<>();
+
+    @Override
+    public void onConditionEvaluated( @Nonnull Rule rule, boolean fired, long durationNanos )
+    {
+        RuleMetrics metrics = getRuleMetrics( rule );
+        metrics.conditionLatency().record( durationNanos );
+
+        if ( fired )
+        {
+            metrics.fired();
+        }
+    }
+
+    @Override
+    public void onActionsEvaluated( @Nonnull Rule rule, long durationNanos )
+    {
+        getRuleMetrics( rule ).actionLatency().record( durationNanos );
+    }
+
+    @Override
+    public void onError( @Nonnull Rule rule, @Nonnull String expression, @Nonnull Exception exception )
+    {
+        getRuleMetrics( rule ).error();
+    }
+
+    @Override
+    public void onFunctionEvaluated( @Nonnull String function, long durationNanos )
+    {
+        LatencyHistogram histogram = functionMetrics.get( function );
+
+        if ( histogram == null )
+        {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = functionMetrics.putIfAbsent( function, created );
+
+            if ( histogram == null )
+            {
+                histogram = created;
+            }
+        }
+
+        histogram.record( durationNanos );
+    }
+
+    /**
+     * @return live view of the metrics, keyed by rule uid.
+     */
+    @Nonnull
+    public Map<String, RuleMetrics> getRuleMetrics()
+    {
+        return Collections.unmodifiableMap( ruleMetrics );
+    }
+
+    /**
+     * @return live view of the call latencies, keyed by d2 function name.
+     */
+    @Nonnull
+    public Map<String, LatencyHistogram> getFunctionMetrics()
+    {
+        return Collections.unmodifiableMap( functionMetrics );
+    }
+
+    /**
+     * @param limit maximum number of rules to return.
+     * @return rules which took the most time in total, most expensive first.
+     */
+    @Nonnull
+    public List<Map.Entry<String, RuleMetrics>> slowestRules( int limit )
+    {
+        // rules may be updated while sorting, so order by a snapshot of their totals
+        final Map<String, Long> totals = new HashMap<>();
+        List<Map.Entry<String, RuleMetrics>> entries = new ArrayList<>();
+
+        for ( Map.Entry<String, RuleMetrics> entry : ruleMetrics.entrySet() )
+        {
+            totals.put( entry.getKey(), entry.getValue().totalNanos() );
+            entries.add( entry );
+        }
+
+        Collections.sort( entries, new Comparator<Map.Entry<String, RuleMetrics>>()
+        {
+            @Override
+            public int compare( Map.Entry<String, RuleMetrics> first, Map.Entry<String, RuleMetrics> second )
+            {
+                return totals.get( second.getKey() ).compareTo( totals.get( first.getKey() ) );
+            }
+        } );
+
+        return entries.subList( 0, Math.min( limit, entries.size() ) );
+    }
+
+    /**
+     * Resets all counters. Counters updated concurrently with a reset may keep
+     * part of their previous values.
+     */
+    public void reset()
+    {
+        for ( RuleMetrics metrics : ruleMetrics.values() )
+        {
+            metrics.reset();
+        }
+
+        for ( LatencyHistogram histogram : functionMetrics.values() )
+        {
+            histogram.reset();
+        }
+    }
+
+    private RuleMetrics getRuleMetrics( Rule rule )
+    {
+        RuleMetrics metrics = ruleMetrics.get( rule.uid() );
+
+        if ( metrics == null )
+        {
+            RuleMetrics created = new RuleMetrics();
+            metrics = ruleMetrics.putIfAbsent( rule.uid(), created );
+
+            if ( metrics == null )
+            {
+                metrics = created;
+            }
+        }
+
+        return metrics;
+    }
+}
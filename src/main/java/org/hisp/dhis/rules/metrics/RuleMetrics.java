@@ -0,0 +1,102 @@
+package org.hisp.dhis.rules.metrics;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latencies collected for a single program rule.
+ */
+public final class RuleMetrics
+{
+    private final LatencyHistogram conditionLatency = new LatencyHistogram();
+
+    private final LatencyHistogram actionLatency = new LatencyHistogram();
+
+    private final AtomicLong firedCount = new AtomicLong();
+
+    private final AtomicLong errorCount = new AtomicLong();
+
+    /**
+     * @return latency of condition evaluations; its count is the number of evaluations.
+     */
+    public LatencyHistogram conditionLatency()
+    {
+        return conditionLatency;
+    }
+
+    /**
+     * @return latency of action data evaluations, recorded only when the rule fired.
+     */
+    public LatencyHistogram actionLatency()
+    {
+        return actionLatency;
+    }
+
+    public long evaluatedCount()
+    {
+        return conditionLatency.count();
+    }
+
+    public long firedCount()
+    {
+        return firedCount.get();
+    }
+
+    public long errorCount()
+    {
+        return errorCount.get();
+    }
+
+    /**
+     * @return total time spent on this rule, condition and actions.
+     */
+    public long totalNanos()
+    {
+        return conditionLatency.totalNanos() + actionLatency.totalNanos();
+    }
+
+    void fired()
+    {
+        firedCount.incrementAndGet();
+    }
+
+    void error()
+    {
+        errorCount.incrementAndGet();
+    }
+
+    void reset()
+    {
+        conditionLatency.reset();
+        actionLatency.reset();
+        firedCount.set( 0 );
+        errorCount.set( 0 );
+    }
+}
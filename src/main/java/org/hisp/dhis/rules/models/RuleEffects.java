@@ -1,5 +1,6 @@
 package org.hisp.dhis.rules.models;
 
+import java.util.Collections;
 import java.util.List;
 
 public class RuleEffects
@@ -11,12 +12,21 @@ public class RuleEffects
 
     private List<RuleEffect> ruleEffects;
 
+    private List<RuleEvaluationError> errors;
+
     public RuleEffects( TrackerObjectType trackerObjectType, String trackerObjectUid,
         List<RuleEffect> ruleEffects )
+    {
+        this( trackerObjectType, trackerObjectUid, ruleEffects, Collections.<RuleEvaluationError>emptyList() );
+    }
+
+    public RuleEffects( TrackerObjectType trackerObjectType, String trackerObjectUid,
+        List<RuleEffect> ruleEffects, List<RuleEvaluationError> errors )
     {
         this.trackerObjectType = trackerObjectType;
         this.trackerObjectUid = trackerObjectUid;
         this.ruleEffects = ruleEffects;
+        this.errors = errors;
     }
 
     public TrackerObjectType getTrackerObjectType()
@@ -34,6 +44,15 @@ public class RuleEffects
         return ruleEffects;
     }
 
+    /**
+     * @return errors of the expressions of rules which could not be evaluated
+     * for the tracker object, in evaluation order.
+     */
+    public List<RuleEvaluationError> getErrors()
+    {
+        return errors;
+    }
+
     public boolean isEnrollment(){
         return this.trackerObjectType == TrackerObjectType.ENROLLMENT;
     }
@@ -0,0 +1,251 @@
+package org.hisp.dhis.rules.models;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Differences between the effects of two evaluations of the same target.
+ * Effects are matched by rule uid and action, so an effect whose data
+ * changed is reported as changed rather than removed and added again. Equal
+ * effects of the same rule and action are matched in order.
+ */
+public final class RuleEffectsDiff
+{
+    private static final RuleEffectsDiff EMPTY = new RuleEffectsDiff( Collections.<RuleEffect>emptyList(),
+        Collections.<RuleEffect>emptyList(), Collections.<RuleEffect>emptyList() );
+
+    @Nonnull
+    private final List<RuleEffect> added;
+
+    @Nonnull
+    private final List<RuleEffect> removed;
+
+    @Nonnull
+    private final List<RuleEffect> changed;
+
+    private RuleEffectsDiff( @Nonnull List<RuleEffect> added, @Nonnull List<RuleEffect> removed,
+        @Nonnull List<RuleEffect> changed )
+    {
+        this.added = added;
+        this.removed = removed;
+        this.changed = changed;
+    }
+
+    @Nonnull
+    public static RuleEffectsDiff empty()
+    {
+        return EMPTY;
+    }
+
+    @Nonnull
+    public static RuleEffectsDiff between( @Nonnull List<RuleEffect> previous, @Nonnull List<RuleEffect> current )
+    {
+        Map<Key, List<RuleEffect>> previousEffects = new HashMap<>();
+
+        for ( RuleEffect ruleEffect : previous )
+        {
+            Key key = new Key( ruleEffect );
+            List<RuleEffect> effects = previousEffects.get( key );
+
+            if ( effects == null )
+            {
+                effects = new ArrayList<>( 1 );
+                previousEffects.put( key, effects );
+            }
+
+            effects.add( ruleEffect );
+        }
+
+        List<RuleEffect> added = new ArrayList<>();
+        List<RuleEffect> changed = new ArrayList<>();
+
+        for ( RuleEffect ruleEffect : current )
+        {
+            List<RuleEffect> effects = previousEffects.get( new Key( ruleEffect ) );
+
+            if ( effects == null || effects.isEmpty() )
+            {
+                added.add( ruleEffect );
+            }
+            else if ( !Objects.equals( effects.remove( 0 ).data(), ruleEffect.data() ) )
+            {
+                changed.add( ruleEffect );
+            }
+        }
+
+        List<RuleEffect> removed = new ArrayList<>();
+
+        // unmatched previous effects, in their previous order
+        for ( RuleEffect ruleEffect : previous )
+        {
+            List<RuleEffect> effects = previousEffects.get( new Key( ruleEffect ) );
+
+            if ( effects.remove( ruleEffect ) )
+            {
+                removed.add( ruleEffect );
+            }
+        }
+
+        if ( added.isEmpty() && removed.isEmpty() && changed.isEmpty() )
+        {
+            return EMPTY;
+        }
+
+        return new RuleEffectsDiff( Collections.unmodifiableList( added ), Collections.unmodifiableList( removed ),
+            Collections.unmodifiableList( changed ) );
+    }
+
+    /**
+     * Differences between the effects of {@link org.hisp.dhis.rules.RuleEngine#evaluate()},
+     * by tracker object uid. Tracker objects without differences are left out.
+     */
+    @Nonnull
+    public static Map<String, RuleEffectsDiff> byTrackerObject( @Nonnull List<RuleEffects> previous,
+        @Nonnull List<RuleEffects> current )
+    {
+        Map<String, List<RuleEffect>> previousEffects = new HashMap<>();
+
+        for ( RuleEffects ruleEffects : previous )
+        {
+            previousEffects.put( ruleEffects.getTrackerObjectUid(), ruleEffects.getRuleEffects() );
+        }
+
+        Map<String, RuleEffectsDiff> diffs = new LinkedHashMap<>();
+
+        for ( RuleEffects ruleEffects : current )
+        {
+            List<RuleEffect> effects = previousEffects.remove( ruleEffects.getTrackerObjectUid() );
+            RuleEffectsDiff diff = between( effects == null ? Collections.<RuleEffect>emptyList() : effects,
+                ruleEffects.getRuleEffects() );
+
+            if ( !diff.isEmpty() )
+            {
+                diffs.put( ruleEffects.getTrackerObjectUid(), diff );
+            }
+        }
+
+        for ( Map.Entry<String, List<RuleEffect>> entry : previousEffects.entrySet() )
+        {
+            RuleEffectsDiff diff = between( entry.getValue(), Collections.<RuleEffect>emptyList() );
+
+            if ( !diff.isEmpty() )
+            {
+                diffs.put( entry.getKey(), diff );
+            }
+        }
+
+        return Collections.unmodifiableMap( diffs );
+    }
+
+    /**
+     * @return effects of rules and actions without an effect before.
+     */
+    @Nonnull
+    public List<RuleEffect> added()
+    {
+        return added;
+    }
+
+    /**
+     * @return effects of rules and actions without an effect now.
+     */
+    @Nonnull
+    public List<RuleEffect> removed()
+    {
+        return removed;
+    }
+
+    /**
+     * @return current effects of rules and actions whose data changed.
+     */
+    @Nonnull
+    public List<RuleEffect> changed()
+    {
+        return changed;
+    }
+
+    public boolean isEmpty()
+    {
+        return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "RuleEffectsDiff{added=" + added + ", removed=" + removed + ", changed=" + changed + "}";
+    }
+
+    private static final class Key
+    {
+        @Nullable
+        private final String ruleId;
+
+        @Nonnull
+        private final RuleAction ruleAction;
+
+        Key( @Nonnull RuleEffect ruleEffect )
+        {
+            this.ruleId = ruleEffect.ruleId();
+            this.ruleAction = ruleEffect.ruleAction();
+        }
+
+        @Override
+        public boolean equals( Object o )
+        {
+            if ( this == o )
+            {
+                return true;
+            }
+
+            if ( !(o instanceof Key) )
+            {
+                return false;
+            }
+
+            Key key = (Key) o;
+            return Objects.equals( ruleId, key.ruleId ) && ruleAction.equals( key.ruleAction );
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Arrays.hashCode( new Object[] { ruleId, ruleAction } );
+        }
+    }
+}
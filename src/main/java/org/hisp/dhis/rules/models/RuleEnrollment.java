@@ -4,14 +4,25 @@ import com.google.auto.value.AutoValue;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @AutoValue
 public abstract class RuleEnrollment
 {
-
+    // lazily computed view of attribute values, not part of enrollment identity
+    private volatile Map<String, RuleAttributeValue> attributeValueIndex;
+
+    /**
+     * Creates an enrollment with an unmodifiable copy of the given attribute
+     * values, as {@link RuleEvent#create} does with data values. Changing the
+     * list afterwards does not change the enrollment, so that its
+     * {@link #attributeValueIndex()} stays valid.
+     */
     @Nonnull
     public static RuleEnrollment create( @Nonnull String enrollment, @Nonnull Date incidentDate,
         @Nonnull Date enrollmentDate, @Nonnull Status status, @Nonnull String organisationUnit,
@@ -27,7 +38,7 @@ public abstract class RuleEnrollment
             .status( status )
             .organisationUnit( organisationUnit )
             .organisationUnitCode( organisationUnitCode )
-            .attributeValues( Collections.unmodifiableList( attributeValues ) )
+            .attributeValues( Collections.unmodifiableList( new ArrayList<>( attributeValues ) ) )
             .build();
     }
 
@@ -60,6 +71,32 @@ public abstract class RuleEnrollment
     @Nonnull
     public abstract List<RuleAttributeValue> attributeValues();
 
+    /**
+     * @return attribute values by tracked entity attribute uid, the last one
+     * of an attribute winning. Computed on first access and reused afterwards.
+     */
+    @Nonnull
+    public Map<String, RuleAttributeValue> attributeValueIndex()
+    {
+        Map<String, RuleAttributeValue> index = attributeValueIndex;
+
+        if ( index == null )
+        {
+            List<RuleAttributeValue> attributeValues = attributeValues();
+            Map<String, RuleAttributeValue> values = new HashMap<>( attributeValues.size() * 2 );
+
+            for ( int i = 0; i < attributeValues.size(); i++ )
+            {
+                values.put( attributeValues.get( i ).trackedEntityAttribute(), attributeValues.get( i ) );
+            }
+
+            index = Collections.unmodifiableMap( values );
+            attributeValueIndex = index;
+        }
+
+        return index;
+    }
+
     public enum Status
     {
         ACTIVE, COMPLETED, CANCELLED
@@ -9,13 +9,18 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @AutoValue
 public abstract class RuleEvent
 {
     public static final Comparator<RuleEvent> EVENT_DATE_COMPARATOR = new EventDateComparator();
 
+    // lazily computed view of data values, not part of event identity
+    private volatile Map<String, RuleDataValue> dataValueIndex;
+
     @Nonnull
     public static RuleEvent create(
         @Nonnull String event,
@@ -78,6 +83,32 @@ public abstract class RuleEvent
     @Nonnull
     public abstract List<RuleDataValue> dataValues();
 
+    /**
+     * @return data values by data element uid, the last one of a data element
+     * winning. Computed on first access and reused afterwards.
+     */
+    @Nonnull
+    public Map<String, RuleDataValue> dataValueIndex()
+    {
+        Map<String, RuleDataValue> index = dataValueIndex;
+
+        if ( index == null )
+        {
+            List<RuleDataValue> dataValues = dataValues();
+            Map<String, RuleDataValue> values = new HashMap<>( dataValues.size() * 2 );
+
+            for ( int i = 0; i < dataValues.size(); i++ )
+            {
+                values.put( dataValues.get( i ).dataElement(), dataValues.get( i ) );
+            }
+
+            index = Collections.unmodifiableMap( values );
+            dataValueIndex = index;
+        }
+
+        return index;
+    }
+
     public enum Status
     {
         ACTIVE, COMPLETED, SCHEDULE, SKIPPED, VISITED, OVERDUE
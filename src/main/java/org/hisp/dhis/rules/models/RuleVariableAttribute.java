@@ -11,7 +11,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
-import static org.hisp.dhis.rules.Utils.dateFormat;
+import static org.hisp.dhis.rules.Utils.formatDate;
 
 @AutoValue
 public abstract class RuleVariableAttribute
@@ -44,7 +44,7 @@ public abstract class RuleVariableAttribute
             return valueMap;
         }
 
-        String currentDate = dateFormat.format( new Date() );
+        String currentDate = formatDate( new Date() );
 
         RuleVariableValue variableValue;
 
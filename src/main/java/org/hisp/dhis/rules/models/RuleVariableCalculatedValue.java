@@ -39,8 +39,6 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
-import static org.hisp.dhis.rules.Utils.dateFormat;
-
 /**
  * @author Zubair Asghar.
  */
@@ -7,6 +7,7 @@ import org.hisp.dhis.rules.RuleVariableValueMapBuilder;
 import org.hisp.dhis.rules.Utils;
 
 import javax.annotation.Nonnull;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -37,11 +38,17 @@ public abstract class RuleVariableNewestEvent
         {
             valueMap.put( this.name(), RuleVariableValue.create( this.dataElementType() ) );
         }
-        else
+        else if ( builder.needsCandidates( this.name() ) )
         {
             valueMap.put( this.name(), RuleVariableValue.create( ruleDataValues.get( 0 ).value(),
                 this.dataElementType(), Utils.values( ruleDataValues ), getLastUpdateDate( ruleDataValues ) ) );
         }
+        else
+        {
+            String value = ruleDataValues.get( 0 ).value();
+            valueMap.put( this.name(), RuleVariableValue.create( value, this.dataElementType(),
+                Collections.singletonList( value ), Utils.getLastUpdateDateOfNewest( ruleDataValues, null ) ) );
+        }
         return valueMap;
     }
 }
@@ -8,6 +8,7 @@ import org.hisp.dhis.rules.Utils;
 
 import javax.annotation.Nonnull;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -38,6 +39,13 @@ public abstract class RuleVariableNewestStageEvent
         Map<String, RuleVariableValue> valueMap = Maps.newHashMap();
         List<RuleDataValue> stageRuleDataValues = new ArrayList<>();
         List<RuleDataValue> sourceRuleDataValues = allEventValues.get( this.dataElement() );
+
+        if ( !builder.needsCandidates( this.name() ) )
+        {
+            valueMap.put( this.name(), createNewestValue( sourceRuleDataValues ) );
+            return valueMap;
+        }
+
         if ( sourceRuleDataValues != null && !sourceRuleDataValues.isEmpty() )
         {
 
@@ -65,4 +73,27 @@ public abstract class RuleVariableNewestStageEvent
 
         return valueMap;
     }
+
+    /**
+     * @return value of the newest event of the stage, as the only candidate.
+     */
+    private RuleVariableValue createNewestValue( List<RuleDataValue> sourceRuleDataValues )
+    {
+        if ( sourceRuleDataValues != null )
+        {
+            for ( int i = 0; i < sourceRuleDataValues.size(); i++ )
+            {
+                RuleDataValue ruleDataValue = sourceRuleDataValues.get( i );
+
+                if ( this.programStage().equals( ruleDataValue.programStage() ) )
+                {
+                    return RuleVariableValue.create( ruleDataValue.value(), this.dataElementType(),
+                        Collections.singletonList( ruleDataValue.value() ),
+                        Utils.getLastUpdateDateOfNewest( sourceRuleDataValues, this.programStage() ) );
+                }
+            }
+        }
+
+        return RuleVariableValue.create( this.dataElementType() );
+    }
 }
@@ -7,10 +7,10 @@ import org.hisp.dhis.rules.RuleVariableValueMapBuilder;
 import org.hisp.dhis.rules.Utils;
 
 import javax.annotation.Nonnull;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
-import static org.hisp.dhis.rules.Utils.getLastUpdateDateForPrevious;
 
 @AutoValue
 public abstract class RuleVariablePreviousEvent
@@ -40,17 +40,17 @@ public abstract class RuleVariablePreviousEvent
         List<RuleDataValue> ruleDataValues = allEventValues.get( this.dataElement() );
         if ( ruleDataValues != null && !ruleDataValues.isEmpty() )
         {
-            for ( RuleDataValue ruleDataValue : ruleDataValues )
+            // values are sorted newest first, the preceding value to the
+            // current event is assumed to be best candidate
+            int index = Utils.previousIndex( ruleDataValues, builder.ruleEvent.eventDate() );
+
+            if ( index >= 0 )
             {
-                // We found preceding value to the current currentEventValues,
-                // which is assumed to be best candidate.
-                if ( builder.ruleEvent.eventDate().compareTo( ruleDataValue.eventDate() ) > 0 )
-                {
-                    variableValue = RuleVariableValue.create( ruleDataValue.value(), this.dataElementType(),
-                        Utils.values( ruleDataValues ),
-                        getLastUpdateDateForPrevious( ruleDataValues, builder.ruleEvent ) );
-                    break;
-                }
+                RuleDataValue ruleDataValue = ruleDataValues.get( index );
+                variableValue = RuleVariableValue.create( ruleDataValue.value(), this.dataElementType(),
+                    builder.needsCandidates( this.name() ) ? Utils.values( ruleDataValues ) :
+                        Collections.singletonList( ruleDataValue.value() ),
+                    Utils.getLastUpdateDateOfPrevious( ruleDataValues, builder.ruleEvent.eventDate() ) );
             }
         }
 
@@ -9,6 +9,8 @@ import javax.annotation.Nullable;
 
 public class SupplementaryData
 {
+    private static final String UNKNOWN_ANDROID_VERSION = "-1";
+
     private List<String> userRoles;
     private List<String> androidVersion;
     private Map<String, List<String>> orgUnitGroups;
@@ -51,6 +53,25 @@ public class SupplementaryData
         return orgUnitGroups.get( orgUnitGroupCodeOrUid );
     }
 
+    /**
+     * @return supplementary data in the key/value form used by the rule engine functions:
+     * org unit groups by uid and code, user roles under {@link SupplementaryDataKey#USER}
+     * and the android version under {@link SupplementaryDataKey#ANDROID_VERSION}, if known.
+     */
+    public Map<String, List<String>> toMap()
+    {
+        Map<String, List<String>> supplementaryData = new HashMap<>( orgUnitGroups );
+
+        supplementaryData.put( SupplementaryDataKey.USER.getClientName(), userRoles );
+
+        if ( !androidVersion.isEmpty() && !UNKNOWN_ANDROID_VERSION.equals( androidVersion.get( 0 ) ) )
+        {
+            supplementaryData.put( SupplementaryDataKey.ANDROID_VERSION.getClientName(), androidVersion );
+        }
+
+        return supplementaryData;
+    }
+
     public static class Builder {
         private List<String> userRoles;
         private List<String> androidVersion;
@@ -85,7 +106,7 @@ public class SupplementaryData
         {
             if(androidVersion == null){
                 androidVersion = new ArrayList<>();
-                androidVersion.add("-1");
+                androidVersion.add( UNKNOWN_ANDROID_VERSION );
             }
 
             if( userRoles == null ){
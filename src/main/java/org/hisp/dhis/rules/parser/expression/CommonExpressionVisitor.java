@@ -31,8 +31,8 @@ package org.hisp.dhis.rules.parser.expression;
 import org.apache.commons.lang3.Validate;
 import org.hisp.dhis.antlr.AntlrExprItem;
 import org.hisp.dhis.antlr.AntlrExpressionVisitor;
-import org.hisp.dhis.antlr.ParserExceptionWithoutContext;
 import org.hisp.dhis.parser.expression.antlr.ExpressionParser.ExprContext;
+import org.hisp.dhis.rules.EvaluationDeadline;
 import org.hisp.dhis.rules.RuleVariableValue;
 import org.hisp.dhis.rules.DataItem;
 
@@ -84,6 +84,11 @@ public class CommonExpressionVisitor
      */
     private Map<String, DataItem> itemStore = new HashMap<>();
 
+    /**
+     * Deadline of the evaluation, checked by long running functions, or null.
+     */
+    private EvaluationDeadline deadline;
+
     /**
      * Default value for data type double.
      */
@@ -131,7 +136,7 @@ public class CommonExpressionVisitor
 
             if ( item == null )
             {
-                throw new ParserExceptionWithoutContext(
+                throw new ExpressionEvaluationException(
                     "DataItem " + ctx.it.getText() + " not supported for this type of expression" );
             }
 
@@ -189,6 +194,11 @@ public class CommonExpressionVisitor
         return itemStore;
     }
 
+    public EvaluationDeadline getDeadline()
+    {
+        return deadline;
+    }
+
     // -------------------------------------------------------------------------
     // Builder
     // -------------------------------------------------------------------------
@@ -241,6 +251,12 @@ public class CommonExpressionVisitor
             return this;
         }
 
+        public Builder withDeadline( EvaluationDeadline deadline )
+        {
+            this.visitor.deadline = deadline;
+            return this;
+        }
+
         public CommonExpressionVisitor validateCommonProperties()
         {
             Validate.notNull( this.visitor.itemMap, "Missing required property 'functionMap'" );
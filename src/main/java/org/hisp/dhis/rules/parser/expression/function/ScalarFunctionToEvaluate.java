@@ -2,8 +2,8 @@ package org.hisp.dhis.rules.parser.expression.function;
 
 import org.hisp.dhis.antlr.AntlrExprItem;
 import org.hisp.dhis.antlr.AntlrExpressionVisitor;
-import org.hisp.dhis.antlr.ParserExceptionWithoutContext;
 import org.hisp.dhis.rules.parser.expression.CommonExpressionVisitor;
+import org.hisp.dhis.rules.parser.expression.ExpressionEvaluationException;
 import org.hisp.dhis.rules.variables.ProgramRuleCustomVariable;
 import org.hisp.dhis.rules.variables.ProgramRuleVariable;
 
@@ -65,6 +65,6 @@ public abstract class ScalarFunctionToEvaluate
             return new ProgramRuleCustomVariable();
         }
 
-        throw new ParserExceptionWithoutContext( "Illegal argument in program rule expression: " + ctx.getText() );
+        throw new ExpressionEvaluationException( "Illegal argument in program rule expression: " + ctx.getText() );
     }
 }
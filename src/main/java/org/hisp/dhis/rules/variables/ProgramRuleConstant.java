@@ -3,6 +3,7 @@ package org.hisp.dhis.rules.variables;
 import org.hisp.dhis.antlr.ParserExceptionWithoutContext;
 import org.hisp.dhis.rules.RuleVariableValue;
 import org.hisp.dhis.rules.parser.expression.CommonExpressionVisitor;
+import org.hisp.dhis.rules.parser.expression.ExpressionEvaluationException;
 import org.hisp.dhis.rules.parser.expression.function.ScalarFunctionToEvaluate;
 
 import static org.hisp.dhis.parser.expression.antlr.ExpressionParser.ExprContext;
@@ -17,7 +18,7 @@ public class ProgramRuleConstant
 
         if ( variableValue == null )
         {
-            throw new ParserExceptionWithoutContext( "Variable " + ctx.uid0.getText() + " not present" );
+            throw new ExpressionEvaluationException( "Variable " + ctx.uid0.getText() + " not present" );
         }
 
         String variable = variableValue.value() == null ?
@@ -4,6 +4,7 @@ import org.hisp.dhis.antlr.ParserExceptionWithoutContext;
 import org.hisp.dhis.rules.RuleExpression;
 import org.hisp.dhis.rules.RuleVariableValue;
 import org.hisp.dhis.rules.parser.expression.CommonExpressionVisitor;
+import org.hisp.dhis.rules.parser.expression.ExpressionEvaluationException;
 import org.hisp.dhis.rules.parser.expression.function.ScalarFunctionToEvaluate;
 
 import static org.hisp.dhis.parser.expression.antlr.ExpressionParser.ExprContext;
@@ -18,7 +19,7 @@ public class Variable
 
         if ( variableValue == null )
         {
-            throw new ParserExceptionWithoutContext(
+            throw new ExpressionEvaluationException(
                 "Variable " + RuleExpression.getProgramRuleVariable( ctx ) + " not present" );
         }
 
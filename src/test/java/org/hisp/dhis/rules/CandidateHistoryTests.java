@@ -0,0 +1,105 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.models.*;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith( JUnit4.class )
+public class CandidateHistoryTests
+{
+    @Test
+    public void variablesOfCandidateFunctionsMustBeFound()
+    {
+        Set<String> variables = CandidateHistory.variables( Arrays.asList(
+            Rule.create( null, null, "d2:count('counted') > 1 && #{other} > 2",
+                Arrays.<RuleAction>asList( RuleActionAssign.create( null, "d2:maxValue(#{max})", "field" ) ),
+                "first", "first" ),
+            Rule.create( null, null, "#{plain} > 1 && d2:hasValue('plain_string')",
+                Arrays.<RuleAction>asList( RuleActionDisplayText.createForFeedback( "text",
+                    "d2:countIfValue(A{attribute}, 1) + d2:minValue(\"min\")" ) ), "second", "second" ) ) );
+
+        assertThat( variables ).containsOnly( "counted", "other", "max", "attribute", "min" );
+    }
+
+    @Test
+    public void limitedCandidatesMustKeepValuesAndDates()
+    {
+        ProgramWorkload workload = ProgramWorkload.builder().seed( 3 ).rules( 200 ).events( 30 ).build();
+        RuleEngineContext context = workload.context();
+        Set<String> candidateVariables = context.candidateVariables();
+
+        assertThat( candidateVariables ).isNotEmpty();
+
+        Map<String, RuleVariableValue> full = RuleVariableValueMapBuilder.target( workload.targetEvent() )
+            .ruleVariables( context.ruleVariables() )
+            .ruleEnrollment( workload.enrollment() )
+            .ruleEvents( workload.events() )
+            .build();
+        Map<String, RuleVariableValue> limited = RuleVariableValueMapBuilder.target( workload.targetEvent() )
+            .ruleVariables( context.ruleVariables() )
+            .candidateVariables( candidateVariables )
+            .ruleEnrollment( workload.enrollment() )
+            .ruleEvents( workload.events() )
+            .build();
+
+        assertThat( limited.keySet() ).isEqualTo( full.keySet() );
+
+        int limitedCount = 0;
+
+        for ( String name : full.keySet() )
+        {
+            RuleVariableValue fullValue = full.get( name );
+            RuleVariableValue limitedValue = limited.get( name );
+
+            assertThat( limitedValue.value() ).as( name ).isEqualTo( fullValue.value() );
+            assertThat( limitedValue.eventDate() ).as( name ).isEqualTo( fullValue.eventDate() );
+
+            if ( candidateVariables.contains( name ) || fullValue.value() == null )
+            {
+                assertThat( limitedValue.candidates() ).as( name ).isEqualTo( fullValue.candidates() );
+            }
+            else if ( fullValue.candidates().size() > 1 )
+            {
+                assertThat( limitedValue.candidates() ).as( name ).hasSize( 1 );
+                limitedCount++;
+            }
+        }
+
+        assertThat( limitedCount ).isGreaterThan( 0 );
+    }
+}
@@ -0,0 +1,272 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.models.*;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+@RunWith( JUnit4.class )
+public class CoalescingRuleEvaluatorTests
+{
+    private static final Date DATE = new Date( 1577836800000L );
+
+    private static final Rule WEIGHT_RULE = Rule.create( null, 1, "true",
+        Arrays.<RuleAction>asList( RuleActionDisplayText.createForFeedback( "weight", "#{weight}" ) ),
+        "weight", "weight" );
+
+    @Test
+    public void queuedRequestsMustBeCoalescedIntoNewest()
+        throws Exception
+    {
+        QueueExecutor executor = new QueueExecutor();
+        CoalescingRuleEvaluator evaluator = new CoalescingRuleEvaluator( executor );
+        RuleEngine engine = context( null ).toEngineBuilder().build();
+
+        Future<List<RuleEffect>> first = evaluator.evaluate( engine, event( "event", "1" ) );
+        Future<List<RuleEffect>> second = evaluator.evaluate( engine, event( "event", "2" ) );
+        Future<List<RuleEffect>> other = evaluator.evaluate( engine, event( "other", "5" ) );
+        Future<List<RuleEffect>> third = evaluator.evaluate( engine, event( "event", "3" ) );
+
+        assertThat( executor.tasks ).hasSize( 2 );
+        assertThat( first.isDone() ).isFalse();
+
+        executor.runAll();
+
+        assertThat( weight( first ) ).isEqualTo( "3" );
+        assertThat( weight( second ) ).isEqualTo( "3" );
+        assertThat( weight( third ) ).isEqualTo( "3" );
+        assertThat( weight( other ) ).isEqualTo( "5" );
+        assertThat( evaluator.evaluationCount() ).isEqualTo( 2 );
+        assertThat( evaluator.supersededCount() ).isEqualTo( 2 );
+
+        Future<List<RuleEffect>> later = evaluator.evaluate( engine, event( "event", "4" ) );
+        executor.runAll();
+
+        assertThat( weight( later ) ).isEqualTo( "4" );
+    }
+
+    @Test
+    public void callersOfStaleEvaluationMustReceiveNewerEffects()
+        throws Exception
+    {
+        final CoalescingRuleEvaluator[] evaluator = new CoalescingRuleEvaluator[1];
+        final List<Future<List<RuleEffect>>> newer = new ArrayList<>();
+        final RuleEngine[] engine = new RuleEngine[1];
+
+        // the value changes while the first evaluation runs
+        RuleEngineListener listener = new ConditionListener()
+        {
+            @Override
+            public void onConditionEvaluated( @Nonnull Rule rule, boolean fired, long durationNanos )
+            {
+                if ( newer.isEmpty() )
+                {
+                    newer.add( evaluator[0].evaluate( engine[0], event( "event", "2" ) ) );
+                }
+            }
+        };
+
+        evaluator[0] = new CoalescingRuleEvaluator( new Executor()
+        {
+            @Override
+            public void execute( @Nonnull Runnable command )
+            {
+                command.run();
+            }
+        } );
+        engine[0] = context( listener ).toEngineBuilder().build();
+
+        Future<List<RuleEffect>> stale = evaluator[0].evaluate( engine[0], event( "event", "1" ) );
+
+        assertThat( weight( stale ) ).isEqualTo( "2" );
+        assertThat( weight( newer.get( 0 ) ) ).isEqualTo( "2" );
+        assertThat( evaluator[0].evaluationCount() ).isEqualTo( 2 );
+        assertThat( evaluator[0].supersededCount() ).isEqualTo( 1 );
+    }
+
+    @Test
+    public void enrollmentAndEventWithSameUidMustNotBeCoalesced()
+        throws Exception
+    {
+        QueueExecutor executor = new QueueExecutor();
+        CoalescingRuleEvaluator evaluator = new CoalescingRuleEvaluator( executor );
+        RuleEngine engine = context( null ).toEngineBuilder().build();
+
+        Future<List<RuleEffect>> event = evaluator.evaluate( engine, event( "uid", "1" ) );
+        Future<List<RuleEffect>> enrollment = evaluator.evaluate( engine, RuleEnrollment.create( "uid", DATE, DATE,
+            RuleEnrollment.Status.ACTIVE, "org_unit", null, Arrays.<RuleAttributeValue>asList(), "program" ) );
+
+        executor.runAll();
+
+        assertThat( weight( event ) ).isEqualTo( "1" );
+        assertThat( enrollment.get() ).hasSize( 1 );
+        assertThat( evaluator.supersededCount() ).isEqualTo( 0 );
+    }
+
+    @Test( expected = ExecutionException.class )
+    public void failureMustBePassedToCallers()
+        throws Exception
+    {
+        QueueExecutor executor = new QueueExecutor();
+        RuleEngine engine = context( null ).toEngineBuilder().events( Arrays.asList( event( "event", "1" ) ) )
+            .build();
+        Future<List<RuleEffect>> effects = new CoalescingRuleEvaluator( executor )
+            .evaluate( engine, event( "event", "2" ) );
+
+        executor.runAll();
+
+        // the target event is part of the contextual events
+        effects.get();
+    }
+
+    @Test
+    public void errorMustBePassedToCallersAndReleaseSlot()
+        throws Exception
+    {
+        QueueExecutor executor = new QueueExecutor();
+        CoalescingRuleEvaluator evaluator = new CoalescingRuleEvaluator( executor );
+        RuleEngine failing = context( new ConditionListener()
+        {
+            @Override
+            public void onConditionEvaluated( @Nonnull Rule rule, boolean fired, long durationNanos )
+            {
+                throw new StackOverflowError();
+            }
+        } ).toEngineBuilder().build();
+
+        Future<List<RuleEffect>> effects = evaluator.evaluate( failing, event( "event", "1" ) );
+        executor.runAll();
+
+        assertThat( effects.isDone() ).isTrue();
+
+        try
+        {
+            effects.get();
+            fail( "error not passed" );
+        }
+        catch ( ExecutionException e )
+        {
+            assertThat( e.getCause() ).isInstanceOf( StackOverflowError.class );
+        }
+
+        // the next request for the event is evaluated again
+        Future<List<RuleEffect>> next = evaluator.evaluate( context( null ).toEngineBuilder().build(),
+            event( "event", "2" ) );
+        executor.runAll();
+
+        assertThat( weight( next ) ).isEqualTo( "2" );
+        assertThat( evaluator.evaluationCount() ).isEqualTo( 2 );
+    }
+
+    private static String weight( Future<List<RuleEffect>> effects )
+        throws Exception
+    {
+        assertThat( effects.isDone() ).isTrue();
+        assertThat( effects.get() ).hasSize( 1 );
+
+        return effects.get().get( 0 ).data();
+    }
+
+    private static RuleEngineContext context( RuleEngineListener listener )
+    {
+        return RuleEngineContext.builder()
+            .rules( Arrays.asList( WEIGHT_RULE ) )
+            .ruleVariables( Arrays.<RuleVariable>asList(
+                RuleVariableCurrentEvent.create( "weight", "weight", RuleValueType.NUMERIC ) ) )
+            .supplementaryData( new HashMap<String, List<String>>() )
+            .constantsValue( new HashMap<String, String>() )
+            .listener( listener )
+            .build();
+    }
+
+    private static RuleEvent event( String uid, String weight )
+    {
+        return RuleEvent.create( uid, "stage", RuleEvent.Status.ACTIVE, DATE, DATE, "org_unit", null,
+            Arrays.asList( RuleDataValue.create( DATE, "stage", "weight", weight ) ), "stage", null );
+    }
+
+    private static class QueueExecutor
+        implements Executor
+    {
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute( @Nonnull Runnable command )
+        {
+            tasks.add( command );
+        }
+
+        void runAll()
+        {
+            while ( !tasks.isEmpty() )
+            {
+                tasks.remove( 0 ).run();
+            }
+        }
+    }
+
+    private static class ConditionListener
+        implements RuleEngineListener
+    {
+        @Override
+        public void onConditionEvaluated( @Nonnull Rule rule, boolean fired, long durationNanos )
+        {
+        }
+
+        @Override
+        public void onActionsEvaluated( @Nonnull Rule rule, long durationNanos )
+        {
+        }
+
+        @Override
+        public void onError( @Nonnull Rule rule, @Nonnull String expression, @Nonnull Exception exception )
+        {
+        }
+
+        @Override
+        public void onFunctionEvaluated( @Nonnull String function, long durationNanos )
+        {
+        }
+    }
+}
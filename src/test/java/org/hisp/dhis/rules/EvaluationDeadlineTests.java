@@ -0,0 +1,160 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.models.*;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith( JUnit4.class )
+public class EvaluationDeadlineTests
+{
+    private static final Date DATE = new Date( 1577836800000L );
+
+    private static final RuleAction FIRST = RuleActionDisplayText.createForFeedback( "first", "'first'" );
+
+    private static final RuleAction LAST = RuleActionDisplayText.createForFeedback( "last", "'last'" );
+
+    private static final Rule FIRST_RULE = Rule.create( null, 1, "true", Arrays.asList( FIRST ), "first", "first" );
+
+    // backtracks for far longer than any test run: the back reference rules out the memoization of the matcher
+    private static final Rule BACKTRACKING_RULE = Rule.create( null, 2,
+        "d2:validatePattern('aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa!', '(a*)*\\\\1b')",
+        Arrays.<RuleAction>asList( RuleActionShowError.create( "matched", null, "weight" ) ),
+        "backtracking", "backtracking" );
+
+    private static final Rule LAST_RULE = Rule.create( null, 3, "true", Arrays.asList( LAST ), "last", "last" );
+
+    @Test( timeout = 10000 )
+    public void timeoutMustReturnEffectsOfEvaluatedRulesAndMarker()
+        throws Exception
+    {
+        RuleEngine engine = context().toEngineBuilder().evaluationTimeout( 100, TimeUnit.MILLISECONDS ).build();
+
+        List<RuleEffect> effects = engine.evaluate( event( "event" ) ).call();
+
+        assertThat( effects ).hasSize( 2 );
+        assertThat( effects.get( 0 ).ruleAction() ).isEqualTo( FIRST );
+        assertThat( effects.get( 1 ).ruleId() ).isEqualTo( "backtracking" );
+        assertThat( effects.get( 1 ).ruleAction() ).isEqualTo( RuleActionTimeout.create( false ) );
+    }
+
+    @Test
+    public void interruptedThreadMustStopEvaluation()
+        throws Exception
+    {
+        RuleEngine engine = context().toEngineBuilder().evaluationTimeout( 1, TimeUnit.MINUTES )
+            .events( Arrays.asList( event( "event1" ), event( "event2" ) ) ).build();
+
+        Thread.currentThread().interrupt();
+
+        try
+        {
+            List<RuleEffects> effects = engine.evaluate().call();
+
+            assertThat( effects ).hasSize( 1 );
+            assertThat( effects.get( 0 ).getRuleEffects() ).containsExactly(
+                RuleEffect.create( "first", RuleActionTimeout.create( true ) ) );
+        }
+        finally
+        {
+            Thread.interrupted();
+        }
+    }
+
+    @Test( timeout = 10000 )
+    public void stoppedEvaluationMustNotBeCached()
+        throws Exception
+    {
+        RuleEffectsCache cache = new RuleEffectsCache( 10 );
+        RuleEngine engine = context().toEngineBuilder().effectsCache( cache )
+            .evaluationTimeout( 50, TimeUnit.MILLISECONDS ).build();
+
+        engine.evaluate( event( "event" ) ).call();
+        List<RuleEffect> effects = engine.evaluate( event( "event" ) ).call();
+
+        assertThat( EvaluationDeadline.stopped( effects ) ).isTrue();
+        assertThat( cache.hitCount() ).isEqualTo( 0 );
+    }
+
+    @Test
+    public void evaluationWithoutTimeoutMustNotCheckInterrupts()
+        throws Exception
+    {
+        RuleEngineContext context = RuleEngineContext.builder()
+            .rules( Arrays.asList( FIRST_RULE, LAST_RULE ) )
+            .supplementaryData( new HashMap<String, List<String>>() )
+            .constantsValue( new HashMap<String, String>() )
+            .build();
+
+        Thread.currentThread().interrupt();
+
+        try
+        {
+            List<RuleEffect> effects = context.toEngineBuilder().build().evaluate( event( "event" ) ).call();
+
+            assertThat( effects ).hasSize( 2 );
+            assertThat( EvaluationDeadline.stopped( effects ) ).isFalse();
+        }
+        finally
+        {
+            Thread.interrupted();
+        }
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void timeoutMustBePositive()
+    {
+        context().toEngineBuilder().evaluationTimeout( 0, TimeUnit.SECONDS );
+    }
+
+    private static RuleEngineContext context()
+    {
+        return RuleEngineContext.builder()
+            .rules( Arrays.asList( FIRST_RULE, BACKTRACKING_RULE, LAST_RULE ) )
+            .supplementaryData( new HashMap<String, List<String>>() )
+            .constantsValue( new HashMap<String, String>() )
+            .build();
+    }
+
+    private static RuleEvent event( String uid )
+    {
+        return RuleEvent.create( uid, "stage", RuleEvent.Status.ACTIVE, DATE, DATE, "org_unit", null,
+            Arrays.<RuleDataValue>asList(), "stage", null );
+    }
+}
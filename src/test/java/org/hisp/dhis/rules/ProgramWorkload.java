@@ -0,0 +1,653 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.models.*;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * Synthetic, deterministic program used by benchmarks and load tests. Given the
+ * same seed and sizes, the generated rules, variables, enrollment and events are
+ * equal between runs.
+ * <p>
+ * Every data element is bound to a current event, previous event, newest event
+ * and newest stage event variable, every attribute to an attribute variable, and
+ * a share of the rules assign calculated values that are read by rules with a
+ * lower priority. Rules reading the current event are bound to a program stage,
+ * as they would be in a real program. Rule actions cover assignments, warnings,
+ * errors, hidden and mandatory fields, sections, texts and completion errors.
+ */
+public final class ProgramWorkload
+{
+    public static final int SMALL = 50;
+
+    public static final int MEDIUM = 500;
+
+    public static final int LARGE = 5000;
+
+    private static final long DAY = TimeUnit.DAYS.toMillis( 1 );
+
+    // fixed origin so that generated dates do not depend on the wall clock
+    private static final long ORIGIN = 1577836800000L;
+
+    private static final String PROGRAM = "program";
+
+    private static final String ORG_UNIT = "org_unit";
+
+    private static final String ORG_UNIT_GROUP = "org_unit_group";
+
+    private static final String USER_ROLE = "user_role";
+
+    private static final String[] TEXT_VALUES = { "alpha", "beta", "gamma", "delta" };
+
+    private final List<Rule> rules;
+
+    private final List<RuleVariable> ruleVariables;
+
+    private final Map<String, String> constants;
+
+    private final SupplementaryData supplementaryData;
+
+    private final RuleEnrollment enrollment;
+
+    private final List<RuleEvent> events;
+
+    private final List<RuleEvent> targetEvents;
+
+    private ProgramWorkload( Builder builder )
+    {
+        Random random = new Random( builder.seed );
+
+        List<RuleValueType> dataElementTypes = new ArrayList<>();
+
+        for ( int i = 0; i < builder.dataElementCount; i++ )
+        {
+            dataElementTypes.add( valueType( random ) );
+        }
+
+        List<RuleValueType> attributeTypes = new ArrayList<>();
+
+        for ( int i = 0; i < builder.attributeCount; i++ )
+        {
+            attributeTypes.add( valueType( random ) );
+        }
+
+        this.ruleVariables = unmodifiableList( ruleVariables( builder, dataElementTypes, attributeTypes ) );
+        this.constants = constants( builder.constantCount );
+        this.supplementaryData = new SupplementaryData.Builder()
+            .setOrgUnitGroups( ORG_UNIT_GROUP, null, Arrays.asList( ORG_UNIT ) )
+            .setUserRoles( Arrays.asList( USER_ROLE ) )
+            .build();
+        this.rules = unmodifiableList( new RuleGenerator( random, builder, dataElementTypes, attributeTypes )
+            .generate() );
+
+        List<RuleAttributeValue> attributeValues = new ArrayList<>();
+
+        for ( int i = 0; i < builder.attributeCount; i++ )
+        {
+            attributeValues.add( RuleAttributeValue.create( attribute( i ),
+                value( random, attributeTypes.get( i ) ) ) );
+        }
+
+        this.enrollment = RuleEnrollment.create( "enrollment", new Date( ORIGIN ), new Date( ORIGIN ),
+            RuleEnrollment.Status.ACTIVE, ORG_UNIT, null, attributeValues, PROGRAM );
+
+        List<RuleEvent> events = new ArrayList<>();
+
+        for ( int i = 0; i < builder.eventCount; i++ )
+        {
+            events.add( event( random, builder, dataElementTypes, "event_" + i, i ) );
+        }
+
+        this.events = unmodifiableList( events );
+
+        List<RuleEvent> targetEvents = new ArrayList<>();
+
+        for ( int i = 0; i < builder.targetEventCount; i++ )
+        {
+            targetEvents.add( event( random, builder, dataElementTypes, "target_event_" + i,
+                builder.eventCount + i ) );
+        }
+
+        this.targetEvents = unmodifiableList( targetEvents );
+    }
+
+    @Nonnull
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    @Nonnull
+    public List<Rule> rules()
+    {
+        return rules;
+    }
+
+    @Nonnull
+    public List<RuleVariable> ruleVariables()
+    {
+        return ruleVariables;
+    }
+
+    @Nonnull
+    public Map<String, String> constants()
+    {
+        return constants;
+    }
+
+    @Nonnull
+    public SupplementaryData supplementaryData()
+    {
+        return supplementaryData;
+    }
+
+    @Nonnull
+    public RuleEnrollment enrollment()
+    {
+        return enrollment;
+    }
+
+    /**
+     * @return events of the enrollment, oldest first.
+     */
+    @Nonnull
+    public List<RuleEvent> events()
+    {
+        return events;
+    }
+
+    /**
+     * @return first of {@link #targetEvents()}.
+     */
+    @Nonnull
+    public RuleEvent targetEvent()
+    {
+        return targetEvents.get( 0 );
+    }
+
+    /**
+     * @return events following all of {@link #events()}, not part of that list,
+     * which can be evaluated by an engine built with {@link #engineBuilder(RuleEngineContext)}.
+     */
+    @Nonnull
+    public List<RuleEvent> targetEvents()
+    {
+        return targetEvents;
+    }
+
+    @Nonnull
+    public RuleEngineContext.Builder contextBuilder()
+    {
+        return RuleEngineContext.builder()
+            .rules( rules )
+            .ruleVariables( ruleVariables )
+            .supplementaryData( supplementaryData )
+            .constantsValue( constants );
+    }
+
+    @Nonnull
+    public RuleEngineContext context()
+    {
+        return contextBuilder().build();
+    }
+
+    /**
+     * @return engine builder for the given context, holding the enrollment and
+     * its events.
+     */
+    @Nonnull
+    public RuleEngine.Builder engineBuilder( @Nonnull RuleEngineContext context )
+    {
+        return context.toEngineBuilder()
+            .triggerEnvironment( TriggerEnvironment.SERVER )
+            .enrollment( enrollment )
+            .events( events );
+    }
+
+    static String dataElement( int index )
+    {
+        return "de_" + index;
+    }
+
+    static String attribute( int index )
+    {
+        return "attribute_" + index;
+    }
+
+    static String constant( int index )
+    {
+        // constants are referenced by uid, which the expression grammar requires to be 11 characters
+        return String.format( "C%010d", index );
+    }
+
+    static String stage( int index )
+    {
+        return "stage_" + index;
+    }
+
+    private static List<RuleVariable> ruleVariables( Builder builder, List<RuleValueType> dataElementTypes,
+        List<RuleValueType> attributeTypes )
+    {
+        List<RuleVariable> ruleVariables = new ArrayList<>();
+
+        for ( int i = 0; i < builder.dataElementCount; i++ )
+        {
+            RuleValueType type = dataElementTypes.get( i );
+
+            ruleVariables.add( RuleVariableCurrentEvent.create( "current_" + i, dataElement( i ), type ) );
+            ruleVariables.add( RuleVariablePreviousEvent.create( "previous_" + i, dataElement( i ), type ) );
+            ruleVariables.add( RuleVariableNewestEvent.create( "newest_" + i, dataElement( i ), type ) );
+            ruleVariables.add( RuleVariableNewestStageEvent.create( "stage_newest_" + i, dataElement( i ),
+                stage( i % builder.stageCount ), type ) );
+        }
+
+        for ( int i = 0; i < builder.attributeCount; i++ )
+        {
+            ruleVariables.add( RuleVariableAttribute.create( "attr_" + i, attribute( i ), attributeTypes.get( i ) ) );
+        }
+
+        for ( int i = 0; i < calculatedValueCount( builder ); i++ )
+        {
+            ruleVariables.add( RuleVariableCalculatedValue.create( "calc_" + i, "", RuleValueType.NUMERIC ) );
+        }
+
+        return ruleVariables;
+    }
+
+    private static int calculatedValueCount( Builder builder )
+    {
+        return Math.max( 1, builder.ruleCount / 10 );
+    }
+
+    private static Map<String, String> constants( int constantCount )
+    {
+        Map<String, String> constants = new HashMap<>();
+
+        for ( int i = 0; i < constantCount; i++ )
+        {
+            constants.put( constant( i ), String.valueOf( i * 10 ) );
+        }
+
+        return Collections.unmodifiableMap( constants );
+    }
+
+    private static RuleEvent event( Random random, Builder builder, List<RuleValueType> dataElementTypes,
+        String uid, int day )
+    {
+        Date eventDate = new Date( ORIGIN + (day + 1) * DAY );
+        String stage = stage( day % builder.stageCount );
+
+        // a random window of consecutive data elements, so that events of the
+        // same enrollment share only part of their data elements
+        int first = random.nextInt( builder.dataElementCount );
+        List<RuleDataValue> dataValues = new ArrayList<>();
+
+        for ( int i = 0; i < builder.dataValueCount; i++ )
+        {
+            int dataElement = (first + i) % builder.dataElementCount;
+
+            dataValues.add( RuleDataValue.create( eventDate, stage, dataElement( dataElement ),
+                value( random, dataElementTypes.get( dataElement ) ) ) );
+        }
+
+        return RuleEvent.create( uid, stage, RuleEvent.Status.ACTIVE, eventDate, eventDate, ORG_UNIT, null,
+            dataValues, stage, null );
+    }
+
+    private static RuleValueType valueType( Random random )
+    {
+        int draw = random.nextInt( 10 );
+
+        if ( draw < 6 )
+        {
+            return RuleValueType.NUMERIC;
+        }
+
+        return draw < 9 ? RuleValueType.TEXT : RuleValueType.BOOLEAN;
+    }
+
+    private static String value( Random random, RuleValueType type )
+    {
+        switch ( type )
+        {
+        case NUMERIC:
+            return String.valueOf( random.nextInt( 100 ) );
+        case BOOLEAN:
+            return String.valueOf( random.nextBoolean() );
+        default:
+            return TEXT_VALUES[random.nextInt( TEXT_VALUES.length )];
+        }
+    }
+
+    private static final class RuleGenerator
+    {
+        private final Random random;
+
+        private final Builder builder;
+
+        private final List<RuleValueType> dataElementTypes;
+
+        private final List<RuleValueType> attributeTypes;
+
+        private final int calculatedValueCount;
+
+        // whether the rule being generated reads current event values, which
+        // only exist when an event is evaluated
+        private boolean eventScoped;
+
+        RuleGenerator( Random random, Builder builder, List<RuleValueType> dataElementTypes,
+            List<RuleValueType> attributeTypes )
+        {
+            this.random = random;
+            this.builder = builder;
+            this.dataElementTypes = dataElementTypes;
+            this.attributeTypes = attributeTypes;
+            this.calculatedValueCount = calculatedValueCount( builder );
+        }
+
+        List<Rule> generate()
+        {
+            List<Rule> rules = new ArrayList<>();
+
+            // calculated values are assigned first, by rules with the highest priority
+            for ( int i = 0; i < calculatedValueCount; i++ )
+            {
+                eventScoped = false;
+                String condition = condition();
+                RuleAction action = RuleActionAssign.create( "#{calc_" + i + "}", numericExpression(), null );
+                rules.add( rule( rules.size(), 1, condition, action ) );
+            }
+
+            while ( rules.size() < builder.ruleCount )
+            {
+                eventScoped = false;
+                String condition = condition();
+                RuleAction action = action();
+                rules.add( rule( rules.size(), 2 + random.nextInt( 3 ), condition, action ) );
+            }
+
+            return rules;
+        }
+
+        private Rule rule( int index, int priority, String condition, RuleAction action )
+        {
+            // like in real programs, rules reading the current event are bound to a program stage
+            String programStage = eventScoped ? stage( random.nextInt( builder.stageCount ) ) : null;
+
+            return Rule.create( programStage, priority, condition, Arrays.asList( action ), "rule_" + index,
+                "rule_uid_" + index );
+        }
+
+        private String condition()
+        {
+            int dataElement = random.nextInt( builder.dataElementCount );
+            int threshold = random.nextInt( 100 );
+
+            switch ( random.nextInt( 12 ) )
+            {
+            case 0:
+                return "d2:hasValue(#{previous_" + dataElement + "})";
+            case 1:
+                return "d2:count(#{newest_" + dataElement + "}) > " + random.nextInt( 3 );
+            case 2:
+                return "d2:hasValue(#{stage_newest_" + dataElement + "}) && d2:hasValue(#{newest_" + dataElement + "})";
+            case 3:
+                return attributeCondition();
+            case 4:
+                return "#{calc_" + random.nextInt( calculatedValueCount ) + "} > " + threshold;
+            case 5:
+                eventScoped = true;
+                return "d2:daysBetween(V{enrollment_date}, V{event_date}) > " + random.nextInt( 30 );
+            case 6:
+                return "d2:inOrgUnitGroup('" + ORG_UNIT_GROUP + "') && d2:hasUserRole('" + USER_ROLE + "')";
+            case 7:
+                return builder.constantCount == 0 ? "true" :
+                    "C{" + constant( random.nextInt( builder.constantCount ) ) + "} < " + threshold;
+            case 8:
+                return "V{event_count} > " + random.nextInt( Math.max( 1, builder.eventCount ) );
+            default:
+                return dataElementCondition( dataElement, threshold );
+            }
+        }
+
+        private String dataElementCondition( int dataElement, int threshold )
+        {
+            String variable = "#{current_" + dataElement + "}";
+            eventScoped = true;
+
+            switch ( dataElementTypes.get( dataElement ) )
+            {
+            case NUMERIC:
+                return "d2:hasValue(" + variable + ") && " + variable + " > " + threshold;
+            case BOOLEAN:
+                return variable;
+            default:
+                return variable + " == '" + TEXT_VALUES[random.nextInt( TEXT_VALUES.length )] + "'";
+            }
+        }
+
+        private String attributeCondition()
+        {
+            if ( builder.attributeCount == 0 )
+            {
+                return "true";
+            }
+
+            int attribute = random.nextInt( builder.attributeCount );
+
+            return attributeTypes.get( attribute ) == RuleValueType.NUMERIC ?
+                "#{attr_" + attribute + "} >= " + random.nextInt( 100 ) :
+                "d2:length(#{attr_" + attribute + "}) > 0";
+        }
+
+        private String numericExpression()
+        {
+            int dataElement = random.nextInt( builder.dataElementCount );
+
+            if ( dataElementTypes.get( dataElement ) != RuleValueType.NUMERIC )
+            {
+                return "d2:count(#{newest_" + dataElement + "})";
+            }
+
+            if ( random.nextBoolean() )
+            {
+                return "d2:countIfZeroPos(#{newest_" + dataElement + "}) + 1";
+            }
+
+            eventScoped = true;
+            return "d2:zing(#{current_" + dataElement + "}) * 2";
+        }
+
+        private RuleAction action()
+        {
+            String field = dataElement( random.nextInt( builder.dataElementCount ) );
+
+            switch ( random.nextInt( 20 ) )
+            {
+            case 0:
+            case 1:
+            case 2:
+                return RuleActionAssign.create( null, numericExpression(), field );
+            case 3:
+            case 4:
+            case 5:
+            case 6:
+                return RuleActionShowWarning.create( "warning", numericExpression(), field );
+            case 7:
+            case 8:
+            case 9:
+                return RuleActionShowError.create( "error", null, field );
+            case 10:
+            case 11:
+            case 12:
+                return RuleActionHideField.create( "hidden", field );
+            case 13:
+            case 14:
+                return RuleActionSetMandatoryField.create( field );
+            case 15:
+                return RuleActionHideSection.create( "section_" + random.nextInt( 5 ) );
+            case 16:
+                return RuleActionDisplayText.createForFeedback( "feedback", numericExpression() );
+            case 17:
+                return RuleActionDisplayKeyValuePair.createForIndicators( "indicator", numericExpression() );
+            case 18:
+                return RuleActionErrorOnCompletion.create( "completion error", null, field );
+            default:
+                return RuleActionWarningOnCompletion.create( "completion warning", null, field );
+            }
+        }
+    }
+
+    public static final class Builder
+    {
+        private long seed = 42;
+
+        private int ruleCount = SMALL;
+
+        private int eventCount = 10;
+
+        private int dataElementCount = 20;
+
+        private int dataValueCount = 10;
+
+        private int attributeCount = 5;
+
+        private int stageCount = 3;
+
+        private int constantCount = 3;
+
+        private int targetEventCount = 1;
+
+        private Builder()
+        {
+        }
+
+        @Nonnull
+        public Builder seed( long seed )
+        {
+            this.seed = seed;
+            return this;
+        }
+
+        @Nonnull
+        public Builder rules( int ruleCount )
+        {
+            this.ruleCount = ruleCount;
+            return this;
+        }
+
+        @Nonnull
+        public Builder events( int eventCount )
+        {
+            this.eventCount = eventCount;
+            return this;
+        }
+
+        @Nonnull
+        public Builder dataElements( int dataElementCount )
+        {
+            this.dataElementCount = dataElementCount;
+            return this;
+        }
+
+        /**
+         * @param dataValueCount data values per event, at most the number of data elements.
+         */
+        @Nonnull
+        public Builder dataValues( int dataValueCount )
+        {
+            this.dataValueCount = dataValueCount;
+            return this;
+        }
+
+        @Nonnull
+        public Builder attributes( int attributeCount )
+        {
+            this.attributeCount = attributeCount;
+            return this;
+        }
+
+        @Nonnull
+        public Builder stages( int stageCount )
+        {
+            this.stageCount = stageCount;
+            return this;
+        }
+
+        @Nonnull
+        public Builder constants( int constantCount )
+        {
+            this.constantCount = constantCount;
+            return this;
+        }
+
+        @Nonnull
+        public Builder targetEvents( int targetEventCount )
+        {
+            this.targetEventCount = targetEventCount;
+            return this;
+        }
+
+        @Nonnull
+        public ProgramWorkload build()
+        {
+            if ( ruleCount < 1 || dataElementCount < 1 || stageCount < 1 || targetEventCount < 1 )
+            {
+                throw new IllegalArgumentException( "At least one rule, data element, stage and target event " +
+                    "are required." );
+            }
+
+            if ( eventCount < 0 || attributeCount < 0 || constantCount < 0 )
+            {
+                throw new IllegalArgumentException( "Event, attribute and constant counts must not be negative." );
+            }
+
+            if ( dataValueCount < 0 || dataValueCount > dataElementCount )
+            {
+                throw new IllegalArgumentException( "Data values per event must be between 0 and the " +
+                    "number of data elements." );
+            }
+
+            return new ProgramWorkload( this );
+        }
+    }
+}
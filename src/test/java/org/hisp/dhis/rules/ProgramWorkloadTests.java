@@ -0,0 +1,111 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.metrics.RuleEngineMetrics;
+import org.hisp.dhis.rules.metrics.RuleMetrics;
+import org.hisp.dhis.rules.models.*;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith( JUnit4.class )
+public class ProgramWorkloadTests
+{
+    @Test
+    public void sameSeedMustGenerateEqualWorkloads()
+    {
+        ProgramWorkload first = ProgramWorkload.builder().seed( 7 ).rules( 100 ).events( 20 ).build();
+        ProgramWorkload second = ProgramWorkload.builder().seed( 7 ).rules( 100 ).events( 20 ).build();
+        ProgramWorkload other = ProgramWorkload.builder().seed( 8 ).rules( 100 ).events( 20 ).build();
+
+        assertThat( first.rules() ).isEqualTo( second.rules() );
+        assertThat( first.ruleVariables() ).isEqualTo( second.ruleVariables() );
+        assertThat( first.enrollment() ).isEqualTo( second.enrollment() );
+        assertThat( first.events() ).isEqualTo( second.events() );
+        assertThat( first.targetEvent() ).isEqualTo( second.targetEvent() );
+        assertThat( first.rules() ).isNotEqualTo( other.rules() );
+    }
+
+    @Test
+    public void workloadMustHaveRequestedSizesAndAllVariableTypes()
+    {
+        ProgramWorkload workload = ProgramWorkload.builder()
+            .rules( ProgramWorkload.MEDIUM ).events( 30 ).dataElements( 15 ).dataValues( 8 ).build();
+
+        assertThat( workload.rules() ).hasSize( ProgramWorkload.MEDIUM );
+        assertThat( workload.events() ).hasSize( 30 );
+        assertThat( workload.events() ).doesNotContain( workload.targetEvent() );
+
+        for ( RuleEvent event : workload.events() )
+        {
+            assertThat( event.dataValues() ).hasSize( 8 );
+        }
+
+        Set<Class<?>> variableTypes = new HashSet<>();
+
+        for ( RuleVariable ruleVariable : workload.ruleVariables() )
+        {
+            variableTypes.add( ruleVariable.getClass().getSuperclass() );
+        }
+
+        assertThat( variableTypes ).contains( RuleVariableCurrentEvent.class, RuleVariablePreviousEvent.class,
+            RuleVariableNewestEvent.class, RuleVariableNewestStageEvent.class, RuleVariableAttribute.class,
+            RuleVariableCalculatedValue.class );
+    }
+
+    @Test
+    public void workloadMustEvaluateWithoutErrors()
+        throws Exception
+    {
+        RuleEngineMetrics metrics = new RuleEngineMetrics();
+        ProgramWorkload workload = ProgramWorkload.builder().rules( ProgramWorkload.MEDIUM ).events( 20 ).build();
+
+        RuleEngine ruleEngine = workload.engineBuilder( workload.contextBuilder().listener( metrics ).build() )
+            .build();
+
+        List<RuleEffect> eventEffects = ruleEngine.evaluate( workload.targetEvent() ).call();
+        List<RuleEffects> allEffects = ruleEngine.evaluate().call();
+
+        assertThat( eventEffects ).isNotEmpty();
+        assertThat( allEffects ).hasSize( workload.events().size() + 1 );
+
+        for ( Map.Entry<String, RuleMetrics> ruleMetrics : metrics.getRuleMetrics().entrySet() )
+        {
+            assertThat( ruleMetrics.getValue().errorCount() ).as( ruleMetrics.getKey() ).isEqualTo( 0 );
+        }
+    }
+}
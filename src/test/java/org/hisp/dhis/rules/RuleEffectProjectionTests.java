@@ -0,0 +1,203 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.models.*;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith( JUnit4.class )
+public class RuleEffectProjectionTests
+{
+    private static final Date DATE = new Date( 1577836800000L );
+
+    private static final RuleAction DOUBLE = RuleActionAssign.create( "#{double}", "#{weight} * 2", "" );
+
+    private static final RuleAction HEAVY = RuleActionAssign.create( "#{heavy}", "#{double} > 100", "" );
+
+    private static final RuleAction UNUSED = RuleActionAssign.create( "#{unused}", "#{weight}", "" );
+
+    private static final RuleAction TEXT = RuleActionDisplayText.createForFeedback( "text", "#{double}" );
+
+    private static final RuleAction ERROR = RuleActionShowError.create( "heavy", null, "weight" );
+
+    private static final RuleAction COMPLETION = RuleActionErrorOnCompletion.create( "light", null, "weight" );
+
+    private static final Rule DOUBLE_RULE = Rule.create( null, 1, "true", Arrays.asList( DOUBLE, TEXT ),
+        "double", "double" );
+
+    private static final Rule HEAVY_RULE = Rule.create( null, 2, "d2:hasValue('double')",
+        Arrays.asList( HEAVY, UNUSED ), "heavy", "heavy" );
+
+    private static final Rule ERROR_RULE = Rule.create( null, 3, "#{heavy}", Arrays.asList( ERROR ),
+        "error", "error" );
+
+    private static final Rule COMPLETION_RULE = Rule.create( null, 4, "#{weight} > 10",
+        Arrays.asList( COMPLETION ), "completion", "completion" );
+
+    private static final Rule TEXT_RULE = Rule.create( null, 5, "true", Arrays.asList( TEXT ), "text", "text" );
+
+    @Test
+    public void projectionMustKeepAssignmentChainsOfRequestedActions()
+    {
+        List<Rule> projected = RuleEffectProjection.builder().actionType( RuleActionShowError.class ).build()
+            .apply( Arrays.asList( TEXT_RULE, DOUBLE_RULE, HEAVY_RULE, ERROR_RULE, COMPLETION_RULE ) );
+
+        assertThat( projected ).hasSize( 3 );
+        assertThat( projected.get( 0 ).uid() ).isEqualTo( "double" );
+        assertThat( projected.get( 0 ).actions() ).containsExactly( DOUBLE );
+        assertThat( projected.get( 1 ).uid() ).isEqualTo( "heavy" );
+        assertThat( projected.get( 1 ).actions() ).containsExactly( HEAVY );
+        assertThat( projected.get( 2 ) ).isSameAs( ERROR_RULE );
+    }
+
+    @Test
+    public void projectedEngineMustReturnEffectsOfRequestedTypes()
+        throws Exception
+    {
+        RuleEngineContext context = context( TEXT_RULE, DOUBLE_RULE, HEAVY_RULE, ERROR_RULE, COMPLETION_RULE );
+        RuleEvent event = event( "60" );
+
+        List<RuleEffect> effects = context.toEngineBuilder().effectProjection( RuleEffectProjection.BLOCKING )
+            .build().evaluate( event ).call();
+
+        assertThat( effects ).hasSize( 2 );
+        assertThat( effects.get( 0 ).ruleAction() ).isEqualTo( ERROR );
+        assertThat( effects.get( 1 ).ruleAction() ).isEqualTo( COMPLETION );
+
+        List<RuleEffect> stopped = context.toEngineBuilder().effectProjection( RuleEffectProjection.builder()
+            .actionType( RuleActionShowError.class )
+            .actionType( RuleActionErrorOnCompletion.class )
+            .stopAtFirstError()
+            .build() ).build().evaluate( event ).call();
+
+        assertThat( stopped ).containsExactly( effects.get( 0 ) );
+    }
+
+    @Test
+    public void projectedEffectsMustMatchFilteredFullEvaluation()
+        throws Exception
+    {
+        ProgramWorkload workload = ProgramWorkload.builder().rules( 300 ).events( 10 ).build();
+        RuleEngineContext context = workload.context();
+        RuleEffectProjection projection = RuleEffectProjection.BLOCKING;
+
+        RuleEngine engine = workload.engineBuilder( context ).build();
+        RuleEngine projectedEngine = workload.engineBuilder( context ).effectProjection( projection ).build();
+
+        assertThat( projection.apply( context.rules() ).size() ).isLessThan( context.rules().size() );
+
+        for ( RuleEvent event : workload.targetEvents() )
+        {
+            assertThat( projectedEngine.evaluate( event ).call() )
+                .isEqualTo( filter( projection, engine.evaluate( event ).call() ) );
+        }
+
+        assertThat( projectedEngine.evaluate( workload.enrollment() ).call() )
+            .isEqualTo( filter( projection, engine.evaluate( workload.enrollment() ).call() ) );
+
+        List<RuleEffects> all = engine.evaluate().call();
+        List<RuleEffects> projectedAll = projectedEngine.evaluate().call();
+
+        assertThat( projectedAll ).hasSameSizeAs( all );
+
+        for ( int i = 0; i < all.size(); i++ )
+        {
+            assertThat( projectedAll.get( i ).getRuleEffects() )
+                .isEqualTo( filter( projection, all.get( i ).getRuleEffects() ) );
+        }
+    }
+
+    @Test
+    public void projectionMustBePartOfEffectsCacheKey()
+        throws Exception
+    {
+        RuleEngineContext context = context( DOUBLE_RULE, HEAVY_RULE, ERROR_RULE, TEXT_RULE );
+        RuleEffectsCache cache = new RuleEffectsCache( 10 );
+        RuleEvent event = event( "60" );
+
+        List<RuleEffect> effects = context.toEngineBuilder().effectsCache( cache ).build().evaluate( event ).call();
+        List<RuleEffect> projected = context.toEngineBuilder().effectsCache( cache )
+            .effectProjection( RuleEffectProjection.BLOCKING ).build().evaluate( event ).call();
+
+        assertThat( effects ).hasSize( 3 );
+        assertThat( projected ).hasSize( 1 );
+        assertThat( cache.hitCount() ).isEqualTo( 0 );
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void projectionMustRequestActionTypes()
+    {
+        RuleEffectProjection.builder().build();
+    }
+
+    private static List<RuleEffect> filter( RuleEffectProjection projection, List<RuleEffect> ruleEffects )
+    {
+        List<RuleEffect> filtered = new ArrayList<>();
+
+        for ( RuleEffect ruleEffect : ruleEffects )
+        {
+            if ( projection.includes( ruleEffect.ruleAction() ) )
+            {
+                filtered.add( ruleEffect );
+            }
+        }
+
+        return filtered;
+    }
+
+    private static RuleEngineContext context( Rule... rules )
+    {
+        return RuleEngineContext.builder()
+            .rules( Arrays.asList( rules ) )
+            .ruleVariables( Arrays.<RuleVariable>asList(
+                RuleVariableCurrentEvent.create( "weight", "weight", RuleValueType.NUMERIC ),
+                RuleVariableCalculatedValue.create( "double", "", RuleValueType.NUMERIC ),
+                RuleVariableCalculatedValue.create( "heavy", "", RuleValueType.BOOLEAN ),
+                RuleVariableCalculatedValue.create( "unused", "", RuleValueType.NUMERIC ) ) )
+            .supplementaryData( new HashMap<String, List<String>>() )
+            .constantsValue( new HashMap<String, String>() )
+            .build();
+    }
+
+    private static RuleEvent event( String weight )
+    {
+        return RuleEvent.create( "event", "stage", RuleEvent.Status.ACTIVE, DATE, DATE, "org_unit", null,
+            Arrays.asList( RuleDataValue.create( DATE, "stage", "weight", weight ) ), "stage", null );
+    }
+}
@@ -0,0 +1,158 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.models.*;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith( JUnit4.class )
+public class RuleEffectsCacheTests
+{
+    @Test
+    public void unchangedInputsMustBeServedFromCache()
+        throws Exception
+    {
+        ProgramWorkload workload = ProgramWorkload.builder().rules( 100 ).events( 10 ).build();
+        RuleEffectsCache cache = new RuleEffectsCache( 100 );
+        List<RuleEffect> expected = workload.engineBuilder( workload.context() ).build()
+            .evaluate( workload.targetEvent() ).call();
+
+        List<RuleEffect> first = workload.engineBuilder( workload.context() ).effectsCache( cache ).build()
+            .evaluate( workload.targetEvent() ).call();
+
+        // equal inputs and metadata in new objects, as after a re-import
+        ProgramWorkload reimported = ProgramWorkload.builder().rules( 100 ).events( 10 ).build();
+        List<RuleEffect> second = reimported.engineBuilder( reimported.context() ).effectsCache( cache ).build()
+            .evaluate( reimported.targetEvent() ).call();
+
+        assertThat( first ).isEqualTo( expected );
+        assertThat( second ).isEqualTo( expected );
+        assertThat( cache.size() ).isEqualTo( 1 );
+        assertThat( cache.hitCount() ).isEqualTo( 1 );
+        assertThat( cache.missCount() ).isEqualTo( 1 );
+        assertThat( cache.hitRatio() ).isEqualTo( 0.5 );
+    }
+
+    @Test
+    public void changedDataValueMustMissCache()
+        throws Exception
+    {
+        ProgramWorkload workload = ProgramWorkload.builder().rules( 50 ).events( 5 ).build();
+        RuleEngineContext context = workload.context();
+        RuleEffectsCache cache = new RuleEffectsCache( 100 );
+        RuleEngine engine = workload.engineBuilder( context ).effectsCache( cache ).build();
+        RuleEvent event = workload.targetEvent();
+
+        engine.evaluate( event ).call();
+
+        List<RuleDataValue> dataValues = new ArrayList<>( event.dataValues() );
+        RuleDataValue first = dataValues.get( 0 );
+        dataValues.set( 0, RuleDataValue.create( first.eventDate(), first.programStage(), first.dataElement(),
+            first.value() + "0" ) );
+        RuleEvent changed = RuleEvent.create( event.event(), event.programStage(), event.status(),
+            event.eventDate(), event.dueDate(), event.organisationUnit(), event.organisationUnitCode(), dataValues,
+            event.programStageName(), event.completedDate() );
+
+        assertThat( engine.evaluate( changed ).call() )
+            .isEqualTo( workload.engineBuilder( context ).build().evaluate( changed ).call() );
+        assertThat( cache.hitCount() ).isEqualTo( 0 );
+        assertThat( cache.size() ).isEqualTo( 2 );
+    }
+
+    @Test
+    public void targetKindAndRulesMustBePartOfKey()
+        throws Exception
+    {
+        ProgramWorkload workload = ProgramWorkload.builder().rules( 50 ).events( 5 ).build();
+        RuleEffectsCache cache = new RuleEffectsCache( 100 );
+        RuleEngine engine = workload.engineBuilder( workload.context() ).effectsCache( cache ).build();
+
+        engine.evaluate( workload.targetEvent() ).call();
+        engine.evaluate( workload.targetEvent(), workload.rules().subList( 0, 10 ) ).call();
+        engine.evaluate( workload.enrollment() ).call();
+        List<RuleEffects> all = engine.evaluate().call();
+
+        assertThat( cache.hitCount() ).isEqualTo( 0 );
+        assertThat( cache.size() ).isEqualTo( 4 );
+
+        List<RuleEffects> cachedAll = engine.evaluate().call();
+
+        assertThat( cache.hitCount() ).isEqualTo( 1 );
+        assertThat( cachedAll ).hasSameSizeAs( all );
+
+        for ( int i = 0; i < all.size(); i++ )
+        {
+            assertThat( cachedAll.get( i ).getTrackerObjectUid() ).isEqualTo( all.get( i ).getTrackerObjectUid() );
+            assertThat( cachedAll.get( i ).getRuleEffects() ).isEqualTo( all.get( i ).getRuleEffects() );
+        }
+    }
+
+    @Test
+    public void changedMetadataMustMissCache()
+        throws Exception
+    {
+        ProgramWorkload workload = ProgramWorkload.builder().rules( 50 ).events( 5 ).build();
+        RuleEffectsCache cache = new RuleEffectsCache( 100 );
+
+        workload.engineBuilder( workload.context() ).effectsCache( cache ).build()
+            .evaluate( workload.targetEvent() ).call();
+        workload.engineBuilder( workload.contextBuilder().rules( workload.rules().subList( 1, 50 ) ).build() )
+            .effectsCache( cache ).build().evaluate( workload.targetEvent() ).call();
+
+        assertThat( cache.hitCount() ).isEqualTo( 0 );
+        assertThat( cache.size() ).isEqualTo( 2 );
+    }
+
+    @Test
+    public void cacheMustDropLeastRecentlyUsedEntries()
+        throws Exception
+    {
+        RuleEffectsCache cache = new RuleEffectsCache( 2 );
+
+        for ( int seed = 0; seed < 3; seed++ )
+        {
+            ProgramWorkload workload = ProgramWorkload.builder().seed( seed ).rules( 20 ).events( 3 ).build();
+            workload.engineBuilder( workload.context() ).effectsCache( cache ).build()
+                .evaluate( workload.targetEvent() ).call();
+        }
+
+        assertThat( cache.size() ).isEqualTo( 2 );
+
+        cache.clear();
+
+        assertThat( cache.size() ).isEqualTo( 0 );
+    }
+}
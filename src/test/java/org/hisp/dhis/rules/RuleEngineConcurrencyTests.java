@@ -0,0 +1,189 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.models.RuleEffect;
+import org.hisp.dhis.rules.models.RuleEvent;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Evaluates one shared {@link RuleEngine} from several threads and compares
+ * every result with the result of a single threaded evaluation.
+ */
+@RunWith( JUnit4.class )
+public class RuleEngineConcurrencyTests
+{
+    private static final int THREADS = 8;
+
+    private static final int ROUNDS = 3;
+
+    @Test
+    public void concurrentEvaluationsMustMatchSingleThreadedResults()
+        throws Exception
+    {
+        ProgramWorkload workload = ProgramWorkload.builder().seed( 11 ).rules( 100 ).events( 8 )
+            .targetEvents( 8 ).build();
+        final RuleEngine ruleEngine = workload.engineBuilder( workload.context() ).build();
+        final List<RuleEvent> events = workload.targetEvents();
+
+        final Map<String, List<RuleEffect>> expected = new HashMap<>();
+
+        for ( RuleEvent event : events )
+        {
+            expected.put( event.event(), ruleEngine.evaluate( event ).call() );
+        }
+
+        final Queue<String> mismatches = new ConcurrentLinkedQueue<>();
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final CountDownLatch done = new CountDownLatch( THREADS );
+
+        for ( int i = 0; i < THREADS; i++ )
+        {
+            final int offset = i;
+
+            new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+
+                        for ( int round = 0; round < ROUNDS; round++ )
+                        {
+                            for ( int j = 0; j < events.size(); j++ )
+                            {
+                                RuleEvent event = events.get( (offset + j) % events.size() );
+                                List<RuleEffect> actual = ruleEngine.evaluate( event ).call();
+
+                                if ( !expected.get( event.event() ).equals( actual ) )
+                                {
+                                    mismatches.add( event.event() + ": " + actual );
+                                }
+                            }
+                        }
+                    }
+                    catch ( Exception e )
+                    {
+                        mismatches.add( e.toString() );
+                    }
+                    finally
+                    {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        start.countDown();
+
+        assertThat( done.await( 2, TimeUnit.MINUTES ) ).isTrue();
+        assertThat( mismatches ).isEmpty();
+    }
+
+    @Test
+    public void concurrentDateFormattingMustNotInterfere()
+        throws Exception
+    {
+        final SimpleDateFormat parser = new SimpleDateFormat( "yyyy-MM-dd", Locale.US );
+        final List<String> dates = new ArrayList<>();
+
+        for ( int i = 1; i <= 28; i++ )
+        {
+            dates.add( String.format( "2020-%02d-%02d", i % 12 + 1, i ) );
+        }
+
+        final List<Date> parsedDates = new ArrayList<>();
+
+        for ( String date : dates )
+        {
+            parsedDates.add( parser.parse( date ) );
+        }
+
+        final Queue<String> mismatches = new ConcurrentLinkedQueue<>();
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final CountDownLatch done = new CountDownLatch( THREADS );
+
+        for ( int i = 0; i < THREADS; i++ )
+        {
+            new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+
+                        for ( int round = 0; round < 1000; round++ )
+                        {
+                            int index = round % dates.size();
+                            String formatted = Utils.formatDate( parsedDates.get( index ) );
+
+                            if ( !dates.get( index ).equals( formatted ) )
+                            {
+                                mismatches.add( dates.get( index ) + " formatted as " + formatted );
+                            }
+                        }
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        mismatches.add( e.toString() );
+                    }
+                    finally
+                    {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        start.countDown();
+
+        assertThat( done.await( 1, TimeUnit.MINUTES ) ).isTrue();
+        assertThat( mismatches ).isEmpty();
+    }
+}
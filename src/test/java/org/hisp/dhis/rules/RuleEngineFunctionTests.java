@@ -394,6 +394,41 @@ public class RuleEngineFunctionTests
         assertThat( ruleEffects.get( 0 ).data() ).isEqualTo( "true" );
     }
 
+    @Test
+    public void evaluateD2InOrgUnitGroupAndHasUserRoleWithTypedSupplementaryData()
+        throws Exception
+    {
+        SupplementaryData supplementaryData = new SupplementaryData.Builder()
+            .setOrgUnitGroups( "OU_GROUP_ID", "OU_GROUP_CODE", Arrays.asList( "location1", "location2" ) )
+            .setUserRoles( Arrays.asList( "role1", "role2" ) )
+            .build();
+
+        RuleAction groupAction = RuleActionDisplayKeyValuePair.createForFeedback(
+            "test_action_content", "d2:inOrgUnitGroup('OU_GROUP_CODE')" );
+        RuleAction roleAction = RuleActionDisplayKeyValuePair.createForFeedback(
+            "test_action_content", "d2:hasUserRole('role3')" );
+
+        Rule rule = Rule.create( null, null, "true", Arrays.asList( groupAction, roleAction ), "", "" );
+
+        RuleEngine ruleEngine = RuleEngineContext
+            .builder()
+            .rules( Arrays.asList( rule ) )
+            .supplementaryData( supplementaryData )
+            .constantsValue( new HashMap<String, String>() )
+            .build().toEngineBuilder().triggerEnvironment( TriggerEnvironment.SERVER )
+            .build();
+
+        RuleEvent ruleEvent = RuleEvent.create( "test_event", "test_program_stage",
+            RuleEvent.Status.ACTIVE, new Date(), new Date(), "location1", null, new ArrayList<RuleDataValue>(),
+            "", null );
+
+        List<RuleEffect> ruleEffects = ruleEngine.evaluate( ruleEvent ).call();
+
+        assertThat( ruleEffects.size() ).isEqualTo( 2 );
+        assertThat( ruleEffects.get( 0 ).data() ).isEqualTo( "true" );
+        assertThat( ruleEffects.get( 1 ).data() ).isEqualTo( "false" );
+    }
+
     @Test
     public void evaluateD2AddDays()
         throws Exception
@@ -430,6 +465,52 @@ public class RuleEngineFunctionTests
         assertThat( ruleEffects2.get( 0 ).data() ).isEqualTo( "2017-01-01" );
     }
 
+    @Test
+    public void countFunctionsOfMultipleEvaluationMustCountEveryEventOnce()
+        throws Exception
+    {
+        Rule rule = Rule.create( null, null, "true", Arrays.<RuleAction>asList(
+            RuleActionDisplayKeyValuePair.createForFeedback( "count", "d2:count(#{test_var_one})" ),
+            RuleActionDisplayKeyValuePair.createForFeedback( "value", "d2:countIfValue(#{test_var_one}, '5')" ),
+            RuleActionDisplayKeyValuePair.createForFeedback( "zeroPos", "d2:countIfZeroPos(#{test_var_one})" ) ),
+            "", "" );
+        List<RuleVariable> ruleVariables = Arrays.<RuleVariable>asList( RuleVariableNewestEvent.create(
+            "test_var_one", "test_data_element_one", RuleValueType.NUMERIC ) );
+
+        RuleEvent ruleEvent = RuleEvent.create( "test_event", "test_program_stage",
+            RuleEvent.Status.ACTIVE, new Date(), new Date(), "", null, Arrays.asList(
+                RuleDataValue.create( new Date(), "test_program_stage", "test_data_element_one", "5" ) ), "", null );
+        RuleEvent ruleEvent2 = RuleEvent.create( "test_event2", "test_program_stage",
+            RuleEvent.Status.ACTIVE, new Date(), new Date(), "", null, Arrays.asList(
+                RuleDataValue.create( new Date(), "test_program_stage", "test_data_element_one", "-1" ) ), "", null );
+
+        List<RuleEffects> ruleEffects = getRuleEngineBuilder( rule, ruleVariables )
+            .events( Arrays.asList( ruleEvent, ruleEvent2 ) ).build().evaluate().call();
+
+        // every target is one of the events and counted once, as when it is
+        // evaluated alone; multiple evaluations used to count its value twice,
+        // giving 3, 2 and 2 for the first event
+        assertThat( ruleEffects ).hasSize( 2 );
+        assertThat( data( getRuleEffectsByUid( ruleEffects, "test_event" ).getRuleEffects() ) )
+            .containsExactly( "2", "1", "1" );
+        assertThat( data( getRuleEffectsByUid( ruleEffects, "test_event2" ).getRuleEffects() ) )
+            .containsExactly( "2", "1", "1" );
+        assertThat( data( getRuleEngineBuilder( rule, ruleVariables ).events( Arrays.asList( ruleEvent2 ) )
+            .build().evaluate( ruleEvent ).call() ) ).containsExactly( "2", "1", "1" );
+    }
+
+    private static List<String> data( List<RuleEffect> ruleEffects )
+    {
+        List<String> data = new ArrayList<>();
+
+        for ( RuleEffect ruleEffect : ruleEffects )
+        {
+            data.add( ruleEffect.data() );
+        }
+
+        return data;
+    }
+
     @Test
     public void evaluateD2CountIfValue()
         throws Exception
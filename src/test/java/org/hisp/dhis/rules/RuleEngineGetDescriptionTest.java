@@ -35,10 +35,13 @@ import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.CoreMatchers.instanceOf;
@@ -340,6 +343,62 @@ public class RuleEngineGetDescriptionTest
         assertThat( result.getException(), instanceOf( IllegalStateException.class ) );
     }
 
+    @Test
+    public void batchValidationMustMatchSingleValidation()
+    {
+        List<String> conditions = Arrays.asList( "#{test_var_one} > 0", "C{NAgjOfWMXg6} == 0",
+            "d2:hasValue('test_var_three')", "d2:hasValue(#{test_var_one1})", "1 + 1 +",
+            "d2:daysBetween(#{test_var_date_one}, #{test_var_date_two}) > 0 && #{test_var_one} == #{test_var_one}" );
+        List<String> expressions = new ArrayList<>();
+
+        for ( int i = 0; i < 50; i++ )
+        {
+            expressions.addAll( conditions );
+        }
+
+        RuleEngine ruleEngine = getRuleEngineBuilderForDescription( itemStore ).build();
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+
+        try
+        {
+            List<RuleValidationResult> sequential = ruleEngine.evaluate( expressions, null );
+            List<RuleValidationResult> parallel = ruleEngine.evaluate( expressions, executor );
+            List<RuleValidationResult> dataFields = ruleEngine.evaluateDataFieldExpressions( expressions, executor );
+
+            assertEquals( expressions.size(), sequential.size() );
+            assertEquals( expressions.size(), parallel.size() );
+
+            for ( int i = 0; i < expressions.size(); i++ )
+            {
+                RuleValidationResult single = ruleEngine.evaluate( expressions.get( i ) );
+                RuleValidationResult singleDataField = ruleEngine.evaluateDataFieldExpression( expressions.get( i ) );
+
+                assertEquals( single.isValid(), sequential.get( i ).isValid() );
+                assertEquals( single.getDescription(), sequential.get( i ).getDescription() );
+                assertEquals( single.isValid(), parallel.get( i ).isValid() );
+                assertEquals( single.getDescription(), parallel.get( i ).getDescription() );
+                assertEquals( single.getErrorMessage(), parallel.get( i ).getErrorMessage() );
+                assertEquals( singleDataField.isValid(), dataFields.get( i ).isValid() );
+                assertEquals( singleDataField.getDescription(), dataFields.get( i ).getDescription() );
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void descriptionMustReplaceEveryOccurrenceOfEachItem()
+    {
+        RuleEngine ruleEngine = getRuleEngineBuilderForDescription( itemStore ).build();
+        RuleValidationResult result = ruleEngine.evaluate(
+            "#{test_var_one} == #{test_var_two} || #{test_var_one} == 'x'" );
+
+        assertTrue( result.isValid() );
+        assertEquals( "Variable_ONE == Variable_TWO || Variable_ONE == 'x'", result.getDescription() );
+    }
+
     private RuleEngine.Builder getRuleEngineBuilderForDescription( Map<String, DataItem> itemStore )
     {
         return RuleEngineContext
@@ -0,0 +1,312 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.models.*;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith( JUnit4.class )
+public class RuleEngineSessionTests
+{
+    private static final Date DATE = new Date( 1577836800000L );
+
+    @Test
+    public void sessionMustEvaluateOnlyRulesReadingChangedValues()
+        throws Exception
+    {
+        Rule assign = Rule.create( null, 1, "true",
+            Arrays.<RuleAction>asList( RuleActionAssign.create( "#{calc}", "#{weight} + 1", "" ) ), "assign",
+            "assign" );
+        Rule heavy = Rule.create( null, 2, "#{calc} > 50",
+            Arrays.<RuleAction>asList( RuleActionShowWarning.create( null, "#{calc}", "weight" ) ), "heavy",
+            "heavy" );
+        Rule tall = Rule.create( null, 3, "#{height} > 180",
+            Arrays.<RuleAction>asList( RuleActionShowWarning.create( "tall", null, "height" ) ), "tall", "tall" );
+
+        RuleEngine ruleEngine = RuleEngineContext.builder()
+            .rules( Arrays.asList( tall, heavy, assign ) )
+            .ruleVariables( Arrays.<RuleVariable>asList(
+                RuleVariableCurrentEvent.create( "weight", "weight", RuleValueType.NUMERIC ),
+                RuleVariableCurrentEvent.create( "height", "height", RuleValueType.NUMERIC ),
+                RuleVariableCalculatedValue.create( "calc", "", RuleValueType.NUMERIC ) ) )
+            .supplementaryData( new HashMap<String, List<String>>() )
+            .constantsValue( new HashMap<String, String>() )
+            .build().toEngineBuilder().triggerEnvironment( TriggerEnvironment.SERVER )
+            .build();
+
+        RuleEngineSession session = ruleEngine.session( event(
+            RuleDataValue.create( DATE, "stage", "weight", "40" ),
+            RuleDataValue.create( DATE, "stage", "height", "170" ) ) );
+
+        assertThat( session.effects() ).isEmpty();
+        assertThat( session.evaluatedRuleCount() ).isEqualTo( 3 );
+
+        List<RuleEffect> effects = session.setDataValue( "weight", "60" );
+
+        assertThat( effects ).hasSize( 1 );
+        assertThat( effects.get( 0 ).ruleId() ).isEqualTo( "heavy" );
+        assertThat( effects.get( 0 ).data() ).isEqualTo( "61" );
+        assertThat( session.evaluatedRuleCount() ).isEqualTo( 2 );
+        assertThat( session.changes().added() ).isEqualTo( effects );
+
+        effects = session.setDataValue( "weight", "70" );
+
+        assertThat( session.changes().changed() ).isEqualTo( effects );
+        assertThat( session.changes().added() ).isEmpty();
+
+        effects = session.setDataValue( "height", "190" );
+
+        assertThat( effects ).hasSize( 2 );
+        assertThat( effects.get( 1 ).ruleId() ).isEqualTo( "tall" );
+        assertThat( session.evaluatedRuleCount() ).isEqualTo( 1 );
+
+        session.setDataValue( "height", "190" );
+
+        assertThat( session.evaluatedRuleCount() ).isEqualTo( 0 );
+        assertThat( session.changes().isEmpty() ).isTrue();
+
+        effects = session.setDataValue( "weight", null );
+
+        assertThat( effects ).hasSize( 1 );
+        assertThat( effects.get( 0 ).ruleId() ).isEqualTo( "tall" );
+        assertThat( session.event().dataValues() ).hasSize( 1 );
+        assertThat( session.changes().removed() ).hasSize( 1 );
+        assertThat( session.changes().removed().get( 0 ).ruleId() ).isEqualTo( "heavy" );
+        assertThat( ruleEngine.evaluate( session.event() ).call() ).isEqualTo( effects );
+    }
+
+    @Test
+    public void sessionMustMatchFullEvaluationAfterEveryChange()
+        throws Exception
+    {
+        ProgramWorkload workload = ProgramWorkload.builder().seed( 7 ).rules( 200 ).events( 10 ).build();
+        RuleEngineContext context = workload.context();
+        RuleEngineSession session = workload.engineBuilder( context ).build().session( workload.targetEvent() );
+
+        Map<String, RuleValueType> dataElements = new HashMap<>();
+        Map<String, RuleValueType> attributes = new HashMap<>();
+
+        for ( RuleVariable ruleVariable : workload.ruleVariables() )
+        {
+            if ( ruleVariable instanceof RuleVariableCurrentEvent )
+            {
+                RuleVariableCurrentEvent variable = (RuleVariableCurrentEvent) ruleVariable;
+                dataElements.put( variable.dataElement(), variable.dataElementType() );
+            }
+            else if ( ruleVariable instanceof RuleVariableAttribute )
+            {
+                RuleVariableAttribute variable = (RuleVariableAttribute) ruleVariable;
+                attributes.put( variable.trackedEntityAttribute(), variable.trackedEntityAttributeType() );
+            }
+        }
+
+        List<String> dataElementUids = new ArrayList<>( dataElements.keySet() );
+        List<String> attributeUids = new ArrayList<>( attributes.keySet() );
+        Random random = new Random( 7 );
+        int evaluatedRuleCount = 0;
+        List<RuleEffect> previous = session.effects();
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            if ( random.nextInt( 4 ) == 0 )
+            {
+                String attribute = attributeUids.get( random.nextInt( attributeUids.size() ) );
+                session.setAttributeValue( attribute, value( random, attributes.get( attribute ) ) );
+            }
+            else
+            {
+                String dataElement = dataElementUids.get( random.nextInt( dataElementUids.size() ) );
+                session.setDataValue( dataElement, value( random, dataElements.get( dataElement ) ) );
+            }
+
+            evaluatedRuleCount += session.evaluatedRuleCount();
+
+            List<RuleEffect> expected = workload.engineBuilder( context ).enrollment( session.enrollment() )
+                .build().evaluate( session.event() ).call();
+
+            RuleEffectsDiff changes = RuleEffectsDiff.between( previous, expected );
+
+            assertThat( session.effects() ).isEqualTo( expected );
+            assertThat( session.changes().added() ).containsExactlyInAnyOrderElementsOf( changes.added() );
+            assertThat( session.changes().removed() ).containsExactlyInAnyOrderElementsOf( changes.removed() );
+            assertThat( session.changes().changed() ).containsExactlyInAnyOrderElementsOf( changes.changed() );
+            previous = expected;
+        }
+
+        assertThat( evaluatedRuleCount ).isLessThan( 100 * context.rules().size() );
+    }
+
+    @Test
+    public void enrollmentSessionMustUpdateAttributeValues()
+        throws Exception
+    {
+        ProgramWorkload workload = ProgramWorkload.builder().rules( 100 ).events( 5 ).build();
+        RuleEngine ruleEngine = workload.engineBuilder( workload.context() ).build();
+        RuleEngineSession session = ruleEngine.session( workload.enrollment() );
+
+        assertThat( session.effects() ).isEqualTo( ruleEngine.evaluate( workload.enrollment() ).call() );
+
+        for ( RuleAttributeValue attributeValue : workload.enrollment().attributeValues() )
+        {
+            session.setAttributeValue( attributeValue.trackedEntityAttribute(), null );
+
+            assertThat( session.effects() ).isEqualTo( ruleEngine.evaluate( session.enrollment() ).call() );
+        }
+
+        assertThat( session.enrollment().attributeValues() ).isEmpty();
+    }
+
+    @Test
+    public void sessionMustApplyEffectProjectionOfEngine()
+        throws Exception
+    {
+        Rule light = Rule.create( null, 1, "#{weight} < 10",
+            Arrays.<RuleAction>asList( RuleActionShowError.create( "light", null, "weight" ) ), "light", "light" );
+        Rule tall = Rule.create( null, 2, "#{height} > 180",
+            Arrays.<RuleAction>asList( RuleActionShowError.create( "tall", null, "height" ) ), "tall", "tall" );
+        Rule heavy = Rule.create( null, 3, "#{weight} > 50",
+            Arrays.<RuleAction>asList( RuleActionShowWarning.create( "heavy", null, "weight" ) ), "heavy", "heavy" );
+
+        RuleEngine ruleEngine = RuleEngineContext.builder()
+            .rules( Arrays.asList( heavy, tall, light ) )
+            .ruleVariables( Arrays.<RuleVariable>asList(
+                RuleVariableCurrentEvent.create( "weight", "weight", RuleValueType.NUMERIC ),
+                RuleVariableCurrentEvent.create( "height", "height", RuleValueType.NUMERIC ) ) )
+            .supplementaryData( new HashMap<String, List<String>>() )
+            .constantsValue( new HashMap<String, String>() )
+            .build().toEngineBuilder()
+            .effectProjection( RuleEffectProjection.builder().actionType( RuleActionShowError.class )
+                .stopAtFirstError().build() )
+            .build();
+
+        RuleEngineSession session = ruleEngine.session( event(
+            RuleDataValue.create( DATE, "stage", "weight", "60" ),
+            RuleDataValue.create( DATE, "stage", "height", "190" ) ) );
+
+        assertThat( session.effects() ).hasSize( 1 );
+        assertThat( session.effects().get( 0 ).ruleId() ).isEqualTo( "tall" );
+
+        List<RuleEffect> effects = session.setDataValue( "weight", "5" );
+
+        assertThat( effects ).hasSize( 1 );
+        assertThat( effects.get( 0 ).ruleId() ).isEqualTo( "light" );
+        assertThat( session.changes().removed().get( 0 ).ruleId() ).isEqualTo( "tall" );
+        assertThat( ruleEngine.evaluate( session.event() ).call() ).isEqualTo( effects );
+
+        effects = session.setDataValue( "weight", "40" );
+
+        assertThat( effects ).hasSize( 1 );
+        assertThat( effects.get( 0 ).ruleId() ).isEqualTo( "tall" );
+        assertThat( session.changes().added() ).isEqualTo( effects );
+        assertThat( ruleEngine.evaluate( session.event() ).call() ).isEqualTo( effects );
+    }
+
+    @Test
+    public void sessionMustStopAtTimeoutOfEngine()
+    {
+        ProgramWorkload workload = ProgramWorkload.builder().rules( 50 ).events( 1 ).build();
+        RuleEngine ruleEngine = workload.engineBuilder( workload.context() )
+            .evaluationTimeout( 1, TimeUnit.MINUTES ).build();
+        RuleEngineSession session;
+
+        Thread.currentThread().interrupt();
+
+        try
+        {
+            session = ruleEngine.session( workload.targetEvent() );
+        }
+        finally
+        {
+            Thread.interrupted();
+        }
+
+        assertThat( session.effects() ).hasSize( 1 );
+        assertThat( session.effects().get( 0 ).ruleAction() ).isEqualTo( RuleActionTimeout.create( true ) );
+
+        List<RuleEffect> effects = session.setDataValue( ProgramWorkload.dataElement( 0 ), "changed" );
+
+        assertThat( EvaluationDeadline.stopped( effects ) ).isFalse();
+        assertThat( session.evaluatedRuleCount() ).isEqualTo( workload.context().rules().size() );
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void dataValuesMustNotBeSetInEnrollmentSessions()
+    {
+        ProgramWorkload workload = ProgramWorkload.builder().rules( 10 ).events( 1 ).build();
+
+        workload.engineBuilder( workload.context() ).build().session( workload.enrollment() )
+            .setDataValue( ProgramWorkload.dataElement( 0 ), "1" );
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void attributeValuesMustNotBeSetWithoutEnrollment()
+    {
+        ProgramWorkload workload = ProgramWorkload.builder().rules( 10 ).events( 1 ).build();
+
+        workload.context().toEngineBuilder().build().session( workload.targetEvent() )
+            .setAttributeValue( ProgramWorkload.attribute( 0 ), "1" );
+    }
+
+    private static RuleEvent event( RuleDataValue... dataValues )
+    {
+        return RuleEvent.create( "event", "stage", RuleEvent.Status.ACTIVE, DATE, DATE, "org_unit", null,
+            Arrays.asList( dataValues ), "stage", null );
+    }
+
+    private static String value( Random random, RuleValueType type )
+    {
+        if ( random.nextInt( 5 ) == 0 )
+        {
+            return null;
+        }
+
+        switch ( type )
+        {
+        case NUMERIC:
+            return String.valueOf( random.nextInt( 100 ) );
+        case BOOLEAN:
+            return String.valueOf( random.nextBoolean() );
+        default:
+            return "value" + random.nextInt( 4 );
+        }
+    }
+}
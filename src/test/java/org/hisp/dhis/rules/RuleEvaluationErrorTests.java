@@ -0,0 +1,136 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.models.*;
+import org.hisp.dhis.rules.parser.expression.ExpressionEvaluationException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith( JUnit4.class )
+public class RuleEvaluationErrorTests
+{
+    private static final Date DATE = new Date( 1577836800000L );
+
+    private static final RuleAction TEXT = RuleActionDisplayText.createForFeedback( "text", "'text'" );
+
+    private static final Rule MISSING_CONDITION_RULE = Rule.create( null, 1, "#{missing} > 1",
+        Arrays.asList( TEXT ), "missing_condition", "missing_condition" );
+
+    private static final Rule MISSING_DATA_RULE = Rule.create( null, 2, "true",
+        Arrays.<RuleAction>asList( RuleActionDisplayText.createForFeedback( "data", "#{missing}" ) ),
+        "missing_data", "missing_data" );
+
+    private static final Rule VALID_RULE = Rule.create( null, 3, "true", Arrays.asList( TEXT ), "valid", "valid" );
+
+    @Test
+    public void errorsMustBeReturnedPerTrackerObject()
+        throws Exception
+    {
+        List<RuleEffects> ruleEffects = engine( null ).evaluate().call();
+
+        assertThat( ruleEffects ).hasSize( 2 );
+
+        for ( RuleEffects effects : ruleEffects )
+        {
+            assertThat( effects.getRuleEffects() ).hasSize( 2 );
+            assertThat( effects.getErrors() ).hasSize( 2 );
+            assertThat( effects.getErrors().get( 0 ).ruleId() ).isEqualTo( "missing_condition" );
+            assertThat( effects.getErrors().get( 0 ).expression() ).isEqualTo( "#{missing} > 1" );
+            assertThat( effects.getErrors().get( 0 ).message() ).contains( "missing" );
+            assertThat( effects.getErrors().get( 1 ).ruleId() ).isEqualTo( "missing_data" );
+            assertThat( effects.getErrors().get( 1 ).expression() ).isEqualTo( "#{missing}" );
+        }
+    }
+
+    @Test
+    public void cachedEffectsMustKeepErrors()
+        throws Exception
+    {
+        RuleEngine engine = engine( new RuleEffectsCache( 10 ) );
+
+        List<RuleEffects> evaluated = engine.evaluate().call();
+        List<RuleEffects> cached = engine.evaluate().call();
+
+        assertThat( cached ).hasSize( evaluated.size() );
+        assertThat( cached.get( 0 ).getErrors() ).isEqualTo( evaluated.get( 0 ).getErrors() );
+    }
+
+    @Test
+    public void invalidFunctionArgumentsMustBeReturned()
+        throws Exception
+    {
+        Rule left = Rule.create( null, 1, "d2:left('abc', 1.5) == 'a'", Arrays.asList( TEXT ), "left", "left" );
+
+        List<RuleEffects> ruleEffects = RuleEngineContext.builder()
+            .rules( Arrays.asList( left, VALID_RULE ) )
+            .supplementaryData( new HashMap<String, List<String>>() )
+            .constantsValue( new HashMap<String, String>() )
+            .build().toEngineBuilder()
+            .events( Arrays.asList( event( "event" ) ) )
+            .build().evaluate().call();
+
+        assertThat( ruleEffects.get( 0 ).getRuleEffects() ).hasSize( 1 );
+        assertThat( ruleEffects.get( 0 ).getErrors() ).hasSize( 1 );
+        assertThat( ruleEffects.get( 0 ).getErrors().get( 0 ).ruleId() ).isEqualTo( "left" );
+        assertThat( ruleEffects.get( 0 ).getErrors().get( 0 ).message() ).isEqualTo( "Number has to be an integer" );
+    }
+
+    @Test
+    public void evaluationExceptionMustNotCaptureStackTrace()
+    {
+        assertThat( new ExpressionEvaluationException( "Variable missing not present" ).getStackTrace() ).isEmpty();
+    }
+
+    private static RuleEngine engine( RuleEffectsCache cache )
+    {
+        return RuleEngineContext.builder()
+            .rules( Arrays.asList( MISSING_CONDITION_RULE, MISSING_DATA_RULE, VALID_RULE ) )
+            .supplementaryData( new HashMap<String, List<String>>() )
+            .constantsValue( new HashMap<String, String>() )
+            .build().toEngineBuilder()
+            .effectsCache( cache )
+            .events( Arrays.asList( event( "event1" ), event( "event2" ) ) )
+            .build();
+    }
+
+    private static RuleEvent event( String uid )
+    {
+        return RuleEvent.create( uid, "stage", RuleEvent.Status.ACTIVE, DATE, DATE, "org_unit", null,
+            Arrays.<RuleDataValue>asList(), "stage", null );
+    }
+}
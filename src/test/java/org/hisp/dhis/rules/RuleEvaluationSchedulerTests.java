@@ -0,0 +1,236 @@
+package org.hisp.dhis.rules;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.RuleEvaluationScheduler.Lane;
+import org.hisp.dhis.rules.models.RuleEffect;
+import org.hisp.dhis.rules.models.RuleEffects;
+import org.hisp.dhis.rules.models.RuleEvent;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith( JUnit4.class )
+public class RuleEvaluationSchedulerTests
+{
+    private final List<String> order = Collections.synchronizedList( new ArrayList<String>() );
+
+    private final CountDownLatch release = new CountDownLatch( 1 );
+
+    private RuleEvaluationScheduler scheduler;
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        release.countDown();
+
+        if ( scheduler != null )
+        {
+            scheduler.shutdown();
+            assertThat( scheduler.awaitTermination( 10, TimeUnit.SECONDS ) ).isTrue();
+        }
+    }
+
+    @Test
+    public void interactiveEvaluationsMustRunBetweenBatchEvaluations()
+        throws Exception
+    {
+        scheduler = RuleEvaluationScheduler.builder().threads( 1 ).build();
+
+        CountDownLatch started = new CountDownLatch( 1 );
+        List<Future<String>> batch = scheduler.submitBatch( Arrays.asList(
+            blocking( "enrollment1", started ), record( "enrollment2" ), record( "enrollment3" ) ) );
+        started.await();
+
+        Future<String> interactive = scheduler.submitInteractive( record( "event" ) );
+
+        assertThat( scheduler.queueDepth( Lane.BATCH ) ).isEqualTo( 2 );
+        assertThat( scheduler.queueDepth( Lane.INTERACTIVE ) ).isEqualTo( 1 );
+
+        release.countDown();
+
+        for ( Future<String> future : batch )
+        {
+            future.get( 10, TimeUnit.SECONDS );
+        }
+
+        assertThat( interactive.get() ).isEqualTo( "event" );
+        assertThat( order ).containsExactly( "enrollment1", "event", "enrollment2", "enrollment3" );
+
+        // latencies are recorded after the futures complete
+        scheduler.shutdown();
+        assertThat( scheduler.awaitTermination( 10, TimeUnit.SECONDS ) ).isTrue();
+
+        assertThat( scheduler.getLatency( Lane.BATCH ).count() ).isEqualTo( 3 );
+        assertThat( scheduler.getLatency( Lane.INTERACTIVE ).count() ).isEqualTo( 1 );
+        assertThat( scheduler.getQueueTime( Lane.INTERACTIVE ).count() ).isEqualTo( 1 );
+    }
+
+    @Test
+    public void reservedThreadMustServeInteractiveEvaluationsWhileBatchRuns()
+        throws Exception
+    {
+        scheduler = RuleEvaluationScheduler.builder().threads( 2 ).build();
+
+        CountDownLatch started = new CountDownLatch( 1 );
+        scheduler.submitBatch( Arrays.asList( blocking( "enrollment1", started ), record( "enrollment2" ) ) );
+        started.await();
+
+        assertThat( scheduler.submitInteractive( record( "event" ) ).get( 10, TimeUnit.SECONDS ) )
+            .isEqualTo( "event" );
+        assertThat( scheduler.queueDepth( Lane.BATCH ) ).isEqualTo( 1 );
+        assertThat( order ).containsExactly( "enrollment1", "event" );
+    }
+
+    @Test
+    public void fullInteractiveQueueMustRejectEvaluations()
+        throws Exception
+    {
+        scheduler = RuleEvaluationScheduler.builder().threads( 1 ).interactiveQueueCapacity( 2 ).build();
+
+        CountDownLatch started = new CountDownLatch( 1 );
+        scheduler.submitInteractive( blocking( "event1", started ) );
+        started.await();
+
+        scheduler.submitInteractive( record( "event2" ) );
+        scheduler.submitInteractive( record( "event3" ) );
+
+        try
+        {
+            scheduler.submitInteractive( record( "event4" ) );
+            throw new AssertionError( "Expected rejection" );
+        }
+        catch ( RejectedExecutionException e )
+        {
+            assertThat( scheduler.rejectedCount() ).isEqualTo( 1 );
+        }
+
+        // batch evaluations are not bounded
+        scheduler.submitBatch( Arrays.asList( record( "enrollment1" ), record( "enrollment2" ),
+            record( "enrollment3" ) ) );
+
+        assertThat( scheduler.queueDepth( Lane.INTERACTIVE ) ).isEqualTo( 2 );
+        assertThat( scheduler.queueDepth( Lane.BATCH ) ).isEqualTo( 3 );
+    }
+
+    @Test
+    public void scheduledEvaluationsMustMatchDirectEvaluations()
+        throws Exception
+    {
+        scheduler = RuleEvaluationScheduler.builder().threads( 3 ).build();
+
+        ProgramWorkload workload = ProgramWorkload.builder().seed( 5 ).rules( 100 ).events( 5 ).targetEvents( 4 )
+            .build();
+        RuleEngine engine = workload.engineBuilder( workload.context() ).build();
+
+        List<Callable<List<RuleEffects>>> enrollments = new ArrayList<>();
+
+        for ( int i = 0; i < 4; i++ )
+        {
+            enrollments.add( engine.evaluate() );
+        }
+
+        List<Future<List<RuleEffects>>> batch = scheduler.submitBatch( enrollments );
+        List<Future<List<RuleEffect>>> interactive = new ArrayList<>();
+
+        for ( RuleEvent event : workload.targetEvents() )
+        {
+            interactive.add( scheduler.submitInteractive( engine.evaluate( event ) ) );
+        }
+
+        for ( int i = 0; i < interactive.size(); i++ )
+        {
+            assertThat( interactive.get( i ).get( 10, TimeUnit.SECONDS ) )
+                .isEqualTo( engine.evaluate( workload.targetEvents().get( i ) ).call() );
+        }
+
+        for ( Future<List<RuleEffects>> effects : batch )
+        {
+            assertThat( effects.get( 10, TimeUnit.SECONDS ) ).hasSize( engine.evaluate().call().size() );
+        }
+    }
+
+    @Test( expected = RejectedExecutionException.class )
+    public void shutdownSchedulerMustRejectEvaluations()
+    {
+        scheduler = RuleEvaluationScheduler.builder().threads( 1 ).build();
+        scheduler.shutdown();
+
+        scheduler.submitBatch( Arrays.asList( record( "enrollment" ) ) );
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void batchEvaluationsMustHaveThreads()
+    {
+        RuleEvaluationScheduler.builder().threads( 2 ).reservedInteractiveThreads( 2 ).build();
+    }
+
+    private Callable<String> record( final String name )
+    {
+        return new Callable<String>()
+        {
+            @Override
+            public String call()
+            {
+                order.add( name );
+                return name;
+            }
+        };
+    }
+
+    private Callable<String> blocking( final String name, final CountDownLatch started )
+    {
+        return new Callable<String>()
+        {
+            @Override
+            public String call()
+                throws Exception
+            {
+                order.add( name );
+                started.countDown();
+                release.await();
+                return name;
+            }
+        };
+    }
+}
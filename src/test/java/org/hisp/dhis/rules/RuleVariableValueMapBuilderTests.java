@@ -14,9 +14,13 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 
 import static org.assertj.core.api.Java6Assertions.assertThat;
 import static org.hisp.dhis.rules.RuleVariableValueAssert.assertThatVariable;
@@ -738,6 +742,230 @@ public class RuleVariableValueMapBuilderTests
             .isTypeOf( RuleValueType.TEXT ).hasCandidates( dateFormat.format( eventTwoDueDate ) );
     }
 
+    @Test
+    public void variablesOfOneDataElementShouldShareCandidates()
+    {
+        Date eventDate = new Date();
+        RuleEvent ruleEvent = RuleEvent.create( "test_event", "test_program_stage",
+            RuleEvent.Status.ACTIVE, eventDate, eventDate, "", null, Arrays.asList(
+                RuleDataValue.create( eventDate, "test_program_stage", "test_dataelement_one", "value_one" ),
+                RuleDataValue.create( eventDate, "test_program_stage", "test_dataelement_two", "value_two" ) ),
+            "", null );
+
+        Map<String, RuleVariableValue> valueMap = RuleVariableValueMapBuilder.target( ruleEvent )
+            .ruleVariables( Arrays.<RuleVariable>asList(
+                RuleVariableNewestEvent.create( "newest", "test_dataelement_one", RuleValueType.TEXT ),
+                RuleVariableNewestStageEvent.create( "stage", "test_dataelement_one", "test_program_stage",
+                    RuleValueType.TEXT ),
+                RuleVariableNewestEvent.create( "other_newest", "test_dataelement_one", RuleValueType.TEXT ) ) )
+            .build();
+
+        assertThat( valueMap.get( "newest" ).candidates() ).containsExactly( "value_one" );
+        assertThat( valueMap.get( "stage" ).candidates() ).containsExactly( "value_one" );
+        assertThat( valueMap.get( "other_newest" ).candidates() ).isSameAs( valueMap.get( "newest" ).candidates() );
+    }
+
+    @Test
+    public void multipleBuildShouldKeepEventsWithEqualContent()
+    {
+        Date eventDate = new Date();
+        RuleEvent ruleEvent = RuleEvent.create( "test_event", "test_program_stage",
+            RuleEvent.Status.ACTIVE, eventDate, eventDate, "", null, new ArrayList<RuleDataValue>(), "", null );
+        RuleEvent equalRuleEvent = RuleEvent.create( "test_event", "test_program_stage",
+            RuleEvent.Status.ACTIVE, eventDate, eventDate, "", null, new ArrayList<RuleDataValue>(), "", null );
+
+        RuleVariableValueMap ruleVariableValueMap = RuleVariableValueMapBuilder.target()
+            .ruleVariables( new ArrayList<RuleVariable>() )
+            .ruleEvents( Arrays.asList( ruleEvent, equalRuleEvent ) )
+            .multipleBuild();
+
+        assertThat( ruleVariableValueMap.getEventMap().size() ).isEqualTo( 2 );
+        assertThatVariable( ruleVariableValueMap.getEventMap().get( ruleEvent ).get( "event_count" ) )
+            .hasValue( "2" );
+        assertThatVariable( ruleVariableValueMap.getEventMap().get( equalRuleEvent ).get( "event_count" ) )
+            .hasValue( "2" );
+    }
+
+    @Test
+    public void multipleBuildShouldResolvePreviousEventOfEveryTarget()
+        throws ParseException
+    {
+        RuleVariable ruleVariable = RuleVariablePreviousEvent.create( "test_variable",
+            "test_dataelement", RuleValueType.TEXT );
+
+        Date dateEventOne = dateFormat.parse( "2014-02-03" );
+        Date dateEventTwo = dateFormat.parse( "2014-03-03" );
+        Date dateEventThree = LocalDate.now().plusDays( 10 ).toDate();
+
+        RuleEvent ruleEventOne = RuleEvent.create( "test_event_uid_one", "test_program_stage",
+            RuleEvent.Status.ACTIVE, dateEventOne, dateEventOne, "", null, Arrays.asList(
+                RuleDataValue.create( dateEventOne, "test_program_stage", "test_dataelement", "test_value_one" ) ),
+            "", null );
+        RuleEvent ruleEventTwo = RuleEvent.create( "test_event_uid_two", "test_program_stage",
+            RuleEvent.Status.ACTIVE, dateEventTwo, dateEventTwo, "", null, Arrays.asList(
+                RuleDataValue.create( dateEventTwo, "test_program_stage", "test_dataelement", "test_value_two" ) ),
+            "", null );
+        RuleEvent ruleEventTwin = RuleEvent.create( "test_event_uid_twin", "test_program_stage",
+            RuleEvent.Status.ACTIVE, dateEventTwo, dateEventTwo, "", null, Arrays.asList(
+                RuleDataValue.create( dateEventTwo, "test_program_stage", "test_dataelement", "test_value_twin" ) ),
+            "", null );
+        RuleEvent ruleEventThree = RuleEvent.create( "test_event_uid_three", "test_program_stage",
+            RuleEvent.Status.ACTIVE, dateEventThree, dateEventThree, "", null, Arrays.asList(
+                RuleDataValue.create( dateEventThree, "test_program_stage", "test_dataelement", "test_value_three" ) ),
+            "", null );
+
+        Map<RuleEvent, Map<String, RuleVariableValue>> eventMap = RuleVariableValueMapBuilder.target()
+            .ruleVariables( Arrays.asList( ruleVariable ) )
+            .ruleEvents( Arrays.asList( ruleEventThree, ruleEventTwo, ruleEventOne, ruleEventTwin ) )
+            .multipleBuild().getEventMap();
+
+        assertThat( eventMap.get( ruleEventOne ).get( "test_variable" ).value() ).isNull();
+
+        assertThatVariable( eventMap.get( ruleEventTwo ).get( "test_variable" ) ).hasValue( "test_value_one" )
+            .hasCandidates( "test_value_three", "test_value_two", "test_value_twin", "test_value_one" );
+        assertThat( eventMap.get( ruleEventTwo ).get( "test_variable" ).eventDate() )
+            .isEqualTo( dateFormat.format( dateEventOne ) );
+
+        assertThatVariable( eventMap.get( ruleEventTwin ).get( "test_variable" ) ).hasValue( "test_value_one" );
+
+        // the newest of the events on the same date precedes the future event
+        assertThatVariable( eventMap.get( ruleEventThree ).get( "test_variable" ) ).hasValue( "test_value_two" );
+        assertThat( eventMap.get( ruleEventThree ).get( "test_variable" ).eventDate() )
+            .isEqualTo( dateFormat.format( dateEventTwo ) );
+    }
+
+    @Test
+    public void multipleBuildShouldKeepOrderOfTargets()
+    {
+        Date eventDate = new Date();
+        List<RuleEvent> ruleEvents = new ArrayList<>();
+
+        for ( int i = 0; i < 50; i++ )
+        {
+            ruleEvents.add( RuleEvent.create( "test_event_" + i, "test_program_stage",
+                RuleEvent.Status.ACTIVE, eventDate, eventDate, "", null, new ArrayList<RuleDataValue>(), "", null ) );
+        }
+
+        Collections.shuffle( ruleEvents, new Random( 7 ) );
+
+        Map<RuleEvent, Map<String, RuleVariableValue>> eventMap = RuleVariableValueMapBuilder.target()
+            .ruleVariables( new ArrayList<RuleVariable>() )
+            .ruleEvents( ruleEvents )
+            .multipleBuild().getEventMap();
+
+        // effects of a multiple evaluation are returned in this order
+        assertThat( new ArrayList<>( eventMap.keySet() ) ).containsExactlyElementsOf( ruleEvents );
+    }
+
+    @Test
+    public void multipleBuildShouldCountValueOfEveryTargetOnce()
+        throws ParseException
+    {
+        RuleVariable ruleVariable = RuleVariableNewestEvent.create( "test_variable",
+            "test_dataelement", RuleValueType.TEXT );
+
+        Date dateEventOne = dateFormat.parse( "2014-02-03" );
+        Date dateEventTwo = dateFormat.parse( "2014-03-03" );
+
+        RuleEvent ruleEventOne = RuleEvent.create( "test_event_uid_one", "test_program_stage",
+            RuleEvent.Status.ACTIVE, dateEventOne, dateEventOne, "", null, Arrays.asList(
+                RuleDataValue.create( dateEventOne, "test_program_stage", "test_dataelement", "test_value_one" ) ),
+            "", null );
+        RuleEvent ruleEventTwo = RuleEvent.create( "test_event_uid_two", "test_program_stage",
+            RuleEvent.Status.ACTIVE, dateEventTwo, dateEventTwo, "", null, Arrays.asList(
+                RuleDataValue.create( dateEventTwo, "test_program_stage", "test_dataelement", "test_value_two" ) ),
+            "", null );
+
+        Map<RuleEvent, Map<String, RuleVariableValue>> eventMap = RuleVariableValueMapBuilder.target()
+            .ruleVariables( Arrays.asList( ruleVariable ) )
+            .ruleEvents( Arrays.asList( ruleEventOne, ruleEventTwo ) )
+            .multipleBuild().getEventMap();
+
+        // every target is one of the events, its value is not added a second
+        // time, so d2:count reads the same number of values for each target
+        assertThatVariable( eventMap.get( ruleEventOne ).get( "test_variable" ) ).hasValue( "test_value_two" )
+            .hasCandidates( "test_value_two", "test_value_one" );
+        assertThatVariable( eventMap.get( ruleEventTwo ).get( "test_variable" ) ).hasValue( "test_value_two" )
+            .hasCandidates( "test_value_two", "test_value_one" );
+    }
+
+    @Test
+    public void newestEventShouldKeepValueDatesOutOfEventOrder()
+        throws ParseException
+    {
+        List<RuleVariable> ruleVariables = Arrays.<RuleVariable>asList(
+            RuleVariableNewestEvent.create( "newest", "test_dataelement", RuleValueType.TEXT ),
+            RuleVariableNewestStageEvent.create( "stage", "test_dataelement", "test_program_stage",
+                RuleValueType.TEXT ) );
+
+        // values dated before the events they belong to, in the opposite order
+        Date dateEventOne = dateFormat.parse( "2014-03-01" );
+        Date dateEventTwo = dateFormat.parse( "2014-04-01" );
+        Date dateEventCurrent = dateFormat.parse( "2014-05-01" );
+
+        RuleEvent ruleEventOne = RuleEvent.create( "test_event_uid_one", "test_program_stage",
+            RuleEvent.Status.ACTIVE, dateEventOne, dateEventOne, "", null, Arrays.asList(
+                RuleDataValue.create( dateFormat.parse( "2014-02-01" ), "test_program_stage", "test_dataelement",
+                    "test_value_one" ) ), "", null );
+        RuleEvent ruleEventTwo = RuleEvent.create( "test_event_uid_two", "test_program_stage",
+            RuleEvent.Status.ACTIVE, dateEventTwo, dateEventTwo, "", null, Arrays.asList(
+                RuleDataValue.create( dateFormat.parse( "2014-01-01" ), "test_program_stage", "test_dataelement",
+                    "test_value_two" ) ), "", null );
+        RuleEvent ruleEventCurrent = RuleEvent.create( "test_event_uid_current", "test_program_stage",
+            RuleEvent.Status.ACTIVE, dateEventCurrent, dateEventCurrent, "", null,
+            new ArrayList<RuleDataValue>(), "", null );
+
+        // all variables need candidates, as for d2:count, or none
+        for ( Set<String> candidateVariables : Arrays.asList( null, Collections.<String>emptySet() ) )
+        {
+            Map<String, RuleVariableValue> valueMap = RuleVariableValueMapBuilder.target( ruleEventCurrent )
+                .ruleVariables( ruleVariables )
+                .candidateVariables( candidateVariables )
+                .ruleEvents( Arrays.asList( ruleEventOne, ruleEventTwo ) )
+                .build();
+
+            // the value of the newest event, dated by the newest value
+            assertThatVariable( valueMap.get( "newest" ) ).hasValue( "test_value_two" );
+            assertThat( valueMap.get( "newest" ).eventDate() ).isEqualTo( "2014-02-01" );
+            assertThatVariable( valueMap.get( "stage" ) ).hasValue( "test_value_two" );
+            assertThat( valueMap.get( "stage" ).eventDate() ).isEqualTo( "2014-02-01" );
+        }
+    }
+
+    @Test
+    public void previousEventShouldKeepValueDatesOutOfEventOrder()
+        throws ParseException
+    {
+        RuleVariable ruleVariable = RuleVariablePreviousEvent.create( "test_variable",
+            "test_dataelement", RuleValueType.TEXT );
+
+        // values dated before the events they belong to, in the opposite order
+        Date dateEventOne = dateFormat.parse( "2014-03-01" );
+        Date dateEventTwo = dateFormat.parse( "2014-04-01" );
+        Date dateEventCurrent = dateFormat.parse( "2014-05-01" );
+
+        RuleEvent ruleEventOne = RuleEvent.create( "test_event_uid_one", "test_program_stage",
+            RuleEvent.Status.ACTIVE, dateEventOne, dateEventOne, "", null, Arrays.asList(
+                RuleDataValue.create( dateFormat.parse( "2014-02-01" ), "test_program_stage", "test_dataelement",
+                    "test_value_one" ) ), "", null );
+        RuleEvent ruleEventTwo = RuleEvent.create( "test_event_uid_two", "test_program_stage",
+            RuleEvent.Status.ACTIVE, dateEventTwo, dateEventTwo, "", null, Arrays.asList(
+                RuleDataValue.create( dateFormat.parse( "2014-01-01" ), "test_program_stage", "test_dataelement",
+                    "test_value_two" ) ), "", null );
+        RuleEvent ruleEventCurrent = RuleEvent.create( "test_event_uid_current", "test_program_stage",
+            RuleEvent.Status.ACTIVE, dateEventCurrent, dateEventCurrent, "", null,
+            new ArrayList<RuleDataValue>(), "", null );
+
+        Map<String, RuleVariableValue> valueMap = RuleVariableValueMapBuilder.target( ruleEventCurrent )
+            .ruleVariables( Arrays.asList( ruleVariable ) )
+            .ruleEvents( Arrays.asList( ruleEventOne, ruleEventTwo ) )
+            .build();
+
+        // the value of the newest event, dated by the newest value
+        assertThatVariable( valueMap.get( "test_variable" ) ).hasValue( "test_value_two" );
+        assertThat( valueMap.get( "test_variable" ).eventDate() ).isEqualTo( "2014-02-01" );
+    }
+
     @Test( expected = IllegalStateException.class )
     public void buildShouldThrowOnDuplicateEvent()
     {
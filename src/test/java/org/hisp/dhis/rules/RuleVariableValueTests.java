@@ -9,6 +9,7 @@ import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.Locale;
+import java.util.NoSuchElementException;
 
 import static org.assertj.core.api.Java6Assertions.assertThat;
 
@@ -84,4 +85,44 @@ public class RuleVariableValueTests
     {
         RuleVariableValue.create( "test_value", RuleValueType.TEXT, null, dateFormat.format( new Date() ) );
     }
+
+    @Test
+    public void numericCandidatesMustBeParsedOnce()
+    {
+        RuleVariableValue variableValue = RuleVariableValue.create(
+            "1", RuleValueType.NUMERIC, Arrays.asList( "5", "-2", "0", "7.5" ), dateFormat.format( new Date() ) );
+
+        NumericCandidates numericCandidates = variableValue.numericCandidates();
+
+        assertThat( numericCandidates.size() ).isEqualTo( 4 );
+        assertThat( numericCandidates.get( 1 ) ).isEqualTo( -2.0 );
+        assertThat( numericCandidates.min() ).isEqualTo( -2.0 );
+        assertThat( numericCandidates.max() ).isEqualTo( 7.5 );
+        assertThat( numericCandidates.zeroOrPositiveCount() ).isEqualTo( 3 );
+        assertThat( variableValue.numericCandidates() ).isSameAs( numericCandidates );
+    }
+
+    @Test( expected = NumberFormatException.class )
+    public void numericCandidatesShouldThrowOnNonNumericCandidate()
+    {
+        RuleVariableValue.create( "1", RuleValueType.NUMERIC, Arrays.asList( "5", "five" ),
+            dateFormat.format( new Date() ) ).numericCandidates();
+    }
+
+    @Test( expected = NoSuchElementException.class )
+    public void numericCandidatesMaxShouldThrowWithoutCandidates()
+    {
+        RuleVariableValue.create( RuleValueType.NUMERIC ).numericCandidates().max();
+    }
+
+    @Test
+    public void candidateFrequencyMustCountEqualCandidates()
+    {
+        RuleVariableValue variableValue = RuleVariableValue.create(
+            "true", RuleValueType.BOOLEAN, Arrays.asList( "true", "false", "true" ), dateFormat.format( new Date() ) );
+
+        assertThat( variableValue.candidateFrequency( "true" ) ).isEqualTo( 2 );
+        assertThat( variableValue.candidateFrequency( "false" ) ).isEqualTo( 1 );
+        assertThat( variableValue.candidateFrequency( "unknown" ) ).isEqualTo( 0 );
+    }
 }
@@ -0,0 +1,193 @@
+package org.hisp.dhis.rules.capture;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.ProgramWorkload;
+import org.hisp.dhis.rules.RuleEngine;
+import org.hisp.dhis.rules.RuleEngineContext;
+import org.hisp.dhis.rules.models.RuleAttributeValue;
+import org.hisp.dhis.rules.models.RuleDataValue;
+import org.hisp.dhis.rules.models.RuleEffect;
+import org.hisp.dhis.rules.models.RuleEvent;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+@RunWith( JUnit4.class )
+public class CaptureTests
+{
+    @Test
+    public void capturedEvaluationsMustReplayWithoutMismatches()
+        throws Exception
+    {
+        ProgramWorkload workload = ProgramWorkload.builder().rules( 100 ).events( 10 ).targetEvents( 3 ).build();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        List<List<RuleEffect>> effects = new ArrayList<>();
+
+        try ( CaptureWriter writer = new CaptureWriter( bytes, false ) )
+        {
+            RuleEngine engine = workload.engineBuilder( workload.context() ).recorder( writer ).build();
+
+            for ( RuleEvent event : workload.targetEvents() )
+            {
+                effects.add( engine.evaluate( event ).call() );
+            }
+
+            effects.add( engine.evaluate( workload.enrollment() ).call() );
+            engine.evaluate().call();
+
+            assertThat( writer.evaluationCount() ).isEqualTo( 5 );
+        }
+
+        CaptureReader reader = reader( bytes );
+        assertThat( reader.isAnonymized() ).isFalse();
+
+        CapturedEvaluation first = reader.next();
+        assertThat( first.target() ).isEqualTo( CapturedEvaluation.Target.EVENT );
+        assertThat( first.targetEvent() ).isEqualTo( workload.targetEvents().get( 0 ) );
+        assertThat( first.events() ).isEqualTo( workload.events() );
+        assertThat( first.enrollment() ).isEqualTo( workload.enrollment() );
+        assertThat( first.rules() ).isNull();
+        assertThat( first.effects().get( 0 ).getRuleEffects() ).isEqualTo( effects.get( 0 ) );
+        assertThat( first.context().rules() ).isEqualTo( workload.rules() );
+        assertThat( first.context().constantsValues() ).isEqualTo( workload.constants() );
+
+        CapturedEvaluation second = reader.next();
+        assertThat( second.context() ).isSameAs( first.context() );
+
+        CaptureReplay.Report report = CaptureReplay.replay( reader( bytes ) );
+
+        assertThat( report.evaluationCount() ).isEqualTo( 5 );
+        assertThat( report.mismatches() ).isEmpty();
+        assertThat( report.latency( 50 ) ).isLessThanOrEqualTo( report.latency( 99 ) );
+        assertThat( report.latency( 99 ) ).isLessThanOrEqualTo( report.maxLatency() );
+    }
+
+    @Test
+    public void anonymizedCaptureMustHideTextValues()
+        throws Exception
+    {
+        ProgramWorkload workload = ProgramWorkload.builder().rules( 50 ).events( 5 ).build();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try ( CaptureWriter writer = new CaptureWriter( bytes, true ) )
+        {
+            RuleEngine engine = workload.engineBuilder( workload.context() ).recorder( writer ).build();
+            engine.evaluate( workload.targetEvent() ).call();
+        }
+
+        CaptureReader reader = reader( bytes );
+        assertThat( reader.isAnonymized() ).isTrue();
+
+        CapturedEvaluation evaluation = reader.next();
+        assertThat( reader.next() ).isNull();
+
+        List<RuleDataValue> originalData = workload.targetEvent().dataValues();
+        List<RuleDataValue> capturedData = evaluation.targetEvent().dataValues();
+        assertThat( capturedData ).hasSameSizeAs( originalData );
+
+        for ( int i = 0; i < originalData.size(); i++ )
+        {
+            assertAnonymized( originalData.get( i ).value(), capturedData.get( i ).value() );
+        }
+
+        List<RuleAttributeValue> originalAttributes = workload.enrollment().attributeValues();
+        List<RuleAttributeValue> capturedAttributes = evaluation.enrollment().attributeValues();
+        assertThat( capturedAttributes ).hasSameSizeAs( originalAttributes );
+
+        for ( int i = 0; i < originalAttributes.size(); i++ )
+        {
+            assertAnonymized( originalAttributes.get( i ).value(), capturedAttributes.get( i ).value() );
+        }
+
+        assertThat( CaptureReplay.replay( reader( bytes ) ).evaluationCount() ).isEqualTo( 1 );
+    }
+
+    @Test
+    public void failingRecorderMustNotAffectEvaluation()
+        throws Exception
+    {
+        ProgramWorkload workload = ProgramWorkload.builder().rules( 20 ).events( 3 ).build();
+        RuleEngineContext context = workload.context();
+        RuleEngine engine = workload.engineBuilder( context ).recorder( new EvaluationRecorder()
+        {
+            @Override
+            public void record( CapturedEvaluation evaluation )
+            {
+                throw new IllegalStateException( "full" );
+            }
+        } ).build();
+
+        List<RuleEffect> effects = engine.evaluate( workload.targetEvent() ).call();
+
+        assertThat( effects ).isEqualTo(
+            workload.engineBuilder( context ).build().evaluate( workload.targetEvent() ).call() );
+    }
+
+    @Test
+    public void readerMustRejectOtherFiles()
+    {
+        try
+        {
+            new CaptureReader( new ByteArrayInputStream( new byte[] { 1, 2, 3, 4 } ) );
+            fail( "Expected IOException" );
+        }
+        catch ( IOException e )
+        {
+            assertThat( e ).hasMessage( "Not a rule engine capture" );
+        }
+    }
+
+    private static void assertAnonymized( String original, String captured )
+    {
+        if ( original.matches( "-?\\d+(\\.\\d+)?|true|false|\\d{4}-\\d{2}-\\d{2}" ) )
+        {
+            assertThat( captured ).isEqualTo( original );
+        }
+        else
+        {
+            assertThat( captured ).startsWith( "anon_" );
+        }
+    }
+
+    private static CaptureReader reader( ByteArrayOutputStream bytes )
+        throws IOException
+    {
+        return new CaptureReader( new ByteArrayInputStream( bytes.toByteArray() ) );
+    }
+}
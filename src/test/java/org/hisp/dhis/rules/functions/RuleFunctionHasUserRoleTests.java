@@ -32,6 +32,7 @@ import org.hamcrest.CoreMatchers;
 import org.hamcrest.MatcherAssert;
 import org.hisp.dhis.parser.expression.antlr.ExpressionParser;
 import org.hisp.dhis.rules.parser.expression.CommonExpressionVisitor;
+import org.hisp.dhis.rules.parser.expression.ExpressionEvaluationException;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -69,7 +70,7 @@ public class RuleFunctionHasUserRoleTests
         when( context.expr( 0 ) ).thenReturn( mockedFirstExpr );
     }
 
-    @Test( expected = IllegalArgumentException.class )
+    @Test( expected = ExpressionEvaluationException.class )
     public void throwExceptionWhenSupplementaryDataIsNull()
     {
         assertHasUserRole( "uid1", new HashMap<String, List<String>>(), "true" );
@@ -33,6 +33,7 @@ import org.hamcrest.MatcherAssert;
 import org.hisp.dhis.antlr.ParserExceptionWithoutContext;
 import org.hisp.dhis.parser.expression.antlr.ExpressionParser;
 import org.hisp.dhis.rules.parser.expression.CommonExpressionVisitor;
+import org.hisp.dhis.rules.parser.expression.ExpressionEvaluationException;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -119,7 +120,7 @@ public class RuleFunctionLeftTests
         new RuleFunctionLeft().evaluate( context, visitor );
     }
 
-    @Test( expected = IllegalArgumentException.class )
+    @Test( expected = ExpressionEvaluationException.class )
     public void throw_illegal_argument_when_number_not_an_integer()
     {
         when( visitor.castStringVisit( mockedFirstExpr ) ).thenReturn( "yyyy-MM-dd" );
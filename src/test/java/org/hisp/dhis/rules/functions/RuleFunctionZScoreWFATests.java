@@ -32,6 +32,7 @@ import org.hamcrest.CoreMatchers;
 import org.hamcrest.MatcherAssert;
 import org.hisp.dhis.parser.expression.antlr.ExpressionParser;
 import org.hisp.dhis.rules.parser.expression.CommonExpressionVisitor;
+import org.hisp.dhis.rules.parser.expression.ExpressionEvaluationException;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -109,13 +110,13 @@ public class RuleFunctionZScoreWFATests
         assertZScore( "1", "2.8", "1", "-2.80" );
     }
 
-    @Test( expected = IllegalArgumentException.class )
+    @Test( expected = ExpressionEvaluationException.class )
     public void testExceptionIfInvalidArgument()
     {
         assertZScore( "1", "2.9", null, "0" );
     }
 
-    @Test( expected = IllegalArgumentException.class )
+    @Test( expected = ExpressionEvaluationException.class )
     public void testExceptionWeightIsInvalid()
     {
         assertZScore( "1", "abc", "1", "2.40" );
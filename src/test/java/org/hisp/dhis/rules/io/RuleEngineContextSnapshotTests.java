@@ -0,0 +1,136 @@
+package org.hisp.dhis.rules.io;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.DataItem;
+import org.hisp.dhis.rules.ItemValueType;
+import org.hisp.dhis.rules.ProgramWorkload;
+import org.hisp.dhis.rules.RuleEngine;
+import org.hisp.dhis.rules.RuleEngineContext;
+import org.hisp.dhis.rules.RuleEngineIntent;
+import org.hisp.dhis.rules.models.RuleEffects;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+@RunWith( JUnit4.class )
+public class RuleEngineContextSnapshotTests
+{
+    @Test
+    public void snapshotMustRestoreContext()
+        throws Exception
+    {
+        ProgramWorkload workload = ProgramWorkload.builder().rules( 200 ).events( 10 ).build();
+        RuleEngineContext context = workload.context();
+
+        byte[] snapshot = RuleEngineContextSnapshot.toByteArray( context );
+        RuleEngineContext restored = RuleEngineContextSnapshot.read( snapshot );
+
+        assertThat( restored.rules() ).isEqualTo( context.rules() );
+        assertThat( restored.ruleVariables() ).isEqualTo( context.ruleVariables() );
+        assertThat( restored.constantsValues() ).isEqualTo( context.constantsValues() );
+        assertThat( restored.supplementaryData() ).isEqualTo( context.supplementaryData() );
+        assertThat( restored.getRuleEngineIntent() ).isEqualTo( RuleEngineIntent.EVALUATION );
+
+        RuleEngine engine = workload.engineBuilder( context ).build();
+        RuleEngine restoredEngine = workload.engineBuilder( restored ).build();
+
+        assertThat( restoredEngine.evaluate( workload.targetEvent() ).call() )
+            .isEqualTo( engine.evaluate( workload.targetEvent() ).call() );
+
+        List<RuleEffects> effects = engine.evaluate().call();
+        List<RuleEffects> restoredEffects = restoredEngine.evaluate().call();
+        assertThat( restoredEffects ).hasSameSizeAs( effects );
+
+        for ( int i = 0; i < effects.size(); i++ )
+        {
+            assertThat( restoredEffects.get( i ).getTrackerObjectUid() )
+                .isEqualTo( effects.get( i ).getTrackerObjectUid() );
+            assertThat( restoredEffects.get( i ).getRuleEffects() ).isEqualTo( effects.get( i ).getRuleEffects() );
+        }
+    }
+
+    @Test
+    public void snapshotMustBeReadableFromByteBuffer()
+        throws IOException
+    {
+        RuleEngineContext context = ProgramWorkload.builder().rules( 20 ).build().context();
+        byte[] snapshot = RuleEngineContextSnapshot.toByteArray( context );
+        ByteBuffer buffer = ByteBuffer.allocateDirect( snapshot.length );
+        buffer.put( snapshot ).flip();
+
+        assertThat( RuleEngineContextSnapshot.read( buffer ).rules() ).isEqualTo( context.rules() );
+        assertThat( buffer.position() ).isEqualTo( 0 );
+    }
+
+    @Test
+    public void snapshotMustKeepItemStoreOfDescriptionContext()
+        throws IOException
+    {
+        Map<String, DataItem> itemStore = new HashMap<>();
+        itemStore.put( "de", new DataItem( "Weight", ItemValueType.NUMBER ) );
+        RuleEngineContext context = RuleEngineContext.builder()
+            .ruleEngineItent( RuleEngineIntent.DESCRIPTION )
+            .itemStore( itemStore )
+            .constantsValue( Collections.<String, String>emptyMap() )
+            .build();
+
+        RuleEngineContext restored = RuleEngineContextSnapshot.read( RuleEngineContextSnapshot.toByteArray( context ) );
+
+        assertThat( restored.getRuleEngineIntent() ).isEqualTo( RuleEngineIntent.DESCRIPTION );
+        assertThat( restored.getDataItemStore() ).containsOnlyKeys( "de" );
+        assertThat( restored.getDataItemStore().get( "de" ).getDisplayName() ).isEqualTo( "Weight" );
+        assertThat( restored.getDataItemStore().get( "de" ).getValueType() ).isEqualTo( ItemValueType.NUMBER );
+    }
+
+    @Test
+    public void readMustRejectOtherData()
+    {
+        try
+        {
+            RuleEngineContextSnapshot.read( new ByteArrayInputStream( new byte[] { 1, 2, 3 } ) );
+            fail( "Expected IOException" );
+        }
+        catch ( IOException e )
+        {
+            assertThat( e ).hasMessage( "Not a rule engine context snapshot" );
+        }
+    }
+}
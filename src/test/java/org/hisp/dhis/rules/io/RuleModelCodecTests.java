@@ -0,0 +1,149 @@
+package org.hisp.dhis.rules.io;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.models.*;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith( JUnit4.class )
+public class RuleModelCodecTests
+{
+    @Test
+    public void rulesWithAllActionTypesMustRoundTrip()
+        throws IOException
+    {
+        List<RuleAction> actions = Arrays.<RuleAction>asList(
+            RuleActionAssign.create( "content", "#{a} + 1", "field", AttributeType.DATA_ELEMENT ),
+            RuleActionCreateEvent.create( "content", "data", "stage" ),
+            RuleActionDisplayKeyValuePair.createForFeedback( "content", "data" ),
+            RuleActionDisplayText.createForIndicators( "content", "data" ),
+            RuleActionErrorOnCompletion.create( "content", "data", "field" ),
+            RuleActionHideField.create( "content", "field" ),
+            RuleActionHideOption.create( "content", "option", "field" ),
+            RuleActionHideOptionGroup.create( "content", "optionGroup", "field" ),
+            RuleActionHideProgramStage.create( "stage" ),
+            RuleActionHideSection.create( "section" ),
+            RuleActionScheduleMessage.create( "notification", "'2021-01-01'" ),
+            RuleActionSendMessage.create( "notification", "data" ),
+            RuleActionSetMandatoryField.create( "field", AttributeType.TRACKED_ENTITY_ATTRIBUTE ),
+            RuleActionShowError.create( "content", "data", "field" ),
+            RuleActionShowOptionGroup.create( "content", "optionGroup", "field" ),
+            RuleActionShowWarning.create( "content", null, "field" ),
+            RuleActionWarningOnCompletion.create( "content", "data", "field" ),
+            RuleActionTimeout.create( true ) );
+        List<Rule> rules = Arrays.asList(
+            Rule.create( "stage", 3, "true", actions, "name", "uid1" ),
+            Rule.create( null, null, "#{a} > 1", actions.subList( 0, 1 ), null, "uid2" ) );
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        RuleModelOutput output = new RuleModelOutput( bytes );
+        output.writeRules( rules );
+        output.flush();
+
+        RuleModelInput input = new RuleModelInput( new ByteArrayInputStream( bytes.toByteArray() ) );
+
+        assertThat( input.readRules() ).isEqualTo( rules );
+        assertThat( input.readByteOrEnd() ).isEqualTo( -1 );
+    }
+
+    @Test
+    public void variablesAndInputsMustRoundTrip()
+        throws IOException
+    {
+        List<RuleVariable> variables = Arrays.<RuleVariable>asList(
+            RuleVariableAttribute.create( "attribute", "te_attribute", RuleValueType.TEXT ),
+            RuleVariableCalculatedValue.create( "calculated", "", RuleValueType.NUMERIC ),
+            RuleVariableCurrentEvent.create( "current", "de", RuleValueType.BOOLEAN ),
+            RuleVariableNewestEvent.create( "newest", "de", RuleValueType.DATE ),
+            RuleVariableNewestStageEvent.create( "stage_newest", "de", "stage", RuleValueType.TEXT ),
+            RuleVariablePreviousEvent.create( "previous", "de", RuleValueType.NUMERIC ) );
+        RuleEnrollment enrollment = RuleEnrollment.create( "enrollment", new Date( 0 ), new Date( 1000 ),
+            RuleEnrollment.Status.ACTIVE, "orgUnit", null,
+            Arrays.asList( RuleAttributeValue.create( "te_attribute", "value" ) ), "program" );
+        List<RuleEvent> events = new ArrayList<>();
+        events.add( RuleEvent.create( "event", "stage", RuleEvent.Status.COMPLETED, new Date( 2000 ),
+            new Date( 3000 ), "orgUnit", "code", Arrays.asList(
+                RuleDataValue.create( new Date( 2000 ), "stage", "de", "5" ) ), "stage name", null ) );
+        Map<String, List<String>> supplementaryData = new HashMap<>();
+        supplementaryData.put( "group", Arrays.asList( "orgUnit", "other" ) );
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        RuleModelOutput output = new RuleModelOutput( bytes );
+        output.writeVariables( variables );
+        output.writeEnrollment( enrollment );
+        output.writeEvents( events );
+        output.writeStringListMap( supplementaryData );
+        output.writeStringMap( null );
+        output.flush();
+
+        RuleModelInput input = new RuleModelInput( new ByteArrayInputStream( bytes.toByteArray() ) );
+
+        assertThat( input.readVariables() ).isEqualTo( variables );
+        assertThat( input.readEnrollment() ).isEqualTo( enrollment );
+        assertThat( input.readEvents() ).isEqualTo( events );
+        assertThat( input.readStringListMap() ).isEqualTo( supplementaryData );
+        assertThat( input.readStringMap() ).isNull();
+    }
+
+    @Test
+    public void repeatedStringsMustBeWrittenOnce()
+        throws IOException
+    {
+        ByteArrayOutputStream once = new ByteArrayOutputStream();
+        RuleModelOutput output = new RuleModelOutput( once );
+        output.writeString( "a string that is repeated" );
+        output.flush();
+
+        ByteArrayOutputStream repeated = new ByteArrayOutputStream();
+        output = new RuleModelOutput( repeated );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            output.writeString( "a string that is repeated" );
+        }
+
+        output.flush();
+
+        assertThat( repeated.size() ).isEqualTo( once.size() + 99 );
+    }
+}
@@ -0,0 +1,116 @@
+package org.hisp.dhis.rules.metrics;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.hisp.dhis.rules.RuleEngine;
+import org.hisp.dhis.rules.RuleEngineContext;
+import org.hisp.dhis.rules.models.*;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith( JUnit4.class )
+public class RuleEngineMetricsTests
+{
+    @Test
+    public void metricsMustBeCollectedPerRuleAndFunction()
+        throws Exception
+    {
+        RuleAction ruleAction = RuleActionDisplayText.createForFeedback(
+            "test_action_content", "d2:count(#{test_variable})" );
+        RuleVariable ruleVariable = RuleVariableCurrentEvent.create(
+            "test_variable", "test_data_element", RuleValueType.TEXT );
+
+        Rule firingRule = Rule.create( null, null, "d2:hasValue(#{test_variable})", Arrays.asList( ruleAction ),
+            "firing", "firing_uid" );
+        Rule silentRule = Rule.create( null, null, "false", Arrays.asList( ruleAction ), "silent", "silent_uid" );
+        Rule failingRule = Rule.create( null, null, "#{missing_variable} > 0", Arrays.asList( ruleAction ),
+            "failing", "failing_uid" );
+
+        RuleEngineMetrics metrics = new RuleEngineMetrics();
+
+        RuleEngine ruleEngine = RuleEngineContext.builder()
+            .rules( Arrays.asList( firingRule, silentRule, failingRule ) )
+            .ruleVariables( Arrays.<RuleVariable>asList( ruleVariable ) )
+            .supplementaryData( new HashMap<String, List<String>>() )
+            .constantsValue( new HashMap<String, String>() )
+            .listener( metrics )
+            .build().toEngineBuilder().build();
+
+        RuleEvent ruleEvent = RuleEvent.create( "test_event", "test_program_stage",
+            RuleEvent.Status.ACTIVE, new Date(), new Date(), "", null, Arrays.asList( RuleDataValue.create(
+                new Date(), "test_program_stage", "test_data_element", "test_value" ) ), "", null );
+
+        ruleEngine.evaluate( ruleEvent ).call();
+        ruleEngine.evaluate( ruleEvent ).call();
+
+        Map<String, RuleMetrics> ruleMetrics = metrics.getRuleMetrics();
+
+        assertThat( ruleMetrics.get( "firing_uid" ).evaluatedCount() ).isEqualTo( 2 );
+        assertThat( ruleMetrics.get( "firing_uid" ).firedCount() ).isEqualTo( 2 );
+        assertThat( ruleMetrics.get( "firing_uid" ).actionLatency().count() ).isEqualTo( 2 );
+        assertThat( ruleMetrics.get( "silent_uid" ).evaluatedCount() ).isEqualTo( 2 );
+        assertThat( ruleMetrics.get( "silent_uid" ).firedCount() ).isEqualTo( 0 );
+        assertThat( ruleMetrics.get( "silent_uid" ).actionLatency().count() ).isEqualTo( 0 );
+        assertThat( ruleMetrics.get( "failing_uid" ).errorCount() ).isEqualTo( 2 );
+
+        assertThat( metrics.getFunctionMetrics().get( "d2:hasValue" ).count() ).isEqualTo( 2 );
+        assertThat( metrics.getFunctionMetrics().get( "d2:count" ).count() ).isEqualTo( 2 );
+        assertThat( metrics.slowestRules( 1 ) ).hasSize( 1 );
+
+        metrics.reset();
+
+        assertThat( ruleMetrics.get( "firing_uid" ).evaluatedCount() ).isEqualTo( 0 );
+    }
+
+    @Test
+    public void histogramMustReportPercentilesWithinBucket()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for ( int i = 1; i <= 100; i++ )
+        {
+            histogram.record( i * 1000 );
+        }
+
+        assertThat( histogram.count() ).isEqualTo( 100 );
+        assertThat( histogram.maxNanos() ).isEqualTo( 100000 );
+        assertThat( histogram.meanNanos() ).isEqualTo( 50500 );
+        assertThat( histogram.percentileNanos( 50 ) ).isBetween( 50000L, 100000L );
+        assertThat( histogram.percentileNanos( 100 ) ).isEqualTo( 100000 );
+    }
+}
@@ -0,0 +1,120 @@
+package org.hisp.dhis.rules.models;
+
+/*
+ * Copyright (c) 2004-2021, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith( JUnit4.class )
+public class RuleEffectsDiffTests
+{
+    private static final RuleAction WARNING = RuleActionShowWarning.create( "warning", "#{weight}", "weight" );
+
+    private static final RuleAction HIDE = RuleActionHideField.create( null, "height" );
+
+    private static final RuleAction ERROR = RuleActionShowError.create( "error", null, "weight" );
+
+    @Test
+    public void effectsMustBeMatchedByRuleAndAction()
+    {
+        RuleEffect warning = RuleEffect.create( "rule_one", WARNING, "40" );
+        RuleEffect hide = RuleEffect.create( "rule_one", HIDE );
+        RuleEffect error = RuleEffect.create( "rule_two", ERROR );
+        RuleEffect changedWarning = RuleEffect.create( "rule_one", WARNING, "60" );
+        RuleEffect otherRuleHide = RuleEffect.create( "rule_two", HIDE );
+
+        RuleEffectsDiff diff = RuleEffectsDiff.between( Arrays.asList( warning, hide, error ),
+            Arrays.asList( otherRuleHide, hide, changedWarning ) );
+
+        assertThat( diff.added() ).containsExactly( otherRuleHide );
+        assertThat( diff.removed() ).containsExactly( error );
+        assertThat( diff.changed() ).containsExactly( changedWarning );
+        assertThat( diff.isEmpty() ).isFalse();
+    }
+
+    @Test
+    public void equalEffectsMustBeMatchedInOrder()
+    {
+        RuleEffect first = RuleEffect.create( "rule", WARNING, "1" );
+        RuleEffect second = RuleEffect.create( "rule", WARNING, "2" );
+        RuleEffect third = RuleEffect.create( "rule", WARNING, "3" );
+
+        RuleEffectsDiff diff = RuleEffectsDiff.between( Arrays.asList( first, second ), Arrays.asList( first ) );
+
+        assertThat( diff.removed() ).containsExactly( second );
+        assertThat( diff.changed() ).isEmpty();
+
+        diff = RuleEffectsDiff.between( Arrays.asList( first, second ), Arrays.asList( first, third, second ) );
+
+        assertThat( diff.changed() ).containsExactly( third );
+        assertThat( diff.added() ).containsExactly( second );
+        assertThat( diff.removed() ).isEmpty();
+    }
+
+    @Test
+    public void equalEffectsMustResultInEmptyDiff()
+    {
+        RuleEffect warning = RuleEffect.create( "rule", WARNING, "40" );
+
+        assertThat( RuleEffectsDiff.between( Arrays.asList( warning ), Arrays.asList(
+            RuleEffect.create( "rule", WARNING, "40" ) ) ).isEmpty() ).isTrue();
+        assertThat( RuleEffectsDiff.between( Collections.<RuleEffect>emptyList(),
+            Collections.<RuleEffect>emptyList() ) ).isSameAs( RuleEffectsDiff.empty() );
+    }
+
+    @Test
+    public void trackerObjectsMustBeDiffedSeparately()
+    {
+        RuleEffect warning = RuleEffect.create( "rule", WARNING, "40" );
+        RuleEffect hide = RuleEffect.create( "rule", HIDE );
+
+        Map<String, RuleEffectsDiff> diffs = RuleEffectsDiff.byTrackerObject(
+            Arrays.asList(
+                new RuleEffects( TrackerObjectType.ENROLLMENT, "enrollment", Arrays.asList( warning ) ),
+                new RuleEffects( TrackerObjectType.EVENT, "unchanged", Arrays.asList( hide ) ),
+                new RuleEffects( TrackerObjectType.EVENT, "deleted", Arrays.asList( hide ) ) ),
+            Arrays.asList(
+                new RuleEffects( TrackerObjectType.ENROLLMENT, "enrollment",
+                    Arrays.asList( RuleEffect.create( "rule", WARNING, "60" ) ) ),
+                new RuleEffects( TrackerObjectType.EVENT, "unchanged", Arrays.asList( hide ) ),
+                new RuleEffects( TrackerObjectType.EVENT, "created", Arrays.asList( warning ) ) ) );
+
+        assertThat( diffs.keySet() ).containsExactly( "enrollment", "created", "deleted" );
+        assertThat( diffs.get( "enrollment" ).changed() ).hasSize( 1 );
+        assertThat( diffs.get( "created" ).added() ).containsExactly( warning );
+        assertThat( diffs.get( "deleted" ).removed() ).containsExactly( hide );
+    }
+}
@@ -88,13 +88,29 @@ public class RuleEnrollmentTests
         RuleEnrollment ruleEnrollment = RuleEnrollment.create( "test_enrollment",
             new Date(), new Date(), RuleEnrollment.Status.ACTIVE, "", null, attributeValues, "" );
 
-        // mutating source array
+        // mutating source array, which the enrollment has copied
         attributeValues.add( ruleAttributeValueThree );
 
-        assertThat( ruleEnrollment.attributeValues().size() ).isEqualTo( 3 );
+        assertThat( ruleEnrollment.attributeValues().size() ).isEqualTo( 2 );
         assertThat( ruleEnrollment.attributeValues().get( 0 ) ).isEqualTo( ruleAttributeValueOne );
         assertThat( ruleEnrollment.attributeValues().get( 1 ) ).isEqualTo( ruleAttributeValueTwo );
 
         ruleEnrollment.attributeValues().clear();
     }
+
+    @Test
+    public void attributeValueIndexShouldKeepLastValueOfAttribute()
+    {
+        RuleAttributeValue first = RuleAttributeValue.create( "test_attribute", "first" );
+        RuleAttributeValue last = RuleAttributeValue.create( "test_attribute", "last" );
+        List<RuleAttributeValue> attributeValues = new ArrayList<>( Arrays.asList( first, last ) );
+
+        RuleEnrollment ruleEnrollment = RuleEnrollment.create( "test_enrollment", new Date(), new Date(),
+            RuleEnrollment.Status.ACTIVE, "", "", attributeValues, "" );
+        attributeValues.clear();
+
+        assertThat( ruleEnrollment.attributeValueIndex() ).hasSize( 1 );
+        assertThat( ruleEnrollment.attributeValueIndex().get( "test_attribute" ) ).isSameAs( last );
+        assertThat( ruleEnrollment.attributeValueIndex() ).isSameAs( ruleEnrollment.attributeValueIndex() );
+    }
 }
@@ -127,4 +127,21 @@ public class RuleEventTests
         assertThat( ruleEvents.get( 0 ).event() ).isEqualTo( "test_event_two" );
         assertThat( ruleEvents.get( 1 ).event() ).isEqualTo( "test_event_one" );
     }
+
+    @Test
+    public void dataValueIndexShouldKeepLastValueOfDataElement()
+    {
+        Date eventDate = new Date();
+        RuleDataValue first = RuleDataValue.create( eventDate, "test_program_stage", "test_dataelement", "first" );
+        RuleDataValue last = RuleDataValue.create( eventDate, "test_program_stage", "test_dataelement", "last" );
+        RuleDataValue other = RuleDataValue.create( eventDate, "test_program_stage", "other_dataelement", "other" );
+
+        RuleEvent ruleEvent = RuleEvent.create( "test_event_uid", "test_program_stage", RuleEvent.Status.ACTIVE,
+            eventDate, eventDate, "", null, Arrays.asList( first, other, last ), "", null );
+
+        assertThat( ruleEvent.dataValueIndex() ).hasSize( 2 );
+        assertThat( ruleEvent.dataValueIndex().get( "test_dataelement" ) ).isSameAs( last );
+        assertThat( ruleEvent.dataValueIndex().get( "other_dataelement" ) ).isSameAs( other );
+        assertThat( ruleEvent.dataValueIndex() ).isSameAs( ruleEvent.dataValueIndex() );
+    }
 }